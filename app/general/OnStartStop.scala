@@ -1,12 +1,16 @@
 package general
 
 import akka.actor.ActorSystem
+import batch.BatchSessionStore
+import cluster.ClusterBackplane
 import daos.common.LoginAttemptDao
-import general.common.{Common, JatosUpdater}
+import general.common.{Common, EntityCache, JatosUpdater, ReadReplicas, ResultCounterRepair, ResultSearchIndex,
+  ResultUploadsSweeper}
 import migrations.common.{ComponentResultMigration, MySQLCharsetFix, StudyLinkMigration}
 import play.api.Logger
 import play.api.inject.ApplicationLifecycle
 import play.db.jpa.JPAApi
+import services.gui.{ResultArchiveService, ResultDeletionService, StudyStatisticsService}
 import services.publix.GroupCleaner
 
 import java.io.File
@@ -33,7 +37,17 @@ class OnStartStop @Inject()(lifecycle: ApplicationLifecycle,
                             studyLinkMigration: StudyLinkMigration,
                             componentResultMigration: ComponentResultMigration,
                             loginAttemptDao: LoginAttemptDao,
-                            groupCleaner: GroupCleaner) {
+                            groupCleaner: GroupCleaner,
+                            batchSessionStore: BatchSessionStore,
+                            clusterBackplane: ClusterBackplane,
+                            entityCache: EntityCache,
+                            readReplicas: ReadReplicas,
+                            resultCounterRepair: ResultCounterRepair,
+                            studyStatisticsService: StudyStatisticsService,
+                            resultDeletionService: ResultDeletionService,
+                            resultUploadsSweeper: ResultUploadsSweeper,
+                            resultArchiveService: ResultArchiveService,
+                            resultSearchIndex: ResultSearchIndex) {
 
   private val logger = Logger(this.getClass)
 
@@ -46,12 +60,25 @@ class OnStartStop @Inject()(lifecycle: ApplicationLifecycle,
   createDirIfNotExist(Common.getStudyAssetsRootPath)
   if (Common.isStudyLogsEnabled) createDirIfNotExist(Common.getStudyLogsPath)
   if (Common.isResultUploadsEnabled) createDirIfNotExist(Common.getResultUploadsPath)
+  createDirIfNotExist(Common.getResultArchivePath)
+  if (Common.isResultSearchEnabled) createDirIfNotExist(Common.getResultSearchPath)
   createDirIfNotExist(Common.getLogsPath)
   createDirIfNotExist(Common.getTmpPath)
+  createDirIfNotExist(Common.getBatchSessionJournalPath)
   studyLinkMigration.run()
   componentResultMigration.run()
   scheduleLoginAttemptCleaning()
   groupCleaner.start()
+  batchSessionStore.start()
+  clusterBackplane.start()
+  entityCache.start()
+  readReplicas.start()
+  resultCounterRepair.start()
+  studyStatisticsService.start()
+  resultDeletionService.start()
+  resultUploadsSweeper.start()
+  resultArchiveService.start()
+  resultSearchIndex.start()
 
   if (isPortInUse && environment.isProd) {
     // If port is already in use log with Logger or STDOUT
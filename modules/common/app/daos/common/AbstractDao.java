@@ -1,7 +1,9 @@
 package daos.common;
 
 import javax.inject.Singleton;
+import javax.persistence.Query;
 
+import org.hibernate.query.NativeQuery;
 import play.db.jpa.JPAApi;
 
 /**
@@ -37,4 +39,16 @@ public abstract class AbstractDao {
 		jpa.em().flush();
 	}
 
+	/**
+	 * Creates a native UPDATE, INSERT or DELETE query that only changes the given tables. Hibernate doesn't know which
+	 * tables a native query changes and would otherwise evict the whole second-level cache (see EntityCache).
+	 */
+	protected Query createNativeUpdate(String sql, String... tables) {
+		NativeQuery<?> query = jpa.em().createNativeQuery(sql).unwrap(NativeQuery.class);
+		for (String table : tables) {
+			query.addSynchronizedQuerySpace(table);
+		}
+		return query;
+	}
+
 }
@@ -1,12 +1,18 @@
 package daos.common;
 
+import general.common.EntityCache;
 import models.common.Batch;
+import org.hibernate.jpa.QueryHints;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * DAO of Batch entity
@@ -17,6 +23,11 @@ import java.util.Optional;
 @Singleton
 public class BatchDao extends AbstractDao {
 
+    /**
+     * Max number of rows in one multi-row INSERT
+     */
+    private static final int INSERT_CHUNK_SIZE = 500;
+
     @Inject
     BatchDao(JPAApi jpa) {
         super(jpa);
@@ -38,10 +49,34 @@ public class BatchDao extends AbstractDao {
         return jpa.em().find(Batch.class, id);
     }
 
+    /**
+     * Like {@link #findById(Long)} but if bypassCache is true the batch is read from the database and not from the
+     * second-level cache. Needed for the batch session data since it's changed with bulk updates that other JATOS
+     * nodes don't notice.
+     */
+    public Batch findById(Long id, boolean bypassCache) {
+        return bypassCache ? jpa.em().find(Batch.class, id, EntityCache.BYPASS) : findById(id);
+    }
+
+    /**
+     * Reloads the batch's state from the database (e.g. the batch session data)
+     */
+    public void refresh(Batch batch) {
+        super.refresh(batch);
+    }
+
+    /**
+     * Finds the batch and locks its row until the end of the transaction (SELECT ... FOR UPDATE)
+     */
+    public Batch findByIdForUpdate(Long id) {
+        return jpa.em().find(Batch.class, id, LockModeType.PESSIMISTIC_WRITE);
+    }
+
     public Optional<Batch> findByUuid(String uuid) {
         String queryStr = "SELECT s FROM Batch s WHERE " + "s.uuid=:uuid";
         List<Batch> batchList = jpa.em().createQuery(queryStr, Batch.class)
                 .setParameter("uuid", uuid)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
                 .setMaxResults(1)
                 .getResultList();
         return !batchList.isEmpty() ? Optional.of(batchList.get(0)) : Optional.empty();
@@ -71,6 +106,31 @@ public class BatchDao extends AbstractDao {
         return updated == 1 ? expectedVersion + 1 : null;
     }
 
+    /**
+     * Writes a snapshot of an in-memory batch session: sets batchSessionData and batchSessionVersion to the given
+     * values, but only if the stored version still matches the expectedVersion (compare-and-set).
+     *
+     * @return True if the update succeeded (exactly one row updated), false if the version mismatched or the batch
+     * doesn't exist (anymore)
+     */
+    public boolean updateBatchSessionSnapshot(Long batchId, Long expectedVersion, Long newVersion,
+            String sessionData) {
+        String query =
+                "UPDATE Batch b " +
+                        "SET b.batchSessionData = :sessionData, " +
+                        "    b.batchSessionVersion = :newVersion " +
+                        "WHERE b.id = :id " +
+                        "  AND b.batchSessionVersion = :expectedVersion";
+
+        int updated = jpa.em().createQuery(query)
+                .setParameter("sessionData", sessionData)
+                .setParameter("newVersion", newVersion)
+                .setParameter("id", batchId)
+                .setParameter("expectedVersion", expectedVersion)
+                .executeUpdate();
+        return updated == 1;
+    }
+
     /**
      * Returns the number of Workers belonging to the given Batch.
      */
@@ -93,15 +153,36 @@ public class BatchDao extends AbstractDao {
     }
 
     public void addWorkerToBatch(Long batchId, Long workerId) {
-        jpa.em().createNativeQuery("INSERT INTO BatchWorkerMap (batch_id, worker_id) "
-                        + "VALUES (:batchId, :workerId)")
+        createNativeUpdate("INSERT INTO BatchWorkerMap (batch_id, worker_id) "
+                        + "VALUES (:batchId, :workerId)", "BatchWorkerMap")
                 .setParameter("batchId", batchId)
                 .setParameter("workerId", workerId)
                 .executeUpdate();
     }
 
+    /**
+     * Adds many workers to the batch with multi-row INSERTs (in chunks of {@link #INSERT_CHUNK_SIZE}). Unlike calling
+     * {@link #addWorkerToBatch} for each worker, this doesn't cost one round-trip (and one flush) per worker.
+     */
+    public void addWorkersToBatch(Long batchId, List<Long> workerIds) {
+        for (int from = 0; from < workerIds.size(); from += INSERT_CHUNK_SIZE) {
+            List<Long> chunk = workerIds.subList(from, Math.min(from + INSERT_CHUNK_SIZE, workerIds.size()));
+            String values = IntStream.range(0, chunk.size())
+                    .mapToObj(i -> "(:batchId, :workerId" + i + ")")
+                    .collect(Collectors.joining(", "));
+            Query query = createNativeUpdate("INSERT INTO BatchWorkerMap (batch_id, worker_id) VALUES " + values,
+                    "BatchWorkerMap")
+                    .setParameter("batchId", batchId);
+            for (int i = 0; i < chunk.size(); i++) {
+                query.setParameter("workerId" + i, chunk.get(i));
+            }
+            query.executeUpdate();
+        }
+    }
+
     public void removeWorkerFromBatch(Long batchId, Long workerId) {
-        jpa.em().createNativeQuery("DELETE FROM BatchWorkerMap WHERE batch_id = :batchId AND worker_id = :workerId")
+        createNativeUpdate("DELETE FROM BatchWorkerMap WHERE batch_id = :batchId AND worker_id = :workerId",
+                        "BatchWorkerMap")
                 .setParameter("batchId", batchId)
                 .setParameter("workerId", workerId)
                 .executeUpdate();
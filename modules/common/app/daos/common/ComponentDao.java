@@ -2,6 +2,7 @@ package daos.common;
 
 import models.common.Component;
 import models.common.Study;
+import org.hibernate.jpa.QueryHints;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
@@ -55,6 +56,7 @@ public class ComponentDao extends AbstractDao {
         String queryStr = "SELECT c FROM Component c WHERE c.uuid=:uuid";
         List<Component> componentList = jpa.em().createQuery(queryStr, Component.class)
                 .setParameter("uuid", uuid)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
                 .setMaxResults(1)
                 .getResultList();
         return !componentList.isEmpty() ? Optional.of(componentList.get(0)) : Optional.empty();
@@ -69,6 +71,7 @@ public class ComponentDao extends AbstractDao {
         List<Component> componentList = jpa.em().createQuery(queryStr, Component.class)
                 .setParameter("uuid", uuid)
                 .setParameter("study", study)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
                 .setMaxResults(1)
                 .getResultList();
         return !componentList.isEmpty() ? Optional.of(componentList.get(0)) : Optional.empty();
@@ -3,18 +3,19 @@ package daos.common;
 import general.common.Common;
 import models.common.Component;
 import models.common.ComponentResult;
-import models.common.Study;
 import play.Logger;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import java.sql.Clob;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -28,9 +29,12 @@ public class ComponentResultDao extends AbstractDao {
 
     private static final Logger.ALogger LOGGER = Logger.of(ComponentResultDao.class);
 
+    private final ResultCounterDao resultCounterDao;
+
     @Inject
-    ComponentResultDao(JPAApi jpa) {
+    ComponentResultDao(JPAApi jpa, ResultCounterDao resultCounterDao) {
         super(jpa);
+        this.resultCounterDao = resultCounterDao;
     }
 
     public void create(ComponentResult componentResult) {
@@ -45,22 +49,24 @@ public class ComponentResultDao extends AbstractDao {
      * Overwrite data in 'data' fields (data, dataShort, dataSize)
      */
     public void replaceData(Long id, String data) {
-        jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+        createNativeUpdate("UPDATE ComponentResult cr " +
                         "SET cr.data = :data, " +
                         "cr.dataShort = SUBSTR(:data, 1, 1000), " +
                         "cr.dataSize = LENGTH(:data) " +
-                        "WHERE cr.id = :id")
+                        "WHERE cr.id = :id", "ComponentResult")
                 .setParameter("id", id)
                 .setParameter("data", data)
                 .executeUpdate();
+        refreshCounters(id);
     }
 
     public void purgeData(Long id) {
-        jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+        createNativeUpdate("UPDATE ComponentResult cr " +
                         "SET cr.data = NULL, cr.dataShort = NULL, cr.dataSize = 0 " +
-                        "WHERE cr.id = :id")
+                        "WHERE cr.id = :id", "ComponentResult")
                 .setParameter("id", id)
                 .executeUpdate();
+        refreshCounters(id);
     }
 
     /**
@@ -68,11 +74,11 @@ public class ComponentResultDao extends AbstractDao {
      */
     public void appendData(Long id, String data) {
         if (Common.usesMysql()) {
-            jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+            createNativeUpdate("UPDATE ComponentResult cr " +
                             "SET cr.data = CONCAT(COALESCE(cr.data, ''), :data), " +
                             "cr.dataShort = SUBSTR(cr.data, 1, 1000), " +
                             "cr.dataSize = LENGTH(cr.data) " +
-                            "WHERE cr.id = :id")
+                            "WHERE cr.id = :id", "ComponentResult")
                     .setParameter("id", id)
                     .setParameter("data", data)
                     .executeUpdate();
@@ -80,15 +86,24 @@ public class ComponentResultDao extends AbstractDao {
             // H2 can't handle cr.data (it contains the old value)
             String oldData = getData(id);
             String newData = oldData != null ? oldData + data : data;
-            jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+            createNativeUpdate("UPDATE ComponentResult cr " +
                             "SET cr.data = :newData, " +
                             "cr.dataShort = SUBSTR(:newData, 1, 1000), " +
                             "cr.dataSize = LENGTH(:newData) " +
-                            "WHERE cr.id = :id")
+                            "WHERE cr.id = :id", "ComponentResult")
                     .setParameter("id", id)
                     .setParameter("newData", newData)
                     .executeUpdate();
         }
+        refreshCounters(id);
+    }
+
+    /**
+     * The data size changed: mark the StudyResult to get its counters and those of its batch refreshed in the
+     * background (see ResultCounterDao)
+     */
+    private void refreshCounters(Long id) {
+        resultCounterDao.markStudyResult(id);
     }
 
     /**
@@ -98,16 +113,16 @@ public class ComponentResultDao extends AbstractDao {
     public void setDataSizeAndDataShort(Long id) {
         String data = getData(id);
         if (data != null) {
-            jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+            createNativeUpdate("UPDATE ComponentResult cr " +
                             "SET cr.dataShort = SUBSTR(:data, 1, 1000), cr.dataSize = LENGTH(:data) " +
-                            "WHERE cr.id = :id")
+                            "WHERE cr.id = :id", "ComponentResult")
                     .setParameter("id", id)
                     .setParameter("data", data)
                     .executeUpdate();
         } else {
-            jpa.em().createNativeQuery("UPDATE ComponentResult cr " +
+            createNativeUpdate("UPDATE ComponentResult cr " +
                             "SET cr.dataShort = NULL, cr.dataSize = 0 " +
-                            "WHERE cr.id = :id")
+                            "WHERE cr.id = :id", "ComponentResult")
                     .setParameter("id", id)
                     .executeUpdate();
         }
@@ -211,23 +226,6 @@ public class ComponentResultDao extends AbstractDao {
                 .getResultList();
     }
 
-    /**
-     * Returns data size (in Byte) that is occupied by the 'data' field of all component results belonging to the given
-     * study.
-     */
-    public long sizeByStudy(Study study) {
-        if (study.getComponentList().isEmpty()) return 0L;
-        List<Long> componentIds = study.getComponentList().stream()
-                .filter(Objects::nonNull)
-                .map(Component::getId)
-                .collect(Collectors.toList());
-        Number result = (Number) jpa.em().createNativeQuery(
-                        "SELECT SUM(dataSize) FROM ComponentResult WHERE component_id IN :componentIds")
-                .setParameter("componentIds", componentIds)
-                .getSingleResult();
-        return result != null ? result.longValue() : 0L;
-    }
-
     public List<Long> findIdsByComponentIds(List<Long> componentIds) {
         @SuppressWarnings("unchecked")
         List<Object> results = jpa.em()
@@ -328,4 +326,91 @@ public class ComponentResultDao extends AbstractDao {
                 .executeUpdate();
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns the number of ComponentResults that match the given filter
+     */
+    public int countByFilter(ResultFilter filter) {
+        Map<String, Object> params = new HashMap<>();
+        Query query = jpa.em().createQuery("SELECT COUNT(cr) FROM ComponentResult cr JOIN cr.studyResult sr"
+                + where(filter, params));
+        params.forEach(query::setParameter);
+        Number result = (Number) query.getSingleResult();
+        return result != null ? result.intValue() : 0;
+    }
+
+    /**
+     * Returns a page of the ComponentResults that match the given filter, sorted by the filter's sort column
+     */
+    public List<ComponentResult> findByFilter(ResultFilter filter, int first, int max) {
+        Map<String, Object> params = new HashMap<>();
+        // Added 'JOIN FETCH' for performance (loads LAZY-linked StudyResults and their Workers)
+        TypedQuery<ComponentResult> query = jpa.em().createQuery("SELECT cr FROM ComponentResult cr "
+                + "JOIN FETCH cr.studyResult sr LEFT JOIN FETCH sr.worker"
+                + where(filter, params) + orderBy(filter), ComponentResult.class);
+        params.forEach(query::setParameter);
+        return query.setFirstResult(first).setMaxResults(max).getResultList();
+    }
+
+    /**
+     * Returns the IDs of all ComponentResults that match the given filter, ordered by ID
+     */
+    public List<Long> findIdsByFilter(ResultFilter filter) {
+        Map<String, Object> params = new HashMap<>();
+        TypedQuery<Long> query = jpa.em().createQuery("SELECT cr.id FROM ComponentResult cr JOIN cr.studyResult sr"
+                + where(filter, params) + " ORDER BY cr.id", Long.class);
+        params.forEach(query::setParameter);
+        return query.getResultList();
+    }
+
+    private static String where(ResultFilter filter, Map<String, Object> params) {
+        List<String> conditions = filter.studyResultConditions("sr", params);
+        if (filter.getComponentId() != null) {
+            conditions.add("cr.component.id = :componentId");
+            params.put("componentId", filter.getComponentId());
+        }
+        if (!filter.getComponentStates().isEmpty()) {
+            conditions.add("cr.componentState IN :componentStates");
+            params.put("componentStates", filter.getComponentStates());
+        }
+        if (filter.getStartedFrom() != null) {
+            conditions.add("cr.startDate >= :startedFrom");
+            params.put("startedFrom", filter.getStartedFrom());
+        }
+        if (filter.getStartedBefore() != null) {
+            conditions.add("cr.startDate < :startedBefore");
+            params.put("startedBefore", filter.getStartedBefore());
+        }
+        if (filter.getSearch() != null) {
+            String condition = filter.searchCondition(List.of("sr.studyCode", "sr.uuid", "cr.message"), params);
+            Long searchId = filter.getSearchAsId();
+            if (searchId != null) {
+                condition += " OR cr.id = :searchId OR sr.id = :searchId OR sr.worker.id = :searchId";
+                params.put("searchId", searchId);
+            }
+            conditions.add("(" + condition + ")");
+        }
+        String dataQueryCondition = filter.dataQueryCondition("cr.id", params);
+        if (dataQueryCondition != null) conditions.add(dataQueryCondition);
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static String orderBy(ResultFilter filter) {
+        String path;
+        switch (filter.getSortColumn()) {
+            case startDate: path = "cr.startDate"; break;
+            case endDate: path = "cr.endDate"; break;
+            case studyCode: path = "sr.studyCode"; break;
+            case componentState: path = "cr.componentState"; break;
+            case studyResultId: path = "sr.id"; break;
+            case workerId: path = "sr.worker.id"; break;
+            case batchTitle: path = "sr.batch.title"; break;
+            case dataSize: path = "cr.dataSize"; break;
+            case message: path = "cr.message"; break;
+            default: path = "cr.id";
+        }
+        String direction = filter.isAscending() ? " ASC" : " DESC";
+        // The ID as a tiebreaker keeps the pages stable
+        return " ORDER BY " + path + direction + (path.equals("cr.id") ? "" : ", cr.id" + direction);
+    }
+
+}
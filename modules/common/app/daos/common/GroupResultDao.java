@@ -47,6 +47,13 @@ public class GroupResultDao extends AbstractDao {
         return jpa.em().find(GroupResult.class, id);
     }
 
+    /**
+     * Finds the group result and locks its row until the end of the transaction (SELECT ... FOR UPDATE)
+     */
+    public GroupResult findByIdForUpdate(Long id) {
+        return jpa.em().find(GroupResult.class, id, LockModeType.PESSIMISTIC_WRITE);
+    }
+
     public List<GroupResult> findAllByBatch(Batch batch) {
         String queryStr = "SELECT gr FROM GroupResult gr WHERE gr.batch=:batch";
         TypedQuery<GroupResult> query = jpa.em().createQuery(queryStr, GroupResult.class);
@@ -0,0 +1,223 @@
+package daos.common;
+
+import models.common.StudyResult.StudyState;
+import play.Logger;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.TemporalType;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * DAO for the archival of StudyResults (see ResultArchiveService). An archived StudyResult stays in the database as a
+ * stub (with its archivedDate set) while its ComponentResults are removed from the database and kept in an archive
+ * file. Everything is done with native queries: the ComponentResults are read and written with all their columns,
+ * including the result data that isn't part of the entity.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class ResultArchiveDao extends AbstractDao {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultArchiveDao.class);
+
+    /**
+     * Only StudyResults in one of these states are archived: their ComponentResults aren't written to anymore (the
+     * states are stored as their ordinals)
+     */
+    private static final List<Integer> FINAL_STATES = Stream.of(StudyState.FINISHED, StudyState.FAIL,
+            StudyState.ABORTED).map(Enum::ordinal).collect(Collectors.toList());
+
+    /**
+     * All columns of a ComponentResult row as they are stored in an archive file
+     */
+    public static class ArchivedComponentResult {
+        public Long id;
+        public Long componentId;
+        public Integer order;
+        public Integer componentState;
+        public Timestamp startDate;
+        public Timestamp endDate;
+        public String message;
+        public String data;
+        public String dataShort;
+        public Long dataSize;
+        public boolean quotaReached;
+    }
+
+    @Inject
+    ResultArchiveDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    /**
+     * Returns the retention in days of all studies that have one mapped to the study ID
+     */
+    public Map<Long, Integer> findRetentionDaysByStudy() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT s.id, s.resultRetentionDays FROM Study s "
+                        + "WHERE s.resultRetentionDays IS NOT NULL")
+                .getResultList();
+        return results.stream().collect(Collectors.toMap(
+                r -> ((Number) r[0]).longValue(), r -> ((Number) r[1]).intValue()));
+    }
+
+    /**
+     * Returns the IDs of the next (keyset-ordered by ID) non-archived StudyResults of the given study that are in a
+     * final state (FINISHED, FAIL or ABORTED) and were last active before the given time
+     */
+    public List<Long> findIdsToArchive(Long studyId, Timestamp activeBefore, Long afterId, int max) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT sr.id FROM StudyResult sr WHERE sr.study_id = :studyId "
+                        + "AND sr.archivedDate IS NULL AND sr.studyState IN (:finalStates) AND sr.id > :afterId "
+                        + "AND COALESCE(sr.endDate, sr.lastSeenDate, sr.startDate) < :activeBefore ORDER BY sr.id")
+                .setParameter("studyId", studyId)
+                .setParameter("finalStates", FINAL_STATES)
+                .setParameter("afterId", afterId)
+                .setParameter("activeBefore", activeBefore, TemporalType.TIMESTAMP)
+                .setMaxResults(max)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the IDs of all archived StudyResults of the given study
+     */
+    public List<Long> findArchivedIds(Long studyId) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT sr.id FROM StudyResult sr WHERE sr.study_id = :studyId "
+                        + "AND sr.archivedDate IS NOT NULL ORDER BY sr.id")
+                .setParameter("studyId", studyId)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns all ComponentResults of the given StudyResult with all their columns
+     */
+    public List<ArchivedComponentResult> findComponentResults(Long studyResultId) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT cr.id, cr.component_id, cr.componentResultList_order, cr.componentState, "
+                        + "cr.startDate, cr.endDate, cr.message, cr.data, cr.dataShort, cr.dataSize, cr.quotaReached "
+                        + "FROM ComponentResult cr WHERE cr.studyResult_id = :studyResultId "
+                        + "ORDER BY cr.componentResultList_order")
+                .setParameter("studyResultId", studyResultId)
+                .getResultList();
+        return results.stream().map(r -> {
+            ArchivedComponentResult cr = new ArchivedComponentResult();
+            cr.id = ((Number) r[0]).longValue();
+            cr.componentId = r[1] != null ? ((Number) r[1]).longValue() : null;
+            cr.order = r[2] != null ? ((Number) r[2]).intValue() : null;
+            cr.componentState = r[3] != null ? ((Number) r[3]).intValue() : null;
+            cr.startDate = (Timestamp) r[4];
+            cr.endDate = (Timestamp) r[5];
+            cr.message = (String) r[6];
+            cr.data = toString(r[7]);
+            cr.dataShort = toString(r[8]);
+            cr.dataSize = r[9] != null ? ((Number) r[9]).longValue() : null;
+            cr.quotaReached = r[10] instanceof Boolean
+                    ? (Boolean) r[10]
+                    : r[10] != null && ((Number) r[10]).intValue() != 0;
+            return cr;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * MySQL returns text columns as String, H2 as Clob
+     */
+    private static String toString(Object value) {
+        if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            try {
+                return clob.getSubString(1, (int) clob.length());
+            } catch (SQLException e) {
+                LOGGER.error(".toString: Couldn't read Clob", e);
+                return null;
+            }
+        }
+        return (String) value;
+    }
+
+    /**
+     * Turns the given StudyResult into a stub by setting its archivedDate. Returns false if it is already archived or
+     * isn't in a final state (anymore). The row stays locked until the end of the transaction, so a StudyResult is
+     * only archived once (even with several JATOS nodes).
+     */
+    public boolean markArchived(Long studyResultId) {
+        return createNativeUpdate("UPDATE StudyResult SET archivedDate = :now "
+                + "WHERE id = :id AND archivedDate IS NULL AND studyState IN (:finalStates)", "StudyResult")
+                .setParameter("now", new Timestamp(new Date().getTime()), TemporalType.TIMESTAMP)
+                .setParameter("id", studyResultId)
+                .setParameter("finalStates", FINAL_STATES)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * Removes the ComponentResults of the given (archived) StudyResult. Its counters (number of ComponentResults and
+     * data size) stay as they are.
+     */
+    public void removeComponentResults(Long studyResultId) {
+        createNativeUpdate("DELETE FROM ComponentResult WHERE studyResult_id = :id", "ComponentResult")
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+    }
+
+    /**
+     * Turns the given stub back into a usual StudyResult. Returns false if it isn't archived (anymore).
+     */
+    public boolean markRestored(Long studyResultId) {
+        return createNativeUpdate("UPDATE StudyResult SET archivedDate = NULL "
+                + "WHERE id = :id AND archivedDate IS NOT NULL", "StudyResult")
+                .setParameter("id", studyResultId)
+                .executeUpdate() > 0;
+    }
+
+    /**
+     * Puts the given ComponentResults back into the database with their original IDs. ComponentResults of components
+     * that were removed in the meantime are skipped (as if they were removed together with their component) and the
+     * remaining ones are renumbered, so the StudyResult's componentResultList has no gaps.
+     */
+    public void restoreComponentResults(Long studyResultId, List<ArchivedComponentResult> componentResults) {
+        List<ArchivedComponentResult> ordered = componentResults.stream()
+                .sorted(Comparator.comparing((ArchivedComponentResult cr) -> cr.order,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .collect(Collectors.toList());
+        int order = 0;
+        for (ArchivedComponentResult cr : ordered) {
+            int inserted = createNativeUpdate("INSERT INTO ComponentResult (id, studyResult_id, component_id, "
+                    + "componentResultList_order, componentState, startDate, endDate, message, data, dataShort, "
+                    + "dataSize, quotaReached) SELECT :id, :studyResultId, c.id, :order, :componentState, "
+                    + ":startDate, :endDate, :message, :data, :dataShort, :dataSize, :quotaReached "
+                    + "FROM Component c WHERE c.id = :componentId", "ComponentResult")
+                    .setParameter("id", cr.id)
+                    .setParameter("studyResultId", studyResultId)
+                    .setParameter("componentId", cr.componentId)
+                    .setParameter("order", order)
+                    .setParameter("componentState", cr.componentState)
+                    .setParameter("startDate", cr.startDate, TemporalType.TIMESTAMP)
+                    .setParameter("endDate", cr.endDate, TemporalType.TIMESTAMP)
+                    .setParameter("message", cr.message)
+                    .setParameter("data", cr.data)
+                    .setParameter("dataShort", cr.dataShort)
+                    .setParameter("dataSize", cr.dataSize)
+                    .setParameter("quotaReached", cr.quotaReached)
+                    .executeUpdate();
+            if (inserted > 0) order++;
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+package daos.common;
+
+import models.common.Batch;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.workers.MTWorker;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.Query;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * DAO for the denormalized result counters. They spare the GUI from counting results over and over again:
+ * 1) StudyResult's componentResultCount and dataSize (number of ComponentResults and the sum of their data sizes) and
+ * 2) the BatchResultCounter table with the number of StudyResults and the sum of their data sizes per batch and worker
+ * type. The counters of a study are the sum over its batches.
+ * <p>
+ * The counters are changed in the same transaction as the results themselves - except for changes of the result data
+ * during a study run: here the StudyResult is only marked ({@link #markStudyResult}) and its counters are refreshed
+ * later in the background ({@link #refreshMarkedStudyResult}, see ResultCounterRepair). This way submitting result
+ * data doesn't write the counters, especially not the batch's counter that all study runs of a batch share.
+ * Additionally, the counters can be recomputed from the results with {@link #repair}.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class ResultCounterDao extends AbstractDao {
+
+    @Inject
+    ResultCounterDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    /**
+     * Counts a newly created StudyResult in its batch's counter
+     */
+    public void addStudyResult(StudyResult studyResult) {
+        createNativeUpdate("INSERT INTO BatchResultCounter (batch_id, workerType, study_id, resultCount, dataSize) "
+                + "VALUES (:batchId, :workerType, :studyId, 1, 0) "
+                + "ON DUPLICATE KEY UPDATE resultCount = resultCount + 1", "BatchResultCounter")
+                .setParameter("batchId", studyResult.getBatch().getId())
+                .setParameter("workerType", studyResult.getWorkerType())
+                .setParameter("studyId", studyResult.getStudy().getId())
+                .executeUpdate();
+    }
+
+    /**
+     * Removes a StudyResult (and its data size) from its batch's counter. Has to be called before the StudyResult is
+     * removed.
+     */
+    public void removeStudyResult(StudyResult studyResult) {
+        createNativeUpdate("UPDATE BatchResultCounter brc SET brc.resultCount = brc.resultCount - 1, "
+                + "brc.dataSize = brc.dataSize - (SELECT sr.dataSize FROM StudyResult sr WHERE sr.id = :id) "
+                + "WHERE brc.batch_id = :batchId AND brc.workerType = :workerType", "BatchResultCounter")
+                .setParameter("id", studyResult.getId())
+                .setParameter("batchId", studyResult.getBatch().getId())
+                .setParameter("workerType", studyResult.getWorkerType())
+                .executeUpdate();
+    }
+
+    /**
+     * Counts a newly created ComponentResult in its StudyResult's counter
+     */
+    public void addComponentResult(Long studyResultId) {
+        createNativeUpdate("UPDATE StudyResult sr SET sr.componentResultCount = sr.componentResultCount + 1 "
+                + "WHERE sr.id = :id", "StudyResult")
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+    }
+
+    /**
+     * Marks the StudyResult of the given ComponentResult: its counters have to be refreshed because the data of the
+     * ComponentResult changed. Writes only the mark of this StudyResult.
+     */
+    public void markStudyResult(Long componentResultId) {
+        Object studyResultId = jpa.em()
+                .createNativeQuery("SELECT cr.studyResult_id FROM ComponentResult cr WHERE cr.id = :id")
+                .setParameter("id", componentResultId)
+                .getSingleResult();
+        if (studyResultId == null) return;
+        createNativeUpdate("INSERT INTO ResultCounterRefresh (studyResult_id) VALUES (:id) "
+                + "ON DUPLICATE KEY UPDATE studyResult_id = studyResult_id", "ResultCounterRefresh")
+                .setParameter("id", ((Number) studyResultId).longValue())
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the IDs of up to max marked StudyResults (see {@link #markStudyResult})
+     */
+    public List<Long> findMarkedStudyResultIds(int max) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT rcr.studyResult_id FROM ResultCounterRefresh rcr "
+                        + "ORDER BY rcr.studyResult_id")
+                .setMaxResults(max)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Removes the mark of the given StudyResult and refreshes its counters. Deleting the mark locks it: if another
+     * transaction (e.g. on another JATOS node) refreshes the same StudyResult concurrently, only one of them gets the
+     * mark and the other one does nothing. Returns false if the mark was already gone.
+     */
+    public boolean refreshMarkedStudyResult(Long studyResultId) {
+        int removed = createNativeUpdate("DELETE FROM ResultCounterRefresh WHERE studyResult_id = :id",
+                "ResultCounterRefresh")
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+        if (removed == 0) return false;
+        refreshStudyResult(studyResultId);
+        return true;
+    }
+
+    /**
+     * Recomputes the counters of the given StudyResult from its ComponentResults and adds the change of its data size
+     * to its batch's counter. Has to be called after ComponentResults were removed or their data changed. Does nothing
+     * if the StudyResult doesn't exist (anymore) or is archived (it keeps its counters, like in {@link #repair}). The
+     * StudyResult's row is locked before its old data size is read, so concurrent refreshes of the same StudyResult
+     * don't add the same change twice.
+     */
+    public void refreshStudyResult(Long studyResultId) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT sr.dataSize, sr.batch_id, sr.worker_id FROM StudyResult sr "
+                        + "WHERE sr.id = :id FOR UPDATE")
+                .setParameter("id", studyResultId)
+                .getResultList();
+        if (results.isEmpty()) return;
+        Object[] before = results.get(0);
+        createNativeUpdate("UPDATE StudyResult sr SET "
+                + "sr.componentResultCount = (SELECT COUNT(*) FROM ComponentResult cr WHERE cr.studyResult_id = sr.id), "
+                + "sr.dataSize = (SELECT COALESCE(SUM(cr.dataSize), 0) FROM ComponentResult cr "
+                + "WHERE cr.studyResult_id = sr.id) "
+                + "WHERE sr.id = :id AND sr.archivedDate IS NULL", "StudyResult", "ComponentResult")
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+        Number after = (Number) jpa.em()
+                .createNativeQuery("SELECT sr.dataSize FROM StudyResult sr WHERE sr.id = :id")
+                .setParameter("id", studyResultId)
+                .getSingleResult();
+
+        long delta = after.longValue() - ((Number) before[0]).longValue();
+        if (delta == 0 || before[1] == null || before[2] == null) return;
+        createNativeUpdate("UPDATE BatchResultCounter brc SET brc.dataSize = brc.dataSize + :delta "
+                + "WHERE brc.batch_id = :batchId "
+                + "AND brc.workerType = (SELECT w.workerType FROM Worker w WHERE w.id = :workerId)",
+                "BatchResultCounter")
+                .setParameter("delta", delta)
+                .setParameter("batchId", ((Number) before[1]).longValue())
+                .setParameter("workerId", ((Number) before[2]).longValue())
+                .executeUpdate();
+    }
+
+    /**
+     * Removes the counters of the given batch. Its StudyResults have to be removed already.
+     */
+    public void removeByBatch(Batch batch) {
+        createNativeUpdate("DELETE FROM BatchResultCounter WHERE batch_id = :batchId", "BatchResultCounter")
+                .setParameter("batchId", batch.getId())
+                .executeUpdate();
+    }
+
+    /**
+     * Recomputes the counters of all StudyResults of the given batch and the batch's counters from the results.
+     * Archived StudyResults keep their counters since their ComponentResults are in the archive files.
+     */
+    public void repair(Long batchId) {
+        createNativeUpdate("UPDATE StudyResult sr SET "
+                + "sr.componentResultCount = (SELECT COUNT(*) FROM ComponentResult cr WHERE cr.studyResult_id = sr.id), "
+                + "sr.dataSize = (SELECT COALESCE(SUM(cr.dataSize), 0) FROM ComponentResult cr "
+                + "WHERE cr.studyResult_id = sr.id) "
+                + "WHERE sr.batch_id = :batchId AND sr.archivedDate IS NULL", "StudyResult", "ComponentResult")
+                .setParameter("batchId", batchId)
+                .executeUpdate();
+        createNativeUpdate("DELETE FROM BatchResultCounter WHERE batch_id = :batchId", "BatchResultCounter")
+                .setParameter("batchId", batchId)
+                .executeUpdate();
+        createNativeUpdate("INSERT INTO BatchResultCounter (batch_id, workerType, study_id, resultCount, dataSize) "
+                + "SELECT sr.batch_id, w.workerType, sr.study_id, COUNT(*), SUM(sr.dataSize) "
+                + "FROM StudyResult sr JOIN Worker w ON sr.worker_id = w.id WHERE sr.batch_id = :batchId "
+                + "GROUP BY sr.batch_id, w.workerType, sr.study_id", "BatchResultCounter")
+                .setParameter("batchId", batchId)
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the IDs of all batches (e.g. to repair their counters one by one)
+     */
+    public List<Long> findAllBatchIds() {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em().createNativeQuery("SELECT b.id FROM Batch b").getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of StudyResults of the given study
+     */
+    public int countByStudy(Study study) {
+        Number result = (Number) jpa.em()
+                .createNativeQuery("SELECT SUM(brc.resultCount) FROM BatchResultCounter brc "
+                        + "WHERE brc.study_id = :studyId")
+                .setParameter("studyId", study.getId())
+                .getSingleResult();
+        return result != null ? result.intValue() : 0;
+    }
+
+    /**
+     * Returns the data size (in Byte) of all ComponentResults of the given study
+     */
+    public long dataSizeByStudy(Study study) {
+        Number result = (Number) jpa.em()
+                .createNativeQuery("SELECT SUM(brc.dataSize) FROM BatchResultCounter brc WHERE brc.study_id = :studyId")
+                .setParameter("studyId", study.getId())
+                .getSingleResult();
+        return result != null ? result.longValue() : 0L;
+    }
+
+    /**
+     * Returns the number of StudyResults of all studies (that have any) mapped to the study ID
+     */
+    public Map<Long, Integer> countByStudies() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT brc.study_id, SUM(brc.resultCount) FROM BatchResultCounter brc "
+                        + "GROUP BY brc.study_id")
+                .getResultList();
+        return results.stream().collect(Collectors.toMap(
+                r -> ((Number) r[0]).longValue(), r -> ((Number) r[1]).intValue()));
+    }
+
+    /**
+     * Returns the data size (in Byte) of all ComponentResults of all studies (that have any) mapped to the study ID
+     */
+    public Map<Long, Long> dataSizeByStudies() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT brc.study_id, SUM(brc.dataSize) FROM BatchResultCounter brc "
+                        + "GROUP BY brc.study_id")
+                .getResultList();
+        return results.stream().collect(Collectors.toMap(
+                r -> ((Number) r[0]).longValue(), r -> ((Number) r[1]).longValue()));
+    }
+
+    /**
+     * Returns the number of StudyResults of the given batch but excludes results from the given
+     * workerTypeToBeExcluded.
+     */
+    public int countByBatch(Batch batch, String workerTypeToBeExcluded) {
+        Number result = (Number) jpa.em()
+                .createNativeQuery("SELECT SUM(brc.resultCount) FROM BatchResultCounter brc "
+                        + "WHERE brc.batch_id = :batchId AND brc.workerType <> :workerType")
+                .setParameter("batchId", batch.getId())
+                .setParameter("workerType", workerTypeToBeExcluded)
+                .getSingleResult();
+        return result != null ? result.intValue() : 0;
+    }
+
+    /**
+     * Returns the number of StudyResults of the given batch and worker type. If the worker type is 'MT' it
+     * additionally counts the 'MTSandbox' results.
+     */
+    public int countByBatchAndWorkerType(Batch batch, String workerType) {
+        Query query;
+        if (workerType.equals(MTWorker.WORKER_TYPE)) {
+            query = jpa.em().createNativeQuery("SELECT SUM(brc.resultCount) FROM BatchResultCounter brc "
+                            + "WHERE brc.batch_id = :batchId AND brc.workerType LIKE 'MT%'")
+                    .setParameter("batchId", batch.getId());
+        } else {
+            query = jpa.em().createNativeQuery("SELECT SUM(brc.resultCount) FROM BatchResultCounter brc "
+                            + "WHERE brc.batch_id = :batchId AND brc.workerType = :workerType")
+                    .setParameter("batchId", batch.getId())
+                    .setParameter("workerType", workerType);
+        }
+        Number result = (Number) query.getSingleResult();
+        return result != null ? result.intValue() : 0;
+    }
+
+}
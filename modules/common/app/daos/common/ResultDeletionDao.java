@@ -0,0 +1,316 @@
+package daos.common;
+
+import models.common.GroupResult;
+import models.common.ResultDeletionJob;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * DAO for the set-based removal of StudyResults (see ResultDeletionService): the ResultDeletionJob entity, its
+ * remaining StudyResults (table ResultDeletionJobItem) and the queue of result upload dirs that still have to be
+ * removed from the disk (table ResultUploadsRemoval, see ResultUploadsSweeper).
+ * <p>
+ * Instead of loading and removing each result as an entity, the results are removed with native bulk statements in
+ * chunks. Everything that the entities would have done on removal is done set-based too: the result counters, the
+ * GroupResults' member counts and the order column of the workers' study result lists.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class ResultDeletionDao extends AbstractDao {
+
+    @Inject
+    ResultDeletionDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    public void create(ResultDeletionJob job) {
+        persist(job);
+    }
+
+    public ResultDeletionJob findById(Long id) {
+        return jpa.em().find(ResultDeletionJob.class, id);
+    }
+
+    /**
+     * Returns the IDs of all jobs that are queued or running (e.g. to resume them after a restart) in the order of
+     * their creation
+     */
+    public List<Long> findUnfinishedJobIds() {
+        return jpa.em().createQuery("SELECT j.id FROM ResultDeletionJob j WHERE j.state IN (:states) ORDER BY j.id",
+                        Long.class)
+                .setParameter("states", List.of(ResultDeletionJob.State.QUEUED, ResultDeletionJob.State.RUNNING))
+                .getResultList();
+    }
+
+    /**
+     * Returns the IDs of the studies that the given StudyResults belong to. IDs that don't point to a StudyResult are
+     * ignored.
+     */
+    public Set<Long> findStudyIds(List<Long> studyResultIds) {
+        if (studyResultIds.isEmpty()) return new HashSet<>();
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT DISTINCT sr.study_id FROM StudyResult sr WHERE sr.id IN (:ids)")
+                .setParameter("ids", studyResultIds)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toSet());
+    }
+
+    /**
+     * Adds the given StudyResults to the job. IDs that don't point to a StudyResult are ignored.
+     *
+     * @return Number of added StudyResults
+     */
+    public int addItems(Long jobId, List<Long> studyResultIds) {
+        if (studyResultIds.isEmpty()) return 0;
+        return createNativeUpdate("INSERT INTO ResultDeletionJobItem (job_id, studyResult_id) "
+                + "SELECT :jobId, sr.id FROM StudyResult sr WHERE sr.id IN (:ids)", "ResultDeletionJobItem")
+                .setParameter("jobId", jobId)
+                .setParameter("ids", studyResultIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Claims the job for this JATOS node: a queued job or a running job without progress since the given time (its node
+     * was probably stopped). Prevents that two nodes remove the same results. The claim token identifies this run of
+     * the job in the later statements (see {@link #renewClaim}).
+     *
+     * @return true if the job was claimed
+     */
+    public boolean claim(Long jobId, String claimToken, Timestamp noProgressSince) {
+        return createNativeUpdate("UPDATE ResultDeletionJob SET state = :running, claimToken = :claimToken, "
+                + "updated = :now WHERE id = :jobId "
+                + "AND (state = :queued OR (state = :running AND updated < :noProgressSince))", "ResultDeletionJob")
+                .setParameter("running", ResultDeletionJob.State.RUNNING.name())
+                .setParameter("queued", ResultDeletionJob.State.QUEUED.name())
+                .setParameter("claimToken", claimToken)
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .setParameter("noProgressSince", noProgressSince)
+                .setParameter("jobId", jobId)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Renews the claim of a running job at the beginning of a chunk's transaction (sets the time of the last
+     * progress). The job's row stays locked until the end of the transaction, so another node can't take the job over
+     * while a chunk is removed.
+     *
+     * @return false if the claim is lost, e.g. another node took the job over after this node was stalled
+     */
+    public boolean renewClaim(Long jobId, String claimToken) {
+        return createNativeUpdate("UPDATE ResultDeletionJob SET updated = :now "
+                + "WHERE id = :jobId AND state = :running AND claimToken = :claimToken", "ResultDeletionJob")
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .setParameter("jobId", jobId)
+                .setParameter("running", ResultDeletionJob.State.RUNNING.name())
+                .setParameter("claimToken", claimToken)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Sets the state of the job - if this run of the job still has the claim
+     */
+    public void setState(Long jobId, String claimToken, ResultDeletionJob.State state, String error) {
+        createNativeUpdate("UPDATE ResultDeletionJob SET state = :state, error = :error, updated = :now "
+                + "WHERE id = :jobId AND claimToken = :claimToken", "ResultDeletionJob")
+                .setParameter("state", state.name())
+                .setParameter("error", error)
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .setParameter("jobId", jobId)
+                .setParameter("claimToken", claimToken)
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the next chunk of StudyResult IDs of the job. The IDs are keyset-ordered from the highest to the lowest:
+     * newer results are usually at the end of their worker's study result list and removing them leaves no gaps that
+     * have to be renumbered.
+     */
+    public List<Long> findNextChunk(Long jobId, int chunkSize) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT i.studyResult_id FROM ResultDeletionJobItem i WHERE i.job_id = :jobId "
+                        + "ORDER BY i.studyResult_id DESC")
+                .setParameter("jobId", jobId)
+                .setMaxResults(chunkSize)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Marks the given StudyResults of the job as done and adds them to the job's progress
+     */
+    public void chunkDone(Long jobId, List<Long> studyResultIds) {
+        createNativeUpdate("DELETE FROM ResultDeletionJobItem WHERE job_id = :jobId AND studyResult_id IN (:ids)",
+                "ResultDeletionJobItem")
+                .setParameter("jobId", jobId)
+                .setParameter("ids", studyResultIds)
+                .executeUpdate();
+        createNativeUpdate("UPDATE ResultDeletionJob SET deleted = deleted + :deleted, updated = :now "
+                + "WHERE id = :jobId", "ResultDeletionJob")
+                .setParameter("deleted", studyResultIds.size())
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .setParameter("jobId", jobId)
+                .executeUpdate();
+    }
+
+    /**
+     * Removes the given StudyResults with all their ComponentResults with bulk statements. Updates the result
+     * counters, the member counts of the StudyResults' GroupResults (and removes them if they are finished and have no
+     * members anymore) and renumbers the workers' study result lists. The StudyResults' upload dirs are queued for
+     * removal. IDs that don't point to a StudyResult (anymore) are ignored.
+     *
+     * @return Number of removed StudyResults
+     */
+    public int removeStudyResults(List<Long> ids) {
+        if (ids.isEmpty()) return 0;
+        subtractFromResultCounters(ids);
+        Set<Long> groupResultIds = findGroupResultIds(ids);
+        Map<Long, Integer> firstOrderByWorker = findFirstOrderByWorker(ids);
+
+        createNativeUpdate("INSERT INTO ResultUploadsRemoval (studyResult_id, created) "
+                + "SELECT sr.id, :now FROM StudyResult sr WHERE sr.id IN (:ids) "
+                + "AND sr.id NOT IN (SELECT r.studyResult_id FROM ResultUploadsRemoval r)", "ResultUploadsRemoval")
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .setParameter("ids", ids)
+                .executeUpdate();
+        createNativeUpdate("DELETE FROM ComponentResult WHERE studyResult_id IN (:ids)", "ComponentResult")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        int removed = createNativeUpdate("DELETE FROM StudyResult WHERE id IN (:ids)", "StudyResult")
+                .setParameter("ids", ids)
+                .executeUpdate();
+
+        updateOrRemoveGroupResults(groupResultIds);
+        renumberStudyResultLists(firstOrderByWorker);
+        return removed;
+    }
+
+    private void subtractFromResultCounters(List<Long> ids) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> groups = jpa.em()
+                .createNativeQuery("SELECT sr.batch_id, w.workerType, COUNT(*), COALESCE(SUM(sr.dataSize), 0) "
+                        + "FROM StudyResult sr JOIN Worker w ON sr.worker_id = w.id WHERE sr.id IN (:ids) "
+                        + "GROUP BY sr.batch_id, w.workerType")
+                .setParameter("ids", ids)
+                .getResultList();
+        for (Object[] group : groups) {
+            if (group[0] == null) continue;
+            createNativeUpdate("UPDATE BatchResultCounter brc SET brc.resultCount = brc.resultCount - :count, "
+                    + "brc.dataSize = brc.dataSize - :dataSize "
+                    + "WHERE brc.batch_id = :batchId AND brc.workerType = :workerType", "BatchResultCounter")
+                    .setParameter("count", ((Number) group[2]).intValue())
+                    .setParameter("dataSize", ((Number) group[3]).longValue())
+                    .setParameter("batchId", ((Number) group[0]).longValue())
+                    .setParameter("workerType", group[1])
+                    .executeUpdate();
+        }
+    }
+
+    private Set<Long> findGroupResultIds(List<Long> ids) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT sr.activeGroupMember_id, sr.historyGroupMember_id FROM StudyResult sr "
+                        + "WHERE sr.id IN (:ids) "
+                        + "AND (sr.activeGroupMember_id IS NOT NULL OR sr.historyGroupMember_id IS NOT NULL)")
+                .setParameter("ids", ids)
+                .getResultList();
+        Set<Long> groupResultIds = new HashSet<>();
+        for (Object[] r : results) {
+            if (r[0] != null) groupResultIds.add(((Number) r[0]).longValue());
+            if (r[1] != null) groupResultIds.add(((Number) r[1]).longValue());
+        }
+        return groupResultIds;
+    }
+
+    private void updateOrRemoveGroupResults(Set<Long> groupResultIds) {
+        if (groupResultIds.isEmpty()) return;
+        createNativeUpdate("UPDATE GroupResult gr SET "
+                + "gr.activeMemberCount = (SELECT COUNT(*) FROM StudyResult sr "
+                + "WHERE sr.activeGroupMember_id = gr.id), "
+                + "gr.historyMemberCount = (SELECT COUNT(*) FROM StudyResult sr "
+                + "WHERE sr.historyGroupMember_id = gr.id) "
+                + "WHERE gr.id IN (:ids)", "GroupResult", "StudyResult")
+                .setParameter("ids", groupResultIds)
+                .executeUpdate();
+        createNativeUpdate("DELETE FROM GroupResult WHERE id IN (:ids) AND groupState = :finished "
+                + "AND activeMemberCount = 0 AND historyMemberCount = 0", "GroupResult")
+                .setParameter("ids", groupResultIds)
+                .setParameter("finished", GroupResult.GroupState.FINISHED.ordinal())
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the workers of the given StudyResults and the lowest position in their study result lists that is
+     * removed
+     */
+    private Map<Long, Integer> findFirstOrderByWorker(List<Long> ids) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT sr.worker_id, MIN(sr.studyResultList_order) FROM StudyResult sr "
+                        + "WHERE sr.id IN (:ids) AND sr.studyResultList_order IS NOT NULL GROUP BY sr.worker_id")
+                .setParameter("ids", ids)
+                .getResultList();
+        return results.stream().collect(Collectors.toMap(
+                r -> ((Number) r[0]).longValue(), r -> ((Number) r[1]).intValue()));
+    }
+
+    /**
+     * Closes the gaps in the study result lists (order column studyResultList_order) of the given workers with one
+     * statement: each remaining StudyResult gets the number of the worker's remaining StudyResults before it as its
+     * position. Hibernate would load a gap as a null element. Only the results behind the first removed one are
+     * touched. The StudyResults before it are read from a derived table with GROUP BY: MySQL materializes it and
+     * therefore allows the subquery on the updated table.
+     */
+    private void renumberStudyResultLists(Map<Long, Integer> firstOrderByWorker) {
+        if (firstOrderByWorker.isEmpty()) return;
+        int firstOrder = Collections.min(firstOrderByWorker.values());
+        createNativeUpdate("UPDATE StudyResult sr SET sr.studyResultList_order = ("
+                + "SELECT COUNT(*) FROM (SELECT o.worker_id, o.studyResultList_order FROM StudyResult o "
+                + "WHERE o.worker_id IN (:workerIds) AND o.studyResultList_order IS NOT NULL "
+                + "GROUP BY o.worker_id, o.studyResultList_order) p "
+                + "WHERE p.worker_id = sr.worker_id AND p.studyResultList_order < sr.studyResultList_order) "
+                + "WHERE sr.worker_id IN (:workerIds) AND sr.studyResultList_order > :firstOrder", "StudyResult")
+                .setParameter("workerIds", firstOrderByWorker.keySet())
+                .setParameter("firstOrder", firstOrder)
+                .executeUpdate();
+    }
+
+    /**
+     * Queues the upload dir of the given StudyResult for removal (see ResultUploadsSweeper)
+     */
+    public void queueUploadsRemoval(Long studyResultId) {
+        createNativeUpdate("INSERT INTO ResultUploadsRemoval (studyResult_id, created) VALUES (:id, :now) "
+                + "ON DUPLICATE KEY UPDATE created = created", "ResultUploadsRemoval")
+                .setParameter("id", studyResultId)
+                .setParameter("now", new Timestamp(new Date().getTime()))
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the IDs of the StudyResults whose upload dirs are queued for removal, the oldest first
+     */
+    public List<Long> findQueuedUploadsRemovals(int max) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT r.studyResult_id FROM ResultUploadsRemoval r ORDER BY r.created, "
+                        + "r.studyResult_id")
+                .setMaxResults(max)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    public void removeQueuedUploadsRemoval(Long studyResultId) {
+        createNativeUpdate("DELETE FROM ResultUploadsRemoval WHERE studyResult_id = :id", "ResultUploadsRemoval")
+                .setParameter("id", studyResultId)
+                .executeUpdate();
+    }
+
+}
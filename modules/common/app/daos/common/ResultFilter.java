@@ -0,0 +1,344 @@
+package daos.common;
+
+import models.common.ComponentResult.ComponentState;
+import models.common.StudyResult.StudyState;
+import models.common.workers.MTWorker;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Filter for the server-side paginated result tables and for bulk actions on "all matching" results. It consists of
+ * a scope (study, batch, group, worker or component) and the filter criteria. The StudyResultDao and
+ * ComponentResultDao turn it into a JPQL WHERE clause.
+ *
+ * @author Kristian Lange
+ */
+public class ResultFilter {
+
+    /**
+     * Columns the results can be sorted by. The names are the same as the result tables' column names.
+     */
+    public enum SortColumn {
+        id, startDate, endDate, lastSeenDate, studyCode, studyState, componentState, studyResultId, workerId, batchId,
+        batchTitle, componentResultCount, dataSize, message
+    }
+
+    /**
+     * Escape character of the LIKE patterns (not the backslash: it's an escape character in MySQL's string literals
+     * too)
+     */
+    private static final String LIKE_ESCAPE = "!";
+
+    private Long studyId;
+    private Long batchId;
+    private Long groupId;
+    private Long workerId;
+    private Long componentId;
+    private String username;
+    private String workerType;
+    private String excludedWorkerType;
+    private Set<StudyState> studyStates = EnumSet.noneOf(StudyState.class);
+    private Set<ComponentState> componentStates = EnumSet.noneOf(ComponentState.class);
+    private Timestamp startedFrom;
+    private Timestamp startedBefore;
+    private String urlQuery;
+    private String search;
+    private String dataQuery;
+    private Set<Long> dataQueryMatches;
+    private SortColumn sortColumn = SortColumn.id;
+    private boolean ascending = false;
+
+    public Long getStudyId() {
+        return studyId;
+    }
+
+    public void setStudyId(Long studyId) {
+        this.studyId = studyId;
+    }
+
+    public Long getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(Long batchId) {
+        this.batchId = batchId;
+    }
+
+    public Long getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+
+    public Long getWorkerId() {
+        return workerId;
+    }
+
+    public void setWorkerId(Long workerId) {
+        this.workerId = workerId;
+    }
+
+    public Long getComponentId() {
+        return componentId;
+    }
+
+    public void setComponentId(Long componentId) {
+        this.componentId = componentId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Restricts the results to studies that have the user with the given username as a member
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getWorkerType() {
+        return workerType;
+    }
+
+    /**
+     * Only results of this worker type. 'MT' includes 'MTSandbox'.
+     */
+    public void setWorkerType(String workerType) {
+        this.workerType = workerType;
+    }
+
+    public String getExcludedWorkerType() {
+        return excludedWorkerType;
+    }
+
+    public void setExcludedWorkerType(String excludedWorkerType) {
+        this.excludedWorkerType = excludedWorkerType;
+    }
+
+    public Set<StudyState> getStudyStates() {
+        return studyStates;
+    }
+
+    public void setStudyStates(Set<StudyState> studyStates) {
+        this.studyStates = studyStates;
+    }
+
+    public Set<ComponentState> getComponentStates() {
+        return componentStates;
+    }
+
+    public void setComponentStates(Set<ComponentState> componentStates) {
+        this.componentStates = componentStates;
+    }
+
+    public Timestamp getStartedFrom() {
+        return startedFrom;
+    }
+
+    public void setStartedFrom(Timestamp startedFrom) {
+        this.startedFrom = startedFrom;
+    }
+
+    public Timestamp getStartedBefore() {
+        return startedBefore;
+    }
+
+    public void setStartedBefore(Timestamp startedBefore) {
+        this.startedBefore = startedBefore;
+    }
+
+    public String getUrlQuery() {
+        return urlQuery;
+    }
+
+    /**
+     * Text that has to be in the URL query parameters the study run was started with
+     */
+    public void setUrlQuery(String urlQuery) {
+        this.urlQuery = urlQuery;
+    }
+
+    public String getSearch() {
+        return search;
+    }
+
+    /**
+     * Text that one of the results' text fields (e.g. study code or message) has to start with or a result or worker ID
+     */
+    public void setSearch(String search) {
+        this.search = search;
+    }
+
+    public String getDataQuery() {
+        return dataQuery;
+    }
+
+    /**
+     * Full-text query on the result data (see ResultSearchIndex). It has to be resolved into the matching result IDs
+     * (setDataQueryMatches) before the filter is used in a query.
+     */
+    public void setDataQuery(String dataQuery) {
+        this.dataQuery = dataQuery;
+    }
+
+    public Set<Long> getDataQueryMatches() {
+        return dataQueryMatches;
+    }
+
+    /**
+     * IDs of the results (StudyResults or ComponentResults, depending on the table) that match the data query
+     */
+    public void setDataQueryMatches(Set<Long> dataQueryMatches) {
+        this.dataQueryMatches = dataQueryMatches;
+    }
+
+    public SortColumn getSortColumn() {
+        return sortColumn;
+    }
+
+    public void setSortColumn(SortColumn sortColumn) {
+        this.sortColumn = sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public void setAscending(boolean ascending) {
+        this.ascending = ascending;
+    }
+
+    public boolean hasScope() {
+        return studyId != null || batchId != null || groupId != null || workerId != null || componentId != null;
+    }
+
+    /**
+     * Returns true if this filter has any criteria besides the scope
+     */
+    public boolean hasCriteria() {
+        return workerType != null || !studyStates.isEmpty() || !componentStates.isEmpty() || startedFrom != null
+                || startedBefore != null || urlQuery != null || search != null || dataQuery != null;
+    }
+
+    /**
+     * Returns a copy of this filter that only has the scope (e.g. to count all results of a table)
+     */
+    public ResultFilter scopeOnly() {
+        ResultFilter scope = new ResultFilter();
+        scope.studyId = studyId;
+        scope.batchId = batchId;
+        scope.groupId = groupId;
+        scope.workerId = workerId;
+        scope.componentId = componentId;
+        scope.username = username;
+        scope.excludedWorkerType = excludedWorkerType;
+        return scope;
+    }
+
+    /**
+     * Returns the JPQL conditions of this filter that concern the StudyResult (all but states, dates and search) and
+     * puts their parameters into the given map.
+     *
+     * @param sr     JPQL path to the StudyResult, e.g. 'sr' or 'cr.studyResult'
+     * @param params Map to which the query parameters are added
+     */
+    List<String> studyResultConditions(String sr, Map<String, Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (studyId != null) {
+            conditions.add(sr + ".study.id = :studyId");
+            params.put("studyId", studyId);
+        }
+        if (batchId != null) {
+            conditions.add(sr + ".batch.id = :batchId");
+            params.put("batchId", batchId);
+        }
+        if (groupId != null) {
+            conditions.add("(" + sr + ".activeGroupResult.id = :groupId OR " + sr
+                    + ".historyGroupResult.id = :groupId)");
+            params.put("groupId", groupId);
+        }
+        if (workerId != null) {
+            conditions.add(sr + ".worker.id = :workerId");
+            params.put("workerId", workerId);
+        }
+        if (username != null) {
+            conditions.add(sr + ".study IN (SELECT s FROM Study s JOIN s.userList ul WHERE ul.username = :username)");
+            params.put("username", username);
+        }
+        if (workerType != null) {
+            if (workerType.equals(MTWorker.WORKER_TYPE)) {
+                conditions.add(sr + ".worker IN (SELECT w FROM Worker w WHERE w.class LIKE 'MT%')");
+            } else {
+                conditions.add(sr + ".worker IN (SELECT w FROM Worker w WHERE w.class = :workerType)");
+                params.put("workerType", workerType);
+            }
+        }
+        if (excludedWorkerType != null) {
+            conditions.add("NOT " + sr + ".worker IN (SELECT w FROM Worker w WHERE w.class = :excludedWorkerType)");
+            params.put("excludedWorkerType", excludedWorkerType);
+        }
+        if (urlQuery != null) {
+            conditions.add(sr + ".urlQueryParameters LIKE :urlQuery ESCAPE '" + LIKE_ESCAPE + "'");
+            params.put("urlQuery", "%" + escapeLike(urlQuery) + "%");
+        }
+        return conditions;
+    }
+
+    /**
+     * Returns the JPQL condition for the data query matches (or null if there is no data query) and puts its
+     * parameter into the given map
+     *
+     * @param id     JPQL path to the ID of the matched results, e.g. 'sr.id' or 'cr.id'
+     * @param params Map to which the query parameter is added
+     */
+    String dataQueryCondition(String id, Map<String, Object> params) {
+        if (dataQuery == null) return null;
+        if (dataQueryMatches == null) throw new IllegalStateException("Data query isn't resolved");
+        // An empty IN list isn't valid in every database
+        if (dataQueryMatches.isEmpty()) return "1 = 0";
+        params.put("dataQueryMatches", dataQueryMatches);
+        return id + " IN :dataQueryMatches";
+    }
+
+    /**
+     * Returns the JPQL condition of the search (or null if there is no search) for the given text fields and puts its
+     * parameter into the given map. The fields have to start with the search value: unlike a search for a value
+     * anywhere in the fields this can use the fields' indexes.
+     *
+     * @param fields JPQL paths to the text fields, e.g. 'sr.studyCode'
+     * @param params Map to which the query parameter is added
+     */
+    String searchCondition(List<String> fields, Map<String, Object> params) {
+        if (search == null) return null;
+        params.put("search", escapeLike(search) + "%");
+        return fields.stream()
+                .map(field -> field + " LIKE :search ESCAPE '" + LIKE_ESCAPE + "'")
+                .collect(Collectors.joining(" OR "));
+    }
+
+    /**
+     * Escapes the wildcards of LIKE (% and _), so they are matched literally
+     */
+    static String escapeLike(String value) {
+        return value.replace(LIKE_ESCAPE, LIKE_ESCAPE + LIKE_ESCAPE)
+                .replace("%", LIKE_ESCAPE + "%")
+                .replace("_", LIKE_ESCAPE + "_");
+    }
+
+    /**
+     * Returns the search value as a number (to search for result or worker IDs) or null if it's not a number
+     */
+    Long getSearchAsId() {
+        return search != null && search.matches("\\d{1,18}") ? Long.parseLong(search) : null;
+    }
+
+}
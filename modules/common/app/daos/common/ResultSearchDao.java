@@ -0,0 +1,95 @@
+package daos.common;
+
+import play.Logger;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * DAO for the full-text search index of the result data (see ResultSearchIndex). It reads the ComponentResults with
+ * their result data (that isn't part of the entity) with native queries.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class ResultSearchDao extends AbstractDao {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultSearchDao.class);
+
+    /**
+     * A ComponentResult as it is put into the search index
+     */
+    public static class IndexedComponentResult {
+        public Long id;
+        public Long studyResultId;
+        public Long studyId;
+        public Long componentId;
+        public String data;
+    }
+
+    @Inject
+    ResultSearchDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    /**
+     * Returns the IDs of the next (keyset-ordered by ID) ComponentResults
+     */
+    public List<Long> findIdsAfter(Long afterId, int max) {
+        @SuppressWarnings("unchecked")
+        List<Object> results = jpa.em()
+                .createNativeQuery("SELECT cr.id FROM ComponentResult cr WHERE cr.id > :afterId ORDER BY cr.id")
+                .setParameter("afterId", afterId)
+                .setMaxResults(max)
+                .getResultList();
+        return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the given ComponentResults with their result data. ComponentResults that don't exist (anymore) are
+     * missing in the returned list.
+     */
+    public List<IndexedComponentResult> findForIndex(Collection<Long> componentResultIds) {
+        if (componentResultIds.isEmpty()) return List.of();
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = jpa.em()
+                .createNativeQuery("SELECT cr.id, cr.studyResult_id, sr.study_id, cr.component_id, cr.data "
+                        + "FROM ComponentResult cr JOIN StudyResult sr ON sr.id = cr.studyResult_id "
+                        + "WHERE cr.id IN (:ids)")
+                .setParameter("ids", componentResultIds)
+                .getResultList();
+        return results.stream().map(r -> {
+            IndexedComponentResult cr = new IndexedComponentResult();
+            cr.id = ((Number) r[0]).longValue();
+            cr.studyResultId = ((Number) r[1]).longValue();
+            cr.studyId = ((Number) r[2]).longValue();
+            cr.componentId = r[3] != null ? ((Number) r[3]).longValue() : null;
+            cr.data = toString(r[4]);
+            return cr;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * MySQL returns text columns as String, H2 as Clob
+     */
+    private static String toString(Object value) {
+        if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            try {
+                return clob.getSubString(1, (int) clob.length());
+            } catch (SQLException e) {
+                LOGGER.error(".toString: Couldn't read Clob", e);
+                return null;
+            }
+        }
+        return (String) value;
+    }
+
+}
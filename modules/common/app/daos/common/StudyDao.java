@@ -2,6 +2,7 @@ package daos.common;
 
 import models.common.Study;
 import models.common.User;
+import org.hibernate.jpa.QueryHints;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
@@ -44,6 +45,7 @@ public class StudyDao extends AbstractDao {
         String queryStr = "SELECT s FROM Study s WHERE " + "s.uuid=:uuid";
         List<Study> studyList = jpa.em().createQuery(queryStr, Study.class)
                 .setParameter("uuid", uuid)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
                 .setMaxResults(1)
                 .getResultList();
         return !studyList.isEmpty() ? Optional.of(studyList.get(0)) : Optional.empty();
@@ -9,7 +9,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.persistence.Query;
 import javax.persistence.Tuple;
-import java.util.*;
+import javax.persistence.TypedQuery;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.util.*;
@@ -94,17 +94,12 @@ public class StudyResultDao extends AbstractDao {
     }
 
     /**
-     * Returns a list of StudyResults that are active members of a group and have been idle for a while. An idle
-     * StudyResult is one that has an active group result and a lastSeenDate that is older than the given seconds.
+     * Returns a list of StudyResults that are active members of a group. Joins the active groups instead of checking
+     * for 'is not null' since the latter can't use the activeGroupMember_id index on H2.
      */
-    public List<StudyResult> findIdleGroupMembers(int idleAfterSeconds) {
-        Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.SECOND, -idleAfterSeconds);
+    public List<StudyResult> findAllActiveGroupMembers() {
         return jpa.em()
-                .createQuery("SELECT sr FROM StudyResult sr "
-                        + "WHERE sr.activeGroupResult is not null "
-                        + "AND sr.lastSeenDate < :date", StudyResult.class)
-                .setParameter("date", cal.getTime())
+                .createQuery("SELECT sr FROM StudyResult sr JOIN sr.activeGroupResult gr", StudyResult.class)
                 .getResultList();
     }
 
@@ -368,20 +363,6 @@ public class StudyResultDao extends AbstractDao {
         return results.stream().map(r -> ((Number) r).longValue()).collect(Collectors.toList());
     }
 
-    public Map<Long, Integer> countComponentResultsForStudyResultIds(List<Long> srids) {
-        return jpa.em()
-                .createQuery("SELECT cr.studyResult.id AS srid, COUNT(cr) AS count FROM ComponentResult cr " +
-                        "WHERE cr.studyResult.id IN :srids GROUP BY cr.studyResult.id", Tuple.class)
-                .setParameter("srids", srids)
-                .getResultList()
-                .stream()
-                .collect(Collectors.toMap(
-                                tuple -> ((Number) tuple.get("srid")).longValue(),
-                                tuple -> ((Number) tuple.get("count")).intValue()
-                        )
-                );
-    }
-
     public void setQuotaReached(Long studyResultId) {
         jpa.em().createQuery("UPDATE StudyResult sr SET sr.quotaReached = true WHERE sr.id = :id")
                 .setParameter("id", studyResultId)
@@ -434,4 +415,119 @@ public class StudyResultDao extends AbstractDao {
         return updatedRows > 0;
     }
 
+    /**
+     * Returns the number of OpenAI calls (alias 'apiCount'), the study ID (alias 'studyId') and whether the study has
+     * the OpenAI response cache turned on (alias 'openAiCache') of the StudyResult with the given UUID - or an empty
+     * Optional if the study isn't running (anymore) or the StudyResult doesn't exist. This way everything the OpenAI
+     * proxy needs to know about a study run comes with one query.
+     */
+    public Optional<Tuple> findOpenAiUsageIfRunning(String uuid) {
+        List<Tuple> tuples = jpa.em().createQuery(
+                        "SELECT sr.openAiApiCount AS apiCount, s.id AS studyId, s.openAiCache AS openAiCache "
+                                + "FROM StudyResult sr JOIN sr.study s "
+                                + "WHERE sr.uuid = :uuid AND sr.studyState NOT IN (:states)", Tuple.class)
+                .setParameter("uuid", uuid)
+                .setParameter("states", Arrays.asList(
+                        StudyResult.StudyState.FINISHED,
+                        StudyResult.StudyState.ABORTED,
+                        StudyResult.StudyState.FAIL))
+                .setMaxResults(1)
+                .getResultList();
+        return tuples.stream().findFirst();
+    }
+
+    /**
+     * Adds the given number to the OpenAI call count of the StudyResult with the given UUID
+     */
+    public void addToOpenAiApiCount(String uuid, int delta) {
+        jpa.em().createQuery("UPDATE StudyResult sr SET sr.openAiApiCount = sr.openAiApiCount + :delta "
+                        + "WHERE sr.uuid = :uuid")
+                .setParameter("uuid", uuid)
+                .setParameter("delta", delta)
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the number of StudyResults that match the given filter
+     */
+    public int countByFilter(ResultFilter filter) {
+        Map<String, Object> params = new HashMap<>();
+        Query query = jpa.em().createQuery("SELECT COUNT(sr) FROM StudyResult sr" + where(filter, params));
+        params.forEach(query::setParameter);
+        Number result = (Number) query.getSingleResult();
+        return result != null ? result.intValue() : 0;
+    }
+
+    /**
+     * Returns a page of the StudyResults that match the given filter, sorted by the filter's sort column
+     */
+    public List<StudyResult> findByFilter(ResultFilter filter, int first, int max) {
+        Map<String, Object> params = new HashMap<>();
+        // Added 'LEFT JOIN FETCH' for performance (loads LAZY-linked Workers in StudyResults)
+        TypedQuery<StudyResult> query = jpa.em().createQuery("SELECT sr FROM StudyResult sr LEFT JOIN FETCH sr.worker"
+                + where(filter, params) + orderBy(filter), StudyResult.class);
+        params.forEach(query::setParameter);
+        return query.setFirstResult(first).setMaxResults(max).getResultList();
+    }
+
+    /**
+     * Returns the IDs of all StudyResults that match the given filter, ordered by ID
+     */
+    public List<Long> findIdsByFilter(ResultFilter filter) {
+        Map<String, Object> params = new HashMap<>();
+        TypedQuery<Long> query = jpa.em().createQuery("SELECT sr.id FROM StudyResult sr" + where(filter, params)
+                + " ORDER BY sr.id", Long.class);
+        params.forEach(query::setParameter);
+        return query.getResultList();
+    }
+
+    private static String where(ResultFilter filter, Map<String, Object> params) {
+        List<String> conditions = filter.studyResultConditions("sr", params);
+        if (!filter.getStudyStates().isEmpty()) {
+            conditions.add("sr.studyState IN :studyStates");
+            params.put("studyStates", filter.getStudyStates());
+        }
+        if (filter.getStartedFrom() != null) {
+            conditions.add("sr.startDate >= :startedFrom");
+            params.put("startedFrom", filter.getStartedFrom());
+        }
+        if (filter.getStartedBefore() != null) {
+            conditions.add("sr.startDate < :startedBefore");
+            params.put("startedBefore", filter.getStartedBefore());
+        }
+        if (filter.getSearch() != null) {
+            String condition = filter.searchCondition(
+                    List.of("sr.studyCode", "sr.uuid", "sr.message", "sr.confirmationCode"), params);
+            Long searchId = filter.getSearchAsId();
+            if (searchId != null) {
+                condition += " OR sr.id = :searchId OR sr.worker.id = :searchId";
+                params.put("searchId", searchId);
+            }
+            conditions.add("(" + condition + ")");
+        }
+        String dataQueryCondition = filter.dataQueryCondition("sr.id", params);
+        if (dataQueryCondition != null) conditions.add(dataQueryCondition);
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static String orderBy(ResultFilter filter) {
+        String path;
+        switch (filter.getSortColumn()) {
+            case startDate: path = "sr.startDate"; break;
+            case endDate: path = "sr.endDate"; break;
+            case lastSeenDate: path = "sr.lastSeenDate"; break;
+            case studyCode: path = "sr.studyCode"; break;
+            case studyState: path = "sr.studyState"; break;
+            case workerId: path = "sr.worker.id"; break;
+            case batchId: path = "sr.batch.id"; break;
+            case batchTitle: path = "sr.batch.title"; break;
+            case componentResultCount: path = "sr.componentResultCount"; break;
+            case message: path = "sr.message"; break;
+            default: path = "sr.id";
+        }
+        String direction = filter.isAscending() ? " ASC" : " DESC";
+        // The ID as a tiebreaker keeps the pages stable
+        return " ORDER BY " + path + direction + (path.equals("sr.id") ? "" : ", sr.id" + direction);
+    }
+
 }
@@ -0,0 +1,84 @@
+package daos.common;
+
+import models.common.StudyStatistics;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.TemporalType;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * DAO for the StudyStatistics entity. The statistics are only written with native queries: incrementally (e.g. the
+ * study assets after an upload) and by the periodic refresh (see StudyStatisticsService). Nothing is written when a
+ * study run starts: the refresh takes the last start from the StudyResults.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class StudyStatisticsDao extends AbstractDao {
+
+    @Inject
+    StudyStatisticsDao(JPAApi jpa) {
+        super(jpa);
+    }
+
+    /**
+     * Adds the given changes to the study assets size and file count of the given study, e.g. after a file upload
+     */
+    public void addStudyAssets(Long studyId, long sizeDelta, long fileCountDelta) {
+        createNativeUpdate("INSERT INTO StudyStatistics (study_id, studyAssetsSize, studyAssetsFileCount) "
+                + "VALUES (:studyId, GREATEST(:sizeDelta, 0), GREATEST(:fileCountDelta, 0)) "
+                + "ON DUPLICATE KEY UPDATE studyAssetsSize = GREATEST(studyAssetsSize + :sizeDelta, 0), "
+                + "studyAssetsFileCount = GREATEST(studyAssetsFileCount + :fileCountDelta, 0)", "StudyStatistics")
+                .setParameter("studyId", studyId)
+                .setParameter("sizeDelta", sizeDelta)
+                .setParameter("fileCountDelta", fileCountDelta)
+                .executeUpdate();
+    }
+
+    /**
+     * Sets the study assets size and file count of the given study, e.g. after the assets were replaced by an import
+     */
+    public void updateStudyAssets(Long studyId, long studyAssetsSize, long studyAssetsFileCount) {
+        createNativeUpdate("INSERT INTO StudyStatistics (study_id, studyAssetsSize, studyAssetsFileCount) "
+                + "VALUES (:studyId, :studyAssetsSize, :studyAssetsFileCount) "
+                + "ON DUPLICATE KEY UPDATE studyAssetsSize = :studyAssetsSize, "
+                + "studyAssetsFileCount = :studyAssetsFileCount", "StudyStatistics")
+                .setParameter("studyId", studyId)
+                .setParameter("studyAssetsSize", studyAssetsSize)
+                .setParameter("studyAssetsFileCount", studyAssetsFileCount)
+                .executeUpdate();
+    }
+
+    /**
+     * Replaces the statistics of the given study with freshly gathered ones and sets the refresh time
+     */
+    public void update(Long studyId, long studyAssetsSize, long studyAssetsFileCount, long resultFileSize,
+            Timestamp lastStarted) {
+        createNativeUpdate("INSERT INTO StudyStatistics (study_id, studyAssetsSize, studyAssetsFileCount, "
+                + "resultFileSize, lastStarted, refreshed) VALUES (:studyId, :studyAssetsSize, :studyAssetsFileCount, "
+                + ":resultFileSize, :lastStarted, :refreshed) "
+                + "ON DUPLICATE KEY UPDATE studyAssetsSize = :studyAssetsSize, "
+                + "studyAssetsFileCount = :studyAssetsFileCount, resultFileSize = :resultFileSize, "
+                + "lastStarted = :lastStarted, refreshed = :refreshed", "StudyStatistics")
+                .setParameter("studyId", studyId)
+                .setParameter("studyAssetsSize", studyAssetsSize)
+                .setParameter("studyAssetsFileCount", studyAssetsFileCount)
+                .setParameter("resultFileSize", resultFileSize)
+                .setParameter("lastStarted", lastStarted, TemporalType.TIMESTAMP)
+                .setParameter("refreshed", new Timestamp(System.currentTimeMillis()))
+                .executeUpdate();
+    }
+
+    public StudyStatistics findByStudyId(Long studyId) {
+        return jpa.em().find(StudyStatistics.class, studyId);
+    }
+
+    public List<StudyStatistics> findAll() {
+        return jpa.em().createQuery("SELECT ss FROM StudyStatistics ss", StudyStatistics.class).getResultList();
+    }
+
+}
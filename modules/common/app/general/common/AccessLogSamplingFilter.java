@@ -0,0 +1,44 @@
+package general.common;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Logback filter of the access log appender (see logback.xml) that samples the access log entries per route
+ * (jatos.accessLogs.sampling). The route is the request path that the AccessLogger puts into the MDC. Warnings (server
+ * errors and slow requests) and entries without a path are never sampled out.
+ *
+ * @author Kristian Lange
+ */
+public class AccessLogSamplingFilter extends Filter<ILoggingEvent> {
+
+    @Override
+    public FilterReply decide(ILoggingEvent event) {
+        if (event.getLevel().isGreaterOrEqual(Level.WARN)) return FilterReply.NEUTRAL;
+        String path = event.getMDCPropertyMap().get(AccessLogger.PATH_MDC_KEY);
+        if (path == null) return FilterReply.NEUTRAL;
+        return isSampled(path) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    private static boolean isSampled(String path) {
+        List<Pair<Pattern, Double>> routes = Common.getAccessLogsSamplingRoutes();
+        // Not configured yet (e.g. during start-up): log everything
+        if (routes == null) return true;
+        double rate = Common.getAccessLogsSamplingDefault();
+        for (Pair<Pattern, Double> route : routes) {
+            if (route.getKey().matcher(path).find()) {
+                rate = route.getValue();
+                break;
+            }
+        }
+        return rate >= 1.0 || (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+}
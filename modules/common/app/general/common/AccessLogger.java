@@ -0,0 +1,93 @@
+package general.common;
+
+import org.slf4j.MDC;
+import play.Logger;
+import play.Logger.ALogger;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Access logging used by the access logging actions of publix, GUI and API. The access loggers write into a
+ * non-blocking async appender (see logback.xml) that rather drops entries than blocking a request. Its
+ * AccessLogSamplingFilter samples the requests per route (jatos.accessLogs.sampling). Requests that end with a server
+ * error or take longer than jatos.accessLogs.slowThreshold are logged as warnings, which are never sampled out.
+ * <p>
+ * The log format is compact: method, URI, status, duration in ms, and optionally the username, e.g.
+ * 'GET /jatos/19/run 200 12ms admin'. Slow requests get a 'slow' suffix.
+ *
+ * @author Kristian Lange
+ */
+public class AccessLogger {
+
+    /**
+     * MDC key of the request's path. Used by the AccessLogSamplingFilter.
+     */
+    static final String PATH_MDC_KEY = "accessPath";
+
+    private final ALogger logger;
+    private final Function<Throwable, Integer> errorStatus;
+
+    /**
+     * @param loggerName  name of the logger, e.g. 'publix_access'
+     * @param errorStatus maps an exception thrown by the action to the HTTP status it results in (e.g. a
+     *                    BadRequestException to 400)
+     */
+    public AccessLogger(String loggerName, Function<Throwable, Integer> errorStatus) {
+        this.logger = Logger.of(loggerName);
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Calls the action and logs the request after its result is completed. The duration includes the action's
+     * synchronous part. An exception thrown synchronously by the action is logged too and then rethrown.
+     *
+     * @param request  the request to be logged
+     * @param username supplier of the username - evaluated only if the request is actually logged (can be null)
+     * @param action   calls the action, e.g. the delegate of a Play action
+     * @return the result of the action unchanged
+     */
+    public CompletionStage<Result> log(Http.Request request, Supplier<String> username,
+            Supplier<CompletionStage<Result>> action) {
+        if (!logger.isInfoEnabled()) return action.get();
+        long start = System.nanoTime();
+        CompletionStage<Result> result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            write(request, username, start, statusOf(e));
+            throw e;
+        }
+        return result.whenComplete((r, e) -> write(request, username, start, e != null ? statusOf(e) : r.status()));
+    }
+
+    private void write(Http.Request request, Supplier<String> username, long start, int status) {
+        long durationMs = (System.nanoTime() - start) / 1_000_000;
+        boolean slow = durationMs >= Common.getAccessLogsSlowThreshold().toMillis();
+        String entry = request.method() + " " + request.uri() + " " + status + " " + durationMs + "ms"
+                + (username != null ? " " + username.get() : "")
+                + (slow ? " slow" : "");
+        if (status >= 500 || slow) {
+            logger.warn(entry);
+        } else {
+            // Client errors (4xx) are logged like successful requests and are sampled too
+            MDC.put(PATH_MDC_KEY, request.path());
+            try {
+                logger.info(entry);
+            } finally {
+                MDC.remove(PATH_MDC_KEY);
+            }
+        }
+    }
+
+    private int statusOf(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        Integer status = errorStatus != null ? errorStatus.apply(cause) : null;
+        return status != null ? status : Http.Status.INTERNAL_SERVER_ERROR;
+    }
+
+}
@@ -18,6 +18,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * This class provides configuration properties that are common to all modules of JATOS. It mostly takes parameters from
@@ -40,6 +42,10 @@ public class Common {
     private static String studyLogsPath;
     private static boolean resultUploadsEnabled;
     private static String resultUploadsPath;
+    private static String resultArchivePath;
+    private static Duration resultArchiveInterval;
+    private static boolean resultSearchEnabled;
+    private static String resultSearchPath;
     private static long resultUploadsMaxFileSize;
     private static long resultUploadsLimitPerStudyRun;
     private static long resultDataMaxSize;
@@ -50,6 +56,13 @@ public class Common {
     private static String dbUrl;
     private static String dbDriver;
     private static String dbConnectionPoolSize;
+    private static List<String> dbReplicas;
+    private static Duration dbReplicasMaxLag;
+    private static Duration dbReplicasCheckInterval;
+    private static Duration resultCountersRepairInterval;
+    private static int resultDeletionChunkSize;
+    private static Duration resultDeletionPollInterval;
+    private static Duration resultUploadsSweepInterval;
     private static String mac;
     private static int userPasswordLength;
     private static int userPasswordStrength;
@@ -111,6 +124,7 @@ public class Common {
     private static boolean showStudyAssetsSizeInStudyManager;
     private static boolean showResultDataSizeInStudyManager;
     private static boolean showResultFileSizeInStudyManager;
+    private static Duration studyStatisticsRefreshInterval;
     private static boolean userRoleAllowSuperuser;
     private static boolean jatosApiAllowed;
     private static boolean jatosApiTokensApiGenerationAllowed;
@@ -118,20 +132,44 @@ public class Common {
     private static String logsPath;
     private static String logsFilename;
     private static String logsAppender;
+    private static double accessLogsSamplingDefault;
+    private static List<Pair<Pattern, Double>> accessLogsSamplingRoutes;
+    private static Duration accessLogsSlowThreshold;
     private static String tmpPath;
     private static boolean multiNode;
+    private static Duration multiNodeBackplanePollInterval;
+    private static Duration multiNodeBackplaneRetention;
+    private static boolean entityCacheStatistics;
     private static String threadPoolSize;
     private static String studyArchiveSuffix;
     private static String resultsArchiveSuffix;
     private static boolean groupsCleaningAllowed;
     private static int groupsCleaningInterval;
     private static int groupsCleaningMemberIdleAfter;
+    private static String groupsMatchmakingStrategy;
+    private static Duration groupSessionPatchWindow;
+    private static int sessionPatchLogSize;
+    private static Duration batchSessionSnapshotInterval;
+    private static String batchSessionJournalPath;
+    private static Duration batchSessionIdleTimeout;
+    private static int studyAdmissionMaxConcurrentStarts;
+    private static int studyAdmissionMaxConcurrentStartsPerStudy;
+    private static int studyAdmissionMaxWaiting;
+    private static Duration studyAdmissionPollInterval;
+    private static Duration studyAdmissionAdmittedTimeout;
     private static Duration lastSeenDateUpdateThreshold;
     private static boolean openAiAllowed;
     private static String openAiApiKey;
+    private static String openAiUrl;
     private static String openAiUrlBasePath;
     private static int openAiCallLimit;
     private static int openAiTimeout;
+    private static int openAiRateLimitPerMinute;
+    private static int openAiRateLimitBurst;
+    private static Duration openAiSyncInterval;
+    private static Duration openAiCacheTtl;
+    private static long openAiCacheMaxSize;
+    private static long openAiCacheMaxEntrySize;
 
     /**
      * List of regular expressions and their description as Pairs that define password restrictions (the regexes are
@@ -158,6 +196,12 @@ public class Common {
         resultUploadsEnabled = config.getBoolean("jatos.resultUploads.enabled");
         resultUploadsPath = obtainPath(config, "jatos.resultUploads.path");
         LOGGER.info("Path to uploads directory is " + resultUploadsPath);
+        resultArchivePath = obtainPath(config, "jatos.resultArchive.path");
+        LOGGER.info("Path to result archive directory is " + resultArchivePath);
+        resultArchiveInterval = getDurationWithDefaultUnit(config, "jatos.resultArchive.interval");
+        resultSearchEnabled = config.getBoolean("jatos.resultSearch.enabled");
+        resultSearchPath = obtainPath(config, "jatos.resultSearch.path");
+        if (resultSearchEnabled) LOGGER.info("Path to result search index is " + resultSearchPath);
         resultUploadsMaxFileSize = config.getBytes("jatos.resultUploads.maxFileSize");
         resultUploadsLimitPerStudyRun = config.getBytes("jatos.resultUploads.limitPerStudyRun");
         resultDataMaxSize = config.getBytes("jatos.resultData.maxSize");
@@ -168,6 +212,13 @@ public class Common {
         dbUrl = config.getString("db.default.url"); // Also jatos.db.url
         dbDriver = config.getString("db.default.driver"); // Also jatos.db.driver
         dbConnectionPoolSize = config.getString("jatos.db.connectionPool.size");
+        dbReplicas = config.getStringList("jatos.db.replicas.names");
+        dbReplicasMaxLag = getDurationWithDefaultUnit(config, "jatos.db.replicas.maxLag");
+        dbReplicasCheckInterval = getDurationWithDefaultUnit(config, "jatos.db.replicas.checkInterval");
+        resultCountersRepairInterval = getDurationWithDefaultUnit(config, "jatos.resultCounters.repairInterval");
+        resultDeletionChunkSize = config.getInt("jatos.resultDeletion.chunkSize");
+        resultDeletionPollInterval = getDurationWithDefaultUnit(config, "jatos.resultDeletion.pollInterval");
+        resultUploadsSweepInterval = getDurationWithDefaultUnit(config, "jatos.resultDeletion.sweepInterval");
         mac = fillMac();
         userPasswordLength = config.getInt("jatos.user.password.length");
         userPasswordStrength = config.getInt("jatos.user.password.strength");
@@ -237,6 +288,7 @@ public class Common {
         showStudyAssetsSizeInStudyManager = config.getBoolean("jatos.studyAdmin.showStudyAssetsSize");
         showResultDataSizeInStudyManager = config.getBoolean("jatos.studyAdmin.showResultDataSize");
         showResultFileSizeInStudyManager = config.getBoolean("jatos.studyAdmin.showResultFileSize");
+        studyStatisticsRefreshInterval = getDurationWithDefaultUnit(config, "jatos.studyAdmin.statisticsRefreshInterval");
         userRoleAllowSuperuser = config.getBoolean("jatos.user.role.allowSuperuser");
         jatosApiAllowed = config.getBoolean("jatos.api.allowed");
         jatosApiTokensApiGenerationAllowed = config.getBoolean("jatos.api.tokens.apiGeneration.allowed");
@@ -245,7 +297,15 @@ public class Common {
         LOGGER.info("Path to logs directory is " + logsPath);
         logsFilename = config.getString("jatos.logs.filename");
         logsAppender = config.getString("jatos.logs.appender");
+        accessLogsSamplingDefault = config.getDouble("jatos.accessLogs.sampling.default");
+        accessLogsSamplingRoutes = config.getConfigList("jatos.accessLogs.sampling.routes").stream()
+                .map(c -> Pair.of(Pattern.compile(c.getString("path")), c.getDouble("rate")))
+                .collect(Collectors.toList());
+        accessLogsSlowThreshold = getDurationWithDefaultUnit(config, "jatos.accessLogs.slowThreshold");
         multiNode = config.getBoolean("jatos.multiNode");
+        multiNodeBackplanePollInterval = getDurationWithDefaultUnit(config, "jatos.multiNodeBackplane.pollInterval");
+        multiNodeBackplaneRetention = getDurationWithDefaultUnit(config, "jatos.multiNodeBackplane.retention");
+        entityCacheStatistics = config.getBoolean("jatos.entityCache.statistics");
         tmpPath = config.getIsNull("jatos.tmpPath")
                 ? Path.of(System.getProperty("java.io.tmpdir"), "jatos").toString()
                 : obtainPath(config, "jatos.tmpPath");
@@ -256,12 +316,30 @@ public class Common {
         groupsCleaningAllowed = config.getBoolean("jatos.groups.cleaning.allowed");
         groupsCleaningInterval = config.getInt("jatos.groups.cleaning.interval");
         groupsCleaningMemberIdleAfter = config.getInt("jatos.groups.cleaning.memberIdleAfter");
+        groupsMatchmakingStrategy = config.getString("jatos.groups.matchmaking.strategy");
+        groupSessionPatchWindow = getDurationWithDefaultUnit(config, "jatos.groupSession.patchWindow");
+        sessionPatchLogSize = config.getInt("jatos.sessionPatchLog.size");
+        batchSessionSnapshotInterval = getDurationWithDefaultUnit(config, "jatos.batchSession.snapshotInterval");
+        batchSessionJournalPath = obtainPath(config, "jatos.batchSession.journalPath");
+        batchSessionIdleTimeout = getDurationWithDefaultUnit(config, "jatos.batchSession.idleTimeout");
+        studyAdmissionMaxConcurrentStarts = config.getInt("jatos.studyAdmission.maxConcurrentStarts");
+        studyAdmissionMaxConcurrentStartsPerStudy = config.getInt("jatos.studyAdmission.maxConcurrentStartsPerStudy");
+        studyAdmissionMaxWaiting = config.getInt("jatos.studyAdmission.maxWaiting");
+        studyAdmissionPollInterval = getDurationWithDefaultUnit(config, "jatos.studyAdmission.pollInterval");
+        studyAdmissionAdmittedTimeout = getDurationWithDefaultUnit(config, "jatos.studyAdmission.admittedTimeout");
         lastSeenDateUpdateThreshold = getDurationWithDefaultUnit(config, "jatos.studyResult.lastSeenDate.updateThreshold");
         openAiAllowed = config.getBoolean("jatos.openai.allowed");
         openAiApiKey = config.getString("jatos.openai.apiKey");
+        openAiUrl = config.getString("jatos.openai.url");
         openAiUrlBasePath = config.getString("jatos.openai.urlBasePath");
         openAiCallLimit = config.getInt("jatos.openai.callLimit");
         openAiTimeout = config.getInt("jatos.openai.timeout");
+        openAiRateLimitPerMinute = config.getInt("jatos.openai.rateLimit.perMinute");
+        openAiRateLimitBurst = config.getInt("jatos.openai.rateLimit.burst");
+        openAiSyncInterval = getDurationWithDefaultUnit(config, "jatos.openai.syncInterval");
+        openAiCacheTtl = getDurationWithDefaultUnit(config, "jatos.openai.cache.ttl");
+        openAiCacheMaxSize = config.getBytes("jatos.openai.cache.maxSize");
+        openAiCacheMaxEntrySize = config.getBytes("jatos.openai.cache.maxEntrySize");
     }
 
     /**
@@ -386,6 +464,34 @@ public class Common {
         return resultUploadsPath;
     }
 
+    /**
+     * Path in the file system where JATOS stores the archive files of archived study results
+     */
+    public static String getResultArchivePath() {
+        return resultArchivePath;
+    }
+
+    /**
+     * Interval in which old study results are archived according to their study's retention (0 turns it off)
+     */
+    public static Duration getResultArchiveInterval() {
+        return resultArchiveInterval;
+    }
+
+    /**
+     * If true, the result data are indexed in a local full-text search index
+     */
+    public static boolean isResultSearchEnabled() {
+        return resultSearchEnabled;
+    }
+
+    /**
+     * Path in the file system where JATOS stores the full-text search index of the result data
+     */
+    public static String getResultSearchPath() {
+        return resultSearchPath;
+    }
+
     /**
      * Max file size in bytes for a single uploaded file
      */
@@ -466,6 +572,55 @@ public class Common {
         return dbConnectionPoolSize;
     }
 
+    /**
+     * Names of the read-only database replicas (each configured as a Play database, db.<name>)
+     */
+    public static List<String> getDbReplicas() {
+        return dbReplicas;
+    }
+
+    /**
+     * Max replication lag of a database replica. A replica that lags further behind isn't used.
+     */
+    public static Duration getDbReplicasMaxLag() {
+        return dbReplicasMaxLag;
+    }
+
+    /**
+     * Interval in which the replication lag of the database replicas is checked
+     */
+    public static Duration getDbReplicasCheckInterval() {
+        return dbReplicasCheckInterval;
+    }
+
+    /**
+     * Interval in which the result counters are recomputed from the results (0 turns it off)
+     */
+    public static Duration getResultCountersRepairInterval() {
+        return resultCountersRepairInterval;
+    }
+
+    /**
+     * Number of StudyResults that a result removal job removes in one transaction
+     */
+    public static int getResultDeletionChunkSize() {
+        return resultDeletionChunkSize;
+    }
+
+    /**
+     * Interval in which unfinished result removal jobs are looked for (e.g. to resume them after a restart)
+     */
+    public static Duration getResultDeletionPollInterval() {
+        return resultDeletionPollInterval;
+    }
+
+    /**
+     * Interval in which the upload dirs of removed results are removed from the disk
+     */
+    public static Duration getResultUploadsSweepInterval() {
+        return resultUploadsSweepInterval;
+    }
+
     /**
      * MAC address of the network interface
      */
@@ -937,6 +1092,13 @@ public class Common {
         return showResultFileSizeInStudyManager;
     }
 
+    /**
+     * Interval in which the study statistics (sizes on the disk and last start) are refreshed (0 turns it off)
+     */
+    public static Duration getStudyStatisticsRefreshInterval() {
+        return studyStatisticsRefreshInterval;
+    }
+
     /**
      * If true, it is allowed to grant users the Superuser role
      */
@@ -995,6 +1157,27 @@ public class Common {
         return "ASYNCSTDOUT".equals(logsAppender) || "STDOUT".equals(logsAppender);
     }
 
+    /**
+     * Fraction of requests (0.0 - 1.0) that are written into the access logs if no route specific rate applies
+     */
+    public static double getAccessLogsSamplingDefault() {
+        return accessLogsSamplingDefault;
+    }
+
+    /**
+     * Route specific sampling rates of the access logs: pairs of a regex (searched in the request path) and a rate
+     */
+    public static List<Pair<Pattern, Double>> getAccessLogsSamplingRoutes() {
+        return accessLogsSamplingRoutes;
+    }
+
+    /**
+     * Requests that take longer than this are always written into the access logs
+     */
+    public static Duration getAccessLogsSlowThreshold() {
+        return accessLogsSlowThreshold;
+    }
+
     /**
      * Path to the JATOS tmp directory. If not set, it is System.getProperty("java.io.tmpdir").
      */
@@ -1009,6 +1192,27 @@ public class Common {
         return multiNode;
     }
 
+    /**
+     * Interval in which a node polls the database for channel messages from other nodes (multi-node only)
+     */
+    public static Duration getMultiNodeBackplanePollInterval() {
+        return multiNodeBackplanePollInterval;
+    }
+
+    /**
+     * How long channel messages between nodes are kept in the database (multi-node only)
+     */
+    public static Duration getMultiNodeBackplaneRetention() {
+        return multiNodeBackplaneRetention;
+    }
+
+    /**
+     * If true, Hibernate collects the statistics of the second-level cache (shown in the admin status)
+     */
+    public static boolean isEntityCacheStatistics() {
+        return entityCacheStatistics;
+    }
+
     /**
      * JATOS' thread pool size
      */
@@ -1038,7 +1242,7 @@ public class Common {
     }
 
     /**
-     * Interval in seconds the group cleaner is started.
+     * Interval in seconds in which a multi-node JATOS looks for active group members that joined on other nodes
      */
     public static int getGroupsCleaningInterval() {
         return groupsCleaningInterval;
@@ -1051,6 +1255,84 @@ public class Common {
         return groupsCleaningMemberIdleAfter;
     }
 
+    /**
+     * Strategy to assign a joining member to an open group: fillFirst, balance or fifo
+     */
+    public static String getGroupsMatchmakingStrategy() {
+        return groupsMatchmakingStrategy;
+    }
+
+    /**
+     * Default time window in which group session patches are combined (0 means no combining)
+     */
+    public static Duration getGroupSessionPatchWindow() {
+        return groupSessionPatchWindow;
+    }
+
+    /**
+     * Number of the last batch or group session patch messages a dispatcher keeps for reconnecting clients
+     */
+    public static int getSessionPatchLogSize() {
+        return sessionPatchLogSize;
+    }
+
+    /**
+     * Interval in which the in-memory batch sessions are written to the database
+     */
+    public static Duration getBatchSessionSnapshotInterval() {
+        return batchSessionSnapshotInterval;
+    }
+
+    /**
+     * Path to the directory where the batch session patches are journaled that aren't in the database yet
+     */
+    public static String getBatchSessionJournalPath() {
+        return batchSessionJournalPath;
+    }
+
+    /**
+     * Batch sessions that weren't changed for this time are removed from memory
+     */
+    public static Duration getBatchSessionIdleTimeout() {
+        return batchSessionIdleTimeout;
+    }
+
+    /**
+     * Max number of study starts that are processed at the same time (0 means no limit)
+     */
+    public static int getStudyAdmissionMaxConcurrentStarts() {
+        return studyAdmissionMaxConcurrentStarts;
+    }
+
+    /**
+     * Default max number of starts of the same study that are processed at the same time (0 means no limit). Can be
+     * overridden by the study.
+     */
+    public static int getStudyAdmissionMaxConcurrentStartsPerStudy() {
+        return studyAdmissionMaxConcurrentStartsPerStudy;
+    }
+
+    /**
+     * Max number of participants in the study admission's waiting room
+     */
+    public static int getStudyAdmissionMaxWaiting() {
+        return studyAdmissionMaxWaiting;
+    }
+
+    /**
+     * Interval in which the waiting room page polls its queue position
+     */
+    public static Duration getStudyAdmissionPollInterval() {
+        return studyAdmissionPollInterval;
+    }
+
+    /**
+     * Time an admitted participant has to start the study before the place is given to the next one
+     */
+    public static Duration getStudyAdmissionAdmittedTimeout() {
+        return studyAdmissionAdmittedTimeout;
+    }
+
     /**
      * StudyResult's lastSeenDate is updated only if its current value is older than this threshold (in seconds).
      */
@@ -1069,6 +1351,13 @@ public class Common {
         return openAiApiKey;
     }
 
+    /**
+     * Scheme and host of the OpenAI API
+     */
+    public static String getOpenAiUrl() {
+        return openAiUrl;
+    }
+
     /**
      * Returns the URL base path used for accessing the OpenAI API.
      */
@@ -1089,4 +1378,46 @@ public class Common {
     public static int getOpenAiTimeout() {
         return openAiTimeout;
     }
+
+    /**
+     * Max number of OpenAI API calls per minute and study run (0 means no limit)
+     */
+    public static int getOpenAiRateLimitPerMinute() {
+        return openAiRateLimitPerMinute;
+    }
+
+    /**
+     * Max number of OpenAI API calls a study run can do at once (size of the token bucket)
+     */
+    public static int getOpenAiRateLimitBurst() {
+        return openAiRateLimitBurst;
+    }
+
+    /**
+     * Interval in which the OpenAI API call counts are written to the database
+     */
+    public static Duration getOpenAiSyncInterval() {
+        return openAiSyncInterval;
+    }
+
+    /**
+     * How long a cached OpenAI API response is kept
+     */
+    public static Duration getOpenAiCacheTtl() {
+        return openAiCacheTtl;
+    }
+
+    /**
+     * Max size in bytes of all cached OpenAI API responses together
+     */
+    public static long getOpenAiCacheMaxSize() {
+        return openAiCacheMaxSize;
+    }
+
+    /**
+     * Max size in bytes of a single OpenAI API response to be cached
+     */
+    public static long getOpenAiCacheMaxEntrySize() {
+        return openAiCacheMaxEntrySize;
+    }
 }
@@ -0,0 +1,70 @@
+package general.common;
+
+import play.Logger;
+import play.db.jpa.Transactional;
+import play.http.ActionCreator;
+import play.libs.concurrent.HttpExecution;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Routes every Java action that needs the database (annotated with {@link Transactional}) to the
+ * {@link DatabaseExecutionContext}. It is configured to run before all other action compositions
+ * (play.http.actionComposition.executeActionCreatorActionFirst) so the whole action chain, including the transaction
+ * and authentication, runs on the database dispatcher. Actions without database access stay on Play's default
+ * dispatcher.
+ * <p>
+ * If the database execution context is saturated the request is answered right away with 503 Service Unavailable and
+ * a Retry-After header.
+ *
+ * @author Kristian Lange
+ */
+public class DatabaseActionCreator implements ActionCreator {
+
+    private static final Logger.ALogger LOGGER = Logger.of(DatabaseActionCreator.class);
+
+    private final DatabaseExecutionContext dbExecutionContext;
+
+    @Inject
+    DatabaseActionCreator(DatabaseExecutionContext dbExecutionContext) {
+        this.dbExecutionContext = dbExecutionContext;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public Action createAction(Http.Request request, Method actionMethod) {
+        boolean usesDb = actionMethod.isAnnotationPresent(Transactional.class)
+                || actionMethod.getDeclaringClass().isAnnotationPresent(Transactional.class);
+        return new Action.Simple() {
+            @Override
+            public CompletionStage<Result> call(Http.Context ctx) {
+                if (!usesDb) return delegate.call(ctx);
+
+                // Keeps the Http.Context and the class loader when switching threads
+                Executor executor = HttpExecution.fromThread((Executor) dbExecutionContext);
+                try {
+                    return CompletableFuture.supplyAsync(() -> delegate.call(ctx), executor)
+                            .thenCompose(Function.identity());
+                } catch (RejectedExecutionException e) {
+                    LOGGER.warn("Database execution context saturated - rejected " + ctx.request().method() + " "
+                            + ctx.request().uri());
+                    return CompletableFuture.completedFuture(
+                            Results.status(Http.Status.SERVICE_UNAVAILABLE, "Server is busy. Please try again later.")
+                                    .withHeader(Http.HeaderNames.RETRY_AFTER,
+                                            String.valueOf(DatabaseExecutionContext.RETRY_AFTER_SECONDS)));
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,112 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution context for blocking database work (JPA). It runs on its own Akka dispatcher ('database.dispatcher' in
+ * application.conf) that is sized to the database connection pool. This way a slow database only slows down the
+ * requests that actually need the database, while Play's default dispatcher stays free for e.g. static assets, health
+ * checks and WebSockets (bulkhead).
+ * <p>
+ * The number of tasks waiting for a thread is limited (jatos.db.executionContext.maxQueued). If the limit is reached,
+ * further tasks are rejected with a RejectedExecutionException so requests fail fast instead of piling up.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    private static final Logger.ALogger LOGGER = Logger.of(DatabaseExecutionContext.class);
+
+    /**
+     * Name of the Akka dispatcher as configured in application.conf
+     */
+    public static final String DISPATCHER_NAME = "database.dispatcher";
+
+    /**
+     * Seconds a client should wait before retrying a request that was rejected because this execution context was
+     * saturated (sent in the Retry-After header of the 503 response)
+     */
+    public static final int RETRY_AFTER_SECONDS = 5;
+
+    private final int poolSize;
+    private final int maxQueued;
+
+    /**
+     * Tasks that are queued or running
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong maxQueueWaitMs = new AtomicLong();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem, Config config) {
+        super(actorSystem, DISPATCHER_NAME);
+        this.poolSize = config.getInt(DISPATCHER_NAME + ".thread-pool-executor.fixed-pool-size");
+        this.maxQueued = config.getInt("jatos.db.executionContext.maxQueued");
+        LOGGER.info("Database execution context with " + poolSize + " threads and max " + maxQueued + " queued tasks");
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        int current = inFlight.incrementAndGet();
+        if (current > poolSize + maxQueued) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException("Database execution context is saturated");
+        }
+        peakInFlight.accumulateAndGet(current, Math::max);
+
+        long queuedAt = System.nanoTime();
+        try {
+            super.execute(() -> {
+                maxQueueWaitMs.accumulateAndGet((System.nanoTime() - queuedAt) / 1_000_000, Math::max);
+                running.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    running.decrementAndGet();
+                    inFlight.decrementAndGet();
+                    executed.increment();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Saturation metrics of this execution context (e.g. for the admin status)
+     */
+    public Map<String, Object> getMetrics() {
+        int inFlightNow = inFlight.get();
+        int runningNow = running.get();
+        return ImmutableMap.<String, Object>builder()
+                .put("poolSize", poolSize)
+                .put("maxQueued", maxQueued)
+                .put("running", runningNow)
+                .put("queued", Math.max(0, inFlightNow - runningNow))
+                .put("peakInFlight", peakInFlight.get())
+                .put("maxQueueWaitMs", maxQueueWaitMs.get())
+                .put("executed", executed.sum())
+                .put("rejected", rejected.sum())
+                .build();
+    }
+
+}
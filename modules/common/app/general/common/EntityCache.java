@@ -0,0 +1,196 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.google.common.collect.ImmutableMap;
+import org.hibernate.Cache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import play.Logger;
+import play.db.Database;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hibernate's second-level cache holds the read-mostly entities Study, Component, Batch and User together with their
+ * collections (read-write strategy). Results, group results and workers are never cached. Additionally, the lookups by
+ * UUID use the query cache. The cache is a local Caffeine cache (configured in persistence.xml and application.conf).
+ * <p>
+ * In a multi-node JATOS each node has its own cache. Each transaction that changes a cached entity or collection
+ * increments the version of the entity's type in the EntityCacheVersion table (see EntityCacheIntegrator). Every node
+ * polls these versions (jatos.multiNodeBackplane.pollInterval) and evicts the entities, collections and cached queries
+ * of a type if another node changed it. So a node serves an outdated entity for at most one poll interval.
+ * <p>
+ * Hibernate's statistics (hit and miss counts in the admin status) cost some overhead on each cache access and are
+ * only collected if jatos.entityCache.statistics is true.
+ * <p>
+ * To read from the database instead of the cache, pass the {@link #BYPASS} hints to EntityManager.find or a query.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class EntityCache {
+
+    private static final Logger.ALogger LOGGER = Logger.of(EntityCache.class);
+
+    /**
+     * Hints for EntityManager.find or queries: read from the database and put the result into the cache
+     */
+    public static final Map<String, Object> BYPASS = ImmutableMap.of(
+            "javax.persistence.cache.retrieveMode", CacheRetrieveMode.BYPASS,
+            "javax.persistence.cache.storeMode", CacheStoreMode.REFRESH);
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final Database db;
+
+    private volatile SessionFactoryImplementor sessionFactory;
+
+    /**
+     * Last polled versions by entity name
+     */
+    private Map<String, Long> versions = new HashMap<>();
+
+    private final LongAdder evictions = new LongAdder();
+
+    @Inject
+    EntityCache(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa, Database db) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.db = db;
+    }
+
+    /**
+     * Turns on Hibernate's statistics if configured and starts polling the versions in a multi-node JATOS. Called once
+     * during application start.
+     */
+    public void start() {
+        sessionFactory().getStatistics().setStatisticsEnabled(Common.isEntityCacheStatistics());
+        if (!Common.isMultiNode()) return;
+
+        versions = readVersions();
+        Duration interval = Common.getMultiNodeBackplanePollInterval();
+        Cancellable poller = actorSystem.scheduler().schedule(interval, interval, this::poll,
+                actorSystem.dispatcher());
+        lifecycle.addStopHook(() -> {
+            poller.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    synchronized void poll() {
+        try {
+            Map<String, Long> current = readVersions();
+            EntityCacheIntegrator.ChangeListener changeListener =
+                    EntityCacheIntegrator.findChangeListener(sessionFactory());
+            Set<String> entityNames = new HashSet<>(current.keySet());
+            entityNames.addAll(versions.keySet());
+            for (String entityName : entityNames) {
+                long last = versions.getOrDefault(entityName, 0L);
+                long now = current.getOrDefault(entityName, 0L);
+                if (now == last) continue;
+
+                boolean changedByOthers = now < last;
+                for (long v = last + 1; v <= now; v++) {
+                    if (!changeListener.removeOwnVersion(entityName, v)) changedByOthers = true;
+                }
+                changeListener.removeOwnVersionsUpTo(entityName, now);
+                if (changedByOthers) evict(entityName);
+            }
+            versions = current;
+        } catch (Exception e) {
+            LOGGER.error(".poll: couldn't check the versions of the entity cache", e);
+        }
+    }
+
+    private Map<String, Long> readVersions() {
+        return db.withConnection(connection -> {
+            Map<String, Long> result = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(
+                         "SELECT `entityName`, `version` FROM `EntityCacheVersion`")) {
+                while (resultSet.next()) result.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Evicts the entities of the given type together with their collections from this node's second-level cache. The
+     * cached query results are evicted too since they might contain entities of this type.
+     */
+    private void evict(String entityName) {
+        SessionFactoryImplementor sessionFactory = sessionFactory();
+        Cache cache = sessionFactory.getCache();
+        cache.evictEntityData(entityName);
+        for (String role : sessionFactory.getMetamodel().getAllCollectionRoles()) {
+            if (role.startsWith(entityName + ".")) cache.evictCollectionData(role);
+        }
+        cache.evictQueryRegions();
+        evictions.increment();
+        LOGGER.debug(".evict: evicted " + entityName + " from the entity cache");
+    }
+
+    /**
+     * Evicts all entities, collections and query results from this node's second-level cache
+     */
+    public void evictAll() {
+        sessionFactory().getCache().evictAllRegions();
+        evictions.increment();
+        LOGGER.debug(".evictAll: evicted the entity cache");
+    }
+
+    private SessionFactoryImplementor sessionFactory() {
+        if (sessionFactory == null) {
+            sessionFactory = jpa.withTransaction(
+                    (EntityManager em) -> em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class));
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * Hit and miss metrics of the second-level cache and the query cache (e.g. for the admin status). Without
+     * jatos.entityCache.statistics only the number of evictions.
+     */
+    public Map<String, Object> getMetrics() {
+        Statistics statistics = sessionFactory().getStatistics();
+        if (!statistics.isStatisticsEnabled()) return ImmutableMap.<String, Object>of("evictions", evictions.sum());
+        ImmutableMap.Builder<String, Object> regions = ImmutableMap.builder();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getCacheRegionStatistics(regionName);
+            if (region == null) continue;
+            regions.put(regionName, ImmutableMap.of(
+                    "hits", region.getHitCount(),
+                    "misses", region.getMissCount(),
+                    "puts", region.getPutCount()));
+        }
+        return ImmutableMap.<String, Object>builder()
+                .put("hits", statistics.getSecondLevelCacheHitCount())
+                .put("misses", statistics.getSecondLevelCacheMissCount())
+                .put("puts", statistics.getSecondLevelCachePutCount())
+                .put("queryHits", statistics.getQueryCacheHitCount())
+                .put("queryMisses", statistics.getQueryCacheMissCount())
+                .put("evictions", evictions.sum())
+                .put("regions", regions.build())
+                .build();
+    }
+
+}
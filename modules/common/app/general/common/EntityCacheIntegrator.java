@@ -0,0 +1,220 @@
+package general.common;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Registers the listener that increments the version of an entity type in the EntityCacheVersion table if a
+ * transaction changed an entity of this type (or one of its collections) that is in the second-level cache - this way
+ * the other nodes of a multi-node JATOS know which part of their cache they have to evict (see EntityCache). The
+ * versions are incremented once per transaction right before the commit. A single-node JATOS doesn't need this.
+ * <p>
+ * Hibernate finds this integrator via META-INF/services.
+ *
+ * @author Kristian Lange
+ */
+public class EntityCacheIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+        ChangeListener listener = new ChangeListener();
+        registry.appendListeners(EventType.POST_INSERT, listener);
+        registry.appendListeners(EventType.POST_UPDATE, listener);
+        registry.appendListeners(EventType.POST_DELETE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, listener);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, listener);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    /**
+     * Returns the ChangeListener registered with the given session factory
+     */
+    static ChangeListener findChangeListener(SessionFactoryImplementor sessionFactory) {
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        for (Object listener : registry.getEventListenerGroup(EventType.POST_INSERT).listeners()) {
+            if (listener instanceof ChangeListener) return (ChangeListener) listener;
+        }
+        throw new IllegalStateException("EntityCacheIntegrator isn't registered");
+    }
+
+    static class ChangeListener implements PostInsertEventListener, PostUpdateEventListener,
+            PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+            PostCollectionRemoveEventListener {
+
+        /**
+         * Properties that change with nearly every request (e.g. User's lastSeen). Other nodes don't have to evict
+         * their cache for them - they only show up in the GUI.
+         */
+        private static final Set<String> VOLATILE_PROPERTIES = Set.of("lastSeen", "lastLogin");
+
+        /**
+         * Version increments of the sessions that changed a cached entity type in their current transaction
+         */
+        private final Map<SessionImplementor, VersionIncrement> pending =
+                Collections.synchronizedMap(new WeakHashMap<>());
+
+        /**
+         * Versions per entity type that were written by this node. The EntityCache doesn't evict its cache for them
+         * since this node's cache is already up-to-date.
+         */
+        private final Map<String, Set<Long>> ownVersions = new ConcurrentHashMap<>();
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (event.getPersister().hasCache()) {
+                incrementVersion(event.getSession(), event.getPersister().getRootEntityName());
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (event.getPersister().hasCache() && !onlyVolatileChanged(event)) {
+                incrementVersion(event.getSession(), event.getPersister().getRootEntityName());
+            }
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            if (event.getPersister().hasCache()) {
+                incrementVersion(event.getSession(), event.getPersister().getRootEntityName());
+            }
+        }
+
+        @Override
+        public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+            onCollectionChange(event);
+        }
+
+        @Override
+        public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+            onCollectionChange(event);
+        }
+
+        @Override
+        public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+            onCollectionChange(event);
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+
+        /**
+         * A changed collection counts as a change of its owner's entity type
+         */
+        private void onCollectionChange(AbstractCollectionEvent event) {
+            String role = event.getCollection().getRole();
+            if (role == null) return;
+            CollectionPersister persister = event.getSession().getFactory().getMetamodel().collectionPersister(role);
+            if (persister.hasCache()) {
+                incrementVersion(event.getSession(), persister.getOwnerEntityPersister().getRootEntityName());
+            }
+        }
+
+        private boolean onlyVolatileChanged(PostUpdateEvent event) {
+            int[] dirtyProperties = event.getDirtyProperties();
+            if (dirtyProperties == null || dirtyProperties.length == 0) return false;
+            String[] propertyNames = event.getPersister().getPropertyNames();
+            for (int index : dirtyProperties) {
+                if (!VOLATILE_PROPERTIES.contains(propertyNames[index])) return false;
+            }
+            return true;
+        }
+
+        void addOwnVersion(String entityName, long version) {
+            ownVersions.computeIfAbsent(entityName, k -> ConcurrentHashMap.newKeySet()).add(version);
+        }
+
+        /**
+         * Returns true if this node wrote the given version of the entity type and forgets about it
+         */
+        boolean removeOwnVersion(String entityName, long version) {
+            Set<Long> versions = ownVersions.get(entityName);
+            return versions != null && versions.remove(version);
+        }
+
+        /**
+         * Forgets about all versions of the entity type up to the given one
+         */
+        void removeOwnVersionsUpTo(String entityName, long version) {
+            Set<Long> versions = ownVersions.get(entityName);
+            if (versions != null) versions.removeIf(v -> v <= version);
+        }
+
+        private void incrementVersion(EventSource session, String entityName) {
+            if (!Common.isMultiNode()) return;
+            VersionIncrement increment;
+            synchronized (pending) {
+                increment = pending.get(session);
+                if (increment == null) {
+                    increment = new VersionIncrement();
+                    pending.put(session, increment);
+                    session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) increment);
+                    session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) increment);
+                }
+            }
+            increment.entityNames.add(entityName);
+        }
+
+        private class VersionIncrement implements BeforeTransactionCompletionProcess,
+                AfterTransactionCompletionProcess {
+
+            /**
+             * Sorted, so concurrent transactions lock the version rows in the same order
+             */
+            private final Set<String> entityNames = new ConcurrentSkipListSet<>();
+
+            private final Map<String, Long> versions = new HashMap<>();
+
+            @Override
+            public void doBeforeTransactionCompletion(SessionImplementor session) {
+                session.doWork(connection -> {
+                    try (PreparedStatement increment = connection.prepareStatement(
+                            "INSERT INTO `EntityCacheVersion` (`entityName`, `version`) VALUES (?, 1) "
+                                    + "ON DUPLICATE KEY UPDATE `version` = `version` + 1");
+                         PreparedStatement select = connection.prepareStatement(
+                                 "SELECT `version` FROM `EntityCacheVersion` WHERE `entityName` = ?")) {
+                        for (String entityName : entityNames) {
+                            increment.setString(1, entityName);
+                            increment.executeUpdate();
+                            select.setString(1, entityName);
+                            try (ResultSet resultSet = select.executeQuery()) {
+                                if (resultSet.next()) versions.put(entityName, resultSet.getLong(1));
+                            }
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+                pending.remove(session);
+                if (success) versions.forEach(ChangeListener.this::addOwnVersion);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Execution context for blocking work on the filesystem that runs in the background, e.g. walking the study assets
+ * folders for the study statistics, writing and reading the result archive files or removing the upload dirs of
+ * removed results. It runs on its own small Akka dispatcher ('io.dispatcher' in application.conf), so it neither
+ * blocks Play's default dispatcher nor takes threads from the DatabaseExecutionContext that are sized to the database
+ * connection pool. Database work that belongs to the IO is done in short transactions before or after it.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class IoExecutionContext extends CustomExecutionContext {
+
+    /**
+     * Name of the Akka dispatcher as configured in application.conf
+     */
+    public static final String DISPATCHER_NAME = "io.dispatcher";
+
+    @Inject
+    public IoExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, DISPATCHER_NAME);
+    }
+
+}
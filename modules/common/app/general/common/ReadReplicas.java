@@ -0,0 +1,233 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.google.common.collect.ImmutableMap;
+import play.Logger;
+import play.db.DBApi;
+import play.api.libs.JNDI;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes read-only transactions (result exports, result tables, counts and the admin statistics) to read-only replicas
+ * of the database. Each replica is an additional Play database (db.&lt;name&gt;) listed in jatos.db.replicas.names.
+ * Without replicas everything stays on the primary database.
+ * <p>
+ * Every check interval the primary database gets a heartbeat (ReplicationHeartbeat table) that is replicated like any
+ * other row. A replica's lag is the difference between the heartbeat in the primary and in the replica. A replica is
+ * only used if it answered the last check and its lag is within jatos.db.replicas.maxLag. If no replica is usable the
+ * read-only transactions fall back to the primary database.
+ * <p>
+ * The read-only transactions use their own persistence unit (replicaPersistenceUnit, without second-level cache) that
+ * gets its connections from {@link ReplicaConnectionProvider}. Hibernate creates the connection provider itself, so it
+ * finds this singleton in JNDI (like the persistence units find Play's DefaultDS).
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ReadReplicas {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ReadReplicas.class);
+
+    /**
+     * Name of the persistence unit for read-only transactions (jpa.replica in application.conf)
+     */
+    public static final String PERSISTENCE_UNIT = "replica";
+
+    /**
+     * JNDI name under which ReplicaConnectionProvider finds this singleton
+     */
+    static final String JNDI_NAME = "ReadReplicas";
+
+    private volatile DataSource primary;
+    private volatile List<Replica> replicas = Collections.emptyList();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryConnections = new LongAdder();
+
+    static class Replica {
+        final String name;
+        final DataSource dataSource;
+        volatile boolean usable = false;
+        /**
+         * Lag in ms in the last check, or -1 if the replica didn't answer
+         */
+        volatile long lag = -1;
+        final LongAdder connections = new LongAdder();
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final DBApi dbApi;
+
+    @Inject
+    ReadReplicas(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa, DBApi dbApi) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.dbApi = dbApi;
+    }
+
+    /**
+     * Sets up the replicas and starts checking their lag. Called once during application start.
+     */
+    public void start() {
+        init();
+        if (replicas.isEmpty()) return;
+
+        try {
+            JNDI.initialContext().rebind(JNDI_NAME, this);
+        } catch (NamingException e) {
+            LOGGER.error(".start: couldn't bind the database replicas to JNDI - read-only transactions will fail", e);
+        }
+        LOGGER.info("Read-only transactions use the database replicas " + String.join(", ", Common.getDbReplicas()));
+        checkLag();
+        Duration interval = Common.getDbReplicasCheckInterval();
+        Cancellable checker = actorSystem.scheduler().schedule(interval, interval, this::checkLag,
+                actorSystem.dispatcher());
+        lifecycle.addStopHook(() -> {
+            checker.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    void init() {
+        primary = dbApi.getDatabase("default").getDataSource();
+        replicas = Common.getDbReplicas().stream()
+                .map(name -> new Replica(name, dbApi.getDatabase(name).getDataSource()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the block in a read-only transaction on a replica. Without replicas it runs in a usual transaction on the
+     * primary database.
+     */
+    public <T> T withTransaction(Function<EntityManager, T> block) {
+        if (replicas.isEmpty()) return jpa.withTransaction(block);
+        return jpa.withTransaction(PERSISTENCE_UNIT, true, block);
+    }
+
+    /**
+     * Runs the block in a read-only transaction on a replica. Without replicas it runs in a usual transaction on the
+     * primary database.
+     */
+    public void withTransaction(Consumer<EntityManager> block) {
+        if (replicas.isEmpty()) {
+            jpa.withTransaction(block);
+        } else {
+            jpa.withTransaction(PERSISTENCE_UNIT, true, block);
+        }
+    }
+
+    /**
+     * Writes the heartbeat into the primary database and compares it with the one in each replica
+     */
+    synchronized void checkLag() {
+        long primaryBeat;
+        try (Connection connection = primary.getConnection()) {
+            primaryBeat = writeBeat(connection);
+        } catch (SQLException e) {
+            LOGGER.error(".checkLag: couldn't write the replication heartbeat", e);
+            return;
+        }
+
+        long maxLag = Common.getDbReplicasMaxLag().toMillis();
+        for (Replica replica : replicas) {
+            boolean wasUsable = replica.usable;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                replica.lag = Math.max(primaryBeat - readBeat(connection), 0);
+                replica.usable = replica.lag <= maxLag;
+                if (wasUsable && !replica.usable) {
+                    LOGGER.warn("Database replica " + replica.name + " lags " + replica.lag + " ms behind");
+                }
+            } catch (SQLException e) {
+                replica.lag = -1;
+                replica.usable = false;
+                if (wasUsable) LOGGER.warn("Database replica " + replica.name + " isn't reachable", e);
+            }
+            if (!wasUsable && replica.usable) LOGGER.info("Database replica " + replica.name + " is in use");
+        }
+    }
+
+    private long writeBeat(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE `ReplicationHeartbeat` SET `beat` = GREATEST(`beat`, ?) WHERE `id` = 1")) {
+            statement.setLong(1, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+        return readBeat(connection);
+    }
+
+    private long readBeat(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT `beat` FROM `ReplicationHeartbeat` WHERE `id` = 1")) {
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * Returns a read-only connection to one of the usable replicas (round-robin) or to the primary database if none is
+     * usable. Used by ReplicaConnectionProvider.
+     */
+    Connection getConnection() throws SQLException {
+        if (primary == null) throw new SQLException("Database replicas aren't set up yet");
+
+        List<Replica> usable = replicas.stream().filter(r -> r.usable).collect(Collectors.toList());
+        Connection connection = null;
+        if (!usable.isEmpty()) {
+            Replica replica = usable.get(Math.floorMod(next.getAndIncrement(), usable.size()));
+            try {
+                connection = replica.dataSource.getConnection();
+                replica.connections.increment();
+            } catch (SQLException e) {
+                // Skip it until the next check
+                replica.usable = false;
+                LOGGER.warn("Database replica " + replica.name + " isn't reachable", e);
+            }
+        }
+        if (connection == null) {
+            connection = primary.getConnection();
+            primaryConnections.increment();
+        }
+        connection.setReadOnly(true);
+        return connection;
+    }
+
+    /**
+     * Lag and usage of each replica (e.g. for the admin status)
+     */
+    public Map<String, Object> getMetrics() {
+        return ImmutableMap.of(
+                "primaryConnections", primaryConnections.sum(),
+                "replicas", replicas.stream().map(r -> ImmutableMap.of(
+                        "name", r.name,
+                        "usable", r.usable,
+                        "lag", r.lag,
+                        "connections", r.connections.sum())).collect(Collectors.toList()));
+    }
+
+}
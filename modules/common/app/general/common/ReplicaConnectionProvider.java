@@ -0,0 +1,61 @@
+package general.common;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import play.api.libs.JNDI;
+
+import javax.naming.NamingException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Hibernate ConnectionProvider of the replicaPersistenceUnit (see persistence.xml). It hands out read-only connections
+ * to a database replica or, if none is usable, to the primary database (see ReadReplicas). Hibernate creates this
+ * provider, so it looks up the ReadReplicas singleton in JNDI with the first connection.
+ *
+ * @author Kristian Lange
+ */
+public class ReplicaConnectionProvider implements ConnectionProvider {
+
+    private volatile ReadReplicas readReplicas;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return readReplicas().getConnection();
+    }
+
+    private ReadReplicas readReplicas() throws SQLException {
+        if (readReplicas == null) {
+            try {
+                readReplicas = (ReadReplicas) JNDI.initialContext().lookup(ReadReplicas.JNDI_NAME);
+            } catch (NamingException e) {
+                throw new SQLException("Database replicas aren't set up yet", e);
+            }
+        }
+        return readReplicas;
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return ConnectionProvider.class.equals(unwrapType) || ReplicaConnectionProvider.class.equals(unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (isUnwrappableAs(unwrapType)) return (T) this;
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+}
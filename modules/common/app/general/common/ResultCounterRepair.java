@@ -0,0 +1,134 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.ResultCounterDao;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Maintains the denormalized result counters (see ResultCounterDao) in the background:
+ * 1) Every few seconds it refreshes the counters of the StudyResults whose data changed during a study run (they are
+ * only marked while the participant submits the data), each StudyResult in its own transaction.
+ * 2) It periodically recomputes all counters from the results. The counters are changed together with the results,
+ * but some changes (e.g. the data size set during a migration) bypass them and a concurrent change can slip between
+ * the recomputation of a batch. The repair runs once per jatos.resultCounters.repairInterval, each batch in its own
+ * transaction.
+ * <p>
+ * Both run on the DatabaseExecutionContext.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultCounterRepair {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultCounterRepair.class);
+
+    /**
+     * Delay between two refreshes of the marked StudyResults
+     */
+    private static final Duration REFRESH_INTERVAL = Duration.ofSeconds(5);
+
+    /**
+     * Max number of marked StudyResults that are fetched at once
+     */
+    private static final int REFRESH_CHUNK_SIZE = 500;
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
+    private final ResultCounterDao resultCounterDao;
+
+    @Inject
+    ResultCounterRepair(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            DatabaseExecutionContext dbExecutionContext, ResultCounterDao resultCounterDao) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
+        this.resultCounterDao = resultCounterDao;
+    }
+
+    /**
+     * Starts the periodic refresh and repair. Called once during application start.
+     */
+    public void start() {
+        List<Cancellable> schedules = new ArrayList<>();
+        schedules.add(actorSystem.scheduler().schedule(REFRESH_INTERVAL, REFRESH_INTERVAL,
+                this::refreshMarked, dbExecutionContext));
+        Duration interval = Common.getResultCountersRepairInterval();
+        if (!interval.isZero()) {
+            schedules.add(actorSystem.scheduler().schedule(Duration.ofMinutes(1), interval,
+                    this::repair, dbExecutionContext));
+        }
+        lifecycle.addStopHook(() -> {
+            // The marks are in the database: what isn't refreshed yet is refreshed after the next start
+            schedules.forEach(Cancellable::cancel);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Refreshes the counters of all marked StudyResults, chunk by chunk
+     */
+    synchronized void refreshMarked() {
+        int refreshed = 0;
+        boolean failed = false;
+        List<Long> studyResultIds;
+        do {
+            try {
+                studyResultIds = jpa.withTransaction(
+                        (EntityManager em) -> resultCounterDao.findMarkedStudyResultIds(REFRESH_CHUNK_SIZE));
+            } catch (Exception e) {
+                LOGGER.error(".refreshMarked: couldn't get the marked study results", e);
+                return;
+            }
+            for (Long studyResultId : studyResultIds) {
+                try {
+                    if (jpa.withTransaction(
+                            (EntityManager em) -> resultCounterDao.refreshMarkedStudyResult(studyResultId))) {
+                        refreshed++;
+                    }
+                } catch (Exception e) {
+                    // The mark stays and the next refresh tries again
+                    LOGGER.error(".refreshMarked: couldn't refresh the result counters of study result "
+                            + studyResultId, e);
+                    failed = true;
+                }
+            }
+            // A failed mark would be fetched again: leave the rest to the next refresh
+        } while (!failed && studyResultIds.size() == REFRESH_CHUNK_SIZE);
+        if (refreshed > 0) {
+            LOGGER.debug(".refreshMarked: refreshed the result counters of " + refreshed + " study results");
+        }
+    }
+
+    synchronized void repair() {
+        List<Long> batchIds;
+        try {
+            batchIds = jpa.withTransaction((EntityManager em) -> resultCounterDao.findAllBatchIds());
+        } catch (Exception e) {
+            LOGGER.error(".repair: couldn't get the batches", e);
+            return;
+        }
+        for (Long batchId : batchIds) {
+            try {
+                jpa.withTransaction((EntityManager em) -> resultCounterDao.repair(batchId));
+            } catch (Exception e) {
+                LOGGER.error(".repair: couldn't repair the result counters of batch " + batchId, e);
+            }
+        }
+        LOGGER.info(".repair: repaired the result counters of " + batchIds.size() + " batches");
+    }
+
+}
@@ -0,0 +1,433 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.ResultSearchDao;
+import daos.common.ResultSearchDao.IndexedComponentResult;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Optional full-text search index over the result data of all ComponentResults (jatos.resultSearch.enabled). It's an
+ * embedded Lucene index in the local file system (jatos.resultSearch.path). Each ComponentResult is one document with
+ * its result data (which includes the dataShort) and the IDs of its StudyResult, study and component, so search hits
+ * map back to the results.
+ * <p>
+ * The index is never written in the request that stores the result data: the request only marks the ComponentResult
+ * (in memory) and a background task indexes all marked ComponentResults every few seconds (on the
+ * IoExecutionContext). Marked ComponentResults that don't exist anymore are removed from the index. The bulk removal
+ * and the archival of StudyResults remove the index entries of their StudyResults the same way. Marks that couldn't
+ * be indexed are kept for the next run.
+ * <p>
+ * On start all ComponentResults with a higher ID than the highest indexed one are indexed (all of them if the index
+ * is new). The marks only live in memory: if JATOS wasn't stopped cleanly (the index wasn't closed), marks might be
+ * lost and the whole index is rebuilt. The documents of the rebuild get a new generation and the ones of older
+ * generations are removed at its end, so the search keeps working in the meantime.
+ * <p>
+ * The index is local to a JATOS node and the marks aren't shared between nodes. Therefore the search isn't available
+ * in a multi-node setup.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultSearchIndex {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultSearchIndex.class);
+
+    private static final String ID = "id";
+    private static final String STUDY_RESULT_ID = "studyResultId";
+    private static final String STUDY_ID = "studyId";
+    private static final String COMPONENT_ID = "componentId";
+    private static final String DATA = "data";
+    private static final String GENERATION = "generation";
+
+    /**
+     * Keys of the index' commit data
+     */
+    private static final String MAX_ID = "maxId";
+    private static final String CLOSED = "closed";
+
+    /**
+     * Delay between the runs of the background indexing
+     */
+    private static final Duration INDEX_DELAY = Duration.ofSeconds(5);
+
+    /**
+     * Number of ComponentResult IDs that are fetched at once during the catch-up on start
+     */
+    private static final int ID_CHUNK_SIZE = 1000;
+
+    /**
+     * Number of ComponentResults that are fetched at once with their result data
+     */
+    private static final int DATA_CHUNK_SIZE = 20;
+
+    /**
+     * A search hit
+     */
+    public static class Hit {
+        public final long componentResultId;
+        public final long studyResultId;
+        public final long studyId;
+        public final Long componentId;
+        public final float score;
+
+        public Hit(long componentResultId, long studyResultId, long studyId, Long componentId, float score) {
+            this.componentResultId = componentResultId;
+            this.studyResultId = studyResultId;
+            this.studyId = studyId;
+            this.componentId = componentId;
+            this.score = score;
+        }
+    }
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final IoExecutionContext ioExecutionContext;
+    private final ResultSearchDao resultSearchDao;
+
+    private final Set<Long> marked = ConcurrentHashMap.newKeySet();
+    private final Set<Long> removedStudyResultIds = ConcurrentHashMap.newKeySet();
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private volatile IndexWriter writer;
+    private volatile SearcherManager searcherManager;
+
+    /**
+     * Highest ComponentResult ID that was indexed. Only raised after the catch-up on start is done.
+     */
+    private long maxId;
+    private volatile boolean caughtUp = false;
+
+    /**
+     * Generation of the documents that are written. Documents of older generations are left over from before a
+     * rebuild.
+     */
+    private long generation;
+    private boolean rebuild;
+
+    @Inject
+    ResultSearchIndex(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            IoExecutionContext ioExecutionContext, ResultSearchDao resultSearchDao) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.ioExecutionContext = ioExecutionContext;
+        this.resultSearchDao = resultSearchDao;
+    }
+
+    /**
+     * Opens the index and starts the background indexing (if jatos.resultSearch.enabled is true and it's not a
+     * multi-node setup). Called once during application start.
+     */
+    public void start() {
+        if (!Common.isResultSearchEnabled()) return;
+        if (Common.isMultiNode()) {
+            LOGGER.warn(".start: search in result data isn't available in a multi-node setup");
+            return;
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            LOGGER.error(".start: couldn't open the result search index", e);
+            writer = null;
+            return;
+        }
+
+        actorSystem.scheduler().scheduleOnce(Duration.ZERO, this::catchUp, ioExecutionContext);
+        Cancellable indexer = actorSystem.scheduler().schedule(INDEX_DELAY, INDEX_DELAY,
+                this::indexMarked, ioExecutionContext);
+        lifecycle.addStopHook(() -> {
+            indexer.cancel();
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Opens the index and reads its commit data. An index that wasn't closed is rebuilt (see rebuild). An index
+     * without a generation was written by an older JATOS with a different document layout and is cleared. Right after
+     * opening, the index is committed as not closed: from now on there are marks that only live in memory.
+     */
+    synchronized void open() throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writer = new IndexWriter(FSDirectory.open(Path.of(Common.getResultSearchPath())), config);
+
+        Map<String, String> commitData = new HashMap<>();
+        Iterable<Map.Entry<String, String>> liveCommitData = writer.getLiveCommitData();
+        if (liveCommitData != null) liveCommitData.forEach(entry -> commitData.put(entry.getKey(), entry.getValue()));
+        if (commitData.containsKey(GENERATION)) {
+            maxId = Long.parseLong(commitData.get(MAX_ID));
+            generation = Long.parseLong(commitData.get(GENERATION));
+            rebuild = !Boolean.parseBoolean(commitData.get(CLOSED));
+            if (rebuild) generation++;
+        } else {
+            writer.deleteAll();
+            maxId = 0;
+            generation = 1;
+            rebuild = false;
+        }
+        searcherManager = new SearcherManager(writer, null);
+        commit(false);
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Marks the ComponentResult to be (re-)indexed by the background indexing, e.g. after its result data were
+     * submitted or appended. Never blocks.
+     */
+    public void markForIndexing(Long componentResultId) {
+        if (writer != null && componentResultId != null) marked.add(componentResultId);
+    }
+
+    /**
+     * Marks the StudyResults for the removal of their ComponentResults from the index by the background indexing, e.g.
+     * after they were removed or archived. Never blocks.
+     */
+    public void markForRemoval(Collection<Long> studyResultIds) {
+        if (writer != null) removedStudyResultIds.addAll(studyResultIds);
+    }
+
+    /**
+     * Searches the result data
+     *
+     * @param query    Query in Lucene's query syntax, e.g. 'error', '"condition A"', or 'cond*'
+     * @param studyIds Only search results of these studies. If null, search all.
+     * @param max      Max number of hits
+     * @return Hits ordered by relevance. They can contain ComponentResults that were removed in the meantime.
+     * @throws IllegalArgumentException If the query is malformed
+     */
+    public List<Hit> search(String query, Collection<Long> studyIds, int max) throws IOException {
+        if (writer == null) throw new IllegalStateException("Result search isn't enabled");
+        Query parsed;
+        try {
+            parsed = new QueryParser(DATA, analyzer).parse(query);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder().add(parsed, BooleanClause.Occur.MUST);
+        if (studyIds != null) {
+            List<BytesRef> terms = studyIds.stream().map(id -> new BytesRef(id.toString()))
+                    .collect(Collectors.toList());
+            builder.add(new TermInSetQuery(STUDY_ID, terms), BooleanClause.Occur.FILTER);
+        }
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            List<Hit> hits = new ArrayList<>();
+            for (ScoreDoc scoreDoc : searcher.search(builder.build(), max).scoreDocs) {
+                Document doc = searcher.doc(scoreDoc.doc);
+                IndexableField componentId = doc.getField(COMPONENT_ID);
+                hits.add(new Hit(Long.parseLong(doc.get(ID)),
+                        Long.parseLong(doc.get(STUDY_RESULT_ID)),
+                        Long.parseLong(doc.get(STUDY_ID)),
+                        componentId != null ? componentId.numericValue().longValue() : null,
+                        scoreDoc.score));
+            }
+            return hits;
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Removes the ComponentResults of the StudyResults that are marked for removal from the index and indexes all
+     * marked ComponentResults. If this fails, the marks are kept for the next run.
+     */
+    void indexMarked() {
+        if (marked.isEmpty() && removedStudyResultIds.isEmpty()) return;
+        // Unmark before reading the result data, so data that are appended in the meantime get marked again
+        List<Long> studyResultIds = new ArrayList<>(removedStudyResultIds);
+        removedStudyResultIds.removeAll(studyResultIds);
+        List<Long> componentResultIds = new ArrayList<>(marked);
+        marked.removeAll(componentResultIds);
+        Collections.sort(componentResultIds);
+        try {
+            index(componentResultIds, studyResultIds, caughtUp);
+        } catch (Exception e) {
+            LOGGER.error(".indexMarked: couldn't index " + componentResultIds.size() + " component results", e);
+            removedStudyResultIds.addAll(studyResultIds);
+            marked.addAll(componentResultIds);
+        }
+    }
+
+    /**
+     * Brings the index up to date after it was opened: rebuilds it if it wasn't closed properly, otherwise indexes the
+     * new ComponentResults
+     */
+    void catchUp() {
+        if (rebuild) {
+            rebuild();
+        } else {
+            indexNew();
+        }
+    }
+
+    /**
+     * Indexes all ComponentResults with a higher ID than the highest indexed one, e.g. the ones that were stored while
+     * the search was disabled
+     */
+    void indexNew() {
+        if (indexAfter(maxId)) caughtUp = true;
+    }
+
+    /**
+     * Indexes all ComponentResults again (with the new generation) and afterwards removes the documents of the older
+     * generations, e.g. ComponentResults that were removed while their marks got lost
+     */
+    void rebuild() {
+        LOGGER.info(".rebuild: the result search index wasn't closed properly - rebuilding it");
+        if (!indexAfter(0)) return;
+        try {
+            removeOlderGenerations();
+        } catch (Exception e) {
+            LOGGER.error(".rebuild: couldn't remove the older generations", e);
+            return;
+        }
+        caughtUp = true;
+    }
+
+    /**
+     * Indexes all ComponentResults with a higher ID than the given one. Returns false if it failed.
+     */
+    private boolean indexAfter(long fromId) {
+        int indexed = 0;
+        long afterId = fromId;
+        while (true) {
+            long lastId = afterId;
+            List<Long> componentResultIds;
+            try {
+                componentResultIds = jpa.withTransaction(
+                        (EntityManager em) -> resultSearchDao.findIdsAfter(lastId, ID_CHUNK_SIZE));
+                index(componentResultIds, List.of(), true);
+            } catch (Exception e) {
+                LOGGER.error(".indexAfter: couldn't index the component results after ID " + lastId, e);
+                return false;
+            }
+            indexed += componentResultIds.size();
+            if (componentResultIds.size() < ID_CHUNK_SIZE) break;
+            afterId = componentResultIds.get(componentResultIds.size() - 1);
+        }
+        if (indexed > 0) LOGGER.info(".indexAfter: indexed " + indexed + " component results");
+        return true;
+    }
+
+    private synchronized void index(List<Long> componentResultIds, List<Long> studyResultIds, boolean raiseMaxId)
+            throws IOException {
+        if (writer == null || (componentResultIds.isEmpty() && studyResultIds.isEmpty())) return;
+        if (!studyResultIds.isEmpty()) {
+            writer.deleteDocuments(studyResultIds.stream()
+                    .map(id -> new Term(STUDY_RESULT_ID, id.toString()))
+                    .toArray(Term[]::new));
+        }
+        for (int i = 0; i < componentResultIds.size(); i += DATA_CHUNK_SIZE) {
+            int end = Math.min(i + DATA_CHUNK_SIZE, componentResultIds.size());
+            List<Long> chunk = componentResultIds.subList(i, end);
+            List<IndexedComponentResult> componentResults = jpa.withTransaction(
+                    (EntityManager em) -> resultSearchDao.findForIndex(chunk));
+            Set<Long> removed = new HashSet<>(chunk);
+            for (IndexedComponentResult componentResult : componentResults) {
+                removed.remove(componentResult.id);
+                writer.updateDocument(new Term(ID, componentResult.id.toString()), toDocument(componentResult));
+            }
+            for (Long componentResultId : removed) {
+                writer.deleteDocuments(new Term(ID, componentResultId.toString()));
+            }
+        }
+        if (raiseMaxId && !componentResultIds.isEmpty()) {
+            maxId = Math.max(maxId, Collections.max(componentResultIds));
+        }
+        commit(false);
+    }
+
+    private synchronized void removeOlderGenerations() throws IOException {
+        if (writer == null) return;
+        writer.deleteDocuments(new BooleanQuery.Builder()
+                .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term(GENERATION, String.valueOf(generation))), BooleanClause.Occur.MUST_NOT)
+                .build());
+        commit(false);
+    }
+
+    /**
+     * Commits the index with its commit data. Only the commit on close sets 'closed' - an index that is opened without
+     * it wasn't closed properly.
+     */
+    private void commit(boolean closed) throws IOException {
+        writer.setLiveCommitData(Map.of(MAX_ID, String.valueOf(maxId), GENERATION, String.valueOf(generation),
+                CLOSED, String.valueOf(closed)).entrySet());
+        writer.commit();
+        searcherManager.maybeRefresh();
+    }
+
+    private Document toDocument(IndexedComponentResult componentResult) {
+        Document doc = new Document();
+        doc.add(new StringField(ID, componentResult.id.toString(), Field.Store.YES));
+        doc.add(new StringField(STUDY_RESULT_ID, componentResult.studyResultId.toString(), Field.Store.YES));
+        doc.add(new StringField(STUDY_ID, componentResult.studyId.toString(), Field.Store.YES));
+        if (componentResult.componentId != null) {
+            doc.add(new StoredField(COMPONENT_ID, componentResult.componentId));
+        }
+        if (componentResult.data != null) doc.add(new TextField(DATA, componentResult.data, Field.Store.NO));
+        doc.add(new StringField(GENERATION, String.valueOf(generation), Field.Store.NO));
+        return doc;
+    }
+
+    /**
+     * Indexes the remaining marks and closes the index. It's only marked as closed properly if no marks are left and
+     * the index caught up, otherwise it's rebuilt on the next start.
+     */
+    synchronized void close() {
+        if (writer == null) return;
+        indexMarked();
+        try {
+            commit(caughtUp && marked.isEmpty() && removedStudyResultIds.isEmpty());
+            searcherManager.close();
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.error(".close: couldn't close the result search index", e);
+        }
+        writer = null;
+    }
+
+}
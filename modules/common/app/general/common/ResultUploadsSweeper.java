@@ -0,0 +1,105 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.ResultDeletionDao;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Removes the upload dirs (and archive files) of removed StudyResults in the background. The set-based removal of
+ * results (see ResultDeletionDao) only queues the dirs (table ResultUploadsRemoval) in the same transaction that
+ * removes the results, so a request or a removal job never waits for the file system and no dir is forgotten after a
+ * restart. The queue is swept once per jatos.resultDeletion.sweepInterval on the IoExecutionContext, so the file
+ * system work doesn't take threads of the DatabaseExecutionContext.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultUploadsSweeper {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultUploadsSweeper.class);
+
+    /**
+     * Number of queued dirs that are fetched at once
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final IoExecutionContext ioExecutionContext;
+    private final ResultDeletionDao resultDeletionDao;
+    private final IOUtils ioUtils;
+
+    @Inject
+    ResultUploadsSweeper(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            IoExecutionContext ioExecutionContext, ResultDeletionDao resultDeletionDao, IOUtils ioUtils) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.ioExecutionContext = ioExecutionContext;
+        this.resultDeletionDao = resultDeletionDao;
+        this.ioUtils = ioUtils;
+    }
+
+    /**
+     * Starts the periodic sweeping. Called once during application start.
+     */
+    public void start() {
+        Duration interval = Common.getResultUploadsSweepInterval();
+        Cancellable sweeper = actorSystem.scheduler().schedule(Duration.ofSeconds(30), interval,
+                this::sweep, ioExecutionContext);
+        lifecycle.addStopHook(() -> {
+            sweeper.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Removes all queued upload dirs. A dir that can't be removed stays in the queue and is retried in the next sweep.
+     */
+    synchronized void sweep() {
+        int removed = 0;
+        while (true) {
+            List<Long> studyResultIds;
+            try {
+                studyResultIds = jpa.withTransaction(
+                        (EntityManager em) -> resultDeletionDao.findQueuedUploadsRemovals(CHUNK_SIZE));
+            } catch (Exception e) {
+                LOGGER.error(".sweep: couldn't get the queued result upload dirs", e);
+                return;
+            }
+
+            int removedInChunk = 0;
+            for (Long studyResultId : studyResultIds) {
+                try {
+                    ioUtils.removeResultUploadsDir(studyResultId);
+                    ioUtils.removeResultArchiveFile(studyResultId);
+                    jpa.withTransaction(
+                            (EntityManager em) -> resultDeletionDao.removeQueuedUploadsRemoval(studyResultId));
+                    removedInChunk++;
+                } catch (IOException e) {
+                    LOGGER.error(".sweep: couldn't remove upload dir of study result " + studyResultId, e);
+                } catch (Exception e) {
+                    LOGGER.error(".sweep: couldn't dequeue upload dir of study result " + studyResultId, e);
+                }
+            }
+            removed += removedInChunk;
+            // Stop if the queue is empty or nothing could be removed (retry in the next sweep)
+            if (studyResultIds.size() < CHUNK_SIZE || removedInChunk == 0) break;
+        }
+        if (removed > 0) LOGGER.info(".sweep: removed the upload dirs of " + removed + " study results");
+    }
+
+}
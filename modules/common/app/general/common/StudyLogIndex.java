@@ -0,0 +1,275 @@
+package general.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import play.Logger;
+import play.libs.Json;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sparse line-offset index of a single study log. Every {@link #SEGMENT_SIZE} log entries a record is added to an
+ * index file that lies next to the study log (same filename plus '.idx'). A record consists of three longs: the byte
+ * offset of the segment's first entry within the log file, the timestamp of the segment's first entry, and a 64 bit
+ * mask of the messages of all entries within the segment (see {@link #msgBit(String)}).
+ * <p>
+ * With this index a study log can be read from any entry position with a single seek and whole segments can be
+ * skipped if they can't contain entries of a requested time range or message.
+ * <p>
+ * All writes to the study log go through {@link #append} so the index and the log stay in sync. If the log was
+ * changed by someone else (e.g. another JATOS node in a multi-node setup or an older JATOS version) the index notices
+ * the changed file size and rebuilds itself.
+ *
+ * @author Kristian Lange
+ */
+class StudyLogIndex {
+
+    private static final Logger.ALogger LOGGER = Logger.of(StudyLogIndex.class);
+
+    /**
+     * Number of log entries per index segment
+     */
+    static final int SEGMENT_SIZE = 1000;
+
+    private static final int RECORD_BYTES = 3 * Long.BYTES;
+
+    private final Path logPath;
+    private final Path indexPath;
+
+    /**
+     * State of the index: an entryCount of -1 means it has to be (re)loaded from disk
+     */
+    private long entryCount = -1;
+    private long logSize = -1;
+    private long lastSegmentMask;
+
+    StudyLogIndex(Path logPath) {
+        this.logPath = logPath;
+        this.indexPath = Path.of(logPath + ".idx");
+    }
+
+    /**
+     * Snapshot of the index used for reading. The arrays are indexed by segment number.
+     */
+    static class Snapshot {
+        final long[] offsets;
+        final long[] timestamps;
+        final long[] masks;
+        final long entryCount;
+        final long logSize;
+
+        Snapshot(long[] offsets, long[] timestamps, long[] masks, long entryCount, long logSize) {
+            this.offsets = offsets;
+            this.timestamps = timestamps;
+            this.masks = masks;
+            this.entryCount = entryCount;
+            this.logSize = logSize;
+        }
+
+        int segmentCount() {
+            return offsets.length;
+        }
+    }
+
+    /**
+     * Returns the bit within a segment's message mask that represents the given message
+     */
+    static long msgBit(String msg) {
+        return 1L << ((msg != null ? msg.hashCode() : 0) & 63);
+    }
+
+    /**
+     * Creates a new study log with the given entry. Fails if the log already exists.
+     */
+    synchronized void create(String logEntry, long timestamp, String msg) throws IOException {
+        Files.deleteIfExists(indexPath);
+        Files.writeString(logPath, logEntry, StandardCharsets.ISO_8859_1, StandardOpenOption.CREATE_NEW);
+        entryCount = 1;
+        logSize = Files.size(logPath);
+        lastSegmentMask = msgBit(msg);
+        writeRecord(0, timestamp, lastSegmentMask);
+    }
+
+    /**
+     * Appends the log entry to the study log and updates the index accordingly
+     */
+    synchronized void append(String logEntry, long timestamp, String msg) throws IOException {
+        load();
+        long offset = Files.size(logPath);
+        Files.writeString(logPath, logEntry, StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+        if (entryCount % SEGMENT_SIZE == 0) {
+            lastSegmentMask = msgBit(msg);
+            writeRecord(offset, timestamp, lastSegmentMask);
+        } else if ((lastSegmentMask & msgBit(msg)) == 0) {
+            lastSegmentMask |= msgBit(msg);
+            updateLastMask(lastSegmentMask);
+        }
+        entryCount++;
+        logSize = Files.size(logPath);
+    }
+
+    synchronized Snapshot snapshot() throws IOException {
+        load();
+        int segments = (int) (Files.size(indexPath) / RECORD_BYTES);
+        long[] offsets = new long[segments];
+        long[] timestamps = new long[segments];
+        long[] masks = new long[segments];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            for (int i = 0; i < segments; i++) {
+                offsets[i] = in.readLong();
+                timestamps[i] = in.readLong();
+                masks[i] = in.readLong();
+            }
+        }
+        return new Snapshot(offsets, timestamps, masks, entryCount, logSize);
+    }
+
+    /**
+     * Removes the index file. Used when the study log is retired.
+     */
+    synchronized void delete() {
+        try {
+            Files.deleteIfExists(indexPath);
+        } catch (IOException e) {
+            LOGGER.error("Couldn't delete study log index " + indexPath, e);
+        }
+        entryCount = -1;
+        logSize = -1;
+    }
+
+    /**
+     * Opens a reader that starts at the given byte offset of the study log
+     */
+    BufferedReader openReader(long offset) throws IOException {
+        FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ);
+        channel.position(offset);
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Loads the index state if it's not loaded yet or if the study log was changed from outside. If the index file
+     * is missing or doesn't fit the log it is rebuilt with a single forward scan over the log.
+     */
+    private void load() throws IOException {
+        long currentLogSize = Files.size(logPath);
+        if (entryCount >= 0 && currentLogSize == logSize) return;
+
+        if (Files.exists(indexPath) && Files.size(indexPath) > 0 && Files.size(indexPath) % RECORD_BYTES == 0) {
+            long records = Files.size(indexPath) / RECORD_BYTES;
+            long lastOffset = readLong((records - 1) * RECORD_BYTES);
+            if (lastOffset <= currentLogSize && scanLastSegment(lastOffset, records, currentLogSize)) return;
+        }
+        rebuild(currentLogSize);
+    }
+
+    /**
+     * Counts the entries of the last segment and fills the state. Returns false if the segment is longer than
+     * SEGMENT_SIZE, which means the index isn't up-to-date.
+     */
+    private boolean scanLastSegment(long lastOffset, long records, long currentLogSize) throws IOException {
+        long count = 0;
+        long mask = 0;
+        try (BufferedReader reader = openReader(lastOffset)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                count++;
+                mask |= msgBit(extractMsg(line));
+            }
+        }
+        if (count > SEGMENT_SIZE) return false;
+        entryCount = (records - 1) * SEGMENT_SIZE + count;
+        logSize = currentLogSize;
+        lastSegmentMask = mask;
+        if (mask != readLong(records * RECORD_BYTES - Long.BYTES)) updateLastMask(mask);
+        return true;
+    }
+
+    private void rebuild(long currentLogSize) throws IOException {
+        LOGGER.info("Build index for study log " + logPath);
+        Path tmpPath = Path.of(indexPath + ".tmp");
+        long count = 0;
+        long mask = 0;
+        try (BufferedReader reader = openReader(0);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            // Keep track of the byte offset while reading (ISO_8859_1 has one byte per char)
+            long lineStart = 0;
+            StringBuilder line = new StringBuilder();
+            for (long offset = 0; offset < currentLogSize; offset++) {
+                int c = reader.read();
+                if (c == -1) break;
+                boolean lineEnd = c == '\n' || offset == currentLogSize - 1;
+                if (c != '\n') line.append((char) c);
+                if (!lineEnd) continue;
+
+                if (!line.toString().trim().isEmpty()) {
+                    JsonNode node = parse(line.toString());
+                    if (count % SEGMENT_SIZE == 0) {
+                        if (count > 0) out.writeLong(mask);
+                        mask = 0;
+                        // Point to the line break before the entry, the same as in append
+                        out.writeLong(Math.max(0, lineStart - 1));
+                        out.writeLong(node != null && node.has("timestamp") ? node.get("timestamp").asLong() : 0);
+                    }
+                    mask |= msgBit(node != null && node.has("msg") ? node.get("msg").asText() : null);
+                    count++;
+                }
+                line.setLength(0);
+                lineStart = offset + 1;
+            }
+            if (count > 0) out.writeLong(mask);
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+        entryCount = count;
+        logSize = currentLogSize;
+        lastSegmentMask = mask;
+    }
+
+    private void writeRecord(long offset, long timestamp, long mask) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+        buffer.putLong(offset).putLong(timestamp).putLong(mask).flip();
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            channel.write(buffer);
+        }
+    }
+
+    private void updateLastMask(long mask) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        buffer.putLong(mask).flip();
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            channel.write(buffer, channel.size() - Long.BYTES);
+        }
+    }
+
+    private long readLong(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            channel.read(buffer, position);
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    static String extractMsg(String line) {
+        JsonNode node = parse(line);
+        return node != null && node.has("msg") ? node.get("msg").asText() : null;
+    }
+
+    static JsonNode parse(String line) {
+        try {
+            return Json.parse(line);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+}
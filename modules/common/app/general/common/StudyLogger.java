@@ -4,6 +4,7 @@ import akka.stream.javadsl.Source;
 import akka.stream.javadsl.StreamConverters;
 import akka.util.ByteString;
 import com.diffplug.common.base.Errors;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.common.*;
 import models.common.workers.Worker;
@@ -19,10 +20,13 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -65,6 +69,15 @@ public class StudyLogger {
     private static final String NO_DATA = "no data";
     private static final String COMPONENT_UUID = "componentUuid";
 
+    /**
+     * One index per study log, mapped by the study's UUID. All writes to a study log go through its index.
+     */
+    private final Map<String, StudyLogIndex> indices = new ConcurrentHashMap<>();
+
+    private StudyLogIndex getIndex(Study study) {
+        return indices.computeIfAbsent(study.getUuid(), uuid -> new StudyLogIndex(Path.of(getPath(study))));
+    }
+
     public String getFilename(Study study) {
         return study.getUuid() + ".log";
     }
@@ -102,15 +115,16 @@ public class StudyLogger {
                 retire(study);
             }
 
+            long timestamp = Instant.now().toEpochMilli();
             ObjectNode jsonObj = Json.newObject();
             jsonObj.put(MSG, msg);
-            jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
+            jsonObj.put(TIMESTAMP, timestamp);
             jsonObj.put(STUDY_UUID, study.getUuid());
             jsonObj.put(SERVERS_MAC, Common.getMac());
             jsonObj.put(HASH_FUNCTION, HashUtils.SHA_256);
             String logEntry = "\n" + Json.mapper().writer().writeValueAsString(jsonObj);
             String sanitizedLogEntry = sanitizeForIso88591(logEntry);
-            Files.writeString(studyLogPath, sanitizedLogEntry, StandardCharsets.ISO_8859_1, StandardOpenOption.CREATE_NEW);
+            getIndex(study).create(sanitizedLogEntry, timestamp, sanitizeForIso88591(msg));
         } catch (IOException e) {
             LOGGER.error("Study log couldn't be created: " + studyLogPath, e);
         }
@@ -128,6 +142,9 @@ public class StudyLogger {
                 LOGGER.error("Study log couldn't be moved from " + logPath + " to " + retiredLogPath, e);
             }
         }
+        StudyLogIndex index = indices.remove(study.getUuid());
+        if (index != null) index.delete();
+        else new StudyLogIndex(logPath).delete();
         return retiredLogPath.getFileName().toString();
     }
 
@@ -228,10 +245,11 @@ public class StudyLogger {
         }
         try {
             if (user != null) jsonObj.put(USER_NAME, user.getName());
-            jsonObj.put(TIMESTAMP, Instant.now().toEpochMilli());
+            long timestamp = Instant.now().toEpochMilli();
+            jsonObj.put(TIMESTAMP, timestamp);
             String logEntry = "\n" + Json.mapper().writer().writeValueAsString(jsonObj);
             String sanitizedLogEntry = sanitizeForIso88591(logEntry);
-            Files.writeString(studyLogPath, sanitizedLogEntry, StandardCharsets.ISO_8859_1, StandardOpenOption.APPEND);
+            getIndex(study).append(sanitizedLogEntry, timestamp, sanitizeForIso88591(jsonObj.get(MSG).asText()));
         } catch (IOException e) {
             LOGGER.error("Study log couldn't be written: " + studyLogPath, e);
         }
@@ -286,6 +304,170 @@ public class StudyLogger {
         return nextLine != null && (lineLimit == -1 || lineNumber <= lineLimit);
     }
 
+    /**
+     * Reads a page of the study log. It uses the study log's index to seek directly to the requested position and to
+     * skip segments of the log that can't contain matching entries. The page is streamed as a JSON object with the
+     * fields 'entries' (array with the log entries), 'next' (position to be used to get the next page or null if there
+     * are no more entries), and 'total' (number of all entries in the log). If the log couldn't be read, there is an
+     * additional field 'error' with the error message (and 'entries' has the entries read until then).
+     *
+     * @param study    the study of which log will be read
+     * @param position Entry number where to start reading. 0 is the oldest entry or, if reverse is true, the newest.
+     * @param limit    Max number of entries in this page
+     * @param reverse  If true the log is read from newest to oldest
+     * @param msg      Only entries with this message are returned (null for all)
+     * @param from     Only entries with a timestamp (epoch millis) equal or after are returned (null for all)
+     * @param to       Only entries with a timestamp (epoch millis) equal or before are returned (null for all)
+     */
+    public Source<ByteString, ?> readLogPage(Study study, long position, int limit, boolean reverse, String msg,
+            Long from, Long to) {
+        return StreamConverters.asOutputStream()
+                .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
+                .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream,
+                            StandardCharsets.ISO_8859_1));
+                    Errors.rethrow().run(() -> streamLogPage(writer, study, position, limit, reverse, msg, from, to));
+                    Errors.rethrow().run(writer::flush);
+                    Errors.rethrow().run(writer::close);
+                }));
+    }
+
+    void streamLogPage(Writer writer, Study study, long position, int limit, boolean reverse, String msg,
+            Long from, Long to) throws IOException {
+        writer.write("{\"entries\":[");
+        Long next = null;
+        long total = 0;
+        String error = null;
+        try {
+            StudyLogIndex index = getIndex(study);
+            StudyLogIndex.Snapshot snapshot = index.snapshot();
+            total = snapshot.entryCount;
+            PageWriter pageWriter = new PageWriter(writer, limit, msg, from, to);
+            if (reverse) {
+                next = streamLogPageReverse(pageWriter, index, snapshot, position);
+            } else {
+                next = streamLogPageForward(pageWriter, index, snapshot, position);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Couldn't read study log " + getPath(study), e);
+            error = MessagesStrings.COULDNT_OPEN_LOG;
+        } finally {
+            writer.write("],\"next\":" + next + ",\"total\":" + total);
+            if (error != null) writer.write(",\"error\":" + Json.toJson(error));
+            writer.write("}");
+        }
+    }
+
+    /**
+     * Streams entries starting with the entry number 'position' towards the newest entry. Returns the position of the
+     * next page or null if the end was reached.
+     */
+    private Long streamLogPageForward(PageWriter pageWriter, StudyLogIndex index, StudyLogIndex.Snapshot snapshot,
+            long position) throws IOException {
+        int segmentSize = StudyLogIndex.SEGMENT_SIZE;
+        for (int segment = (int) (position / segmentSize); segment < snapshot.segmentCount(); segment++) {
+            if (pageWriter.skipSegment(snapshot, segment)) continue;
+            long entryNumber = (long) segment * segmentSize;
+            try (BufferedReader reader = index.openReader(snapshot.offsets[segment])) {
+                String line;
+                while (entryNumber < snapshot.entryCount && entryNumber < (long) (segment + 1) * segmentSize
+                        && (line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) continue;
+                    if (entryNumber >= position) {
+                        if (pageWriter.isFull()) return entryNumber;
+                        pageWriter.write(line);
+                    }
+                    entryNumber++;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Streams entries starting with the entry 'position' counted from the newest entry towards the oldest one. Only
+     * one segment at a time is held in memory. Returns the position of the next page or null if the start was reached.
+     */
+    private Long streamLogPageReverse(PageWriter pageWriter, StudyLogIndex index, StudyLogIndex.Snapshot snapshot,
+            long position) throws IOException {
+        int segmentSize = StudyLogIndex.SEGMENT_SIZE;
+        long startEntry = snapshot.entryCount - 1 - position;
+        if (startEntry < 0) return null;
+        for (int segment = (int) (startEntry / segmentSize); segment >= 0; segment--) {
+            if (pageWriter.skipSegment(snapshot, segment)) continue;
+            List<String> lines = new ArrayList<>(segmentSize);
+            try (BufferedReader reader = index.openReader(snapshot.offsets[segment])) {
+                String line;
+                while (lines.size() < segmentSize && (line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) lines.add(line);
+                }
+            }
+            long firstEntry = (long) segment * segmentSize;
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                long entryNumber = firstEntry + i;
+                if (entryNumber > startEntry) continue;
+                if (pageWriter.isFull()) return snapshot.entryCount - 1 - entryNumber;
+                pageWriter.write(lines.get(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the entries of a study log page and applies the filters
+     */
+    private static class PageWriter {
+        private final Writer writer;
+        private final int limit;
+        private final String msg;
+        private final Long from;
+        private final Long to;
+        private int count = 0;
+
+        PageWriter(Writer writer, int limit, String msg, Long from, Long to) {
+            this.writer = writer;
+            this.limit = limit;
+            this.msg = msg;
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isFull() {
+            return limit != -1 && count >= limit;
+        }
+
+        /**
+         * True if the segment can't contain any entry that passes the filters. A segment's time range ends with the
+         * first timestamp of the following segment.
+         */
+        boolean skipSegment(StudyLogIndex.Snapshot snapshot, int segment) {
+            if (msg != null && (snapshot.masks[segment] & StudyLogIndex.msgBit(msg)) == 0) return true;
+            if (to != null && snapshot.timestamps[segment] > to) return true;
+            return from != null && segment + 1 < snapshot.segmentCount() && snapshot.timestamps[segment + 1] < from;
+        }
+
+        void write(String line) throws IOException {
+            // A truncated entry (e.g. the last line of a log that is still written or was cut off) would break the JSON
+            if (!isCompleteEntry(line)) return;
+            if (msg != null || from != null || to != null) {
+                JsonNode node = StudyLogIndex.parse(line);
+                if (node == null) return;
+                if (msg != null && !msg.equals(node.path(MSG).asText(null))) return;
+                long timestamp = node.path(TIMESTAMP).asLong();
+                if (from != null && timestamp < from) return;
+                if (to != null && timestamp > to) return;
+            }
+            if (count > 0) writer.write(",");
+            writer.write(line);
+            count++;
+        }
+
+        private static boolean isCompleteEntry(String line) {
+            String trimmed = line.trim();
+            return trimmed.startsWith("{") && trimmed.endsWith("}");
+        }
+    }
+
     public String sanitizeForIso88591(String str) {
         if (str == null) return null;
         return NON_ISO_8859_1.matcher(str).replaceAll("?");
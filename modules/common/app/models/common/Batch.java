@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonView;
 import models.common.workers.Worker;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import utils.common.JsonUtils;
 import utils.common.JsonUtils.JsonForApi;
 import utils.common.JsonUtils.JsonForIO;
@@ -26,10 +28,12 @@ import java.util.Set;
  */
 @Entity
 @Table(name = "Batch")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Batch {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     @JsonView({JsonForPublix.class, JsonForApi.class})
     private Long id;
 
@@ -102,6 +106,7 @@ public class Batch {
     @JsonView({JsonForPublix.class, JsonForIO.class, JsonForApi.class})
     @JsonProperty("allowedWorkerTypes")
     @ElementCollection(fetch = FetchType.EAGER)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<String> allowedWorkerTypes = new HashSet<>();
 
     /**
@@ -124,7 +129,8 @@ public class Batch {
     /**
      * Temporary, global data storage that can be accessed via jatos.js to exchange data between all study runs of this
      * batch. All members of this batch share the same batchSessionData. It's stored as a normal string in the database
-     * but jatos.js converts it into JSON. We use versioning to prevent concurrent changes of the data.
+     * but jatos.js converts it into JSON. We use versioning to prevent concurrent changes of the data. It's changed
+     * with bulk updates, so a batch from the second-level cache might have an outdated one (see BatchDao.findById).
      */
     @JsonIgnore
     @Lob
@@ -3,6 +3,8 @@ package models.common;
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import utils.common.JsonUtils;
 import utils.common.JsonUtils.JsonForApi;
 import utils.common.JsonUtils.JsonForIO;
@@ -20,6 +22,8 @@ import java.util.UUID;
  */
 @Entity
 @Table(name = "Component", indexes = {@Index(columnList = "uuid")})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Component {
 
     /**
@@ -29,7 +33,7 @@ public class Component {
     public static final String COMPONENT = "component";
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     @JsonView({JsonForPublix.class, JsonForApi.class})
     private Long id;
 
@@ -21,7 +21,7 @@ import java.util.Date;
 public class ComponentResult {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     private Long id;
 
     /**
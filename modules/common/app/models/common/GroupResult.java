@@ -30,7 +30,7 @@ import java.util.Set;
 public class GroupResult {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     private Long id;
 
     public enum GroupState {
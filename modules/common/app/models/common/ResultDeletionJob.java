@@ -0,0 +1,135 @@
+package models.common;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * DB entity of a job that removes a (possibly large) set of StudyResults together with their ComponentResults. The
+ * StudyResults that are still to be removed are kept in the table ResultDeletionJobItem. The job removes them in
+ * chunks, each in its own short transaction, and can therefore be resumed after a restart (see ResultDeletionDao and
+ * ResultDeletionService). The progress is only written with native queries, like the claim of the JATOS node that
+ * runs the job (column claimToken, not mapped).
+ *
+ * @author Kristian Lange
+ */
+@Entity
+@Table(name = "ResultDeletionJob")
+public class ResultDeletionJob {
+
+    public enum State {
+        QUEUED, // Created but not yet started
+        RUNNING, // Removes the results chunk by chunk
+        DONE, // All results are removed
+        FAILED // Stopped because of an error
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    /**
+     * Username of the user who started the removal
+     */
+    private String username;
+
+    @Enumerated(EnumType.STRING)
+    private State state;
+
+    /**
+     * Number of StudyResults to be removed
+     */
+    private int total;
+
+    /**
+     * Number of StudyResults that are removed so far
+     */
+    private int deleted;
+
+    private Timestamp created;
+
+    /**
+     * Time of the last progress
+     */
+    private Timestamp updated;
+
+    /**
+     * Error message if the job failed
+     */
+    private String error;
+
+    public ResultDeletionJob() {
+    }
+
+    public ResultDeletionJob(String username) {
+        this.username = username;
+        this.state = State.QUEUED;
+        this.created = new Timestamp(new Date().getTime());
+        this.updated = this.created;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(int deleted) {
+        this.deleted = deleted;
+    }
+
+    public Timestamp getCreated() {
+        return created;
+    }
+
+    public void setCreated(Timestamp created) {
+        this.created = created;
+    }
+
+    public Timestamp getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Timestamp updated) {
+        this.updated = updated;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+}
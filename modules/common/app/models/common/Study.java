@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import com.google.common.base.Strings;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import utils.common.HashUtils;
 import utils.common.JsonUtils.JsonForApi;
 import utils.common.JsonUtils.JsonForPublix;
@@ -27,10 +29,14 @@ import static utils.common.JsonUtils.asStringForDB;
  *
  * For the GUI a different model (models.gui.StudyProperties) is used.
  *
+ * Studies, together with their components, batches and members, are held in the second-level cache (see EntityCache).
+ *
  * @author Kristian Lange
  */
 @Entity
 @Table(name = "Study")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Study {
 
     /**
@@ -42,7 +48,7 @@ public class Study {
     public static final String STUDY = "study";
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     @JsonView({JsonForPublix.class, JsonForApi.class})
     private Long id;
 
@@ -101,6 +107,36 @@ public class Study {
     @JsonView({JsonForIO.class, JsonForPublix.class, JsonForApi.class})
     private boolean allowPreview = false;
 
+    /**
+     * Max number of starts of this study that are processed at the same time (admission control). Participants above
+     * this limit wait in a waiting room. If null, the default (jatos.studyAdmission.maxConcurrentStartsPerStudy) is
+     * used. 0 means no limit.
+     */
+    @JsonView({JsonForIO.class, JsonForApi.class})
+    private Integer maxConcurrentStarts;
+
+    /**
+     * If true, responses of the OpenAI API proxy are cached for identical deterministic requests (temperature 0, not
+     * streamed) of this study's runs
+     */
+    @JsonView({JsonForIO.class, JsonForApi.class})
+    private boolean openAiCache = false;
+
+    /**
+     * Time window in milliseconds in which group session patches are collected, applied together and sent out to the
+     * group members in one message. If null, the default (jatos.groupSession.patchWindow) is used. 0 means every patch
+     * is handled immediately.
+     */
+    @JsonView({JsonForIO.class, JsonForApi.class})
+    private Integer groupSessionPatchWindow;
+
+    /**
+     * Study results that are older than this number of days are moved into archive files (see ResultArchiveService).
+     * The database only keeps a stub of them. If null the results are never archived.
+     */
+    @JsonView({JsonForIO.class, JsonForApi.class})
+    private Integer resultRetentionDays;
+
     /**
      * Study assets directory name
      */
@@ -142,6 +178,7 @@ public class Study {
      */
     @JsonIgnore
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(name = "StudyUserMap", joinColumns = {
             @JoinColumn(name = "study_id", referencedColumnName = "id") }, inverseJoinColumns = {
             @JoinColumn(name = "user_username", referencedColumnName = "username") })
@@ -152,6 +189,7 @@ public class Study {
      */
     @JsonView({JsonForIO.class})
     @OneToMany(fetch = FetchType.LAZY, cascade = ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OrderColumn(name = "componentList_order")
     @JoinColumn(name = "study_id")
     // Not using mappedBy because of
@@ -163,6 +201,7 @@ public class Study {
      */
     @JsonView({JsonForIO.class})
     @OneToMany(fetch = FetchType.LAZY, cascade = {PERSIST, MERGE, REMOVE})
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OrderColumn(name = "batchList_order")
     @JoinColumn(name = "study_id")
     // Not using mappedBy because of
@@ -267,6 +306,38 @@ public class Study {
         this.linearStudy = linearStudy;
     }
 
+    public Integer getMaxConcurrentStarts() {
+        return maxConcurrentStarts;
+    }
+
+    public void setMaxConcurrentStarts(Integer maxConcurrentStarts) {
+        this.maxConcurrentStarts = maxConcurrentStarts;
+    }
+
+    public Integer getGroupSessionPatchWindow() {
+        return groupSessionPatchWindow;
+    }
+
+    public void setGroupSessionPatchWindow(Integer groupSessionPatchWindow) {
+        this.groupSessionPatchWindow = groupSessionPatchWindow;
+    }
+
+    public Integer getResultRetentionDays() {
+        return resultRetentionDays;
+    }
+
+    public void setResultRetentionDays(Integer resultRetentionDays) {
+        this.resultRetentionDays = resultRetentionDays;
+    }
+
+    public boolean isOpenAiCache() {
+        return openAiCache;
+    }
+
+    public void setOpenAiCache(boolean openAiCache) {
+        this.openAiCache = openAiCache;
+    }
+
     public boolean isAllowPreview() {
         return allowPreview;
     }
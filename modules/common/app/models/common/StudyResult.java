@@ -25,7 +25,7 @@ import java.util.*;
 public class StudyResult {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     private Long id;
 
     private String uuid;
@@ -161,6 +161,30 @@ public class StudyResult {
      */
     private int openAiApiCount = 0;
 
+    /**
+     * Number of ComponentResults of this study run. Denormalized counter that is maintained by ResultCounterDao and
+     * never written by Hibernate.
+     */
+    @JsonIgnore
+    @Column(insertable = false, updatable = false)
+    private int componentResultCount = 0;
+
+    /**
+     * Sum of the data sizes of the ComponentResults of this study run. Denormalized counter that is maintained by
+     * ResultCounterDao and never written by Hibernate.
+     */
+    @JsonIgnore
+    @Column(insertable = false, updatable = false)
+    private long dataSize = 0;
+
+    /**
+     * Time when this study result was moved into an archive file (see ResultArchiveService) or null if it's not
+     * archived. An archived study result is only a stub: its ComponentResults and upload files are in the archive file.
+     * Only written by ResultArchiveDao.
+     */
+    @Column(insertable = false, updatable = false)
+    private Timestamp archivedDate;
+
     public StudyResult() {
     }
 
@@ -363,6 +387,22 @@ public class StudyResult {
         return openAiApiCount;
     }
 
+    public int getComponentResultCount() {
+        return componentResultCount;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    public Timestamp getArchivedDate() {
+        return archivedDate;
+    }
+
+    public boolean isArchived() {
+        return archivedDate != null;
+    }
+
     @Override
     public String toString() {
         return String.valueOf(id);
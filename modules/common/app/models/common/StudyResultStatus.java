@@ -14,7 +14,6 @@ import java.sql.Timestamp;
 public class StudyResultStatus {
 
     @Id
-    @GeneratedValue
     private Long id;
 
     /**
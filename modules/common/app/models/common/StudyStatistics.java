@@ -0,0 +1,101 @@
+package models.common;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+
+/**
+ * DB Entity with the pre-aggregated statistics of a study that are expensive to get on the fly: the sizes on the disk
+ * (and the number of asset files) and the last start. It is read by the administration and written only with native
+ * queries by StudyStatisticsDao (incrementally and by the periodic refresh). The result counts and data size are kept
+ * in the result counters (see ResultCounterDao).
+ *
+ * @author Kristian Lange
+ */
+@Entity
+@Table(name = "StudyStatistics")
+public class StudyStatistics {
+
+    @Id
+    @Column(name = "study_id")
+    private Long studyId;
+
+    /**
+     * Size of the study assets folder in Byte
+     */
+    private long studyAssetsSize;
+
+    /**
+     * Number of files in the study assets folder
+     */
+    private long studyAssetsFileCount;
+
+    /**
+     * Size of all uploaded result files in Byte
+     */
+    private long resultFileSize;
+
+    /**
+     * Time and date when the study was last started
+     */
+    private Timestamp lastStarted;
+
+    /**
+     * Time and date of the last refresh of the sizes, or null if they were never refreshed
+     */
+    private Timestamp refreshed;
+
+    public StudyStatistics() {
+    }
+
+    public StudyStatistics(Long studyId) {
+        this.studyId = studyId;
+    }
+
+    public Long getStudyId() {
+        return studyId;
+    }
+
+    public long getStudyAssetsSize() {
+        return studyAssetsSize;
+    }
+
+    public void setStudyAssetsSize(long studyAssetsSize) {
+        this.studyAssetsSize = studyAssetsSize;
+    }
+
+    public long getStudyAssetsFileCount() {
+        return studyAssetsFileCount;
+    }
+
+    public void setStudyAssetsFileCount(long studyAssetsFileCount) {
+        this.studyAssetsFileCount = studyAssetsFileCount;
+    }
+
+    public long getResultFileSize() {
+        return resultFileSize;
+    }
+
+    public void setResultFileSize(long resultFileSize) {
+        this.resultFileSize = resultFileSize;
+    }
+
+    public Timestamp getLastStarted() {
+        return lastStarted;
+    }
+
+    public void setLastStarted(Timestamp lastStarted) {
+        this.lastStarted = lastStarted;
+    }
+
+    public Timestamp getRefreshed() {
+        return refreshed;
+    }
+
+    public void setRefreshed(Timestamp refreshed) {
+        this.refreshed = refreshed;
+    }
+
+}
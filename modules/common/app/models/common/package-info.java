@@ -0,0 +1,9 @@
+/**
+ * DB entities and JSON models. The ID generator {@link models.common.PooledIdGenerator} is declared here once for all
+ * entities (including those in sub-packages, since Hibernate's generator names are global). An entity uses it with
+ * {@code @GeneratedValue(generator = PooledIdGenerator.NAME)}.
+ */
+@GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
+package models.common;
+
+import org.hibernate.annotations.GenericGenerator;
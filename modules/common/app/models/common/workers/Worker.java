@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonTypeInfo.As;
 import models.common.Batch;
+import models.common.PooledIdGenerator;
 import models.common.StudyResult;
 import play.data.validation.ValidationError;
 
@@ -36,7 +37,7 @@ public abstract class Worker {
     public static final String COMMENT = "comment";
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
     private Long id;
 
     /**
@@ -559,21 +559,53 @@ public class IOUtils {
      * of directories themselves (e.g., on Linux, each directory takes 4kB).
      */
     public long getStudyAssetsDirSize(String dirName) {
+        return getStudyAssetsDirUsage(dirName).getSize();
+    }
+
+    /**
+     * Walks the given study assets directory and returns the disk size in Bytes of all files inside (without the
+     * directories themselves) and their number
+     */
+    public DirUsage getStudyAssetsDirUsage(String dirName) {
         try {
             Path path = getStudyAssetsDir(dirName);
-            if (!Files.exists(path)) return 0;
+            if (!Files.exists(path)) return new DirUsage(0, 0);
 
             try (Stream<Path> stream = Files.walk(path)) {
                 long sum = 0L;
+                long count = 0L;
                 for (Path p : (Iterable<Path>) stream::iterator) {
                     if (Files.isRegularFile(p)) {
                         sum += Files.size(p);
+                        count++;
                     }
                 }
-                return sum;
+                return new DirUsage(sum, count);
             }
         } catch (IOException e) {
-            return 0;
+            return new DirUsage(0, 0);
+        }
+    }
+
+    /**
+     * Disk size in Bytes and number of the files in a directory
+     */
+    public static class DirUsage {
+
+        private final long size;
+        private final long fileCount;
+
+        public DirUsage(long size, long fileCount) {
+            this.size = size;
+            this.fileCount = fileCount;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getFileCount() {
+            return fileCount;
         }
     }
 
@@ -671,4 +703,15 @@ public class IOUtils {
             deleteRecursively(dir);
         }
     }
+
+    /**
+     * Path to the archive file of an archived study result
+     */
+    public static Path getResultArchiveFile(Long studyResultId) {
+        return Path.of(Common.getResultArchivePath()).resolve("study-result_" + studyResultId + ".zip");
+    }
+
+    public void removeResultArchiveFile(Long studyResultId) throws IOException {
+        Files.deleteIfExists(getResultArchiveFile(studyResultId));
+    }
 }
@@ -0,0 +1,20 @@
+# --- Add table hibernate_sequences for pooled ID generation (PooledIdGenerator)
+# --- Each table's sequence starts after its current max ID, so existing IDs stay the same
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `hibernate_sequences` (
+    `sequence_name` VARCHAR(255) NOT NULL,
+    `next_val` BIGINT,
+    PRIMARY KEY (`sequence_name`)
+);
+
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'Study', COALESCE(MAX(`id`), 0) + 1 FROM `Study`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'Component', COALESCE(MAX(`id`), 0) + 1 FROM `Component`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'Batch', COALESCE(MAX(`id`), 0) + 1 FROM `Batch`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'Worker', COALESCE(MAX(`id`), 0) + 1 FROM `Worker`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'StudyResult', COALESCE(MAX(`id`), 0) + 1 FROM `StudyResult`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'ComponentResult', COALESCE(MAX(`id`), 0) + 1 FROM `ComponentResult`;
+INSERT INTO `hibernate_sequences` (`sequence_name`, `next_val`) SELECT 'GroupResult', COALESCE(MAX(`id`), 0) + 1 FROM `GroupResult`;
+
+# --- !Downs
+# --- not supported
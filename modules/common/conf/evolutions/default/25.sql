@@ -0,0 +1,7 @@
+# --- Add column maxConcurrentStarts to Study table (admission control of study starts)
+
+# --- !Ups
+ALTER TABLE `Study` ADD COLUMN `maxConcurrentStarts` INT NULL;
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,7 @@
+# --- Add column openAiCache to Study table (opt-in caching of OpenAI API responses)
+
+# --- !Ups
+ALTER TABLE `Study` ADD COLUMN `openAiCache` tinyint(1) NOT NULL DEFAULT 0;
+
+# --- !Downs
+# --- not supported
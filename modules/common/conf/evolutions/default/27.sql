@@ -0,0 +1,7 @@
+# --- Add column groupSessionPatchWindow to Study table (combining of group session patches)
+
+# --- !Ups
+ALTER TABLE `Study` ADD COLUMN `groupSessionPatchWindow` INT NULL;
+
+# --- !Downs
+# --- not supported
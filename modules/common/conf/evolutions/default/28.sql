@@ -0,0 +1,15 @@
+# --- Add table ClusterMessage: batch and group channel messages between the nodes of a multi-node JATOS
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `ClusterMessage` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT,
+    `topic` VARCHAR(255) NOT NULL,
+    `nodeId` VARCHAR(64) NOT NULL,
+    `payload` LONGTEXT NOT NULL,
+    `creationDate` DATETIME NOT NULL,
+    PRIMARY KEY (`id`)
+);
+CREATE INDEX `IDX_ClusterMessage_creationDate` ON `ClusterMessage` (`creationDate`);
+
+# --- !Downs
+# --- not supported
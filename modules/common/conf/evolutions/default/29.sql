@@ -0,0 +1,12 @@
+# --- Add composite indexes for the frequent StudyResult and ComponentResult queries
+
+# --- !Ups
+CREATE INDEX `IDX_StudyResult_study_startDate` ON `StudyResult` (`study_id`, `startDate`);
+CREATE INDEX `IDX_StudyResult_batch_worker` ON `StudyResult` (`batch_id`, `worker_id`);
+CREATE INDEX `IDX_StudyResult_worker_study` ON `StudyResult` (`worker_id`, `study_id`);
+CREATE INDEX `IDX_StudyResult_lastSeenDate` ON `StudyResult` (`lastSeenDate` DESC);
+CREATE INDEX `IDX_ComponentResult_component_dataSize` ON `ComponentResult` (`component_id`, `dataSize`);
+CREATE INDEX `IDX_Worker_workerType` ON `Worker` (`workerType`);
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,12 @@
+# --- Add table EntityCacheVersion: version of the entities in Hibernate's second-level cache in a multi-node JATOS
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `EntityCacheVersion` (
+    `id` INT NOT NULL,
+    `version` BIGINT NOT NULL,
+    PRIMARY KEY (`id`)
+);
+INSERT INTO `EntityCacheVersion` (`id`, `version`) VALUES (1, 0);
+
+# --- !Downs
+# --- not supported
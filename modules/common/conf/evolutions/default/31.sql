@@ -0,0 +1,12 @@
+# --- Add table ReplicationHeartbeat: heartbeat written into the primary database to measure the lag of its replicas
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `ReplicationHeartbeat` (
+    `id` INT NOT NULL,
+    `beat` BIGINT NOT NULL,
+    PRIMARY KEY (`id`)
+);
+INSERT INTO `ReplicationHeartbeat` (`id`, `beat`) VALUES (1, 0);
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,25 @@
+# --- Add denormalized result counters: componentResultCount and dataSize per StudyResult, and table BatchResultCounter with the number and data size of the StudyResults per batch and worker type
+
+# --- !Ups
+ALTER TABLE `StudyResult` ADD COLUMN `componentResultCount` INT NOT NULL DEFAULT 0;
+ALTER TABLE `StudyResult` ADD COLUMN `dataSize` BIGINT NOT NULL DEFAULT 0;
+UPDATE `StudyResult` sr SET
+    sr.`componentResultCount` = (SELECT COUNT(*) FROM `ComponentResult` cr WHERE cr.`studyResult_id` = sr.`id`),
+    sr.`dataSize` = (SELECT COALESCE(SUM(cr.`dataSize`), 0) FROM `ComponentResult` cr WHERE cr.`studyResult_id` = sr.`id`);
+CREATE TABLE IF NOT EXISTS `BatchResultCounter` (
+    `batch_id` BIGINT NOT NULL,
+    `workerType` VARCHAR(255) NOT NULL,
+    `study_id` BIGINT NOT NULL,
+    `resultCount` INT NOT NULL,
+    `dataSize` BIGINT NOT NULL,
+    PRIMARY KEY (`batch_id`, `workerType`)
+);
+CREATE INDEX `IDX_BatchResultCounter_study` ON `BatchResultCounter` (`study_id`);
+INSERT INTO `BatchResultCounter` (`batch_id`, `workerType`, `study_id`, `resultCount`, `dataSize`)
+    SELECT sr.`batch_id`, w.`workerType`, sr.`study_id`, COUNT(*), SUM(sr.`dataSize`)
+    FROM `StudyResult` sr JOIN `Worker` w ON sr.`worker_id` = w.`id`
+    WHERE sr.`batch_id` IS NOT NULL
+    GROUP BY sr.`batch_id`, w.`workerType`, sr.`study_id`;
+
+# --- !Downs
+# --- not supported
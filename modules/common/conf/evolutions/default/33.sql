@@ -0,0 +1,18 @@
+# --- Add table StudyStatistics: pre-aggregated study statistics for the administration (sizes on disk and last start)
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `StudyStatistics` (
+    `study_id` BIGINT NOT NULL,
+    `studyAssetsSize` BIGINT NOT NULL DEFAULT 0,
+    `resultFileSize` BIGINT NOT NULL DEFAULT 0,
+    `lastStarted` datetime DEFAULT NULL,
+    `refreshed` datetime DEFAULT NULL,
+    PRIMARY KEY (`study_id`),
+    CONSTRAINT `FK_StudyStatistics_study` FOREIGN KEY (`study_id`) REFERENCES `Study` (`id`) ON DELETE CASCADE
+);
+INSERT INTO `StudyStatistics` (`study_id`, `lastStarted`)
+    SELECT s.`id`, (SELECT MAX(sr.`startDate`) FROM `StudyResult` sr WHERE sr.`study_id` = s.`id`)
+    FROM `Study` s;
+
+# --- !Downs
+# --- not supported
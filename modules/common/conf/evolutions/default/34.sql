@@ -0,0 +1,7 @@
+# --- Add column StudyStatistics.studyAssetsFileCount: number of files in the study assets folder
+
+# --- !Ups
+ALTER TABLE `StudyStatistics` ADD COLUMN `studyAssetsFileCount` BIGINT NOT NULL DEFAULT 0;
+
+# --- !Downs
+# --- not supported
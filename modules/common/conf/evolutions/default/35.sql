@@ -0,0 +1,30 @@
+# --- Add tables for the set-based removal of results: the removal jobs with their study results and the queue of result upload dirs to be removed
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `ResultDeletionJob` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT,
+    `username` VARCHAR(255) DEFAULT NULL,
+    `state` VARCHAR(16) NOT NULL,
+    `total` INT NOT NULL DEFAULT 0,
+    `deleted` INT NOT NULL DEFAULT 0,
+    `created` datetime NOT NULL,
+    `updated` datetime NOT NULL,
+    `error` VARCHAR(1024) DEFAULT NULL,
+    PRIMARY KEY (`id`),
+    KEY (`state`)
+);
+CREATE TABLE IF NOT EXISTS `ResultDeletionJobItem` (
+    `job_id` BIGINT NOT NULL,
+    `studyResult_id` BIGINT NOT NULL,
+    PRIMARY KEY (`job_id`, `studyResult_id`),
+    CONSTRAINT `FK_ResultDeletionJobItem_job` FOREIGN KEY (`job_id`) REFERENCES `ResultDeletionJob` (`id`)
+        ON DELETE CASCADE
+);
+CREATE TABLE IF NOT EXISTS `ResultUploadsRemoval` (
+    `studyResult_id` BIGINT NOT NULL,
+    `created` datetime NOT NULL,
+    PRIMARY KEY (`studyResult_id`)
+);
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,8 @@
+# --- Add resultRetentionDays to Study and archivedDate to StudyResult (archival of old results into archive files)
+
+# --- !Ups
+ALTER TABLE `Study` ADD COLUMN `resultRetentionDays` INT NULL;
+ALTER TABLE `StudyResult` ADD COLUMN `archivedDate` datetime DEFAULT NULL;
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,11 @@
+# --- Indexes for the server-side paginated, sorted and filtered result tables
+
+# --- !Ups
+CREATE INDEX `IDX_StudyResult_study_state_startDate` ON `StudyResult` (`study_id`, `studyState`, `startDate`);
+CREATE INDEX `IDX_StudyResult_study_lastSeenDate` ON `StudyResult` (`study_id`, `lastSeenDate`);
+CREATE INDEX `IDX_StudyResult_batch_startDate` ON `StudyResult` (`batch_id`, `startDate`);
+CREATE INDEX `IDX_ComponentResult_component_startDate` ON `ComponentResult` (`component_id`, `startDate`);
+CREATE INDEX `IDX_ComponentResult_component_state` ON `ComponentResult` (`component_id`, `componentState`);
+
+# --- !Downs
+# --- not supported
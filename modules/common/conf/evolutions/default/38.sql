@@ -0,0 +1,7 @@
+# --- Add a covering index for the check if a study run is still running (uuid and studyState)
+
+# --- !Ups
+CREATE INDEX `IDX_StudyResult_uuid_studyState` ON `StudyResult` (`uuid`, `studyState`);
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,12 @@
+# --- Change table EntityCacheVersion to one version per cached entity type instead of a single version
+
+# --- !Ups
+DROP TABLE IF EXISTS `EntityCacheVersion`;
+CREATE TABLE `EntityCacheVersion` (
+    `entityName` VARCHAR(255) NOT NULL,
+    `version` BIGINT NOT NULL,
+    PRIMARY KEY (`entityName`)
+);
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,10 @@
+# --- Marks of the StudyResults whose result counters have to be refreshed because their data changed
+
+# --- !Ups
+CREATE TABLE IF NOT EXISTS `ResultCounterRefresh` (
+    `studyResult_id` BIGINT NOT NULL,
+    PRIMARY KEY (`studyResult_id`)
+);
+
+# --- !Downs
+# --- not supported
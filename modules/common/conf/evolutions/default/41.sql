@@ -0,0 +1,7 @@
+# --- Add column ResultDeletionJob.claimToken: the JATOS node that runs a result removal job (fences off a node that lost the job)
+
+# --- !Ups
+ALTER TABLE `ResultDeletionJob` ADD COLUMN `claimToken` VARCHAR(36) DEFAULT NULL;
+
+# --- !Downs
+# --- not supported
@@ -0,0 +1,306 @@
+package daos.common;
+
+import models.common.*;
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.JatosWorker;
+import models.common.workers.MTWorker;
+import models.common.workers.Worker;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Query plan regression tests for the frequent StudyResultDao, ComponentResultDao and ResultCounterDao queries. It
+ * applies the evolutions to an in-memory H2 database (in MySQL mode like JATOS' default database) and generates a
+ * dataset. Each test calls a DAO method with Hibernate, captures the SQL Hibernate generates (with a
+ * StatementInspector) and runs EXPLAIN on it. A test fails if a statement has to scan the whole StudyResult,
+ * ComponentResult or BatchResultCounter table, e.g. because an index got lost.
+ */
+@SuppressWarnings("deprecation")
+public class QueryPlanTest {
+
+    private static final int STUDIES = 20;
+    private static final int BATCHES = 2 * STUDIES;
+    private static final int COMPONENTS = 5 * STUDIES;
+    private static final int WORKERS = 2000;
+    private static final int GROUPS = 50;
+    private static final int STUDY_RESULTS = 20000;
+    private static final int COMPONENT_RESULTS_PER_STUDY_RESULT = 3;
+
+    private static final String[] WORKER_TYPES = {
+            "GeneralSingle", "GeneralMultiple", "PersonalSingle", "PersonalMultiple", "MT", "MTSandbox" };
+
+    private static final Pattern TABLE_SCAN = Pattern.compile("(StudyResult|ComponentResult|BatchResultCounter)\\.tableScan");
+
+    /**
+     * IDs that don't exist: only the query plans matter, and no entities have to be loaded
+     */
+    private static final long MISSING_ID = 999_999L;
+
+    private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    private static Database database;
+    private static EntityManagerFactory emf;
+    private static JPAApi jpa;
+    private static StudyResultDao studyResultDao;
+    private static ComponentResultDao componentResultDao;
+    private static ResultCounterDao resultCounterDao;
+
+    @BeforeClass
+    public static void setUp() throws SQLException {
+        database = Databases.inMemory("default",
+                Map.of("MODE", "MYSQL", "DATABASE_TO_UPPER", "FALSE"), Map.of());
+        Evolutions.applyEvolutions(database);
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement()) {
+            generateData(stmt);
+            stmt.execute("ANALYZE");
+        }
+
+        emf = Persistence.createEntityManagerFactory("mysqlPersistenceUnit", Map.of(
+                "javax.persistence.nonJtaDataSource", database.getDataSource(),
+                "hibernate.cache.use_second_level_cache", "false",
+                "hibernate.cache.use_query_cache", "false",
+                "hibernate.session_factory.statement_inspector", (StatementInspector) sql -> {
+                    STATEMENTS.add(sql);
+                    return sql;
+                }));
+        jpa = mock(JPAApi.class);
+        resultCounterDao = new ResultCounterDao(jpa);
+        studyResultDao = new StudyResultDao(jpa);
+        componentResultDao = new ComponentResultDao(jpa, resultCounterDao);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        emf.close();
+        database.shutdown();
+    }
+
+    private static void generateData(Statement stmt) throws SQLException {
+        stmt.execute("INSERT INTO `Study` (`id`, `uuid`, `title`, `locked`, `groupStudy`, `linearStudy`) "
+                + "SELECT X, 'study-' || X, 'Study ' || X, 0, 0, 0 FROM SYSTEM_RANGE(1, " + STUDIES + ")");
+        stmt.execute("INSERT INTO `StudyUserMap` (`study_id`, `user_username`) "
+                + "SELECT X, 'admin' FROM SYSTEM_RANGE(1, " + STUDIES / 2 + ")");
+        stmt.execute("INSERT INTO `Batch` (`id`, `uuid`, `title`, `active`, `batchSessionVersion`, `study_id`) "
+                + "SELECT X, 'batch-' || X, 'Batch ' || X, 1, 1, MOD(X - 1, " + STUDIES + ") + 1 "
+                + "FROM SYSTEM_RANGE(1, " + BATCHES + ")");
+        stmt.execute("INSERT INTO `Component` (`id`, `uuid`, `title`, `active`, `reloadable`, `study_id`) "
+                + "SELECT X, 'component-' || X, 'Component ' || X, 1, 0, MOD(X - 1, " + STUDIES + ") + 1 "
+                + "FROM SYSTEM_RANGE(1, " + COMPONENTS + ")");
+        StringBuilder workerType = new StringBuilder("CASE MOD(X, " + WORKER_TYPES.length + ")");
+        for (int i = 0; i < WORKER_TYPES.length; i++) {
+            workerType.append(" WHEN ").append(i).append(" THEN '").append(WORKER_TYPES[i]).append("'");
+        }
+        workerType.append(" END");
+        stmt.execute("INSERT INTO `Worker` (`id`, `workerType`) "
+                + "SELECT X + 1, " + workerType + " FROM SYSTEM_RANGE(1, " + WORKERS + ")");
+        stmt.execute("INSERT INTO `GroupResult` (`id`, `batch_id`, `groupState`, `groupSessionVersion`) "
+                + "SELECT X, MOD(X - 1, " + BATCHES + ") + 1, 0, 1 FROM SYSTEM_RANGE(1, " + GROUPS + ")");
+        // Every 10th study result has a lastSeenDate, every 100th is an active group member
+        stmt.execute("INSERT INTO `StudyResult` (`id`, `uuid`, `study_id`, `batch_id`, `worker_id`, `startDate`, "
+                + "`lastSeenDate`, `studyState`, `quotaReached`, `activeGroupMember_id`) "
+                + "SELECT X, 'studyResult-' || X, MOD(X - 1, " + STUDIES + ") + 1, MOD(X - 1, " + BATCHES + ") + 1, "
+                + "MOD(X - 1, " + WORKERS + ") + 2, DATEADD('SECOND', X, TIMESTAMP '2024-01-01 00:00:00'), "
+                + "CASE WHEN MOD(X, 10) = 0 THEN DATEADD('SECOND', X, TIMESTAMP '2024-01-02 00:00:00') END, 6, 0, "
+                + "CASE WHEN MOD(X, 100) = 0 THEN MOD(X / 100, " + GROUPS + ") + 1 END "
+                + "FROM SYSTEM_RANGE(1, " + STUDY_RESULTS + ")");
+        stmt.execute("INSERT INTO `ComponentResult` (`id`, `studyResult_id`, `component_id`, `componentState`, "
+                + "`dataSize`, `quotaReached`) "
+                + "SELECT X, (X - 1) / " + COMPONENT_RESULTS_PER_STUDY_RESULT + " + 1, "
+                + "MOD(X - 1, " + COMPONENTS + ") + 1, 6, MOD(X, 1000), 0 "
+                + "FROM SYSTEM_RANGE(1, " + STUDY_RESULTS * COMPONENT_RESULTS_PER_STUDY_RESULT + ")");
+        stmt.execute("INSERT INTO `BatchResultCounter` (`batch_id`, `workerType`, `study_id`, `resultCount`, `dataSize`) "
+                + "SELECT sr.`batch_id`, w.`workerType`, sr.`study_id`, COUNT(*), 0 "
+                + "FROM `StudyResult` sr JOIN `Worker` w ON sr.`worker_id` = w.`id` "
+                + "GROUP BY sr.`batch_id`, w.`workerType`, sr.`study_id`");
+    }
+
+    /**
+     * Calls the DAO method in a transaction that is rolled back and returns the SQL statements Hibernate sent
+     */
+    private static List<String> sqlOf(Runnable daoCall) {
+        STATEMENTS.clear();
+        EntityManager em = emf.createEntityManager();
+        when(jpa.em()).thenReturn(em);
+        try {
+            em.getTransaction().begin();
+            daoCall.run();
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+        assertFalse("No SQL captured", STATEMENTS.isEmpty());
+        return new ArrayList<>(STATEMENTS);
+    }
+
+    /**
+     * Runs EXPLAIN on the SQL statement. The parameters are set to NULL - H2 chooses the plan without their values.
+     */
+    private static String explain(String sql) throws SQLException {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("EXPLAIN " + sql)) {
+            int parameterCount = stmt.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameterCount; i++) stmt.setNull(i, Types.NULL);
+            try (ResultSet rs = stmt.executeQuery()) {
+                StringBuilder plan = new StringBuilder();
+                while (rs.next()) plan.append(rs.getString(1)).append('\n');
+                return plan.toString();
+            }
+        }
+    }
+
+    /**
+     * Checks the plans of all SELECT, UPDATE and DELETE statements the DAO method sends
+     */
+    private static void assertNoFullScan(Runnable daoCall) throws SQLException {
+        for (String sql : sqlOf(daoCall)) {
+            if (sql.trim().toLowerCase().startsWith("insert")) continue;
+            String plan = explain(sql);
+            Matcher matcher = TABLE_SCAN.matcher(plan);
+            if (matcher.find()) fail("Full scan of " + matcher.group(1) + " in\n" + sql + "\n" + plan);
+        }
+    }
+
+    private static Study study() {
+        Study study = new Study();
+        study.setId(MISSING_ID);
+        return study;
+    }
+
+    private static Batch batch() {
+        Batch batch = new Batch();
+        batch.setId(MISSING_ID);
+        return batch;
+    }
+
+    private static Component component() {
+        Component component = new Component();
+        component.setId(MISSING_ID);
+        return component;
+    }
+
+    private static Worker worker() {
+        Worker worker = new GeneralSingleWorker();
+        worker.setId(MISSING_ID);
+        return worker;
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setUsername("admin");
+        return user;
+    }
+
+    @Test
+    public void countByStudy() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.countByStudy(study()));
+    }
+
+    @Test
+    public void countByBatch() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.countByBatch(batch(), JatosWorker.WORKER_TYPE));
+    }
+
+    @Test
+    public void countByBatchAndWorkerType() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.countByBatchAndWorkerType(batch(), GeneralSingleWorker.WORKER_TYPE));
+        assertNoFullScan(() -> studyResultDao.countByBatchAndWorkerType(batch(), MTWorker.WORKER_TYPE));
+    }
+
+    @Test
+    public void countByWorker() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.countByWorker(worker(), user()));
+    }
+
+    @Test
+    public void findAllByStudy() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findAllByStudy(study(), 100, 10));
+    }
+
+    @Test
+    public void findAllByBatch() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findAllByBatch(batch(), JatosWorker.WORKER_TYPE, 100, 10));
+        assertNoFullScan(() -> studyResultDao.findAllByBatchAndWorkerType(batch(), GeneralSingleWorker.WORKER_TYPE,
+                100, 10));
+    }
+
+    @Test
+    public void findAllByWorker() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findAllByWorker(worker(), user(), 0, 10));
+    }
+
+    @Test
+    public void findAllActiveGroupMembers() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findAllActiveGroupMembers());
+    }
+
+    @Test
+    public void findLastStarted() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findLastStarted(study()));
+    }
+
+    @Test
+    public void findLastSeen() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.findLastSeen(10));
+    }
+
+    @Test
+    public void isStudyRunning() throws SQLException {
+        assertNoFullScan(() -> studyResultDao.isStudyRunning("studyResult-42"));
+    }
+
+    @Test
+    public void countByComponent() throws SQLException {
+        assertNoFullScan(() -> componentResultDao.countByComponent(component()));
+    }
+
+    @Test
+    public void findAllByComponent() throws SQLException {
+        assertNoFullScan(() -> componentResultDao.findAllByComponent(component(), 100, 10));
+    }
+
+    @Test
+    public void refreshStudyResultCounters() throws SQLException {
+        // Needs an existing study result
+        assertNoFullScan(() -> resultCounterDao.refreshStudyResult(42L));
+    }
+
+    @Test
+    public void markStudyResultForCounterRefresh() throws SQLException {
+        assertNoFullScan(() -> resultCounterDao.markStudyResult(42L));
+    }
+
+    @Test
+    public void resultCountersByStudy() throws SQLException {
+        assertNoFullScan(() -> resultCounterDao.countByStudy(study()));
+        assertNoFullScan(() -> resultCounterDao.dataSizeByStudy(study()));
+    }
+
+    @Test
+    public void resultCountersByBatch() throws SQLException {
+        assertNoFullScan(() -> resultCounterDao.countByBatch(batch(), JatosWorker.WORKER_TYPE));
+        assertNoFullScan(() -> resultCounterDao.countByBatchAndWorkerType(batch(), MTWorker.WORKER_TYPE));
+    }
+
+}
@@ -0,0 +1,165 @@
+package daos.common;
+
+import daos.common.ResultArchiveDao.ArchivedComponentResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the native queries of ResultArchiveDao on an in-memory H2 database: only StudyResults in a final state are
+ * archived and restored ComponentResults are renumbered.
+ */
+@SuppressWarnings("deprecation")
+public class ResultArchiveDaoTest {
+
+    private Database database;
+    private EntityManagerFactory emf;
+    private JPAApi jpa;
+    private ResultArchiveDao resultArchiveDao;
+
+    @Before
+    public void setup() throws SQLException {
+        database = Databases.createFrom("default", "org.h2.Driver",
+                "jdbc:h2:mem:resultArchive" + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE");
+        Evolutions.applyEvolutions(database);
+        execute("INSERT INTO `Study` (`id`, `uuid`, `title`, `locked`, `groupStudy`, `linearStudy`) "
+                + "VALUES (1, 'study-1', 'Study 1', 0, 0, 0)");
+        execute("INSERT INTO `Batch` (`id`, `uuid`, `title`, `active`, `batchSessionVersion`, `study_id`) "
+                + "VALUES (1, 'batch-1', 'Batch 1', 1, 1, 1)");
+        execute("INSERT INTO `Component` (`id`, `uuid`, `title`, `active`, `reloadable`, `study_id`) "
+                + "VALUES (1, 'component-1', 'Component 1', 1, 0, 1), (3, 'component-3', 'Component 3', 1, 0, 1)");
+        execute("INSERT INTO `Worker` (`id`, `workerType`) VALUES (2, 'GeneralMultiple')");
+
+        jpa = mock(JPAApi.class);
+        resultArchiveDao = new ResultArchiveDao(jpa);
+        emf = Persistence.createEntityManagerFactory("mysqlPersistenceUnit", Map.of(
+                "javax.persistence.nonJtaDataSource", database.getDataSource(),
+                "hibernate.cache.use_second_level_cache", "false",
+                "hibernate.cache.use_query_cache", "false"));
+    }
+
+    @After
+    public void tearDown() {
+        emf.close();
+        database.shutdown();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private List<Long> queryLongs(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            List<Long> values = new ArrayList<>();
+            while (rs.next()) values.add(rs.getLong(1));
+            return values;
+        }
+    }
+
+    /**
+     * Adds a StudyResult in the given state (ordinal of StudyState) that ended in 2020
+     */
+    private void addStudyResult(long id, int studyState) throws SQLException {
+        execute("INSERT INTO `StudyResult` (`id`, `uuid`, `study_id`, `batch_id`, `worker_id`, `studyState`, "
+                + "`quotaReached`, `componentResultCount`, `studyResultList_order`, `startDate`, `endDate`) "
+                + "VALUES (" + id + ", 'studyResult-" + id + "', 1, 1, 2, " + studyState + ", 0, 0, " + id + ", "
+                + "'2020-01-01 00:00:00', '2020-01-01 01:00:00')");
+    }
+
+    /**
+     * Calls the DAO method in a committed transaction
+     */
+    private <T> T inTransaction(Supplier<T> daoCall) {
+        EntityManager em = emf.createEntityManager();
+        when(jpa.em()).thenReturn(em);
+        try {
+            em.getTransaction().begin();
+            T result = daoCall.get();
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    private ArchivedComponentResult componentResult(long id, long componentId, int order) {
+        ArchivedComponentResult cr = new ArchivedComponentResult();
+        cr.id = id;
+        cr.componentId = componentId;
+        cr.order = order;
+        cr.componentState = 4;
+        cr.dataSize = 0L;
+        return cr;
+    }
+
+    @Test
+    public void findIdsToArchiveOnlyFinalStates() throws SQLException {
+        // STARTED, DATA_RETRIEVED, FINISHED, ABORTED and FAIL
+        addStudyResult(1, 1);
+        addStudyResult(2, 2);
+        addStudyResult(3, 3);
+        addStudyResult(4, 4);
+        addStudyResult(5, 5);
+
+        List<Long> ids = inTransaction(() -> resultArchiveDao.findIdsToArchive(1L,
+                Timestamp.valueOf("2021-01-01 00:00:00"), 0L, 10));
+
+        assertThat(ids).containsExactly(3L, 4L, 5L);
+    }
+
+    @Test
+    public void markArchivedOnlyFinalStates() throws SQLException {
+        addStudyResult(1, 1);
+        addStudyResult(2, 3);
+
+        assertThat(inTransaction(() -> resultArchiveDao.markArchived(1L))).isFalse();
+        assertThat(inTransaction(() -> resultArchiveDao.markArchived(2L))).isTrue();
+        // Already archived
+        assertThat(inTransaction(() -> resultArchiveDao.markArchived(2L))).isFalse();
+    }
+
+    @Test
+    public void restoreComponentResultsRenumbers() throws SQLException {
+        addStudyResult(1, 3);
+
+        // Component 2 was removed in the meantime: its ComponentResult is skipped
+        List<ArchivedComponentResult> componentResults = Arrays.asList(componentResult(13, 3, 2),
+                componentResult(12, 2, 1), componentResult(11, 1, 0), componentResult(14, 1, 3));
+        inTransaction(() -> {
+            resultArchiveDao.restoreComponentResults(1L, componentResults);
+            return null;
+        });
+
+        assertThat(queryLongs("SELECT `id` FROM `ComponentResult` ORDER BY `componentResultList_order`"))
+                .containsExactly(11L, 13L, 14L);
+        assertThat(queryLongs("SELECT `componentResultList_order` FROM `ComponentResult` ORDER BY `id`"))
+                .containsExactly(0L, 1L, 2L);
+    }
+
+}
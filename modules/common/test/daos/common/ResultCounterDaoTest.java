@@ -0,0 +1,143 @@
+package daos.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the background refresh of the result counters with an in-memory H2 database: changing the result data
+ * only marks the StudyResult and the refresh of the mark updates the counters exactly once.
+ */
+@SuppressWarnings("deprecation")
+public class ResultCounterDaoTest {
+
+    private Database database;
+    private EntityManagerFactory emf;
+    private JPAApi jpa;
+    private ResultCounterDao resultCounterDao;
+    private ComponentResultDao componentResultDao;
+
+    @Before
+    public void setup() throws SQLException {
+        database = Databases.createFrom("default", "org.h2.Driver",
+                "jdbc:h2:mem:resultCounters" + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE");
+        Evolutions.applyEvolutions(database);
+        execute("INSERT INTO `Study` (`id`, `uuid`, `title`, `locked`, `groupStudy`, `linearStudy`) "
+                + "VALUES (1, 'study-1', 'Study 1', 0, 0, 0)");
+        execute("INSERT INTO `Batch` (`id`, `uuid`, `title`, `active`, `batchSessionVersion`, `study_id`) "
+                + "VALUES (1, 'batch-1', 'Batch 1', 1, 1, 1)");
+        execute("INSERT INTO `Component` (`id`, `uuid`, `title`, `active`, `reloadable`, `study_id`) "
+                + "VALUES (1, 'component-1', 'Component 1', 1, 0, 1)");
+        execute("INSERT INTO `Worker` (`id`, `workerType`) VALUES (2, 'GeneralSingle')");
+        execute("INSERT INTO `StudyResult` (`id`, `uuid`, `study_id`, `batch_id`, `worker_id`, `studyState`, "
+                + "`quotaReached`, `componentResultCount`) VALUES (1, 'studyResult-1', 1, 1, 2, 2, 0, 1)");
+        execute("INSERT INTO `ComponentResult` (`id`, `studyResult_id`, `component_id`, `componentState`, "
+                + "`dataSize`, `quotaReached`) VALUES (1, 1, 1, 2, 0, 0)");
+        execute("INSERT INTO `BatchResultCounter` (`batch_id`, `workerType`, `study_id`, `resultCount`, `dataSize`) "
+                + "VALUES (1, 'GeneralSingle', 1, 1, 0)");
+
+        emf = Persistence.createEntityManagerFactory("mysqlPersistenceUnit", Map.of(
+                "javax.persistence.nonJtaDataSource", database.getDataSource(),
+                "hibernate.cache.use_second_level_cache", "false",
+                "hibernate.cache.use_query_cache", "false"));
+        jpa = mock(JPAApi.class);
+        resultCounterDao = new ResultCounterDao(jpa);
+        componentResultDao = new ComponentResultDao(jpa, resultCounterDao);
+    }
+
+    @After
+    public void tearDown() {
+        emf.close();
+        database.shutdown();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Calls the DAO method in a committed transaction
+     */
+    private <T> T inTransaction(Supplier<T> daoCall) {
+        EntityManager em = emf.createEntityManager();
+        when(jpa.em()).thenReturn(em);
+        try {
+            em.getTransaction().begin();
+            T result = daoCall.get();
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    private void inTransaction(Runnable daoCall) {
+        inTransaction(() -> {
+            daoCall.run();
+            return null;
+        });
+    }
+
+    @Test
+    public void dataChangeOnlyMarksStudyResult() throws SQLException {
+        inTransaction(() -> componentResultDao.replaceData(1L, "foobar"));
+
+        assertThat(queryLong("SELECT `dataSize` FROM `StudyResult` WHERE `id` = 1")).isEqualTo(0L);
+        assertThat(queryLong("SELECT `dataSize` FROM `BatchResultCounter` WHERE `batch_id` = 1")).isEqualTo(0L);
+        assertThat(inTransaction(() -> resultCounterDao.findMarkedStudyResultIds(10))).containsOnly(1L);
+    }
+
+    @Test
+    public void refreshOfMarkAddsDataSizeOnce() throws SQLException {
+        inTransaction(() -> componentResultDao.replaceData(1L, "foobar"));
+        inTransaction(() -> componentResultDao.replaceData(1L, "foobarbaz"));
+
+        assertThat(inTransaction(() -> resultCounterDao.refreshMarkedStudyResult(1L))).isTrue();
+        // The mark is gone: a second refresh (e.g. by another JATOS node) does nothing
+        assertThat(inTransaction(() -> resultCounterDao.refreshMarkedStudyResult(1L))).isFalse();
+
+        assertThat(queryLong("SELECT `dataSize` FROM `StudyResult` WHERE `id` = 1")).isEqualTo(9L);
+        assertThat(queryLong("SELECT `dataSize` FROM `BatchResultCounter` WHERE `batch_id` = 1")).isEqualTo(9L);
+        assertThat(inTransaction(() -> resultCounterDao.findMarkedStudyResultIds(10))).isEmpty();
+    }
+
+    @Test
+    public void refreshOfMarkOfRemovedStudyResult() throws SQLException {
+        inTransaction(() -> componentResultDao.replaceData(1L, "foobar"));
+        execute("DELETE FROM `ComponentResult` WHERE `id` = 1");
+        execute("DELETE FROM `StudyResult` WHERE `id` = 1");
+
+        assertThat(inTransaction(() -> resultCounterDao.refreshMarkedStudyResult(1L))).isTrue();
+        assertThat(queryLong("SELECT `dataSize` FROM `BatchResultCounter` WHERE `batch_id` = 1")).isEqualTo(0L);
+    }
+
+}
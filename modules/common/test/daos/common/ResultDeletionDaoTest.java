@@ -0,0 +1,207 @@
+package daos.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the set-based removal of StudyResults with the native bulk statements of ResultDeletionDao on an in-memory
+ * H2 database: the result counters, the GroupResults' member counts and the order of the workers' study result lists
+ * have to be the same as if the entities were removed one by one.
+ */
+@SuppressWarnings("deprecation")
+public class ResultDeletionDaoTest {
+
+    private Database database;
+    private EntityManagerFactory emf;
+    private JPAApi jpa;
+    private ResultDeletionDao resultDeletionDao;
+
+    @Before
+    public void setup() throws SQLException {
+        database = Databases.createFrom("default", "org.h2.Driver",
+                "jdbc:h2:mem:resultDeletion" + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE");
+        Evolutions.applyEvolutions(database);
+        execute("INSERT INTO `Study` (`id`, `uuid`, `title`, `locked`, `groupStudy`, `linearStudy`) "
+                + "VALUES (1, 'study-1', 'Study 1', 0, 1, 0)");
+        execute("INSERT INTO `Batch` (`id`, `uuid`, `title`, `active`, `batchSessionVersion`, `study_id`) "
+                + "VALUES (1, 'batch-1', 'Batch 1', 1, 1, 1)");
+        execute("INSERT INTO `Component` (`id`, `uuid`, `title`, `active`, `reloadable`, `study_id`) "
+                + "VALUES (1, 'component-1', 'Component 1', 1, 0, 1)");
+        execute("INSERT INTO `Worker` (`id`, `workerType`) VALUES (2, 'GeneralMultiple'), (3, 'PersonalSingle')");
+        // Group 1 is finished and group 2 still running
+        execute("INSERT INTO `GroupResult` (`id`, `batch_id`, `groupState`, `groupSessionVersion`, "
+                + "`activeMemberCount`, `historyMemberCount`) VALUES (1, 1, 1, 1, 0, 1), (2, 1, 0, 1, 2, 0)");
+
+        jpa = mock(JPAApi.class);
+        resultDeletionDao = new ResultDeletionDao(jpa);
+        emf = Persistence.createEntityManagerFactory("mysqlPersistenceUnit", Map.of(
+                "javax.persistence.nonJtaDataSource", database.getDataSource(),
+                "hibernate.cache.use_second_level_cache", "false",
+                "hibernate.cache.use_query_cache", "false"));
+    }
+
+    @After
+    public void tearDown() {
+        emf.close();
+        database.shutdown();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private List<Long> queryLongs(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            List<Long> values = new ArrayList<>();
+            while (rs.next()) values.add(rs.getLong(1));
+            return values;
+        }
+    }
+
+    /**
+     * Adds a StudyResult of the given worker with one ComponentResult (with the same ID + 100)
+     */
+    private void addStudyResult(long id, long workerId, int order, long dataSize, Long activeGroupId,
+            Long historyGroupId) throws SQLException {
+        execute("INSERT INTO `StudyResult` (`id`, `uuid`, `study_id`, `batch_id`, `worker_id`, `studyState`, "
+                + "`quotaReached`, `componentResultCount`, `dataSize`, `studyResultList_order`, "
+                + "`activeGroupMember_id`, `historyGroupMember_id`) VALUES (" + id + ", 'studyResult-" + id + "', 1, "
+                + "1, " + workerId + ", 6, 0, 1, " + dataSize + ", " + order + ", " + activeGroupId + ", "
+                + historyGroupId + ")");
+        execute("INSERT INTO `ComponentResult` (`id`, `studyResult_id`, `component_id`, `componentState`, "
+                + "`dataSize`, `quotaReached`) VALUES (" + (id + 100) + ", " + id + ", 1, 6, " + dataSize + ", 0)");
+    }
+
+    private void addResultCounter(String workerType, int resultCount, long dataSize) throws SQLException {
+        execute("INSERT INTO `BatchResultCounter` (`batch_id`, `workerType`, `study_id`, `resultCount`, `dataSize`) "
+                + "VALUES (1, '" + workerType + "', 1, " + resultCount + ", " + dataSize + ")");
+    }
+
+    private int removeStudyResults(Long... ids) {
+        return inTransaction(() -> resultDeletionDao.removeStudyResults(Arrays.asList(ids)));
+    }
+
+    /**
+     * Calls the DAO method in a committed transaction
+     */
+    private <T> T inTransaction(Supplier<T> daoCall) {
+        EntityManager em = emf.createEntityManager();
+        when(jpa.em()).thenReturn(em);
+        try {
+            em.getTransaction().begin();
+            T result = daoCall.get();
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            if (em.getTransaction().isActive()) em.getTransaction().rollback();
+            em.close();
+        }
+    }
+
+    @Test
+    public void removeStudyResults() throws SQLException {
+        addStudyResult(1, 2, 0, 10, null, null);
+        addStudyResult(2, 2, 1, 10, null, 1L);
+        addStudyResult(3, 2, 2, 10, 2L, null);
+        addStudyResult(4, 2, 3, 10, 2L, null);
+        addStudyResult(5, 3, 0, 20, null, null);
+        addResultCounter("GeneralMultiple", 4, 40);
+        addResultCounter("PersonalSingle", 1, 20);
+
+        assertThat(removeStudyResults(2L, 3L, 5L)).isEqualTo(3);
+
+        assertThat(queryLongs("SELECT `id` FROM `StudyResult` ORDER BY `id`")).containsExactly(1L, 4L);
+        assertThat(queryLongs("SELECT `id` FROM `ComponentResult` ORDER BY `id`")).containsExactly(101L, 104L);
+        assertThat(queryLongs("SELECT `studyResult_id` FROM `ResultUploadsRemoval` ORDER BY `studyResult_id`"))
+                .containsExactly(2L, 3L, 5L);
+    }
+
+    @Test
+    public void removeStudyResultsSubtractsFromResultCounters() throws SQLException {
+        addStudyResult(1, 2, 0, 10, null, null);
+        addStudyResult(2, 2, 1, 15, null, null);
+        addStudyResult(3, 2, 2, 20, null, null);
+        addStudyResult(4, 3, 0, 30, null, null);
+        addResultCounter("GeneralMultiple", 3, 45);
+        addResultCounter("PersonalSingle", 1, 30);
+
+        removeStudyResults(2L, 3L, 4L);
+
+        assertThat(queryLongs("SELECT `resultCount` FROM `BatchResultCounter` ORDER BY `workerType`"))
+                .containsExactly(1L, 0L);
+        assertThat(queryLongs("SELECT `dataSize` FROM `BatchResultCounter` ORDER BY `workerType`"))
+                .containsExactly(10L, 0L);
+    }
+
+    @Test
+    public void removeStudyResultsUpdatesOrRemovesGroupResults() throws SQLException {
+        addStudyResult(1, 2, 0, 10, null, 1L);
+        addStudyResult(2, 2, 1, 10, 2L, null);
+        addStudyResult(3, 2, 2, 10, 2L, null);
+        addResultCounter("GeneralMultiple", 3, 30);
+
+        removeStudyResults(1L, 2L);
+
+        // The finished group 1 has no members anymore and is removed, the running group 2 is kept
+        assertThat(queryLongs("SELECT `id` FROM `GroupResult` ORDER BY `id`")).containsExactly(2L);
+        assertThat(queryLongs("SELECT `activeMemberCount` FROM `GroupResult` WHERE `id` = 2")).containsExactly(1L);
+        assertThat(queryLongs("SELECT `historyMemberCount` FROM `GroupResult` WHERE `id` = 2")).containsExactly(0L);
+    }
+
+    @Test
+    public void removeStudyResultsRenumbersStudyResultLists() throws SQLException {
+        for (int i = 0; i < 6; i++) {
+            addStudyResult(i + 1, 2, i, 10, null, null);
+        }
+        addStudyResult(7, 3, 0, 10, null, null);
+        addStudyResult(8, 3, 1, 10, null, null);
+        addResultCounter("GeneralMultiple", 6, 60);
+        addResultCounter("PersonalSingle", 2, 20);
+
+        // Gaps at positions 1 and 3 of worker 2's list and at position 0 of worker 3's list
+        removeStudyResults(2L, 4L, 7L);
+
+        assertThat(queryLongs("SELECT `studyResultList_order` FROM `StudyResult` WHERE `worker_id` = 2 "
+                + "ORDER BY `id`")).containsExactly(0L, 1L, 2L, 3L);
+        assertThat(queryLongs("SELECT `studyResultList_order` FROM `StudyResult` WHERE `worker_id` = 3 "
+                + "ORDER BY `id`")).containsExactly(0L);
+    }
+
+    @Test
+    public void removeStudyResultsIgnoresMissingIds() throws SQLException {
+        addStudyResult(1, 2, 0, 10, null, null);
+        addResultCounter("GeneralMultiple", 1, 10);
+
+        assertThat(removeStudyResults(999L)).isEqualTo(0);
+
+        assertThat(queryLongs("SELECT `id` FROM `StudyResult`")).containsExactly(1L);
+        assertThat(queryLongs("SELECT `resultCount` FROM `BatchResultCounter`")).containsExactly(1L);
+        assertThat(queryLongs("SELECT `studyResult_id` FROM `ResultUploadsRemoval`")).isEmpty();
+    }
+
+}
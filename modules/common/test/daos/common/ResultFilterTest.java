@@ -0,0 +1,45 @@
+package daos.common;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Unit tests for the search condition of ResultFilter
+ */
+public class ResultFilterTest {
+
+    @Test
+    public void noSearch() {
+        assertThat(new ResultFilter().searchCondition(List.of("sr.studyCode"), new HashMap<>())).isNull();
+    }
+
+    @Test
+    public void searchIsPrefix() {
+        ResultFilter filter = new ResultFilter();
+        filter.setSearch("abc");
+        Map<String, Object> params = new HashMap<>();
+
+        String condition = filter.searchCondition(List.of("sr.studyCode", "sr.message"), params);
+
+        assertThat(condition).isEqualTo(
+                "sr.studyCode LIKE :search ESCAPE '!' OR sr.message LIKE :search ESCAPE '!'");
+        assertThat(params.get("search")).isEqualTo("abc%");
+    }
+
+    @Test
+    public void searchEscapesWildcards() {
+        ResultFilter filter = new ResultFilter();
+        filter.setSearch("50%_off!");
+        Map<String, Object> params = new HashMap<>();
+
+        filter.searchCondition(List.of("sr.studyCode"), params);
+
+        assertThat(params.get("search")).isEqualTo("50!%!_off!!%");
+    }
+
+}
@@ -0,0 +1,88 @@
+package general.common;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.FilterReply;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Unit tests for AccessLogSamplingFilter
+ */
+public class AccessLogSamplingFilterTest {
+
+    private MockedStatic<Common> commonStatic;
+    private final LoggerContext loggerContext = new LoggerContext();
+    private final AccessLogSamplingFilter filter = new AccessLogSamplingFilter();
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getAccessLogsSamplingDefault).thenReturn(1.0);
+        commonStatic.when(Common::getAccessLogsSamplingRoutes).thenReturn(List.of(
+                Pair.of(Pattern.compile("/heartbeat$"), 0.0),
+                Pair.of(Pattern.compile("^/jatos/api/"), 1.0)));
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    private LoggingEvent event(Level level, String path) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLoggerContextRemoteView(loggerContext.getLoggerContextRemoteView());
+        event.setLoggerName("publix_access");
+        event.setLevel(level);
+        event.setMessage("GET " + path + " 200 3ms");
+        event.setMDCPropertyMap(path != null ? Map.of(AccessLogger.PATH_MDC_KEY, path) : Map.of());
+        return event;
+    }
+
+    @Test
+    public void denyRouteWithRateZero() {
+        assertThat(filter.decide(event(Level.INFO, "/publix/19/heartbeat"))).isEqualTo(FilterReply.DENY);
+    }
+
+    @Test
+    public void keepRouteWithRateOne() {
+        assertThat(filter.decide(event(Level.INFO, "/jatos/api/v1/admin/status"))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+    @Test
+    public void useDefaultRateIfNoRouteMatches() {
+        commonStatic.when(Common::getAccessLogsSamplingDefault).thenReturn(0.0);
+
+        assertThat(filter.decide(event(Level.INFO, "/publix/19/start"))).isEqualTo(FilterReply.DENY);
+        assertThat(filter.decide(event(Level.INFO, "/jatos/api/v1/admin/status"))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+    @Test
+    public void neverSampleOutWarnings() {
+        assertThat(filter.decide(event(Level.WARN, "/publix/19/heartbeat"))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+    @Test
+    public void neverSampleOutEntriesWithoutPath() {
+        assertThat(filter.decide(event(Level.INFO, null))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+    @Test
+    public void logEverythingIfNotConfigured() {
+        commonStatic.when(Common::getAccessLogsSamplingRoutes).thenReturn(null);
+
+        assertThat(filter.decide(event(Level.INFO, "/publix/19/heartbeat"))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+}
@@ -0,0 +1,164 @@
+package general.common;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for AccessLogger: which requests are logged at which level
+ */
+public class AccessLoggerTest {
+
+    private static final String LOGGER_NAME = "test_access";
+
+    private MockedStatic<Common> commonStatic;
+    private ListAppender<ILoggingEvent> appender;
+    private Logger logbackLogger;
+    private AccessLogger accessLogger;
+    private Http.Request request;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getAccessLogsSlowThreshold).thenReturn(Duration.ofMinutes(1));
+
+        logbackLogger = (Logger) LoggerFactory.getLogger(LOGGER_NAME);
+        logbackLogger.setLevel(Level.INFO);
+        // Like logback's AsyncAppender, capture the MDC when the event is appended
+        appender = new ListAppender<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                event.prepareForDeferredProcessing();
+                super.append(event);
+            }
+        };
+        appender.start();
+        logbackLogger.addAppender(appender);
+
+        accessLogger = new AccessLogger(LOGGER_NAME,
+                e -> e instanceof IllegalArgumentException ? Http.Status.BAD_REQUEST : null);
+
+        request = mock(Http.Request.class);
+        when(request.method()).thenReturn("GET");
+        when(request.uri()).thenReturn("/publix/19/start?batchId=1");
+        when(request.path()).thenReturn("/publix/19/start");
+    }
+
+    @After
+    public void tearDown() {
+        logbackLogger.detachAppender(appender);
+        commonStatic.close();
+    }
+
+    private ILoggingEvent logAndGetEvent(CompletableFuture<Result> result) {
+        accessLogger.log(request, () -> "admin", () -> result).toCompletableFuture().exceptionally(e -> null).join();
+        assertThat(appender.list).hasSize(1);
+        return appender.list.get(0);
+    }
+
+    @Test
+    public void logSuccessAtInfo() {
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.completedFuture(new Result(200)));
+
+        assertThat(event.getLevel()).isEqualTo(Level.INFO);
+        assertThat(event.getFormattedMessage()).startsWith("GET /publix/19/start?batchId=1 200 ");
+        assertThat(event.getFormattedMessage()).endsWith("ms admin");
+        // The path is put into the MDC for sampling
+        assertThat(event.getMDCPropertyMap().get(AccessLogger.PATH_MDC_KEY)).isEqualTo("/publix/19/start");
+    }
+
+    @Test
+    public void logClientErrorAtInfo() {
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.completedFuture(new Result(404)));
+
+        assertThat(event.getLevel()).isEqualTo(Level.INFO);
+        assertThat(event.getFormattedMessage()).contains(" 404 ");
+    }
+
+    @Test
+    public void logClientErrorExceptionAtInfo() {
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.failedFuture(new IllegalArgumentException()));
+
+        assertThat(event.getLevel()).isEqualTo(Level.INFO);
+        assertThat(event.getFormattedMessage()).contains(" 400 ");
+    }
+
+    @Test
+    public void logServerErrorAtWarn() {
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.completedFuture(new Result(503)));
+
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getMDCPropertyMap().containsKey(AccessLogger.PATH_MDC_KEY)).isFalse();
+    }
+
+    @Test
+    public void logUnknownExceptionAsServerErrorAtWarn() {
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.failedFuture(new IllegalStateException()));
+
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getFormattedMessage()).contains(" 500 ");
+    }
+
+    @Test
+    public void logSlowRequestAtWarn() {
+        commonStatic.when(Common::getAccessLogsSlowThreshold).thenReturn(Duration.ZERO);
+
+        ILoggingEvent event = logAndGetEvent(CompletableFuture.completedFuture(new Result(200)));
+
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getFormattedMessage()).endsWith(" slow");
+    }
+
+    @Test
+    public void logSynchronousPartOfAction() {
+        commonStatic.when(Common::getAccessLogsSlowThreshold).thenReturn(Duration.ofMillis(50));
+
+        accessLogger.log(request, () -> "admin", () -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return CompletableFuture.completedFuture(new Result(200));
+        }).toCompletableFuture().join();
+
+        assertThat(appender.list).hasSize(1);
+        assertThat(appender.list.get(0).getLevel()).isEqualTo(Level.WARN);
+        assertThat(appender.list.get(0).getFormattedMessage()).endsWith(" slow");
+    }
+
+    @Test
+    public void logSynchronousExceptionAndRethrow() {
+        IllegalArgumentException thrown = new IllegalArgumentException();
+        try {
+            accessLogger.log(request, () -> "admin", () -> {
+                throw thrown;
+            });
+            fail("The exception should have been rethrown");
+        } catch (IllegalArgumentException e) {
+            assertThat(e).isSameAs(thrown);
+        }
+
+        assertThat(appender.list).hasSize(1);
+        assertThat(appender.list.get(0).getLevel()).isEqualTo(Level.INFO);
+        assertThat(appender.list.get(0).getFormattedMessage()).contains(" 400 ");
+    }
+
+}
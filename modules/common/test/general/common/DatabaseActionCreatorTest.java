@@ -0,0 +1,89 @@
+package general.common;
+
+import org.junit.Test;
+import play.db.jpa.Transactional;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for DatabaseActionCreator: actions that need the database are answered with 503 and Retry-After if the
+ * database execution context is saturated
+ */
+@SuppressWarnings("deprecation")
+public class DatabaseActionCreatorTest {
+
+    static class Controller {
+        @Transactional
+        public Result withDb() {
+            return Results.ok();
+        }
+
+        public Result withoutDb() {
+            return Results.ok();
+        }
+    }
+
+    private Result call(DatabaseExecutionContext dbExecutionContext, String actionMethod) throws Exception {
+        Http.Request request = mock(Http.Request.class);
+        when(request.method()).thenReturn("GET");
+        when(request.uri()).thenReturn("/jatos/1");
+        Http.Context ctx = mock(Http.Context.class);
+        when(ctx.request()).thenReturn(request);
+
+        Action<?> action = new DatabaseActionCreator(dbExecutionContext)
+                .createAction(request, Controller.class.getMethod(actionMethod));
+        action.delegate = new Action.Simple() {
+            @Override
+            public CompletableFuture<Result> call(Http.Context ctx) {
+                return CompletableFuture.completedFuture(Results.ok());
+            }
+        };
+        return action.call(ctx).toCompletableFuture().get();
+    }
+
+    @Test
+    public void rejectWith503AndRetryAfterIfSaturated() throws Exception {
+        DatabaseExecutionContext dbExecutionContext = mock(DatabaseExecutionContext.class);
+        doThrow(new RejectedExecutionException()).when(dbExecutionContext).execute(any(Runnable.class));
+
+        Result result = call(dbExecutionContext, "withDb");
+
+        assertThat(result.status()).isEqualTo(Http.Status.SERVICE_UNAVAILABLE);
+        assertThat(result.headers().get(Http.HeaderNames.RETRY_AFTER))
+                .isEqualTo(String.valueOf(DatabaseExecutionContext.RETRY_AFTER_SECONDS));
+    }
+
+    @Test
+    public void runOnDatabaseExecutionContext() throws Exception {
+        DatabaseExecutionContext dbExecutionContext = mock(DatabaseExecutionContext.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(dbExecutionContext).execute(any(Runnable.class));
+
+        Result result = call(dbExecutionContext, "withDb");
+
+        assertThat(result.status()).isEqualTo(Http.Status.OK);
+        verify(dbExecutionContext).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void actionWithoutDbStaysOnCallingThread() throws Exception {
+        DatabaseExecutionContext dbExecutionContext = mock(DatabaseExecutionContext.class);
+
+        Result result = call(dbExecutionContext, "withoutDb");
+
+        assertThat(result.status()).isEqualTo(Http.Status.OK);
+        verifyNoInteractions(dbExecutionContext);
+    }
+
+}
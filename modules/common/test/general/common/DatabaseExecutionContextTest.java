@@ -0,0 +1,101 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the admission control of DatabaseExecutionContext: tasks above pool size + maxQueued are rejected
+ */
+public class DatabaseExecutionContextTest {
+
+    private ActorSystem actorSystem;
+    private DatabaseExecutionContext dbExecutionContext;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        Config config = ConfigFactory.parseString(""
+                + "database.dispatcher {\n"
+                + "  executor = \"thread-pool-executor\"\n"
+                + "  throughput = 1\n"
+                + "  thread-pool-executor.fixed-pool-size = 2\n"
+                + "}\n"
+                + "jatos.db.executionContext.maxQueued = 1\n");
+        actorSystem = ActorSystem.create("DatabaseExecutionContextTest", config);
+        dbExecutionContext = new DatabaseExecutionContext(actorSystem, config);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        actorSystem.terminate();
+    }
+
+    private void submitBlocking(CountDownLatch started) {
+        dbExecutionContext.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    public void admitUpToPoolSizePlusMaxQueued() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(2);
+        // Two running and one queued
+        submitBlocking(started);
+        submitBlocking(started);
+        submitBlocking(new CountDownLatch(1));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        try {
+            submitBlocking(new CountDownLatch(1));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertThat(dbExecutionContext.getMetrics().get("running")).isEqualTo(2);
+        assertThat(dbExecutionContext.getMetrics().get("queued")).isEqualTo(1);
+        assertThat(dbExecutionContext.getMetrics().get("rejected")).isEqualTo(1L);
+    }
+
+    @Test
+    public void admitAgainAfterTasksFinished() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(2);
+        submitBlocking(started);
+        submitBlocking(started);
+        submitBlocking(new CountDownLatch(1));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        release.countDown();
+        CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                dbExecutionContext.execute(done::countDown);
+                break;
+            } catch (RejectedExecutionException e) {
+                if (System.currentTimeMillis() > deadline) fail();
+                Thread.sleep(10);
+            }
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+}
@@ -0,0 +1,119 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import org.hibernate.Cache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metamodel.spi.MetamodelImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import play.db.ConnectionCallable;
+import play.db.Database;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for EntityCache's polling of the cache versions per entity type in a multi-node JATOS
+ */
+@SuppressWarnings("unchecked")
+public class EntityCacheTest {
+
+    private static final String STUDY = "models.common.Study";
+    private static final String BATCH = "models.common.Batch";
+
+    private Database db;
+    private Cache cache;
+    private EntityCacheIntegrator.ChangeListener changeListener;
+    private MockedStatic<EntityCacheIntegrator> integratorStatic;
+    private EntityCache entityCache;
+
+    @Before
+    public void setup() {
+        db = mock(Database.class);
+        cache = mock(Cache.class);
+        MetamodelImplementor metamodel = mock(MetamodelImplementor.class);
+        when(metamodel.getAllCollectionRoles()).thenReturn(new String[]{STUDY + ".userList", BATCH + ".workerList"});
+        SessionFactoryImplementor sessionFactory = mock(SessionFactoryImplementor.class);
+        when(sessionFactory.getCache()).thenReturn(cache);
+        when(sessionFactory.getMetamodel()).thenReturn(metamodel);
+        JPAApi jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Function.class))).thenReturn(sessionFactory);
+
+        changeListener = new EntityCacheIntegrator.ChangeListener();
+        integratorStatic = mockStatic(EntityCacheIntegrator.class);
+        integratorStatic.when(() -> EntityCacheIntegrator.findChangeListener(sessionFactory))
+                .thenReturn(changeListener);
+
+        entityCache = new EntityCache(mock(ActorSystem.class), mock(ApplicationLifecycle.class), jpa, db);
+    }
+
+    @After
+    public void tearDown() {
+        integratorStatic.close();
+    }
+
+    private void dbVersions(Map<String, Long> versions) {
+        when(db.withConnection(any(ConnectionCallable.class))).thenReturn(versions);
+    }
+
+    @Test
+    public void unchangedVersionsKeepCache() {
+        dbVersions(Map.of());
+        entityCache.poll();
+        verify(cache, never()).evictEntityData(anyString());
+    }
+
+    @Test
+    public void ownChangesKeepCache() {
+        changeListener.addOwnVersion(STUDY, 1L);
+        changeListener.addOwnVersion(STUDY, 2L);
+        dbVersions(Map.of(STUDY, 2L));
+        entityCache.poll();
+        verify(cache, never()).evictEntityData(anyString());
+    }
+
+    @Test
+    public void changesOfOtherNodesEvictOnlyTheirEntityType() {
+        // Version 1 of Study is from this node, 2 and 3 from others
+        changeListener.addOwnVersion(STUDY, 1L);
+        dbVersions(Map.of(STUDY, 3L));
+        entityCache.poll();
+        verify(cache, times(1)).evictEntityData(STUDY);
+        verify(cache, times(1)).evictCollectionData(STUDY + ".userList");
+        verify(cache, never()).evictEntityData(BATCH);
+        verify(cache, never()).evictCollectionData(BATCH + ".workerList");
+
+        // Nothing changed since the last poll
+        entityCache.poll();
+        verify(cache, times(1)).evictEntityData(STUDY);
+    }
+
+    @Test
+    public void ownVersionsAreCountedPerEntityType() {
+        // This node wrote version 1 of Study, another node version 1 of Batch
+        changeListener.addOwnVersion(STUDY, 1L);
+        dbVersions(Map.of(STUDY, 1L, BATCH, 1L));
+        entityCache.poll();
+        verify(cache, never()).evictEntityData(STUDY);
+        verify(cache, times(1)).evictEntityData(BATCH);
+    }
+
+    @Test
+    public void resetVersionEvictsCache() {
+        dbVersions(Map.of(STUDY, 5L));
+        entityCache.poll();
+        // E.g. the database was restored from a backup
+        dbVersions(Map.of(STUDY, 2L));
+        entityCache.poll();
+        verify(cache, times(2)).evictEntityData(STUDY);
+    }
+
+}
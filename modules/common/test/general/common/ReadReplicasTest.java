@@ -0,0 +1,129 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.db.DBApi;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ReadReplicas' routing with two in-memory H2 databases: a primary and a replica. The replication is
+ * simulated by copying the heartbeat from the primary to the replica.
+ */
+public class ReadReplicasTest {
+
+    private MockedStatic<Common> commonStatic;
+    private Database primary;
+    private Database replica;
+    private ReadReplicas readReplicas;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getDbReplicas).thenReturn(List.of("replica"));
+        commonStatic.when(Common::getDbReplicasMaxLag).thenReturn(Duration.ofSeconds(10));
+
+        primary = createDatabase("primary");
+        replica = createDatabase("replica");
+        DBApi dbApi = mock(DBApi.class);
+        when(dbApi.getDatabase("default")).thenReturn(primary);
+        when(dbApi.getDatabase("replica")).thenReturn(replica);
+        readReplicas = new ReadReplicas(mock(ActorSystem.class), mock(ApplicationLifecycle.class), mock(JPAApi.class),
+                dbApi);
+    }
+
+    @After
+    public void tearDown() {
+        primary.shutdown();
+        replica.shutdown();
+        commonStatic.close();
+    }
+
+    private static Database createDatabase(String name) {
+        // Both are named 'default' to get the default evolutions. A fresh in-memory database for each test.
+        Database database = Databases.createFrom("default", "org.h2.Driver",
+                "jdbc:h2:mem:" + name + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE");
+        Evolutions.applyEvolutions(database);
+        return database;
+    }
+
+    private void replicate() throws SQLException {
+        long beat;
+        try (Connection connection = primary.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT `beat` FROM `ReplicationHeartbeat` WHERE `id` = 1")) {
+            resultSet.next();
+            beat = resultSet.getLong(1);
+        }
+        try (Connection connection = replica.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE `ReplicationHeartbeat` SET `beat` = " + beat + " WHERE `id` = 1");
+        }
+    }
+
+    private String connectedTo() throws SQLException {
+        try (Connection connection = readReplicas.getConnection()) {
+            assertThat(connection.isReadOnly()).isTrue();
+            return connection.getMetaData().getURL();
+        }
+    }
+
+    @Test
+    public void upToDateReplicaIsUsed() throws SQLException {
+        readReplicas.init();
+        readReplicas.checkLag();
+        replicate();
+        readReplicas.checkLag();
+
+        assertThat(connectedTo()).contains("mem:replica");
+    }
+
+    @Test
+    public void laggingReplicaFallsBackToPrimary() throws SQLException {
+        readReplicas.init();
+        // The heartbeat never reached the replica
+        readReplicas.checkLag();
+
+        assertThat(connectedTo()).contains("mem:primary");
+    }
+
+    @Test
+    public void unreachableReplicaFallsBackToPrimary() throws SQLException {
+        readReplicas.init();
+        readReplicas.checkLag();
+        replicate();
+        readReplicas.checkLag();
+        assertThat(connectedTo()).contains("mem:replica");
+
+        replica.shutdown();
+        assertThat(connectedTo()).contains("mem:primary");
+        readReplicas.checkLag();
+        assertThat(connectedTo()).contains("mem:primary");
+    }
+
+    @Test
+    public void withoutReplicasEverythingGoesToPrimary() throws SQLException {
+        commonStatic.when(Common::getDbReplicas).thenReturn(List.of());
+        readReplicas.init();
+        readReplicas.checkLag();
+
+        assertThat(connectedTo()).contains("mem:primary");
+    }
+
+}
@@ -0,0 +1,217 @@
+package general.common;
+
+import akka.actor.ActorSystem;
+import daos.common.ResultSearchDao;
+import daos.common.ResultSearchDao.IndexedComponentResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResultSearchIndex with a Lucene index in a temporary directory. The ComponentResults in the database
+ * are simulated by a mocked ResultSearchDao.
+ */
+@SuppressWarnings("unchecked")
+public class ResultSearchIndexTest {
+
+    private MockedStatic<Common> commonStatic;
+    private Path tmpDir;
+    private JPAApi jpa;
+    private ResultSearchDao resultSearchDao;
+    private final Map<Long, IndexedComponentResult> database = new TreeMap<>();
+    private ResultSearchIndex resultSearchIndex;
+
+    @Before
+    public void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("resultSearchIndexTest");
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getResultSearchPath).thenReturn(tmpDir.resolve("index").toString());
+
+        // Runs the transactions' blocks right away
+        jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Function.class))).thenAnswer(
+                invocation -> ((Function<EntityManager, Object>) invocation.getArgument(0)).apply(null));
+
+        resultSearchDao = mock(ResultSearchDao.class);
+        when(resultSearchDao.findIdsAfter(anyLong(), anyInt())).thenAnswer(invocation -> database.keySet().stream()
+                .filter(id -> id > (Long) invocation.getArgument(0))
+                .limit((Integer) invocation.getArgument(1))
+                .collect(Collectors.toList()));
+        when(resultSearchDao.findForIndex(anyCollection())).thenAnswer(invocation ->
+                ((Collection<Long>) invocation.getArgument(0)).stream()
+                        .filter(database::containsKey)
+                        .map(database::get)
+                        .collect(Collectors.toList()));
+
+        resultSearchIndex = openIndex();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        resultSearchIndex.close();
+        commonStatic.close();
+        IOUtils.deleteRecursivelyIfExists(tmpDir);
+    }
+
+    private ResultSearchIndex openIndex() throws IOException {
+        ResultSearchIndex index = new ResultSearchIndex(mock(ActorSystem.class), mock(ApplicationLifecycle.class), jpa,
+                mock(IoExecutionContext.class), resultSearchDao);
+        index.open();
+        return index;
+    }
+
+    private void addComponentResult(long id, long studyResultId, long studyId, String data) {
+        IndexedComponentResult cr = new IndexedComponentResult();
+        cr.id = id;
+        cr.studyResultId = studyResultId;
+        cr.studyId = studyId;
+        cr.componentId = 3L;
+        cr.data = data;
+        database.put(id, cr);
+    }
+
+    /**
+     * Copies the index' files as they are on disk right now (without the writer's lock) into a new dir and points the
+     * result search path to it - like a JATOS that crashed without closing its index
+     */
+    private void crash() throws IOException {
+        Path indexDir = tmpDir.resolve("index");
+        Path crashedDir = Files.createDirectories(tmpDir.resolve("crashed"));
+        try (Stream<Path> files = Files.list(indexDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().equals("write.lock")) {
+                    Files.copy(file, crashedDir.resolve(file.getFileName()));
+                }
+            }
+        }
+        resultSearchIndex.close();
+        commonStatic.when(Common::getResultSearchPath).thenReturn(crashedDir.toString());
+    }
+
+    private List<Long> search(String query) throws IOException {
+        return resultSearchIndex.search(query, null, 10).stream()
+                .map(hit -> hit.componentResultId)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void markedResultsAreSearchable() throws IOException {
+        addComponentResult(1, 11, 7, "{\"reaction\": \"fast\"}");
+        addComponentResult(2, 12, 8, "{\"reaction\": \"slow\"}");
+        resultSearchIndex.markForIndexing(1L);
+        resultSearchIndex.markForIndexing(2L);
+
+        resultSearchIndex.indexMarked();
+
+        List<ResultSearchIndex.Hit> hits = resultSearchIndex.search("fast", null, 10);
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).componentResultId).isEqualTo(1L);
+        assertThat(hits.get(0).studyResultId).isEqualTo(11L);
+        assertThat(hits.get(0).studyId).isEqualTo(7L);
+        assertThat(hits.get(0).componentId).isEqualTo(3L);
+        assertThat(search("reaction")).containsOnly(1L, 2L);
+        assertThat(resultSearchIndex.search("reaction", List.of(8L), 10)).hasSize(1);
+    }
+
+    @Test
+    public void maxIdIsKeptInCommitData() throws IOException {
+        addComponentResult(1, 11, 7, "first");
+        addComponentResult(2, 11, 7, "second");
+        resultSearchIndex.indexNew();
+        resultSearchIndex.close();
+
+        resultSearchIndex = openIndex();
+        addComponentResult(3, 12, 7, "third");
+        resultSearchIndex.indexNew();
+
+        // Only the ComponentResults after the highest indexed ID are fetched again
+        verify(resultSearchDao).findIdsAfter(eq(2L), anyInt());
+        assertThat(search("first OR second OR third")).containsOnly(1L, 2L, 3L);
+    }
+
+    @Test
+    public void indexIsRebuiltAfterCrash() throws IOException {
+        addComponentResult(1, 11, 7, "before");
+        resultSearchIndex.catchUp();
+        resultSearchIndex.close();
+
+        // Reopened after a clean shutdown, then crashed before the mark was indexed
+        resultSearchIndex = openIndex();
+        resultSearchIndex.catchUp();
+        addComponentResult(1, 11, 7, "after");
+        resultSearchIndex.markForIndexing(1L);
+        crash();
+
+        resultSearchIndex = openIndex();
+        resultSearchIndex.catchUp();
+
+        assertThat(search("after")).containsOnly(1L);
+        assertThat(search("before")).isEmpty();
+    }
+
+    @Test
+    public void markedMissingResultsAreRemoved() throws IOException {
+        addComponentResult(1, 11, 7, "removed");
+        resultSearchIndex.markForIndexing(1L);
+        resultSearchIndex.indexMarked();
+        assertThat(search("removed")).containsOnly(1L);
+
+        database.remove(1L);
+        resultSearchIndex.markForIndexing(1L);
+        // Was never indexed
+        resultSearchIndex.markForIndexing(99L);
+        resultSearchIndex.indexMarked();
+
+        assertThat(search("removed")).isEmpty();
+    }
+
+    @Test
+    public void removedStudyResultsAreRemoved() throws IOException {
+        addComponentResult(1, 11, 7, "archived");
+        addComponentResult(2, 11, 7, "archived");
+        addComponentResult(3, 12, 7, "archived");
+        resultSearchIndex.indexNew();
+
+        resultSearchIndex.markForRemoval(List.of(11L));
+        resultSearchIndex.indexMarked();
+
+        assertThat(search("archived")).containsOnly(3L);
+    }
+
+    @Test
+    public void marksAreKeptIfIndexingFails() throws IOException {
+        addComponentResult(1, 11, 7, "retried");
+        doThrow(new RuntimeException("Connection lost")).when(jpa).withTransaction(any(Function.class));
+        resultSearchIndex.markForIndexing(1L);
+
+        resultSearchIndex.indexMarked();
+        assertThat(search("retried")).isEmpty();
+
+        doAnswer(invocation -> ((Function<EntityManager, Object>) invocation.getArgument(0)).apply(null))
+                .when(jpa).withTransaction(any(Function.class));
+        resultSearchIndex.indexMarked();
+        assertThat(search("retried")).containsOnly(1L);
+    }
+
+}
@@ -0,0 +1,109 @@
+package general.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StudyLogIndex
+ */
+public class StudyLogIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String entry(int i, String msg) {
+        return "\n{\"msg\":\"" + msg + "\",\"timestamp\":" + (1000L + i) + ",\"nr\":" + i + "}";
+    }
+
+    private static String msgOf(int i) {
+        return i % 10 == 0 ? "Uploaded file" : "Started study run";
+    }
+
+    private StudyLogIndex createLog(Path logPath, int entries) throws IOException {
+        StudyLogIndex index = new StudyLogIndex(logPath);
+        index.create(entry(0, msgOf(0)), 1000L, msgOf(0));
+        for (int i = 1; i < entries; i++) {
+            index.append(entry(i, msgOf(i)), 1000L + i, msgOf(i));
+        }
+        return index;
+    }
+
+    @Test
+    public void testAppendWritesOneRecordPerSegment() throws IOException {
+        Path logPath = tmp.getRoot().toPath().resolve("study.log");
+        StudyLogIndex index = createLog(logPath, 2500);
+
+        StudyLogIndex.Snapshot snapshot = index.snapshot();
+        assertEquals(2500, snapshot.entryCount);
+        assertEquals(3, snapshot.segmentCount());
+        assertEquals(Files.size(logPath), snapshot.logSize);
+        assertEquals(1000L, snapshot.timestamps[0]);
+        assertEquals(2000L, snapshot.timestamps[1]);
+        assertEquals(3000L, snapshot.timestamps[2]);
+    }
+
+    @Test
+    public void testSeekToSegmentStart() throws IOException {
+        Path logPath = tmp.getRoot().toPath().resolve("study.log");
+        StudyLogIndex index = createLog(logPath, 2500);
+
+        StudyLogIndex.Snapshot snapshot = index.snapshot();
+        try (BufferedReader reader = index.openReader(snapshot.offsets[2])) {
+            String line = reader.readLine();
+            while (line != null && line.trim().isEmpty()) line = reader.readLine();
+            assertNotNull(line);
+            assertTrue(line.contains("\"nr\":2000"));
+        }
+    }
+
+    @Test
+    public void testMessageMask() throws IOException {
+        Path logPath = tmp.getRoot().toPath().resolve("study.log");
+        StudyLogIndex index = createLog(logPath, 1500);
+
+        StudyLogIndex.Snapshot snapshot = index.snapshot();
+        for (int segment = 0; segment < snapshot.segmentCount(); segment++) {
+            assertNotEquals(0, snapshot.masks[segment] & StudyLogIndex.msgBit("Uploaded file"));
+            assertNotEquals(0, snapshot.masks[segment] & StudyLogIndex.msgBit("Started study run"));
+        }
+    }
+
+    @Test
+    public void testRebuildMissingIndex() throws IOException {
+        Path logPath = tmp.getRoot().toPath().resolve("study.log");
+        StudyLogIndex.Snapshot expected = createLog(logPath, 2345).snapshot();
+
+        Files.delete(Path.of(logPath + ".idx"));
+        StudyLogIndex.Snapshot rebuilt = new StudyLogIndex(logPath).snapshot();
+
+        assertEquals(expected.entryCount, rebuilt.entryCount);
+        assertArrayEquals(expected.offsets, rebuilt.offsets);
+        assertArrayEquals(expected.timestamps, rebuilt.timestamps);
+        assertArrayEquals(expected.masks, rebuilt.masks);
+    }
+
+    @Test
+    public void testNoticesChangeFromOutside() throws IOException {
+        Path logPath = tmp.getRoot().toPath().resolve("study.log");
+        StudyLogIndex index = createLog(logPath, 999);
+
+        // Another writer (e.g. another JATOS node) appends to the log
+        StudyLogIndex otherIndex = new StudyLogIndex(logPath);
+        otherIndex.append(entry(999, msgOf(999)), 1999L, msgOf(999));
+        otherIndex.append(entry(1000, msgOf(1000)), 2000L, msgOf(1000));
+
+        StudyLogIndex.Snapshot snapshot = index.snapshot();
+        assertEquals(1001, snapshot.entryCount);
+        assertEquals(2, snapshot.segmentCount());
+        assertEquals(2000L, snapshot.timestamps[1]);
+    }
+
+}
@@ -0,0 +1,117 @@
+package general.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import models.common.Study;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Unit tests for StudyLogger's paginated reading of study logs
+ */
+public class StudyLoggerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private MockedStatic<Common> commonStatic;
+    private StudyLogger studyLogger;
+    private Study study;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getStudyLogsPath).thenReturn(tmp.getRoot().toString());
+        studyLogger = new StudyLogger();
+        study = new Study();
+        study.setUuid("5c85bd82-0258-45c6-934a-97ecc1ad6617");
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    private static String entry(int i) {
+        return "\n{\"msg\":\"Started study run\",\"timestamp\":" + (1000L + i) + ",\"nr\":" + i + "}";
+    }
+
+    private Path createLog(int entries) throws IOException {
+        Path logPath = Path.of(studyLogger.getPath(study));
+        StudyLogIndex index = new StudyLogIndex(logPath);
+        index.create(entry(0), 1000L, "Started study run");
+        for (int i = 1; i < entries; i++) {
+            index.append(entry(i), 1000L + i, "Started study run");
+        }
+        return logPath;
+    }
+
+    private JsonNode readPage(long position, int limit, boolean reverse) throws IOException {
+        StringWriter writer = new StringWriter();
+        studyLogger.streamLogPage(writer, study, position, limit, reverse, null, null, null);
+        // Fails if the page isn't valid JSON
+        return Json.parse(writer.toString());
+    }
+
+    @Test
+    public void readPageReverse() throws IOException {
+        createLog(25);
+
+        JsonNode page = readPage(0, 10, true);
+
+        assertThat(page.get("entries").size()).isEqualTo(10);
+        assertThat(page.get("entries").get(0).get("nr").asInt()).isEqualTo(24);
+        assertThat(page.get("next").asLong()).isEqualTo(10);
+        assertThat(page.get("total").asLong()).isEqualTo(25);
+        assertThat(page.has("error")).isFalse();
+    }
+
+    @Test
+    public void readLastPageForward() throws IOException {
+        createLog(25);
+
+        JsonNode page = readPage(20, 10, false);
+
+        assertThat(page.get("entries").size()).isEqualTo(5);
+        assertThat(page.get("entries").get(0).get("nr").asInt()).isEqualTo(20);
+        assertThat(page.get("next").isNull()).isTrue();
+    }
+
+    @Test
+    public void readPageOfTruncatedLog() throws IOException {
+        Path logPath = createLog(25);
+        // The last entry was cut off, e.g. by a crash during writing
+        Files.writeString(logPath, "\n{\"msg\":\"Started stu", StandardCharsets.ISO_8859_1,
+                StandardOpenOption.APPEND);
+
+        JsonNode page = readPage(0, 10, true);
+
+        assertThat(page.get("entries").size()).isEqualTo(10);
+        assertThat(page.get("entries").get(0).get("nr").asInt()).isEqualTo(24);
+        assertThat(page.has("error")).isFalse();
+    }
+
+    @Test
+    public void readPageOfMissingLog() throws IOException {
+        JsonNode page = readPage(0, 10, true);
+
+        assertThat(page.get("entries").size()).isEqualTo(0);
+        assertThat(page.get("next").isNull()).isTrue();
+        assertThat(page.get("error").asText()).isEqualTo(MessagesStrings.COULDNT_OPEN_LOG);
+    }
+
+}
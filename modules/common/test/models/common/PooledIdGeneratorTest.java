@@ -0,0 +1,154 @@
+package models.common;
+
+import models.common.workers.GeneralSingleWorker;
+import models.common.workers.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.db.evolutions.Evolutions;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Tests for PooledIdGenerator with Hibernate and an in-memory H2 database: IDs are reserved in blocks from the table
+ * 'hibernate_sequences' and JATOS nodes with their own EntityManagerFactory get disjoint blocks.
+ */
+public class PooledIdGeneratorTest {
+
+    private Database database;
+    private final List<EntityManagerFactory> emfs = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        database = Databases.createFrom("default", "org.h2.Driver",
+                "jdbc:h2:mem:pooledIds" + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE");
+        Evolutions.applyEvolutions(database);
+    }
+
+    @After
+    public void tearDown() {
+        emfs.forEach(EntityManagerFactory::close);
+        database.shutdown();
+    }
+
+    /**
+     * Each EntityManagerFactory has its own generator and therefore acts like a separate JATOS node
+     */
+    private EntityManagerFactory createNode() {
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory("mysqlPersistenceUnit", Map.of(
+                "javax.persistence.nonJtaDataSource", database.getDataSource(),
+                "hibernate.cache.use_second_level_cache", "false",
+                "hibernate.cache.use_query_cache", "false"));
+        emfs.add(emf);
+        return emf;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * Runs the Ups of the evolution that creates and seeds the table 'hibernate_sequences' (24.sql) again, like on a
+     * database whose tables already have rows
+     */
+    private void runSequencesEvolution() throws IOException, SQLException {
+        String script;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("evolutions/default/24.sql")) {
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String ups = script.substring(script.indexOf("# --- !Ups") + "# --- !Ups".length(),
+                script.indexOf("# --- !Downs"));
+        for (String sql : ups.split(";")) {
+            if (!sql.isBlank()) execute(sql);
+        }
+    }
+
+    private static List<Long> persistWorkers(EntityManagerFactory emf, int count) {
+        EntityManager em = emf.createEntityManager();
+        List<Long> ids = new ArrayList<>();
+        try {
+            em.getTransaction().begin();
+            for (int i = 0; i < count; i++) {
+                Worker worker = new GeneralSingleWorker();
+                em.persist(worker);
+                // The ID is known right after persist - without a flush
+                assertThat(worker.getId()).isNotNull();
+                ids.add(worker.getId());
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+        return ids;
+    }
+
+    private long nextVal(String sequenceName) throws SQLException {
+        try (Connection connection = database.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT `next_val` FROM `hibernate_sequences` "
+                     + "WHERE `sequence_name` = '" + sequenceName + "'")) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Test
+    public void reserveBlocksOfIds() throws SQLException {
+        EntityManagerFactory node = createNode();
+
+        List<Long> ids = persistWorkers(node, PooledIdGenerator.BLOCK_SIZE * 2 + 20);
+
+        assertThat(ids.get(0)).isEqualTo(1L);
+        for (int i = 1; i < ids.size(); i++) {
+            assertThat(ids.get(i)).isEqualTo(ids.get(i - 1) + 1);
+        }
+        // Three blocks reserved: the stored value is the first ID of the next free block (pooled-lo)
+        assertThat(nextVal("Worker")).isEqualTo(PooledIdGenerator.BLOCK_SIZE * 3 + 1L);
+    }
+
+    @Test
+    public void startAfterExistingIds() throws IOException, SQLException {
+        // Workers that were created before the table 'hibernate_sequences' existed
+        execute("DELETE FROM `hibernate_sequences`");
+        execute("INSERT INTO `Worker` (`workerType`, `id`) VALUES ('GeneralSingle', 7), ('GeneralSingle', 1000)");
+        runSequencesEvolution();
+        EntityManagerFactory node = createNode();
+
+        List<Long> ids = persistWorkers(node, 3);
+
+        assertThat(ids).containsOnly(1001L, 1002L, 1003L);
+    }
+
+    @Test
+    public void nodesGetDisjointBlocks() {
+        EntityManagerFactory node1 = createNode();
+        EntityManagerFactory node2 = createNode();
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.addAll(persistWorkers(node1, 30));
+            ids.addAll(persistWorkers(node2, 30));
+        }
+
+        assertThat(new HashSet<>(ids)).hasSize(ids.size());
+    }
+
+}
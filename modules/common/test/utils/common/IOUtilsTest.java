@@ -520,6 +520,23 @@ public class IOUtilsTest {
         assertEquals(12, size);
     }
 
+    @Test
+    public void testGetStudyAssetsDirUsage() throws Exception {
+        File assetsRoot = tmp.newFolder("assetsRootUsage");
+        commonStatic.when(Common::getStudyAssetsRootPath).thenReturn(assetsRoot.getAbsolutePath());
+        ioUtils.createStudyAssetsDir("studyUsage");
+        File base = new File(assetsRoot, "studyUsage");
+        File a = new File(base, "a.bin");
+        File b = new File(base, "sub/b.bin");
+        assertTrue(b.getParentFile().mkdirs());
+        Files.write(a.toPath(), new byte[5]);
+        Files.write(b.toPath(), new byte[7]);
+
+        IOUtils.DirUsage usage = ioUtils.getStudyAssetsDirUsage("studyUsage");
+        assertEquals(12, usage.getSize());
+        assertEquals(2, usage.getFileCount());
+    }
+
     @Test
     public void testCloneComponentHtmlFileClonesRootHtmlFile() throws Exception {
         Path assetsRoot = tmp.newFolder("assetsRootCloneRoot").toPath();
@@ -1,4 +1,4 @@
-export { Toolbars }
+export { Toolbars, getRequestParams }
 
 import * as Alerts from 'alerts';
 import * as Helpers from 'helpers';
@@ -6,7 +6,11 @@ import * as WaitingModal from "waitingModal";
 
 /*
  * Handles toolbars in the result pages (study, component, worker). Draws two rows (upper and lower) with buttons for
- * refresh, export, delete, select, filter, filter builder, customization of the table and page size
+ * refresh, export, delete, select, search, filter, customization of the table and page size.
+ *
+ * The tables are paginated, sorted and filtered by JATOS (DataTables' server-side processing), so only the current
+ * table page is in the browser. If 'All' is selected, the bulk actions send the filter that came with the table page
+ * (instead of the result IDs) and JATOS applies them to all matching results.
  */
 class Toolbars {
 
@@ -16,6 +20,7 @@ class Toolbars {
         this.dropdownClass = `dropdown-item-${type}`;
         this.exportResultsCallback = exportResultsCallback;
         this.deleteSelectedResultsCallback = deleteSelectedResultsCallback;
+        this.allMatchingSelected = false;
     }
 
     generate = () => {
@@ -25,8 +30,11 @@ class Toolbars {
         this.generateLower();
         this.listenToSelects();
         this.listenToSearch();
+        this.listenToFilter();
 
         this.dataTable.on('draw', () => {
+            // All matching results stay selected while paging through the table
+            if (this.allMatchingSelected) this.dataTable.rows({ page: 'current' }).select();
             this.drawAllSelectCheckboxes();
             // Necessary - otherwise the button doesn't work with manually selected rows
             this.toggleDeselectAllButton();
@@ -122,7 +130,7 @@ class Toolbars {
                                     }
                                 },
                                 {
-                                    "text": '<span data-bs-tooltip="Exports metadata in CSV format. It exports only what is currently visible in this table. Metadata of component results are not included.">CSV</span>',
+                                    "text": '<span data-bs-tooltip="Exports metadata in CSV format. It exports only the selected results of the current table page. Metadata of component results are not included.">CSV</span>',
                                     "extend": "csv",
                                     "filename": () => "jatos_results_metadata_" + Helpers.getDateTimeYYYYMMDDHHmmss(),
                                     "footer": false,
@@ -194,7 +202,7 @@ class Toolbars {
         $('#resultTableToolbars').prependTo('#resultsTable_wrapper');
     }
 
-    // Lower toolbar contains select buttons, filter/search, SearchBuilder, customization button, and table length
+    // Lower toolbar contains select buttons, search, filter, customization button, and table length
     generateLower = () => {
         const dataTable = this.dataTable;
         new $.fn.dataTable.Buttons(dataTable, {
@@ -204,31 +212,25 @@ class Toolbars {
                     "extend": "selectAll",
                     "text": "All",
                     "attr": {
-                        "data-bs-tooltip": "Select all results (including the ones on different table pages)"
-                    }
-                },
-                {
-                    "extends": "selectAll",
-                    "text": "Visible",
-                    "attr": {
-                        "data-bs-tooltip": "Select only the currently visible results on this page"
+                        "data-bs-tooltip": "Select all results that match the search and filter (including the ones on different table pages)"
                     },
                     "action": (e, dt, node, config) => {
                         $(node).tooltip("dispose");
-                        dt.rows().deselect();
+                        this.allMatchingSelected = true;
                         dt.rows({ page: 'current' }).select();
                     },
                 },
                 {
                     "extends": "selectAll",
-                    "text": "Filtered",
+                    "text": "Visible",
                     "attr": {
-                        "data-bs-tooltip": "Select only the filtered results (including the ones on different table pages)"
+                        "data-bs-tooltip": "Select only the currently visible results on this page"
                     },
                     "action": (e, dt, node, config) => {
                         $(node).tooltip("dispose");
+                        this.allMatchingSelected = false;
                         dt.rows().deselect();
-                        dt.rows({ search: 'applied' }).select();
+                        dt.rows({ page: 'current' }).select();
                     },
                 },
                 {
@@ -239,6 +241,7 @@ class Toolbars {
                     },
                     "action": (e, dt, node, config) => {
                         $(node).tooltip("dispose");
+                        this.allMatchingSelected = false;
                         dt.rows().deselect();
                     },
                 }
@@ -266,13 +269,9 @@ class Toolbars {
                 .addClass("mb-0")
                 .appendTo('#resultsTableSelect');
 
-        // Filter - swap dataTables filter field with our own
+        // Search - swap dataTables search field with our own
         $(".dt-search").remove();
 
-        // Search Builder
-        $("#resultsTableLowerToolbar").after(dataTable.searchBuilder.container());
-        $(".dtsb-searchBuilder").addClass("collapse card card-body ms-2 my-2");
-
         // Customize button
         dataTable.buttons('customizeButton', null).containers().appendTo('#resultsTableCustomize');
         $('#resultsTableCustomize>div').addClass("mb-0 me-2");
@@ -300,6 +299,8 @@ class Toolbars {
     }
 
     listenToSelects = () => {
+        // Selecting or deselecting single rows ends the selection of all matching results
+        this.dataTable.on('user-select', () => this.allMatchingSelected = false);
         this.dataTable.on('select deselect', (e, dt, type, indexes) => {
             if (type == "row") {
                 this.dataTable.rows(indexes).nodes().to$().each((index, selectedRow) => {
@@ -314,15 +315,54 @@ class Toolbars {
         // Firefox doesn't empty search field on page reload, so we do it manually
         $('#resultsTableSearch input').val("");
 
-        // More about DataTables search: https://datatables.net/reference/api/search()
-        const searchCallback = () => {
-            const input = $('#resultsTableSearch input').val();
-            const isRegex = $('#resultsTableSearch .regex').hasClass('active');
-            const isCaseSensitive = $('#resultsTableSearch .case-sensitive').hasClass('active');
-            this.dataTable.search(input, isRegex, !isRegex, !isCaseSensitive).draw();
+        // The search is done by JATOS, so wait until the user stopped typing
+        let searchTimeout;
+        $('#resultsTableSearch input').on('input', () => {
+            clearTimeout(searchTimeout);
+            searchTimeout = setTimeout(() => {
+                this.allMatchingSelected = false;
+                this.dataTable.search($('#resultsTableSearch input').val().trim()).draw();
+            }, 500);
+        });
+    }
+
+    listenToFilter = () => {
+        const reload = () => {
+            this.allMatchingSelected = false;
+            this.dataTable.ajax.reload();
         };
-        $('#resultsTableSearch input').on('keyup click', searchCallback);
-        $('#resultsTableSearch button.regex, button.case-sensitive').on('click', searchCallback);
+        $('#resultsTableFilter').on('change', 'select, input', reload);
+        $('#resultsTableFilterReset').on('click', () => {
+            $('#resultsTableFilter').find('select, input').val("");
+            reload();
+        });
+    }
+
+    isAllMatchingSelected = () => this.allMatchingSelected;
+
+    resetSelection = () => {
+        this.allMatchingSelected = false;
+        this.dataTable.rows().deselect();
+    }
+
+    /*
+     * Returns the number of selected results (including the ones on other table pages if all matching are selected)
+     */
+    getSelectedCount = () => {
+        if (this.allMatchingSelected) return this.dataTable.page.info().recordsDisplay;
+        return this.dataTable.rows('.selected').count();
+    }
+
+    /*
+     * Returns the request body for a bulk action (export or delete): either the IDs of the selected results or, if all
+     * matching results are selected, the filter of the current table page. Returns null if nothing is selected.
+     */
+    getSelectedRequestData = (idsField, filterField) => {
+        if (this.allMatchingSelected) {
+            return { [filterField]: this.dataTable.ajax.json().filter };
+        }
+        const ids = this.dataTable.rows('.selected').data().toArray().map((result) => result.id);
+        return ids.length > 0 ? { [idsField]: ids } : null;
     }
 
     toggleDeselectAllButton = () => {
@@ -332,4 +372,42 @@ class Toolbars {
             this.dataTable.buttons(['.buttons-select-none']).disable();
         }
     }
-}
\ No newline at end of file
+}
+
+/*
+ * Returns the filter panel's criteria as query parameters of the table data request. Dates are in the browser's time
+ * zone and 'Started to' includes the whole day.
+ */
+const getFilterParams = () => {
+    const params = {};
+    const value = (name) => $(`#resultsTableFilter [name=${name}]`).val();
+    ["state", "workerType", "batchId", "groupId", "urlQuery", "dataQuery"].forEach((name) => {
+        if (value(name)) params[name] = value(name);
+    });
+    if (value("startedFrom")) {
+        params.startedFrom = new Date(`${value("startedFrom")}T00:00`).getTime();
+    }
+    if (value("startedTo")) {
+        const startedBefore = new Date(`${value("startedTo")}T00:00`);
+        startedBefore.setDate(startedBefore.getDate() + 1);
+        params.startedBefore = startedBefore.getTime();
+    }
+    return params;
+}
+
+/*
+ * Use as DataTables' 'ajax.data' function. Returns the table data request's parameters: the table page, the sorting,
+ * the search and the filter.
+ */
+const getRequestParams = (data) => {
+    const order = data.order[0];
+    const column = order ? data.columns[order.column] : null;
+    return Object.assign({
+        draw: data.draw,
+        start: data.start,
+        length: data.length,
+        orderBy: column ? column.name || column.data : undefined,
+        orderDir: order ? order.dir : undefined,
+        search: data.search.value
+    }, getFilterParams());
+}
@@ -1,6 +1,66 @@
-export { isAllSelected }
+export { watchRemoval, renderArchived, restoreArchived }
 
-const isAllSelected = () => {
-    const dataTable = $("#resultsTable").DataTable();
-    return dataTable.rows({selected: true}).count() == dataTable.rows().count();
-}
\ No newline at end of file
+import * as Alerts from 'alerts';
+
+/*
+ * Results are removed by a job in the background. Polls the job's progress until it's done and tells the user.
+ * Optionally calls 'onDone' afterwards (e.g. to reload the table).
+ */
+const watchRemoval = (job, onDone = () => {}) => {
+    if (!job || job.state == "DONE") {
+        onDone();
+        return;
+    }
+    const named = new Alerts.Named("resultRemoval");
+    const poll = () => {
+        $.ajax({
+            url: window.routes.StudyResults.removalProgress(job.id),
+            success: (progress) => {
+                named.hideAll();
+                if (progress.state == "DONE") {
+                    named.success(`Removed ${progress.total} results`);
+                    onDone();
+                } else if (progress.state == "FAILED") {
+                    named.error(`Couldn't remove all results (${progress.deleted} of ${progress.total} removed): ${progress.error}`);
+                    onDone();
+                } else {
+                    named.info(`Removing results in the background: ${progress.deleted} of ${progress.total}`, 0);
+                    setTimeout(poll, 2000);
+                }
+            },
+            error: () => named.warning("Couldn't get the progress of the result removal")
+        });
+    };
+    poll();
+}
+
+/*
+ * Archived results (see the study property 'Archive results after') have their component results in an archive file.
+ * Instead of the component results button they get buttons to restore or download them.
+ */
+const renderArchived = (studyResult) => {
+    const date = new Date(studyResult.archivedDate).toLocaleString();
+    return `<div class="btn-group text-nowrap" role="group">
+        <button type="button" class="btn btn-secondary restore-archived-result"
+            data-bs-tooltip="This study result was archived on ${date} with its ${studyResult.componentResultCount} component result(s). Click to restore it.">
+            <i class="bi-archive"></i> archived</button>
+        <a role="button" class="btn btn-secondary" href="${window.routes.StudyResults.downloadArchive(studyResult.id)}"
+            data-bs-tooltip="Download the archive file of this study result"><i class="bi-download"></i></a>
+        </div>`;
+}
+
+const restoreArchived = (dataTable, tr, csrfToken) => {
+    const studyResult = dataTable.row(tr).data();
+    $.ajax({
+        url: window.routes.StudyResults.restoreArchived(studyResult.id),
+        type: 'POST',
+        headers: { 'Csrf-Token': csrfToken },
+        success: () => {
+            studyResult.archived = false;
+            studyResult.archivedDate = null;
+            dataTable.row(tr).data(studyResult).draw(false);
+            Alerts.success(`Restored study result ${studyResult.id}`, 5000);
+        },
+        error: (err) => err.responseText ? Alerts.error(err.responseText) : Alerts.error("Couldn't restore result")
+    });
+}
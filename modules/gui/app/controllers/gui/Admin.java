@@ -3,8 +3,8 @@ package controllers.gui;
 import auth.gui.AuthAction.Auth;
 import auth.gui.AuthService;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
+import daos.common.ResultCounterDao;
 import daos.common.StudyDao;
-import daos.common.StudyResultDao;
 import daos.common.UserDao;
 import general.common.Common;
 import models.common.Study;
@@ -25,6 +25,8 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,17 +46,17 @@ public class Admin extends Controller {
     private final AuthService authService;
     private final BreadcrumbsService breadcrumbsService;
     private final StudyDao studyDao;
-    private final StudyResultDao studyResultDao;
+    private final ResultCounterDao resultCounterDao;
     private final UserDao userDao;
     private final AdminService adminService;
 
     @Inject
     Admin(AuthService authService, BreadcrumbsService breadcrumbsService, StudyDao studyDao,
-            StudyResultDao studyResultDao, UserDao userDao, AdminService adminService) {
+            ResultCounterDao resultCounterDao, UserDao userDao, AdminService adminService) {
         this.authService = authService;
         this.breadcrumbsService = breadcrumbsService;
         this.studyDao = studyDao;
-        this.studyResultDao = studyResultDao;
+        this.resultCounterDao = resultCounterDao;
         this.userDao = userDao;
         this.adminService = adminService;
     }
@@ -136,6 +138,20 @@ public class Admin extends Controller {
         return ok(JsonUtils.asJsonNode(studiesData));
     }
 
+    /**
+     * Refreshes the statistics (sizes and last start) of one study and returns its admin data. The refresh walks the
+     * filesystem and runs in the background.
+     */
+    @Transactional
+    @Auth(roles = ADMIN)
+    public CompletionStage<Result> refreshStudyStatistics(Long studyId) {
+        Study study = studyDao.findById(studyId);
+        if (study == null) return CompletableFuture.completedFuture(badRequest("Study does not exist"));
+        return adminService.refreshStudyData(studyId).thenApply(studyData -> studyData != null
+                ? ok(JsonUtils.asJsonNode(studyData))
+                : badRequest("Study does not exist"));
+    }
+
     /**
      * Returns the study assets folder size of one study
      */
@@ -159,7 +175,7 @@ public class Admin extends Controller {
         Study study = studyDao.findById(studyId);
         if (study == null) return badRequest("Study does not exist");
         if (!study.hasUser(signedinUser) && !signedinUser.isAdmin()) return forbidden("No access for this user");
-        int studyResultCount = studyResultDao.countByStudy(study);
+        int studyResultCount = resultCounterDao.countByStudy(study);
         return ok(JsonUtils.asJsonNode(adminService.getResultDataSize(study, studyResultCount)));
     }
 
@@ -173,7 +189,7 @@ public class Admin extends Controller {
         Study study = studyDao.findById(studyId);
         if (study == null) return badRequest("Study does not exist");
         if (!study.hasUser(signedinUser) && !signedinUser.isAdmin()) return forbidden("No access for this user");
-        int studyResultCount = studyResultDao.countByStudy(study);
+        int studyResultCount = resultCounterDao.countByStudy(study);
         return ok(JsonUtils.asJsonNode(adminService.getResultFileSize(study, studyResultCount)));
     }
 
@@ -5,6 +5,7 @@ import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import auth.gui.AuthApiToken;
 import auth.gui.AuthService;
+import batch.BatchSessionStore;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -12,7 +13,9 @@ import daos.common.*;
 import exceptions.gui.*;
 import general.common.ApiEnvelope;
 import general.common.Common;
+import general.common.MessagesStrings;
 import general.common.RequestScope;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import general.gui.StrictJsonMapper;
 import models.common.*;
@@ -42,6 +45,7 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static auth.gui.AuthAction.Auth;
 import static auth.gui.AuthAction.AuthMethod.Type.SESSION;
@@ -89,6 +93,9 @@ public class Api extends Controller {
     private final UserService userService;
     private final ApiTokenService apiTokenService;
     private final StrictJsonMapper strictJsonMapper;
+    private final StudyStatisticsService studyStatisticsService;
+    private final ResultSearchIndex resultSearchIndex;
+    private final BatchSessionStore batchSessionStore;
 
     @Inject
     Api(ApiService apiService, AdminService adminService, AuthService authService,
@@ -99,7 +106,9 @@ public class Api extends Controller {
         ImportExport importExport, ImportExportService importExportService,
         ResultRemover resultRemover, ResultStreamer resultStreamer, AuthorizationService authorizationService,
         JsonUtils jsonUtils, LogFileReader logFileReader, StudyLogger studyLogger, IOUtils ioUtils, UserService userService,
-        ApiTokenService apiTokenService, StrictJsonMapper strictJsonMapper) {
+        ApiTokenService apiTokenService, StrictJsonMapper strictJsonMapper,
+        StudyStatisticsService studyStatisticsService, ResultSearchIndex resultSearchIndex,
+        BatchSessionStore batchSessionStore) {
         this.apiService = apiService;
         this.adminService = adminService;
         this.authService = authService;
@@ -127,6 +136,9 @@ public class Api extends Controller {
         this.userService = userService;
         this.apiTokenService = apiTokenService;
         this.strictJsonMapper = strictJsonMapper;
+        this.studyStatisticsService = studyStatisticsService;
+        this.resultSearchIndex = resultSearchIndex;
+        this.batchSessionStore = batchSessionStore;
     }
 
     /**
@@ -700,7 +712,10 @@ public class Api extends Controller {
                 Files.createDirectories(parent);
             }
 
+            long overwrittenSize = Files.isRegularFile(assetsFilePath) ? Files.size(assetsFilePath) : 0;
             boolean overwritten = IOUtils.moveFileAndDetectOverwrite(uploadedFile, assetsFilePath);
+            studyStatisticsService.studyAssetsChanged(study, Files.size(assetsFilePath) - overwrittenSize,
+                    overwritten ? 0 : 1);
             String msg = overwritten ? "File overwritten successfully" : "File uploaded successfully";
             JsonNode envelope = ApiEnvelope.wrap(msg).asJsonNode();
             return overwritten ? ok(envelope) : created(envelope);
@@ -732,7 +747,9 @@ public class Api extends Controller {
         try {
             Path file = ioUtils.getFileInStudyAssetsDir(study.getDirName(), filepath);
             if (Files.isDirectory(file)) throw new IOException("Directories can't be deleted.");
+            long size = Files.size(file);
             Files.delete(file);
+            studyStatisticsService.studyAssetsChanged(study, -size, -1);
         } catch (NoSuchFileException e) {
             throw new NotFoundException("File '" + filepath + "' couldn't be found.");
         } catch (IOException e) {
@@ -824,6 +841,37 @@ public class Api extends Controller {
         }
     }
 
+    /**
+     * Returns a page of a study log. Unlike {@link #studyLog} this uses the study log's index and can seek to any
+     * position in the log without reading it from the start or end.
+     *
+     * @param id       Study's ID or UUID
+     * @param position Entry number where the page starts (0 is the newest entry if reverse is true, the oldest otherwise)
+     * @param limit    Max number of entries in the page
+     * @param reverse  If true, the log is read from newest to oldest entry
+     * @param msg      Optional filter: only entries with this message
+     * @param from     Optional filter: only entries with a timestamp (epoch milliseconds) equal or later
+     * @param to       Optional filter: only entries with a timestamp (epoch milliseconds) equal or earlier
+     * @return JSON object with the entries, the position of the next page, and the total number of entries in the log
+     * with 'Transfer-Encoding:chunked'
+     */
+    @Transactional
+    @Auth(roles = {VIEWER, USER}, types = {TOKEN, SESSION})
+    public Result studyLogPage(String id, long position, int limit, boolean reverse, String msg, Long from, Long to)
+            throws HttpException {
+        Study study = studyService.getStudyFromIdOrUuid(id);
+        User signedinUser = authService.getSignedinUser();
+        authorizationService.canUserAccessStudy(study, signedinUser);
+
+        if (position < 0) throw new BadRequestException("Parameter 'position' must not be negative");
+        if (limit < -1 || limit == 0) throw new BadRequestException("Parameter 'limit' must be positive or -1");
+        Path studyLogPath = Path.of(studyLogger.getPath(study));
+        if (Files.notExists(studyLogPath)) throw new NotFoundException("Study log file doesn't exist");
+
+        return ok().chunked(studyLogger.readLogPage(study, position, limit, reverse, msg, from, to))
+                .as("application/json");
+    }
+
     /**
      * Creates a component within the specified study
      */
@@ -985,7 +1033,10 @@ public class Api extends Controller {
         User user = authService.getSignedinUser();
         authorizationService.canUserAccessBatch(batch, user, true);
 
-        ObjectNode session = apiService.getSessionNode(batch.getBatchSessionData(), batch.getBatchSessionVersion(), asText);
+        // The batch session store has the current batch session (the database might lag behind)
+        BatchSessionStore.Snapshot snapshot = batchSessionStore.get(batch.getId());
+        if (snapshot == null) throw new NotFoundException(MessagesStrings.batchNotExist(batch.getId()));
+        ObjectNode session = apiService.getSessionNode(snapshot.data(), snapshot.version(), asText);
         return ok(ApiEnvelope.wrap(session).asJsonNode());
     }
 
@@ -1003,8 +1054,9 @@ public class Api extends Controller {
 
         String sessionData = apiService.getSessionDataFromBody(request);
 
-        Long currentVersion = version.getOrElse(batch::getBatchSessionVersion);
-        Long newVersion = batchDao.updateBatchSession(batch.getId(), currentVersion, sessionData);
+        // Goes through the batch session store: it holds the current batch session and tells the batch's members
+        Long expectedVersion = version.isDefined() ? version.get() : null;
+        Long newVersion = batchSessionStore.replace(batch.getId(), sessionData, expectedVersion);
         if (newVersion == null) {
             throw new ForbiddenException("Batch session version conflict");
         }
@@ -1267,6 +1319,61 @@ public class Api extends Controller {
         return ok(file);
     }
 
+    /**
+     * Full-text search in the result data (only if jatos.resultSearch.enabled is true). Returns the hits ordered by
+     * relevance, each with the IDs of its component result, study result, study and component.
+     *
+     * @param query   Query in Lucene's query syntax, e.g. 'error', '"condition A"', or 'cond*'
+     * @param studyId Optional study ID or UUID: only search the results of this study. Otherwise all studies of the
+     *                signed-in user are searched.
+     * @param limit   Max number of hits
+     */
+    @Transactional
+    @Auth(roles = {VIEWER, USER}, types = {TOKEN, SESSION})
+    public Result searchResultData(String query, String studyId, int limit) throws HttpException, IOException {
+        if (!resultSearchIndex.isEnabled()) throw new BadRequestException("Search in result data is not enabled");
+        if (query == null || query.isBlank()) throw new BadRequestException("Parameter 'query' is missing");
+        if (limit < 1 || limit > 10000) throw new BadRequestException("Parameter 'limit' must be between 1 and 10000");
+
+        User signedinUser = authService.getSignedinUser();
+        List<Long> studyIds;
+        if (studyId != null) {
+            Study study = studyService.getStudyFromIdOrUuid(studyId);
+            authorizationService.canUserAccessStudy(study, signedinUser);
+            studyIds = List.of(study.getId());
+        } else {
+            studyIds = studyDao.findAllByUser(signedinUser).stream().map(Study::getId).collect(Collectors.toList());
+        }
+
+        List<ResultSearchIndex.Hit> hits;
+        try {
+            hits = resultSearchIndex.search(query, studyIds, limit);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Malformed query: " + e.getMessage());
+        }
+
+        // The index can still have results that were removed in the meantime: leave them out and let the index
+        // clean them up
+        List<Long> hitIds = hits.stream().map(hit -> hit.componentResultId).collect(Collectors.toList());
+        Set<Long> existingIds = hitIds.isEmpty()
+                ? Collections.emptySet()
+                : new HashSet<>(componentResultDao.findIdsByComponentResultIds(hitIds));
+        ArrayNode hitsNode = Json.mapper().createArrayNode();
+        for (ResultSearchIndex.Hit hit : hits) {
+            if (!existingIds.contains(hit.componentResultId)) {
+                resultSearchIndex.markForIndexing(hit.componentResultId);
+                continue;
+            }
+            ObjectNode hitNode = hitsNode.addObject();
+            hitNode.put("studyId", hit.studyId);
+            hitNode.put("studyResultId", hit.studyResultId);
+            hitNode.put("componentId", hit.componentId);
+            hitNode.put("componentResultId", hit.componentResultId);
+            hitNode.put("score", hit.score);
+        }
+        return ok(ApiEnvelope.wrap(hitsNode).asJsonNode());
+    }
+
     /**
      * Removes results from the database (ComponentResults and StudyResults) and result files from the file system.
      * Which results are to be removed are indicated by query parameters and/or JSON in the request's body. Different
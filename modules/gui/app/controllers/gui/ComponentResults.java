@@ -1,12 +1,12 @@
 package controllers.gui;
 
-import akka.stream.javadsl.Source;
-import akka.util.ByteString;
 import auth.gui.AuthAction.Auth;
 import auth.gui.AuthService;
+import com.fasterxml.jackson.databind.JsonNode;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
 import daos.common.ComponentDao;
 import daos.common.ComponentResultDao;
+import daos.common.ResultFilter;
 import daos.common.StudyDao;
 import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
@@ -46,7 +46,7 @@ public class ComponentResults extends Controller {
     private final AuthService authService;
     private final BreadcrumbsService breadcrumbsService;
     private final ResultRemover resultRemover;
-    private final ResultStreamer resultStreamer;
+    private final ResultTableService resultTableService;
     private final StudyDao studyDao;
     private final ComponentDao componentDao;
     private final ComponentResultDao componentResultDao;
@@ -54,14 +54,14 @@ public class ComponentResults extends Controller {
     @Inject
     ComponentResults(JatosGuiExceptionThrower jatosGuiExceptionThrower, AuthorizationService authorizationService,
             AuthService authService, BreadcrumbsService breadcrumbsService,
-            ResultRemover resultRemover, ResultStreamer resultStreamer, StudyDao studyDao,
+            ResultRemover resultRemover, ResultTableService resultTableService, StudyDao studyDao,
             ComponentDao componentDao, ComponentResultDao componentResultDao) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.authorizationService = authorizationService;
         this.authService = authService;
         this.breadcrumbsService = breadcrumbsService;
         this.resultRemover = resultRemover;
-        this.resultStreamer = resultStreamer;
+        this.resultTableService = resultTableService;
         this.studyDao = studyDao;
         this.componentDao = componentDao;
         this.componentResultDao = componentResultDao;
@@ -90,34 +90,47 @@ public class ComponentResults extends Controller {
 
     /**
      * POST request that removes all ComponentResults specified in the parameter. The parameter is
-     * a comma separated list of ComponentResult IDs as a String.
+     * a comma separated list of ComponentResult IDs as a String or a table's filter (then all matching
+     * ComponentResults are removed).
      */
     @Transactional
     @Auth(roles = USER)
     public Result remove(Http.Request request) throws ForbiddenException, BadRequestException, NotFoundException {
         User signedinUser = authService.getSignedinUser();
-        if (request.body().asJson() == null) return badRequest("Malformed request body");
-        if (!request.body().asJson().has("componentResultIds")) return badRequest("Malformed JSON");
+        JsonNode json = request.body().asJson();
+        if (json == null) return badRequest("Malformed request body");
+        if (!json.has("componentResultIds") && !json.has("componentResultFilter")) {
+            return badRequest("Malformed JSON");
+        }
 
         List<Long> componentResultIdList = new ArrayList<>();
-        request.body().asJson().get("componentResultIds").forEach(node -> componentResultIdList.add(node.asLong()));
+        if (json.has("componentResultFilter")) {
+            // All results that match the table's filter
+            ResultFilter filter = resultTableService.componentResultFilter(json.get("componentResultFilter"));
+            componentResultIdList.addAll(componentResultDao.findIdsByFilter(filter));
+        } else {
+            json.get("componentResultIds").forEach(node -> componentResultIdList.add(node.asLong()));
+        }
         // Permission check is done in service for each result individually
         resultRemover.removeComponentResults(componentResultIdList, signedinUser, false);
         return ok();
     }
 
     /**
-     * GET request that returns all ComponentResults as JSON for a given component. It streams the data as chunks (reduces memory usage)
+     * GET request that returns one table page of the ComponentResults of a component as JSON. Pagination, sorting and
+     * filtering are done in the database (see ResultTableService).
      */
     @Transactional
     @Auth(roles = {VIEWER, USER})
-    public Result tableDataByComponent(Long componentId) throws ForbiddenException, NotFoundException {
+    public Result tableDataByComponent(Http.Request request, Long componentId)
+            throws ForbiddenException, NotFoundException, BadRequestException {
         User signedinUser = authService.getSignedinUser();
         Component component = componentDao.findById(componentId);
         authorizationService.canUserAccessComponent(component, signedinUser);
 
-        Source<ByteString, ?> dataSource = resultStreamer.streamComponentResults(component);
-        return ok().chunked(dataSource).as("application/json");
+        ResultFilter filter = resultTableService.componentResultFilter(request.queryString());
+        filter.setComponentId(componentId);
+        return ok(resultTableService.componentResultsPage(filter, request.queryString()));
     }
 
     /**
@@ -54,21 +54,22 @@ public class Studies extends Controller {
     private final BatchService batchService;
     private final StudyDao studyDao;
     private final ComponentDao componentDao;
-    private final StudyResultDao studyResultDao;
+    private final ResultCounterDao resultCounterDao;
     private final UserDao userDao;
     private final ComponentResultDao componentResultDao;
     private final StudyLinkDao studyLinkDao;
     private final JsonUtils jsonUtils;
     private final FormFactory formFactory;
     private final StudyLogger studyLogger;
+    private final StudyStatisticsService studyStatisticsService;
 
     @Inject
     Studies(JatosGuiExceptionThrower jatosGuiExceptionThrower, AuthorizationService authorizationService, StudyService studyService,
             UserService userService, AuthService authService,
             BreadcrumbsService breadcrumbsService, BatchService batchService, StudyDao studyDao,
-            ComponentDao componentDao, StudyResultDao studyResultDao, UserDao userDao,
+            ComponentDao componentDao, ResultCounterDao resultCounterDao, UserDao userDao,
             ComponentResultDao componentResultDao, StudyLinkDao studyLinkDao, JsonUtils jsonUtils,
-            FormFactory formFactory, StudyLogger studyLogger) {
+            FormFactory formFactory, StudyLogger studyLogger, StudyStatisticsService studyStatisticsService) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.authorizationService = authorizationService;
         this.studyService = studyService;
@@ -78,13 +79,14 @@ public class Studies extends Controller {
         this.batchService = batchService;
         this.studyDao = studyDao;
         this.componentDao = componentDao;
-        this.studyResultDao = studyResultDao;
+        this.resultCounterDao = resultCounterDao;
         this.userDao = userDao;
         this.componentResultDao = componentResultDao;
         this.studyLinkDao = studyLinkDao;
         this.jsonUtils = jsonUtils;
         this.formFactory = formFactory;
         this.studyLogger = studyLogger;
+        this.studyStatisticsService = studyStatisticsService;
     }
 
     /**
@@ -98,7 +100,7 @@ public class Studies extends Controller {
         User signedinUser = authService.getSignedinUser();
         checkStandardForStudy(request, studyId, study, signedinUser);
         String breadcrumbs = breadcrumbsService.generateForStudy(study);
-        int studyResultCount = studyResultDao.countByStudy(study);
+        int studyResultCount = resultCounterDao.countByStudy(study);
         return status(httpStatus, views.html.gui.study.study
                 .render(request, signedinUser, breadcrumbs, study, studyResultCount));
     }
@@ -216,6 +218,7 @@ public class Studies extends Controller {
 
         Study clone = studyService.clone(study);
         studyService.createAndPersistStudy(signedinUser, clone);
+        studyStatisticsService.studyAssetsCloned(study, clone);
         return ok(Json.toJson(ImmutableMap.of("id", clone.getId(), "title", clone.getTitle())));
     }
 
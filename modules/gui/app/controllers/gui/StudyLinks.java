@@ -59,7 +59,7 @@ public class StudyLinks extends Controller {
     private final StudyDao studyDao;
     private final BatchDao batchDao;
     private final WorkerDao workerDao;
-    private final StudyResultDao studyResultDao;
+    private final ResultCounterDao resultCounterDao;
     private final GroupResultDao groupResultDao;
     private final StudyLinkDao studyLinkDao;
     private final FormFactory formFactory;
@@ -68,8 +68,8 @@ public class StudyLinks extends Controller {
     StudyLinks(JatosGuiExceptionThrower jatosGuiExceptionThrower, AuthorizationService authorizationService,
             JsonUtils jsonUtils, AuthService authService, WorkerService workerService, BatchService batchService,
             GroupService groupService, BreadcrumbsService breadcrumbsService, StudyDao studyDao, BatchDao batchDao,
-            WorkerDao workerDao, StudyResultDao studyResultDao, GroupResultDao groupResultDao, StudyLinkDao studyLinkDao,
-            FormFactory formFactory) {
+            WorkerDao workerDao, ResultCounterDao resultCounterDao, GroupResultDao groupResultDao,
+            StudyLinkDao studyLinkDao, FormFactory formFactory) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.authorizationService = authorizationService;
         this.jsonUtils = jsonUtils;
@@ -81,7 +81,7 @@ public class StudyLinks extends Controller {
         this.studyDao = studyDao;
         this.batchDao = batchDao;
         this.workerDao = workerDao;
-        this.studyResultDao = studyResultDao;
+        this.resultCounterDao = resultCounterDao;
         this.groupResultDao = groupResultDao;
         this.studyLinkDao = studyLinkDao;
         this.formFactory = formFactory;
@@ -119,7 +119,7 @@ public class StudyLinks extends Controller {
         authorizationService.canUserAccessStudy(study, signedinUser);
         authorizationService.canUserAccessBatch(batch, signedinUser);
 
-        Integer resultCount = studyResultDao.countByBatch(batch, JatosWorker.WORKER_TYPE);
+        Integer resultCount = resultCounterDao.countByBatch(batch, JatosWorker.WORKER_TYPE);
         Integer groupCount = groupResultDao.countByBatch(batch);
         return ok(jsonUtils.getBatchByStudyForUI(batch, resultCount, groupCount));
     }
@@ -137,7 +137,7 @@ public class StudyLinks extends Controller {
 
         List<Batch> batchList = study.getBatchList();
         List<Integer> resultCountList = new ArrayList<>();
-        batchList.forEach(batch -> resultCountList.add(studyResultDao.countByBatch(batch, JatosWorker.WORKER_TYPE)));
+        batchList.forEach(batch -> resultCountList.add(resultCounterDao.countByBatch(batch, JatosWorker.WORKER_TYPE)));
         List<Integer> groupCountList = new ArrayList<>();
         batchList.forEach(batch -> groupCountList.add(groupResultDao.countByBatch(batch)));
         return ok(jsonUtils.allBatchesByStudyForUI(batchList, resultCountList, groupCountList));
@@ -1,13 +1,13 @@
 package controllers.gui;
 
-import akka.stream.javadsl.Source;
-import akka.util.ByteString;
 import auth.gui.AuthAction.Auth;
 import auth.gui.AuthService;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Strings;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
 import daos.common.BatchDao;
 import daos.common.GroupResultDao;
+import daos.common.ResultFilter;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
@@ -16,16 +16,22 @@ import exceptions.gui.ForbiddenException;
 import exceptions.gui.JatosGuiException;
 import exceptions.gui.NotFoundException;
 import models.common.*;
+import models.common.workers.JatosWorker;
 import models.common.workers.Worker;
+import play.core.utils.HttpHeaderParameterEncoding;
 import play.db.jpa.Transactional;
+import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 import services.gui.*;
-import utils.common.JsonUtils;
+import utils.common.IOUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,32 +53,32 @@ public class StudyResults extends Controller {
     private final AuthorizationService authorizationService;
     private final AuthService authService;
     private final BreadcrumbsService breadcrumbsService;
-    private final ResultRemover resultRemover;
-    private final ResultStreamer resultStreamer;
+    private final ResultDeletionService resultDeletionService;
+    private final ResultArchiveService resultArchiveService;
+    private final ResultTableService resultTableService;
     private final StudyDao studyDao;
     private final BatchDao batchDao;
     private final StudyResultDao studyResultDao;
     private final GroupResultDao groupResultDao;
     private final WorkerDao workerDao;
-    private final JsonUtils jsonUtils;
 
     @Inject
     StudyResults(JatosGuiExceptionThrower jatosGuiExceptionThrower, AuthorizationService authorizationService, AuthService authService,
-                 BreadcrumbsService breadcrumbsService, ResultRemover resultRemover,
-                 ResultStreamer resultStreamer, StudyDao studyDao, BatchDao batchDao,
-                 StudyResultDao studyResultDao, GroupResultDao groupResultDao, WorkerDao workerDao, JsonUtils jsonUtils) {
+                 BreadcrumbsService breadcrumbsService, ResultDeletionService resultDeletionService,
+                 ResultArchiveService resultArchiveService, ResultTableService resultTableService, StudyDao studyDao,
+                 BatchDao batchDao, StudyResultDao studyResultDao, GroupResultDao groupResultDao, WorkerDao workerDao) {
         this.jatosGuiExceptionThrower = jatosGuiExceptionThrower;
         this.authorizationService = authorizationService;
         this.authService = authService;
         this.breadcrumbsService = breadcrumbsService;
-        this.resultRemover = resultRemover;
-        this.resultStreamer = resultStreamer;
+        this.resultDeletionService = resultDeletionService;
+        this.resultArchiveService = resultArchiveService;
+        this.resultTableService = resultTableService;
         this.studyDao = studyDao;
         this.batchDao = batchDao;
         this.studyResultDao = studyResultDao;
         this.groupResultDao = groupResultDao;
         this.workerDao = workerDao;
-        this.jsonUtils = jsonUtils;
     }
 
     /**
@@ -164,80 +170,159 @@ public class StudyResults extends Controller {
 
     /**
      * POST request that removes all StudyResults specified in the parameter. The parameter is a comma separated list of
-     * StudyResults IDs as a String. Removing a StudyResult always removes it's ComponentResults.
+     * StudyResults IDs as a String or a table's filter (then all matching StudyResults are removed). Removing a
+     * StudyResult always removes it's ComponentResults. The results are removed by a job in the background (see
+     * ResultDeletionService) - returns the job.
      */
     @Transactional
     @Auth(roles = USER)
     public Result remove(Http.Request request) throws ForbiddenException, BadRequestException, NotFoundException {
         User signedinUser = authService.getSignedinUser();
-        if (request.body().asJson() == null) return badRequest("Malformed request body");
-        if (!request.body().asJson().has("studyResultIds")) return badRequest("Malformed JSON");
+        JsonNode json = request.body().asJson();
+        if (json == null) return badRequest("Malformed request body");
+        if (!json.has("studyResultIds") && !json.has("studyResultFilter")) return badRequest("Malformed JSON");
 
         List<Long> studyResultIdList = new ArrayList<>();
-        request.body().asJson().get("studyResultIds").forEach(node -> studyResultIdList.add(node.asLong()));
-        resultRemover.removeStudyResults(studyResultIdList, signedinUser);
+        if (json.has("studyResultFilter")) {
+            // All results that match the table's filter
+            ResultFilter filter = resultTableService.studyResultFilter(json.get("studyResultFilter"));
+            studyResultIdList.addAll(studyResultDao.findIdsByFilter(filter));
+        } else {
+            json.get("studyResultIds").forEach(node -> studyResultIdList.add(node.asLong()));
+        }
+        ResultDeletionJob job = resultDeletionService.submit(studyResultIdList, signedinUser);
+
+        return ok(Json.toJson(job));
+    }
+
+    /**
+     * GET request that returns the progress of a result removal job
+     */
+    @Transactional
+    @Auth(roles = USER)
+    public Result removalProgress(Long jobId) throws ForbiddenException, NotFoundException {
+        User signedinUser = authService.getSignedinUser();
+        return ok(Json.toJson(resultDeletionService.getJob(jobId, signedinUser)));
+    }
 
+    /**
+     * POST request that restores an archived StudyResult (see ResultArchiveService)
+     */
+    @Transactional
+    @Auth(roles = USER)
+    public Result restoreArchived(Long studyResultId) throws ForbiddenException, NotFoundException, IOException {
+        StudyResult studyResult = studyResultDao.findById(studyResultId);
+        User signedinUser = authService.getSignedinUser();
+        authorizationService.canUserAccessStudyResult(studyResult, signedinUser, true);
+        if (!studyResult.isArchived()) return badRequest("Study result isn't archived");
+
+        resultArchiveService.restore(studyResultId);
         return ok();
     }
 
     /**
-     * GET request that returns StudyResults of a study in JSON format. It streams in chunks (reduces memory usage)
+     * POST request that restores all archived StudyResults of a study in the background. Returns their number.
+     */
+    @Transactional
+    @Auth(roles = USER)
+    public Result restoreArchivedOfStudy(Long studyId) throws ForbiddenException, NotFoundException {
+        Study study = studyDao.findById(studyId);
+        User signedinUser = authService.getSignedinUser();
+        authorizationService.canUserAccessStudy(study, signedinUser, true);
+
+        return ok(Json.toJson(resultArchiveService.restoreAllOfStudy(studyId)));
+    }
+
+    /**
+     * GET request that downloads the archive file of an archived StudyResult (without restoring it)
+     */
+    @Transactional
+    @Auth(roles = {VIEWER, USER})
+    public Result downloadArchive(Long studyResultId) throws ForbiddenException, NotFoundException {
+        StudyResult studyResult = studyResultDao.findById(studyResultId);
+        User signedinUser = authService.getSignedinUser();
+        authorizationService.canUserAccessStudyResult(studyResult, signedinUser, false);
+        Path file = IOUtils.getResultArchiveFile(studyResultId);
+        if (!studyResult.isArchived() || !Files.exists(file)) {
+            throw new NotFoundException("Archive file of study result " + studyResultId + " doesn't exist");
+        }
+
+        return ok().sendPath(file).withHeader(Http.HeaderNames.CONTENT_DISPOSITION,
+                "attachment; " + HttpHeaderParameterEncoding.encode("filename", file.getFileName().toString()));
+    }
+
+    /**
+     * GET request that returns one table page of the StudyResults of a study in JSON format. Pagination, sorting and
+     * filtering are done in the database (see ResultTableService).
      */
     @Transactional
     @Auth(roles = {VIEWER, USER})
-    public Result tableDataByStudy(Long studyId) throws ForbiddenException, NotFoundException {
+    public Result tableDataByStudy(Http.Request request, Long studyId)
+            throws ForbiddenException, NotFoundException, BadRequestException {
         Study study = studyDao.findById(studyId);
         User signedinUser = authService.getSignedinUser();
         authorizationService.canUserAccessStudy(study, signedinUser);
 
-        Source<ByteString, ?> source = resultStreamer.streamStudyResultsByStudy(study);
-        return ok().chunked(source).as("text/plain; charset=utf-8");
+        ResultFilter filter = resultTableService.studyResultFilter(request.queryString());
+        filter.setStudyId(studyId);
+        return ok(resultTableService.studyResultsPage(filter, request.queryString()));
     }
 
     /**
-     * GET that returns all StudyResults of a Batch in JSON format. As an additional parameter the worker type can
-     * be specified and the results will only be of this type. It streams in chunks (reduces memory usage)
+     * GET that returns one table page of the StudyResults of a Batch in JSON format. As an additional parameter the
+     * worker type can be specified and the results will only be of this type. Without a worker type the results of
+     * Jatos workers are left out.
      */
     @Transactional
     @Auth(roles = {VIEWER, USER})
-    public Result tableDataByBatch(Long batchId, String workerType) throws ForbiddenException, NotFoundException, BadRequestException {
+    public Result tableDataByBatch(Http.Request request, Long batchId, String workerType)
+            throws ForbiddenException, NotFoundException, BadRequestException {
         Batch batch = batchDao.findById(batchId);
         User signedinUser = authService.getSignedinUser();
         authorizationService.canUserAccessBatch(batch, signedinUser);
         workerType = WorkerService.validateAndExtractWorkerType(workerType);
 
-        Source<ByteString, ?> source = resultStreamer.streamStudyResultsByBatch(workerType, batch);
-        return ok().chunked(source).as("text/plain; charset=utf-8");
+        ResultFilter filter = resultTableService.studyResultFilter(request.queryString());
+        filter.setBatchId(batchId);
+        if (workerType != null) filter.setWorkerType(workerType);
+        if (filter.getWorkerType() == null) filter.setExcludedWorkerType(JatosWorker.WORKER_TYPE);
+        return ok(resultTableService.studyResultsPage(filter, request.queryString()));
     }
 
     /**
-     * GET request that returns all StudyResults of a group in JSON format. It streams in chunks (reduces memory usage)
+     * GET request that returns one table page of the StudyResults of a group in JSON format
      */
     @Transactional
     @Auth(roles = {VIEWER, USER})
-    public Result tableDataByGroup(Long groupResultId) throws ForbiddenException, NotFoundException {
+    public Result tableDataByGroup(Http.Request request, Long groupResultId)
+            throws ForbiddenException, NotFoundException, BadRequestException {
         GroupResult groupResult = groupResultDao.findById(groupResultId);
         User signedinUser = authService.getSignedinUser();
         authorizationService.canUserAccessGroupResult(groupResult, signedinUser);
 
-        Source<ByteString, ?> source = resultStreamer.streamStudyResultsByGroup(groupResult);
-        return ok().chunked(source).as("text/plain; charset=utf-8");
+        ResultFilter filter = resultTableService.studyResultFilter(request.queryString());
+        filter.setGroupId(groupResultId);
+        return ok(resultTableService.studyResultsPage(filter, request.queryString()));
     }
 
     /**
-     * GET request that returns all StudyResults belonging to a worker as JSON. Streams in chunks (reduces memory usage)
+     * GET request that returns one table page of the StudyResults belonging to a worker as JSON. Only results of
+     * studies the signed-in user is a member of are included.
      */
     @Transactional
     @Auth(roles = {VIEWER, USER})
-    public Result tableDataByWorker(Long workerId) throws NotFoundException {
+    public Result tableDataByWorker(Http.Request request, Long workerId)
+            throws NotFoundException, BadRequestException {
         User signedinUser = authService.getSignedinUser();
         Worker worker = workerDao.findById(workerId);
         if (worker == null) {
             throw new NotFoundException("Worker doesn't exist");
         }
 
-        Source<ByteString, ?> source = resultStreamer.streamStudyResultsByWorker(signedinUser, worker);
-        return ok().chunked(source).as("text/plain; charset=utf-8");
+        ResultFilter filter = resultTableService.studyResultFilter(request.queryString());
+        filter.setWorkerId(workerId);
+        filter.setUsername(signedinUser.getUsername());
+        return ok(resultTableService.studyResultsPage(filter, request.queryString()));
     }
 
     /**
@@ -250,7 +335,7 @@ public class StudyResults extends Controller {
         User signedinUser = authService.getSignedinUser();
         authorizationService.canUserAccessStudyResult(studyResult, signedinUser, false);
 
-        return ok(jsonUtils.getComponentResultsByStudyResult(studyResult));
+        return ok(resultTableService.componentResultsOfStudyResult(studyResultId));
     }
 
 }
@@ -2,10 +2,9 @@ package controllers.gui.actionannotations;
 
 import auth.gui.AuthService;
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
-import general.common.RequestScope;
+import exceptions.gui.HttpException;
+import general.common.AccessLogger;
 import models.common.User;
-import play.Logger;
-import play.Logger.ALogger;
 import play.mvc.*;
 import play.mvc.Http.Request;
 
@@ -16,8 +15,8 @@ import java.lang.annotation.Target;
 import java.util.concurrent.CompletionStage;
 
 /**
- * Annotation definition for Play actions: logging of each action call, e.g.
- * 'gui_access - GET /jatos/19/run (admin)'
+ * Annotation definition for Play actions: logging of action calls, e.g.
+ * 'api_access - GET /jatos/api/v1/admin/status 200 3ms admin'. Access logs are sampled (see {@link AccessLogger}).
  * 
  * @author Kristian Lange (2016)
  */
@@ -30,16 +29,17 @@ public class ApiAccessLoggingAction extends Action<GuiAccessLogging> {
 	public @interface ApiAccessLogging {
 	}
 
-	private final ALogger apiLogger = Logger.of("api_access");
+	private final AccessLogger apiLogger = new AccessLogger("api_access",
+			e -> e instanceof HttpException ? ((HttpException) e).getStatus() : null);
 
 	public CompletionStage<Result> call(Http.Context ctx) {
 		final Request request = ctx.request();
-		String username = "unknown";
-		if (RequestScope.get(AuthService.SIGNEDIN_USER) != null) {
-			username = ((User) RequestScope.get(AuthService.SIGNEDIN_USER)).getUsername();
-		}
-		apiLogger.info(request.method() + " " + request.uri() + " (" + username	+ ")");
-		return delegate.call(ctx);
+		return apiLogger.log(request, () -> {
+			if (ctx.args.get(AuthService.SIGNEDIN_USER) != null) {
+				return ((User) ctx.args.get(AuthService.SIGNEDIN_USER)).getUsername();
+			}
+			return "unknown";
+		}, () -> delegate.call(ctx));
 	}
 
 }
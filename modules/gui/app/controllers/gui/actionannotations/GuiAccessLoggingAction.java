@@ -1,10 +1,9 @@
 package controllers.gui.actionannotations;
 
 import controllers.gui.actionannotations.GuiAccessLoggingAction.GuiAccessLogging;
-import general.common.RequestScope;
+import exceptions.gui.HttpException;
+import general.common.AccessLogger;
 import models.common.User;
-import play.Logger;
-import play.Logger.ALogger;
 import play.mvc.*;
 import play.mvc.Http.Request;
 import auth.gui.AuthService;
@@ -16,8 +15,8 @@ import java.lang.annotation.Target;
 import java.util.concurrent.CompletionStage;
 
 /**
- * Annotation definition for Play actions: logging of each action call, e.g.
- * 'gui_access - GET /jatos/19/run (admin)'
+ * Annotation definition for Play actions: logging of action calls, e.g.
+ * 'gui_access - GET /jatos/19/run 200 12ms admin'. Access logs are sampled (see {@link AccessLogger}).
  * 
  * @author Kristian Lange (2016)
  */
@@ -30,18 +29,20 @@ public class GuiAccessLoggingAction extends Action<GuiAccessLogging> {
 	public @interface GuiAccessLogging {
 	}
 
-	private final ALogger guiLogger = Logger.of("gui_access");
+	private final AccessLogger guiLogger = new AccessLogger("gui_access",
+			e -> e instanceof HttpException ? ((HttpException) e).getStatus() : null);
 
 	public CompletionStage<Result> call(Http.Context ctx) {
 		final Request request = ctx.request();
-		String username = "unknown";
-		if (Controller.session(AuthService.SESSION_USERNAME) != null) {
-			username = Controller.session(AuthService.SESSION_USERNAME);
-		} else if (RequestScope.get(AuthService.SIGNEDIN_USER) != null) {
-			username = ((User) RequestScope.get(AuthService.SIGNEDIN_USER)).getUsername();
-		}
-		guiLogger.info(request.method() + " " + request.uri() + " (" + username	+ ")");
-		return delegate.call(ctx);
+		final String sessionUsername = Controller.session(AuthService.SESSION_USERNAME);
+		return guiLogger.log(request, () -> {
+			if (sessionUsername != null) {
+				return sessionUsername;
+			} else if (ctx.args.get(AuthService.SIGNEDIN_USER) != null) {
+				return ((User) ctx.args.get(AuthService.SIGNEDIN_USER)).getUsername();
+			}
+			return "unknown";
+		}, () -> delegate.call(ctx));
 	}
 
 }
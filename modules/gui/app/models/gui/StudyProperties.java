@@ -40,6 +40,10 @@ public class StudyProperties implements Validatable<List<ValidationError>> {
     public static final String END_REDIRECT_URL = "endRedirectUrl";
     public static final String STUDY_ENTRY_MSG = "studyEntryMsg";
     public static final String ALLOW_PREVIEW = "allowPreview";
+    public static final String MAX_CONCURRENT_STARTS = "maxConcurrentStarts";
+    public static final String OPENAI_CACHE = "openAiCache";
+    public static final String GROUP_SESSION_PATCH_WINDOW = "groupSessionPatchWindow";
+    public static final String RESULT_RETENTION_DAYS = "resultRetentionDays";
 
     public static final String[] INVALID_DIR_NAMES = {"jatos", "publix",
             "public", "assets", "study_assets_root", "study_assets"};
@@ -93,6 +97,26 @@ public class StudyProperties implements Validatable<List<ValidationError>> {
      */
     private boolean allowPreview = false;
 
+    /**
+     * Max number of starts of this study that are processed at the same time. Null means the default is used.
+     */
+    private Integer maxConcurrentStarts;
+
+    /**
+     * If true, responses of identical deterministic OpenAI API calls are cached
+     */
+    private boolean openAiCache = false;
+
+    /**
+     * Time window in ms in which group session patches are combined. Null means the default is used.
+     */
+    private Integer groupSessionPatchWindow;
+
+    /**
+     * Number of days after which study results are archived. Null means they are never archived.
+     */
+    private Integer resultRetentionDays;
+
     /**
      * Study assets directory name
      */
@@ -217,6 +241,38 @@ public class StudyProperties implements Validatable<List<ValidationError>> {
         this.allowPreview = allowPreview;
     }
 
+    public Integer getMaxConcurrentStarts() {
+        return maxConcurrentStarts;
+    }
+
+    public void setMaxConcurrentStarts(Integer maxConcurrentStarts) {
+        this.maxConcurrentStarts = maxConcurrentStarts;
+    }
+
+    public Integer getGroupSessionPatchWindow() {
+        return groupSessionPatchWindow;
+    }
+
+    public void setGroupSessionPatchWindow(Integer groupSessionPatchWindow) {
+        this.groupSessionPatchWindow = groupSessionPatchWindow;
+    }
+
+    public Integer getResultRetentionDays() {
+        return resultRetentionDays;
+    }
+
+    public void setResultRetentionDays(Integer resultRetentionDays) {
+        this.resultRetentionDays = resultRetentionDays;
+    }
+
+    public boolean isOpenAiCache() {
+        return openAiCache;
+    }
+
+    public void setOpenAiCache(boolean openAiCache) {
+        this.openAiCache = openAiCache;
+    }
+
     public String getStudyInput() {
         return studyInput;
     }
@@ -293,6 +349,15 @@ public class StudyProperties implements Validatable<List<ValidationError>> {
         if (studyEntryMsg != null && studyEntryMsg.getBytes().length > 1000) {
             errorList.add(new ValidationError(STUDY_ENTRY_MSG, MessagesStrings.STUDY_ENTRY_MSG_TOO_LONG));
         }
+        if (maxConcurrentStarts != null && maxConcurrentStarts < 0) {
+            errorList.add(new ValidationError(MAX_CONCURRENT_STARTS, "Must be 0 (no limit) or higher."));
+        }
+        if (groupSessionPatchWindow != null && (groupSessionPatchWindow < 0 || groupSessionPatchWindow > 10000)) {
+            errorList.add(new ValidationError(GROUP_SESSION_PATCH_WINDOW, "Must be between 0 and 10000 ms."));
+        }
+        if (resultRetentionDays != null && resultRetentionDays < 1) {
+            errorList.add(new ValidationError(RESULT_RETENTION_DAYS, "Must be 1 or higher (or empty to keep them)."));
+        }
         return errorList.isEmpty() ? null : errorList;
     }
 
@@ -3,20 +3,27 @@ package services.gui;
 import auth.gui.AuthService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
-import daos.common.ComponentResultDao;
+import daos.common.ResultCounterDao;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
+import daos.common.StudyStatisticsDao;
 import daos.common.UserDao;
 import daos.common.worker.WorkerDao;
+import general.common.DatabaseExecutionContext;
+import general.common.EntityCache;
+import general.common.ReadReplicas;
 import models.common.Study;
-import models.common.StudyResultStatus;
+import models.common.StudyStatistics;
+import play.db.jpa.JPAApi;
 import utils.common.Helpers;
 import utils.common.IOUtils;
 import utils.common.JsonUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.EntityManager;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
 /**
@@ -27,31 +34,84 @@ import java.util.stream.Collectors;
 @Singleton
 public class AdminService {
 
+    /**
+     * Size info of the sizes on the disk of a study whose statistics were never refreshed (e.g. right after the
+     * update to a JATOS version with study statistics)
+     */
+    private static final ImmutableMap<String, Object> UNKNOWN_SIZE_INFO =
+            ImmutableMap.of("humanReadable", "unknown", "size", 0);
+
+    private final JPAApi jpa;
     private final UserDao userDao;
     private final StudyDao studyDao;
     private final WorkerDao workerDao;
     private final StudyResultDao studyResultDao;
-    private final ComponentResultDao componentResultDao;
+    private final ResultCounterDao resultCounterDao;
+    private final StudyStatisticsDao studyStatisticsDao;
+    private final StudyStatisticsService studyStatisticsService;
     private final AuthService authService;
     private final IOUtils ioUtils;
+    private final DatabaseExecutionContext dbExecutionContext;
+    private final EntityCache entityCache;
+    private final ReadReplicas readReplicas;
 
     @Inject
-    AdminService(UserDao userDao, StudyDao studyDao, WorkerDao workerDao, StudyResultDao studyResultDao,
-            ComponentResultDao componentResultDao, AuthService authService, IOUtils ioUtils) {
+    AdminService(JPAApi jpa, UserDao userDao, StudyDao studyDao, WorkerDao workerDao, StudyResultDao studyResultDao,
+            ResultCounterDao resultCounterDao, StudyStatisticsDao studyStatisticsDao,
+            StudyStatisticsService studyStatisticsService, AuthService authService, IOUtils ioUtils,
+            DatabaseExecutionContext dbExecutionContext, EntityCache entityCache, ReadReplicas readReplicas) {
+        this.jpa = jpa;
         this.userDao = userDao;
         this.studyDao = studyDao;
         this.workerDao = workerDao;
         this.studyResultDao = studyResultDao;
-        this.componentResultDao = componentResultDao;
+        this.resultCounterDao = resultCounterDao;
+        this.studyStatisticsDao = studyStatisticsDao;
+        this.studyStatisticsService = studyStatisticsService;
         this.authService = authService;
         this.ioUtils = ioUtils;
+        this.dbExecutionContext = dbExecutionContext;
+        this.entityCache = entityCache;
+        this.readReplicas = readReplicas;
     }
 
+    /**
+     * Counts, sizes and last start of the given studies. They come from the pre-aggregated result counters (see
+     * ResultCounterDao) and study statistics (see StudyStatisticsService). 'statisticsRefreshed' tells when the sizes
+     * on the disk were gathered - if they were never gathered they are 'unknown'. The database reads go to a replica
+     * if there is one (see ReadReplicas).
+     */
     public List<Map<String, Object>> getStudiesData(Collection<Study> studyList,
             boolean studyAssetsSizeFlag, boolean resultDataSizeFlag, boolean resultFileSizeFlag) {
+        return readReplicas.withTransaction(entityManager -> {
+            return collectStudiesData(studyList, studyAssetsSizeFlag, resultDataSizeFlag, resultFileSizeFlag);
+        });
+    }
+
+    /**
+     * Refreshes the statistics of the given study in the background and then returns its data (like in
+     * getStudiesData), or null if the study doesn't exist (anymore). It reads from the primary database since a
+     * replica might not have the refreshed statistics yet.
+     */
+    public CompletionStage<Map<String, Object>> refreshStudyData(Long studyId) {
+        return studyStatisticsService.refreshAsync(studyId).thenApplyAsync(
+                refreshed -> jpa.withTransaction((EntityManager em) -> {
+                    Study study = studyDao.findById(studyId);
+                    if (study == null) return null;
+                    return collectStudiesData(Collections.singletonList(study), true, true, true).get(0);
+                }), dbExecutionContext);
+    }
+
+    private List<Map<String, Object>> collectStudiesData(Collection<Study> studyList,
+            boolean studyAssetsSizeFlag, boolean resultDataSizeFlag, boolean resultFileSizeFlag) {
+        Map<Long, StudyStatistics> statisticsMap = studyStatisticsDao.findAll().stream()
+                .collect(Collectors.toMap(StudyStatistics::getStudyId, ss -> ss));
+        Map<Long, Integer> studyResultCounts = resultCounterDao.countByStudies();
+        Map<Long, Long> resultDataSizes = resultDataSizeFlag ? resultCounterDao.dataSizeByStudies() : Map.of();
         List<Map<String, Object>> studies = new ArrayList<>();
         for (Study study : studyList) {
-            int studyResultCount = studyResultDao.countByStudy(study);
+            StudyStatistics statistics = statisticsMap.getOrDefault(study.getId(), new StudyStatistics(study.getId()));
+            int studyResultCount = studyResultCounts.getOrDefault(study.getId(), 0);
             Map<String, Object> studyInfo = new HashMap<>();
             studyInfo.put("id", study.getId());
             studyInfo.put("uuid", study.getUuid());
@@ -64,59 +124,62 @@ public class AdminService {
                     "authMethod", u.getAuthMethod().name()
             )).collect(Collectors.toList()));
             if (studyAssetsSizeFlag) {
-                studyInfo.put("studyAssetsSize", getStudyAssetDirSize(study));
+                studyInfo.put("studyAssetsSize", studyAssetsSizeInfo(statistics));
             } else {
                 studyInfo.put("studyAssetsSize", ImmutableMap.of("humanReadable", "disabled", "size", 0));
             }
             if (resultDataSizeFlag) {
-                studyInfo.put("resultDataSize", getResultDataSize(study, studyResultCount));
+                long size = resultDataSizes.getOrDefault(study.getId(), 0L);
+                studyInfo.put("resultDataSize", sizeInfoWithAverage(size, studyResultCount));
             } else {
                 studyInfo.put("resultDataSize", ImmutableMap.of("humanReadable", "disabled", "size", 0));
             }
-            if (resultFileSizeFlag) {
-                studyInfo.put("resultFileSize", getResultFileSize(study, studyResultCount));
+            if (resultFileSizeFlag && statistics.getRefreshed() == null) {
+                studyInfo.put("resultFileSize", UNKNOWN_SIZE_INFO);
+            } else if (resultFileSizeFlag) {
+                studyInfo.put("resultFileSize", sizeInfoWithAverage(statistics.getResultFileSize(), studyResultCount));
             } else {
                 studyInfo.put("resultFileSize", ImmutableMap.of("humanReadable", "disabled", "size", 0));
             }
-            Optional<StudyResultStatus> srsOpt = studyResultDao.findLastStarted(study);
-            if (srsOpt.isPresent()) {
-                studyInfo.put("lastStarted", srsOpt.get().getStartDate());
-            } else {
-                studyInfo.put("lastStarted", null);
-            }
+            studyInfo.put("lastStarted", statistics.getLastStarted());
+            studyInfo.put("statisticsRefreshed", statistics.getRefreshed());
             studies.add(studyInfo);
         }
         return studies;
     }
 
+    /**
+     * Size and number of files of the study assets folder. They are kept up-to-date in the study statistics (see
+     * StudyStatisticsService), so the folder isn't walked.
+     */
     public Map<String, Object> getStudyAssetDirSize(Study study) {
-        long size = ioUtils.getStudyAssetsDirSize(study.getDirName());
-        return ImmutableMap.of(
-                "humanReadable", Helpers.humanReadableByteCount(size),
-                "size", size);
+        StudyStatistics statistics = studyStatisticsDao.findByStudyId(study.getId());
+        return studyAssetsSizeInfo(statistics != null ? statistics : new StudyStatistics(study.getId()));
     }
 
     public ImmutableMap<String, Object> getResultDataSize(Study study, int studyResultCount) {
-        long size = componentResultDao.sizeByStudy(study);
-        long averagePerResult = studyResultCount != 0 ? size / studyResultCount : 0;
-        String resultDataSizePerStudyResultCount = (studyResultCount != 0 ?
-                Helpers.humanReadableByteCount(averagePerResult) : "0 B");
-        String humanReadable = Helpers.humanReadableByteCount(size)
-                + " (" + resultDataSizePerStudyResultCount + ")";
-        return ImmutableMap.of(
-                "humanReadable", humanReadable,
-                "size", size,
-                "averagePerResult", averagePerResult);
+        return sizeInfoWithAverage(resultCounterDao.dataSizeByStudy(study), studyResultCount);
     }
 
     public ImmutableMap<String, Object> getResultFileSize(Study study, int studyResultCount) {
         long size = studyResultDao.findIdsByStudyId(study.getId()).stream()
                 .mapToLong(ioUtils::getResultUploadDirSize).sum();
+        return sizeInfoWithAverage(size, studyResultCount);
+    }
+
+    private static ImmutableMap<String, Object> studyAssetsSizeInfo(StudyStatistics statistics) {
+        if (statistics.getRefreshed() == null) return UNKNOWN_SIZE_INFO;
+        return ImmutableMap.of(
+                "humanReadable", Helpers.humanReadableByteCount(statistics.getStudyAssetsSize()),
+                "size", statistics.getStudyAssetsSize(),
+                "fileCount", statistics.getStudyAssetsFileCount());
+    }
+
+    private static ImmutableMap<String, Object> sizeInfoWithAverage(long size, int studyResultCount) {
         long averagePerResult = studyResultCount != 0 ? size / studyResultCount : 0;
-        String resultFileSizePerStudyResultCount = studyResultCount != 0 ?
+        String sizePerStudyResultCount = studyResultCount != 0 ?
                 Helpers.humanReadableByteCount(averagePerResult) : "0 B";
-        String humanReadable = Helpers.humanReadableByteCount(size)
-                + " (" + resultFileSizePerStudyResultCount + ")";
+        String humanReadable = Helpers.humanReadableByteCount(size) + " (" + sizePerStudyResultCount + ")";
         return ImmutableMap.of(
                 "humanReadable", humanReadable,
                 "size", size,
@@ -152,18 +215,26 @@ public class AdminService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Status for the admin page. The database reads go to a replica if there is one (see ReadReplicas).
+     */
     public JsonNode getAdminStatus() {
         Map<String, Object> statusMap = new HashMap<>();
-        statusMap.put("studyCount", studyDao.count());
-        statusMap.put("studyCountTotal", studyDao.countTotal());
-        statusMap.put("studyResultCount", studyResultDao.count());
-        statusMap.put("studyResultCountTotal", studyResultDao.countTotal());
-        statusMap.put("workerCount", workerDao.count());
-        statusMap.put("workerCountTotal", workerDao.countTotal());
-        statusMap.put("userCount", userDao.count());
+        readReplicas.withTransaction(entityManager -> {
+            statusMap.put("studyCount", studyDao.count());
+            statusMap.put("studyCountTotal", studyDao.countTotal());
+            statusMap.put("studyResultCount", studyResultDao.count());
+            statusMap.put("studyResultCountTotal", studyResultDao.countTotal());
+            statusMap.put("workerCount", workerDao.count());
+            statusMap.put("workerCountTotal", workerDao.countTotal());
+            statusMap.put("userCount", userDao.count());
+            statusMap.put("latestUsers", getLatestUsers(10));
+            statusMap.put("latestStudyRuns", getLatestStudyRuns(10));
+        });
         statusMap.put("serverTime", System.currentTimeMillis());
-        statusMap.put("latestUsers", getLatestUsers(10));
-        statusMap.put("latestStudyRuns", getLatestStudyRuns(10));
+        statusMap.put("dbExecutionContext", dbExecutionContext.getMetrics());
+        statusMap.put("entityCache", entityCache.getMetrics());
+        statusMap.put("readReplicas", readReplicas.getMetrics());
         return JsonUtils.asJsonNode(statusMap);
     }
 
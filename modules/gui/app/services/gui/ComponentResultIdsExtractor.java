@@ -2,6 +2,7 @@ package services.gui;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import daos.common.ComponentResultDao;
+import daos.common.ResultFilter;
 import daos.common.StudyResultDao;
 import exceptions.gui.BadRequestException;
 import org.apache.commons.lang3.StringUtils;
@@ -24,11 +25,14 @@ public class ComponentResultIdsExtractor {
 
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
+    private final ResultTableService resultTableService;
 
     @Inject
-    ComponentResultIdsExtractor(ComponentResultDao componentResultDao, StudyResultDao studyResultDao) {
+    ComponentResultIdsExtractor(ComponentResultDao componentResultDao, StudyResultDao studyResultDao,
+            ResultTableService resultTableService) {
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
+        this.resultTableService = resultTableService;
     }
 
     /**
@@ -117,7 +121,8 @@ public class ComponentResultIdsExtractor {
     /**
      * Extracts component result IDs from a JsonNode. It ensures that those component results actually exist in the
      * database. Basically all IDs used in JATOS are allowed, e.g. study IDs or batch IDs. This method looks in the
-     * database for the corresponding component result IDs.
+     * database for the corresponding component result IDs. Additionally, it takes the filter of a results table
+     * ('studyResultFilter' or 'componentResultFilter') and then returns the IDs of all matching results.
      */
     public List<Long> extract(JsonNode json) throws BadRequestException {
         if (json == null || json.isNull()) return new ArrayList<>();
@@ -170,6 +175,17 @@ public class ComponentResultIdsExtractor {
                     componentResultIds.addAll(componentResultDao.findOrderedIdsByOrderedStudyResultIds(srids));
                     break;
                 }
+                case "studyResultFilter": {
+                    ResultFilter filter = resultTableService.studyResultFilter(json.get("studyResultFilter"));
+                    List<Long> srids = studyResultDao.findIdsByFilter(filter);
+                    componentResultIds.addAll(componentResultDao.findOrderedIdsByOrderedStudyResultIds(srids));
+                    break;
+                }
+                case "componentResultFilter": {
+                    ResultFilter filter = resultTableService.componentResultFilter(json.get("componentResultFilter"));
+                    componentResultIds.addAll(componentResultDao.findIdsByFilter(filter));
+                    break;
+                }
                 default:
                     throw new BadRequestException("Unknown field " + field);
             }
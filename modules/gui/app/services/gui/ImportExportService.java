@@ -48,12 +48,13 @@ public class ImportExportService {
     private final StudyDao studyDao;
     private final ComponentDao componentDao;
     private final StudyDeserializer studyDeserializer;
+    private final StudyStatisticsService studyStatisticsService;
 
     @Inject
     ImportExportService(AuthorizationService authorizationService,
                         StudyService studyService, BatchService batchService, ComponentService componentService,
                         JsonUtils jsonUtils, IOUtils ioUtils, StudyDao studyDao, ComponentDao componentDao,
-                        StudyDeserializer studyDeserializer) {
+                        StudyDeserializer studyDeserializer, StudyStatisticsService studyStatisticsService) {
         this.authorizationService = authorizationService;
         this.studyService = studyService;
         this.batchService = batchService;
@@ -63,6 +64,7 @@ public class ImportExportService {
         this.studyDao = studyDao;
         this.componentDao = componentDao;
         this.studyDeserializer = studyDeserializer;
+        this.studyStatisticsService = studyStatisticsService;
     }
 
     /**
@@ -211,11 +213,15 @@ public class ImportExportService {
             RequestScopeMessaging.success(MessagesStrings
                     .studysPropertiesOverwritten(currentStudy.getId(), currentStudy.getTitle()));
         }
+
+        // After the properties since they might have renamed the study assets
+        if (!keepAssets) studyStatisticsService.refreshStudyAssets(currentStudy);
     }
 
     private Study importNewStudy(User signedinUser, Path tempUnzippedStudyDir, Study importedStudy) throws IOException {
         moveStudyAssetsDir(tempUnzippedStudyDir, null, importedStudy.getDirName());
         Study newStudy = studyService.createAndPersistStudy(signedinUser, importedStudy);
+        studyStatisticsService.refreshStudyAssets(newStudy);
         RequestScopeMessaging.success(MessagesStrings.importedNewStudy(
                 importedStudy.getDirName(), importedStudy.getId(), importedStudy.getTitle()));
         return newStudy;
@@ -0,0 +1,296 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.fasterxml.jackson.core.type.TypeReference;
+import daos.common.ResultArchiveDao;
+import daos.common.ResultArchiveDao.ArchivedComponentResult;
+import daos.common.ResultCounterDao;
+import exceptions.gui.NotFoundException;
+import general.common.Common;
+import general.common.IoExecutionContext;
+import general.common.ResultSearchIndex;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.common.IOUtils;
+import utils.common.ZipUtil;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Archives StudyResults according to their study's retention (Study.resultRetentionDays) and restores them on demand.
+ * <p>
+ * An archived StudyResult stays in the database as a stub: the StudyResult row with its metadata and counters (so
+ * it's still listed in the results pages and counted in the study's statistics) but without its ComponentResults. The
+ * ComponentResults (with all their columns, including the result data) and the result upload files are moved into one
+ * zip file per StudyResult in jatos.resultArchive.path:
+ * <ul>
+ * <li>componentResults.json - the ComponentResult rows</li>
+ * <li>files/comp-result_&lt;id&gt;/... - the result upload files</li>
+ * </ul>
+ * Only StudyResults in a final state (FINISHED, FAIL or ABORTED) are archived. Restoring puts both back and removes
+ * the archive file. The archiving runs every jatos.resultArchive.interval. The archiving and the restoring of all
+ * StudyResults of a study run on the IoExecutionContext. The archived StudyResults are removed from the result search
+ * index and the restored ones are indexed again.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultArchiveService {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultArchiveService.class);
+
+    private static final String COMPONENT_RESULTS_ENTRY = "componentResults.json";
+    private static final String FILES_DIR = "files";
+
+    /**
+     * Number of StudyResult IDs that are fetched at once
+     */
+    private static final int CHUNK_SIZE = 100;
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final IoExecutionContext ioExecutionContext;
+    private final ResultArchiveDao resultArchiveDao;
+    private final ResultCounterDao resultCounterDao;
+    private final IOUtils ioUtils;
+    private final ResultSearchIndex resultSearchIndex;
+
+    /**
+     * IDs of the studies whose archived StudyResults are currently restored in the background
+     */
+    private final Set<Long> restoringStudyIds = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    ResultArchiveService(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            IoExecutionContext ioExecutionContext, ResultArchiveDao resultArchiveDao,
+            ResultCounterDao resultCounterDao, IOUtils ioUtils, ResultSearchIndex resultSearchIndex) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.ioExecutionContext = ioExecutionContext;
+        this.resultArchiveDao = resultArchiveDao;
+        this.resultCounterDao = resultCounterDao;
+        this.ioUtils = ioUtils;
+        this.resultSearchIndex = resultSearchIndex;
+    }
+
+    /**
+     * Starts the periodic archiving (if jatos.resultArchive.interval isn't 0). Called once during application start.
+     */
+    public void start() {
+        Duration interval = Common.getResultArchiveInterval();
+        if (interval.isZero()) return;
+        Cancellable archiver = actorSystem.scheduler().schedule(Duration.ofMinutes(5), interval,
+                this::archiveAll, ioExecutionContext);
+        lifecycle.addStopHook(() -> {
+            archiver.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Archives the StudyResults of all studies with a retention that were last active longer ago than the retention
+     */
+    synchronized void archiveAll() {
+        Map<Long, Integer> retentionDays;
+        try {
+            retentionDays = jpa.withTransaction((EntityManager em) -> resultArchiveDao.findRetentionDaysByStudy());
+        } catch (Exception e) {
+            LOGGER.error(".archiveAll: couldn't get the studies' retentions", e);
+            return;
+        }
+
+        int archived = 0;
+        for (Map.Entry<Long, Integer> entry : retentionDays.entrySet()) {
+            Timestamp activeBefore = new Timestamp(
+                    System.currentTimeMillis() - Duration.ofDays(entry.getValue()).toMillis());
+            archived += archiveAllOfStudy(entry.getKey(), activeBefore);
+        }
+        if (archived > 0) LOGGER.info(".archiveAll: archived " + archived + " study results");
+    }
+
+    private int archiveAllOfStudy(Long studyId, Timestamp activeBefore) {
+        int archived = 0;
+        long afterId = 0;
+        while (true) {
+            long lastId = afterId;
+            List<Long> studyResultIds;
+            try {
+                studyResultIds = jpa.withTransaction((EntityManager em) -> resultArchiveDao.findIdsToArchive(
+                        studyId, activeBefore, lastId, CHUNK_SIZE));
+            } catch (Exception e) {
+                LOGGER.error(".archiveAllOfStudy: couldn't get the results of study " + studyId, e);
+                return archived;
+            }
+
+            for (Long studyResultId : studyResultIds) {
+                try {
+                    if (archive(studyResultId)) archived++;
+                } catch (Exception e) {
+                    LOGGER.error(".archiveAllOfStudy: couldn't archive study result " + studyResultId, e);
+                }
+            }
+            if (studyResultIds.size() < CHUNK_SIZE) return archived;
+            afterId = studyResultIds.get(studyResultIds.size() - 1);
+        }
+    }
+
+    /**
+     * Archives the given StudyResult: writes its ComponentResults and result upload files into its archive file and
+     * turns it into a stub. Returns false if it was already archived (or isn't in a final state anymore).
+     * <p>
+     * The archive file is written before the StudyResult's row is locked: the ComponentResults of a StudyResult in a
+     * final state don't change anymore. The transaction that turns it into a stub only moves the file into place.
+     */
+    boolean archive(Long studyResultId) throws IOException {
+        List<ArchivedComponentResult> componentResults = jpa.withTransaction(
+                (EntityManager em) -> resultArchiveDao.findComponentResults(studyResultId));
+        Path tmpFile = writeTmpArchiveFile(studyResultId, componentResults);
+        boolean archived;
+        try {
+            archived = jpa.withTransaction((EntityManager em) -> {
+                if (!resultArchiveDao.markArchived(studyResultId)) return false;
+                resultArchiveDao.removeComponentResults(studyResultId);
+                try {
+                    Files.move(tmpFile, IOUtils.getResultArchiveFile(studyResultId),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        if (archived) {
+            // The upload files are in the archive file now
+            ioUtils.removeResultUploadsDir(studyResultId);
+            resultSearchIndex.markForRemoval(List.of(studyResultId));
+        }
+        return archived;
+    }
+
+    /**
+     * Writes the archive file into a temporary file next to it, so there is never a half-written archive file. Its
+     * name is unique, so several JATOS nodes that archive the same StudyResult don't write into the same file.
+     */
+    private Path writeTmpArchiveFile(Long studyResultId, List<ArchivedComponentResult> componentResults)
+            throws IOException {
+        Path archiveFile = IOUtils.getResultArchiveFile(studyResultId);
+        Path tmpFile = archiveFile.resolveSibling(archiveFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)),
+                UTF_8)) {
+            out.putNextEntry(new ZipEntry(COMPONENT_RESULTS_ENTRY));
+            out.write(Json.mapper().writeValueAsBytes(componentResults));
+            out.closeEntry();
+
+            Path uploadsDir = IOUtils.getResultUploadsDir(studyResultId);
+            if (Files.isDirectory(uploadsDir)) {
+                ZipUtil.addDirToZip(out, Path.of(FILES_DIR), uploadsDir);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+        return tmpFile;
+    }
+
+    /**
+     * Restores the given archived StudyResult: puts its ComponentResults and result upload files back and removes its
+     * archive file. Returns false if it wasn't archived (anymore). Runs in its own transaction.
+     */
+    public boolean restore(Long studyResultId) throws IOException, NotFoundException {
+        Path archiveFile = IOUtils.getResultArchiveFile(studyResultId);
+        if (!Files.exists(archiveFile)) {
+            throw new NotFoundException("Archive file of study result " + studyResultId + " doesn't exist");
+        }
+
+        List<ArchivedComponentResult> componentResults = null;
+        Path uploadsDir = IOUtils.getResultUploadsDir(studyResultId).normalize();
+        try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    if (entry.getName().equals(COMPONENT_RESULTS_ENTRY)) {
+                        componentResults = Json.mapper().readValue(in,
+                                new TypeReference<List<ArchivedComponentResult>>() {});
+                    } else if (entry.getName().startsWith(FILES_DIR + "/") && !entry.isDirectory()) {
+                        Path file = uploadsDir.resolve(entry.getName().substring(FILES_DIR.length() + 1)).normalize();
+                        if (!file.startsWith(uploadsDir)) throw new IOException("Illegal name: " + entry.getName());
+                        Files.createDirectories(file.getParent());
+                        Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+        if (componentResults == null) {
+            throw new IOException("Archive file of study result " + studyResultId + " has no component results");
+        }
+
+        List<ArchivedComponentResult> finalComponentResults = componentResults;
+        boolean restored = jpa.withTransaction((EntityManager em) -> {
+            if (!resultArchiveDao.markRestored(studyResultId)) return false;
+            resultArchiveDao.restoreComponentResults(studyResultId, finalComponentResults);
+            resultCounterDao.refreshStudyResult(studyResultId);
+            return true;
+        });
+        if (restored) {
+            Files.deleteIfExists(archiveFile);
+            finalComponentResults.forEach(cr -> resultSearchIndex.markForIndexing(cr.id));
+        }
+        return restored;
+    }
+
+    /**
+     * Restores all archived StudyResults of the given study one after another in the background (on the
+     * IoExecutionContext). Returns the number of StudyResults that will be restored - or 0 if they are already being
+     * restored.
+     */
+    public int restoreAllOfStudy(Long studyId) {
+        List<Long> studyResultIds = resultArchiveDao.findArchivedIds(studyId);
+        if (studyResultIds.isEmpty() || !restoringStudyIds.add(studyId)) return 0;
+        try {
+            CompletableFuture.runAsync(() -> studyResultIds.forEach(studyResultId -> {
+                try {
+                    restore(studyResultId);
+                } catch (Exception e) {
+                    LOGGER.error(".restoreAllOfStudy: couldn't restore study result " + studyResultId, e);
+                }
+            }), ioExecutionContext).whenComplete((r, e) -> restoringStudyIds.remove(studyId));
+        } catch (RejectedExecutionException e) {
+            restoringStudyIds.remove(studyId);
+            throw e;
+        }
+        return studyResultIds.size();
+    }
+
+}
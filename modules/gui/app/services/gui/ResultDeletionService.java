@@ -0,0 +1,253 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.google.common.collect.Lists;
+import daos.common.ResultDeletionDao;
+import daos.common.StudyDao;
+import exceptions.gui.ForbiddenException;
+import exceptions.gui.NotFoundException;
+import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import general.common.ResultSearchIndex;
+import general.common.StudyLogger;
+import models.common.ResultDeletionJob;
+import models.common.Study;
+import models.common.User;
+import org.hibernate.Session;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Removes large sets of StudyResults (with their ComponentResults) in the background. A removal is a job
+ * (ResultDeletionJob) that removes its StudyResults in keyset-ordered chunks of jatos.resultDeletion.chunkSize with
+ * native bulk statements (see ResultDeletionDao), each chunk together with the job's progress in its own short
+ * transaction. The result upload dirs are only queued and removed later by the ResultUploadsSweeper, and the result
+ * search index entries by the ResultSearchIndex's background indexing.
+ * <p>
+ * A job starts right after the transaction that created it is committed. Jobs that were interrupted (e.g. by a restart)
+ * are resumed by the periodic check every jatos.resultDeletion.pollInterval. The jobs are run one after another on the
+ * DatabaseExecutionContext. A node claims a job before it runs it and renews its claim at the beginning of each
+ * chunk's transaction. This locks the job, and a node that lost its claim (e.g. it was stalled and another node took
+ * the job over) stops before it removes anything.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultDeletionService {
+
+    private static final Logger.ALogger LOGGER = Logger.of(ResultDeletionService.class);
+
+    /**
+     * A running job without progress for this long is considered interrupted and can be resumed (by any node). It is
+     * much longer than a chunk takes, even on a busy database.
+     */
+    private static final Duration INTERRUPTED_AFTER = Duration.ofMinutes(15);
+
+    /**
+     * Results of a chunk's transaction besides the number of removed StudyResults
+     */
+    private static final int NO_CHUNK_LEFT = -1;
+    private static final int CLAIM_LOST = -2;
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final DatabaseExecutionContext dbExecutionContext;
+    private final ResultDeletionDao resultDeletionDao;
+    private final StudyDao studyDao;
+    private final AuthorizationService authorizationService;
+    private final StudyLogger studyLogger;
+    private final ResultSearchIndex resultSearchIndex;
+
+    private final AtomicBoolean processing = new AtomicBoolean(false);
+    private final AtomicBoolean processingRequested = new AtomicBoolean(false);
+
+    @Inject
+    ResultDeletionService(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            DatabaseExecutionContext dbExecutionContext, ResultDeletionDao resultDeletionDao, StudyDao studyDao,
+            AuthorizationService authorizationService, StudyLogger studyLogger, ResultSearchIndex resultSearchIndex) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.dbExecutionContext = dbExecutionContext;
+        this.resultDeletionDao = resultDeletionDao;
+        this.studyDao = studyDao;
+        this.authorizationService = authorizationService;
+        this.studyLogger = studyLogger;
+        this.resultSearchIndex = resultSearchIndex;
+    }
+
+    /**
+     * Starts the periodic check for unfinished jobs. Called once during application start.
+     */
+    public void start() {
+        Duration interval = Common.getResultDeletionPollInterval();
+        Cancellable poller = actorSystem.scheduler().schedule(interval, interval, this::processJobs,
+                dbExecutionContext);
+        lifecycle.addStopHook(() -> {
+            poller.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Checks that the given user is allowed to remove the StudyResults with the given IDs and creates a job that
+     * removes them. IDs that do not point to a StudyResult are ignored. Has to run within a transaction - the job
+     * starts after it is committed.
+     *
+     * @param studyResultIdList List of IDs of StudyResults
+     * @param user              It will be checked that the given user is a user of the studies that the StudyResults
+     *                          belong to and that the studies are not locked.
+     */
+    public ResultDeletionJob submit(List<Long> studyResultIdList, User user)
+            throws ForbiddenException, NotFoundException {
+        int chunkSize = Common.getResultDeletionChunkSize();
+        List<List<Long>> chunks = Lists.partition(studyResultIdList, chunkSize);
+
+        Set<Long> studyIds = new HashSet<>();
+        for (List<Long> chunk : chunks) {
+            studyIds.addAll(resultDeletionDao.findStudyIds(chunk));
+        }
+        Set<Study> studies = new HashSet<>();
+        for (Long studyId : studyIds) {
+            Study study = studyDao.findById(studyId);
+            authorizationService.canUserAccessStudy(study, user, true);
+            studies.add(study);
+        }
+
+        ResultDeletionJob job = new ResultDeletionJob(user.getUsername());
+        resultDeletionDao.create(job);
+        int total = 0;
+        for (List<Long> chunk : chunks) {
+            total += resultDeletionDao.addItems(job.getId(), chunk);
+        }
+        job.setTotal(total);
+
+        studies.forEach(study -> studyLogger.log(study, user, "Removed result data and files"));
+        processJobsAfterCommit();
+        return job;
+    }
+
+    private void processJobsAfterCommit() {
+        jpa.em().unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) return;
+                try {
+                    CompletableFuture.runAsync(ResultDeletionService.this::processJobs, dbExecutionContext);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.warn(".processJobsAfterCommit: database execution context saturated - the job is started "
+                            + "by the periodic check");
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs all unfinished jobs. If it's already running, it just runs once more afterwards (to catch new jobs).
+     */
+    void processJobs() {
+        processingRequested.set(true);
+        if (!processing.compareAndSet(false, true)) return;
+        try {
+            while (processingRequested.getAndSet(false)) {
+                List<Long> jobIds;
+                try {
+                    jobIds = jpa.withTransaction((EntityManager em) -> resultDeletionDao.findUnfinishedJobIds());
+                } catch (Exception e) {
+                    LOGGER.error(".processJobs: couldn't get the unfinished jobs", e);
+                    return;
+                }
+                jobIds.forEach(this::run);
+            }
+        } finally {
+            processing.set(false);
+        }
+    }
+
+    /**
+     * Runs the given job if it can be claimed (it's not run by another node). Removes its StudyResults chunk by chunk
+     * until none are left.
+     */
+    void run(Long jobId) {
+        Timestamp noProgressSince = new Timestamp(System.currentTimeMillis() - INTERRUPTED_AFTER.toMillis());
+        String claimToken = UUID.randomUUID().toString();
+        int chunkSize = Common.getResultDeletionChunkSize();
+        try {
+            boolean claimed = jpa.withTransaction(
+                    (EntityManager em) -> resultDeletionDao.claim(jobId, claimToken, noProgressSince));
+            if (!claimed) return;
+
+            int removed = 0;
+            while (true) {
+                List<Long> chunk = new ArrayList<>();
+                int removedInChunk = jpa.withTransaction((EntityManager em) -> {
+                    if (!resultDeletionDao.renewClaim(jobId, claimToken)) return CLAIM_LOST;
+                    List<Long> ids = resultDeletionDao.findNextChunk(jobId, chunkSize);
+                    if (ids.isEmpty()) return NO_CHUNK_LEFT;
+                    int count = resultDeletionDao.removeStudyResults(ids);
+                    resultDeletionDao.chunkDone(jobId, ids);
+                    chunk.addAll(ids);
+                    return count;
+                });
+                if (removedInChunk == CLAIM_LOST) {
+                    LOGGER.warn(".run: job " + jobId + " was taken over by another node after " + removed
+                            + " removed study results");
+                    return;
+                }
+                if (removedInChunk == NO_CHUNK_LEFT) break;
+                // Only after the chunk's transaction is committed
+                resultSearchIndex.markForRemoval(chunk);
+                removed += removedInChunk;
+            }
+
+            jpa.withTransaction((EntityManager em) -> resultDeletionDao.setState(jobId, claimToken,
+                    ResultDeletionJob.State.DONE, null));
+            LOGGER.info(".run: job " + jobId + " removed " + removed + " study results");
+        } catch (Exception e) {
+            LOGGER.error(".run: job " + jobId + " failed", e);
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            try {
+                jpa.withTransaction((EntityManager em) -> resultDeletionDao.setState(jobId, claimToken,
+                        ResultDeletionJob.State.FAILED, error.length() > 1024 ? error.substring(0, 1024) : error));
+            } catch (Exception e2) {
+                LOGGER.error(".run: couldn't set job " + jobId + " to failed", e2);
+            }
+        }
+    }
+
+    /**
+     * Returns the job with the given ID, if the given user started it (or is an admin)
+     */
+    public ResultDeletionJob getJob(Long jobId, User user) throws NotFoundException, ForbiddenException {
+        ResultDeletionJob job = resultDeletionDao.findById(jobId);
+        if (job == null) throw new NotFoundException("Result removal job doesn't exist");
+        if (!user.getUsername().equals(job.getUsername()) && !user.isAdmin()) {
+            throw new ForbiddenException("You are not allowed to see this result removal job");
+        }
+        return job;
+    }
+
+}
@@ -2,6 +2,8 @@ package services.gui;
 
 import daos.common.ComponentResultDao;
 import daos.common.GroupResultDao;
+import daos.common.ResultCounterDao;
+import daos.common.ResultDeletionDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
 import exceptions.gui.ForbiddenException;
@@ -38,11 +40,14 @@ public class ResultRemover {
     private final WorkerDao workerDao;
     private final StudyLogger studyLogger;
     private final IOUtils ioUtils;
+    private final ResultCounterDao resultCounterDao;
+    private final ResultDeletionDao resultDeletionDao;
 
     @Inject
     ResultRemover(AuthorizationService authorizationService, ComponentResultDao componentResultDao,
                   StudyResultDao studyResultDao, GroupResultDao groupResultDao,
-                  WorkerDao workerDao, StudyLogger studyLogger, IOUtils ioUtils) {
+                  WorkerDao workerDao, StudyLogger studyLogger, IOUtils ioUtils,
+                  ResultCounterDao resultCounterDao, ResultDeletionDao resultDeletionDao) {
         this.authorizationService = authorizationService;
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
@@ -50,6 +55,8 @@ public class ResultRemover {
         this.workerDao = workerDao;
         this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
+        this.resultCounterDao = resultCounterDao;
+        this.resultDeletionDao = resultDeletionDao;
     }
 
     /**
@@ -124,13 +131,15 @@ public class ResultRemover {
     }
 
     /**
-     * Removes all StudyResults that belong to the given batch. Removes result upload files.
+     * Removes all StudyResults that belong to the given batch. Removes result upload files and the batch's result
+     * counters.
      */
     void removeAllStudyResults(Batch batch, User user) {
         List<StudyResult> studyResultList = studyResultDao.findAllByBatch(batch);
         for (StudyResult studyResult : studyResultList) {
             removeStudyResult(studyResult.getId());
         }
+        resultCounterDao.removeByBatch(batch);
         studyLogger.log(batch.getStudy(), user, "Removed result data and files");
     }
 
@@ -156,12 +165,13 @@ public class ResultRemover {
             LOGGER.error(".removeComponentResult: Couldn't remove upload dir " + componentResult.getId(), e);
         }
         componentResultDao.remove(componentResult);
+        resultCounterDao.refreshStudyResult(studyResult.getId());
     }
 
     /**
      * Removes all ComponentResults of the given StudyResult, removes this
      * StudyResult from the given worker, removes this StudyResult from the
-     * GroupResult and then remove StudyResult itself. Removes result upload files.
+     * GroupResult and then remove StudyResult itself. Queues the result upload files for removal.
      */
     private void removeStudyResult(long studyResultId) {
         StudyResult studyResult = studyResultDao.findById(studyResultId);
@@ -190,14 +200,11 @@ public class ResultRemover {
             updateOrRemoveGroupResult(historyGroupResult);
         }
 
-        try {
-            // Remove studyResult's upload dir
-            ioUtils.removeResultUploadsDir(studyResult.getId());
-        } catch (IOException e) {
-            LOGGER.error(".removeStudyResult: Couldn't remove upload dir " + studyResult.getId(), e);
-        }
+        // StudyResult's upload dir is removed in the background (ResultUploadsSweeper)
+        resultDeletionDao.queueUploadsRemoval(studyResult.getId());
 
         // Remove studyResult
+        resultCounterDao.removeStudyResult(studyResult);
         studyResultDao.remove(studyResult);
     }
 
@@ -7,10 +7,8 @@ import auth.gui.AuthService;
 import com.diffplug.common.base.Errors;
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.base.Strings;
 import daos.common.ComponentResultDao;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
@@ -18,12 +16,10 @@ import exceptions.gui.BadRequestException;
 import exceptions.gui.ForbiddenException;
 import exceptions.gui.NotFoundException;
 import general.common.Common;
+import general.common.ReadReplicas;
 import general.common.StudyLogger;
 import models.common.*;
-import models.common.workers.JatosWorker;
-import models.common.workers.Worker;
 import play.Logger;
-import play.db.jpa.JPAApi;
 import play.libs.Json;
 import play.mvc.Http;
 import utils.common.IOUtils;
@@ -48,6 +44,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Service class around ComponentResults and StudyResults. It's used by controllers or other services.
+ * <p>
+ * All database reads happen in read-only transactions that can go to a database replica (see ReadReplicas).
  *
  * @author Kristian Lange
  */
@@ -64,12 +62,12 @@ public class ResultStreamer {
     private final AuthorizationService authorizationService;
     private final StudyLogger studyLogger;
     private final ComponentResultIdsExtractor componentResultIdsExtractor;
-    private final JPAApi jpaApi;
+    private final ReadReplicas readReplicas;
 
     @Inject
     ResultStreamer(AuthService authService, ComponentResultDao componentResultDao,
             StudyResultDao studyResultDao, StudyDao studyDao, JsonUtils jsonUtils, AuthorizationService authorizationService,
-            StudyLogger studyLogger, ComponentResultIdsExtractor componentResultIdsExtractor, JPAApi jpaApi) {
+            StudyLogger studyLogger, ComponentResultIdsExtractor componentResultIdsExtractor, ReadReplicas readReplicas) {
         this.authService = authService;
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
@@ -78,217 +76,7 @@ public class ResultStreamer {
         this.authorizationService = authorizationService;
         this.studyLogger = studyLogger;
         this.componentResultIdsExtractor = componentResultIdsExtractor;
-        this.jpaApi = jpaApi;
-    }
-
-    /**
-     * Uses a Akka Source to stream StudyResults (including their result data) that belong to the given Study
-     * from the database.
-     */
-    public Source<ByteString, ?> streamStudyResultsByStudy(Study study) {
-        return StreamConverters.asOutputStream()
-                .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                        writer.write("[");
-                        fetchStudyResultsByStudyPaginated(writer, study);
-                        writer.write("]");
-                        writer.flush();
-                    } catch (Exception e) {
-                        LOGGER.error(".streamStudyResultsByStudy: ", e);
-                    }
-                }));
-    }
-
-    private void fetchStudyResultsByStudyPaginated(Writer writer, Study study) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return studyResultDao.countByStudy(study);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (first + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                List<StudyResult> resultList = studyResultDao.findAllByStudy(study, first, maxDbQuerySize);
-                Errors.rethrow().run(() -> writeStudyResults(writer, isLastPage, resultList));
-            });
-        }
-    }
-
-    /**
-     * Uses a Akka Source to stream StudyResults (including their result data) that belong to the given Batch and worker
-     * type from the database. If the worker type is empty it returns all results of this Batch.
-     */
-    public Source<ByteString, ?> streamStudyResultsByBatch(String workerType, Batch batch) {
-        if (Strings.isNullOrEmpty(workerType)) {
-            return StreamConverters.asOutputStream()
-                    .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                    .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                            writer.write("[");
-                            fetchStudyResultsByBatchPaginated(writer, batch);
-                            writer.write("]");
-                            writer.flush();
-                        } catch (Exception e) {
-                            LOGGER.error(".streamStudyResultsByBatch: ", e);
-                        }
-                    }));
-        } else {
-            return StreamConverters.asOutputStream()
-                    .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                    .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                            writer.write("[");
-                            fetchStudyResultsByBatchAndWorkerTypePaginated(writer, batch, workerType);
-                            writer.write("]");
-                            writer.flush();
-                        } catch (Exception e) {
-                            LOGGER.error(".streamStudyResultsByBatch: ", e);
-                        }
-                    }));
-        }
-    }
-
-    private void fetchStudyResultsByBatchPaginated(Writer writer, Batch batch) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return studyResultDao.countByBatch(batch, JatosWorker.WORKER_TYPE);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (first + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                List<StudyResult> resultList = studyResultDao.findAllByBatch(batch, JatosWorker.WORKER_TYPE, first, maxDbQuerySize);
-                Errors.rethrow().run(() -> writeStudyResults(writer, isLastPage, resultList));
-            });
-        }
-    }
-
-    private void fetchStudyResultsByBatchAndWorkerTypePaginated(Writer writer, Batch batch, String workerType) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return studyResultDao.countByBatchAndWorkerType(batch, workerType);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (i + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                List<StudyResult> resultList = studyResultDao
-                        .findAllByBatchAndWorkerType(batch, workerType, first, maxDbQuerySize);
-                Errors.rethrow().run(() -> writeStudyResults(writer, isLastPage, resultList));
-            });
-        }
-    }
-
-    /**
-     * Uses a Akka Source to stream StudyResults (including their result data) that belong to the given GroupResult
-     * from the database.
-     */
-    public Source<ByteString, ?> streamStudyResultsByGroup(GroupResult groupResult) {
-        return StreamConverters.asOutputStream()
-                .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                        writer.write("[");
-                        fetchStudyResultsByGroupPaginated(writer, groupResult);
-                        writer.write("]");
-                        writer.flush();
-                    } catch (Exception e) {
-                        LOGGER.error(".streamStudyResultsByGroup: ", e);
-                    }
-                }));
-    }
-
-    private void fetchStudyResultsByGroupPaginated(Writer writer, GroupResult group) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return studyResultDao.countByGroup(group);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (i + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                List<StudyResult> resultList = studyResultDao.findAllByGroup(group, first, maxDbQuerySize);
-                Errors.rethrow().run(() -> writeStudyResults(writer, isLastPage, resultList));
-            });
-        }
-    }
-
-    /**
-     * Uses a Akka Source to stream StudyResults (including their result data) that belong to the given Worker
-     * from the database.
-     */
-    public Source<ByteString, ?> streamStudyResultsByWorker(User signedinUser, Worker worker) {
-        return StreamConverters.asOutputStream()
-                .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                        writer.write("[");
-                        fetchStudyResultsByWorkerPaginated(writer, worker, signedinUser);
-                        writer.write("]");
-                        writer.flush();
-                    } catch (Exception e) {
-                        LOGGER.error(".streamStudyResultsByWorker: ", e);
-                    }
-                }));
-    }
-
-    private void fetchStudyResultsByWorkerPaginated(Writer writer, Worker worker, User user) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return studyResultDao.countByWorker(worker, user);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (i + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                List<StudyResult> resultList = studyResultDao.findAllByWorker(worker, user, first, maxDbQuerySize);
-                Errors.rethrow().run(() -> writeStudyResults(writer, isLastPage, resultList));
-            });
-        }
-    }
-
-    /**
-     * Uses a Akka Source to stream ComponentResults (including their result data) that belong to the given Component
-     * from the database.
-     */
-    public Source<ByteString, ?> streamComponentResults(Component component) {
-        return StreamConverters.asOutputStream()
-                .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
-                .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
-                    try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
-                        writer.write("[");
-                        fetchComponentResultsPaginated(writer, component);
-                        writer.write("]");
-                        writer.flush();
-                    } catch (Exception e) {
-                        LOGGER.error(".streamComponentResults: ", e);
-                    }
-                }));
-    }
-
-    private void fetchComponentResultsPaginated(Writer writer, Component component) {
-        int maxDbQuerySize = Common.getMaxResultsDbQuerySize();
-        int resultCount = jpaApi.withTransaction(entityManager -> {
-            return componentResultDao.countByComponent(component);
-        });
-
-        for (int i = 0; i < resultCount; i += maxDbQuerySize) {
-            int first = i;
-            boolean isLastPage = (i + maxDbQuerySize) >= resultCount;
-            jpaApi.withTransaction(entityManager -> {
-                Errors.rethrow().run(() -> {
-                    List<ComponentResult> resultList = componentResultDao.findAllByComponent(component, first,
-                            maxDbQuerySize);
-                    writeComponentResult(writer, isLastPage, resultList);
-                });
-            });
-        }
+        this.readReplicas = readReplicas;
     }
 
     public Source<ByteString, ?> streamComponentResultData(Http.Request request)
@@ -329,7 +117,7 @@ public class ResultStreamer {
     private void fetchComponentResultDataByIds(Writer writer, List<Long> componentResultIdList, User user) {
         Set<Study> studies = new HashSet<>();
         for (Long componentResultId : componentResultIdList) {
-            jpaApi.withTransaction(entityManager -> {
+            readReplicas.withTransaction(entityManager -> {
                 ComponentResult componentResult = componentResultDao.findById(componentResultId);
                 if (componentResult != null) {
                     Errors.rethrow().run(() -> authorizationService.canUserAccessComponentResult(componentResult, user, false));
@@ -343,34 +131,6 @@ public class ResultStreamer {
         studies.forEach(study -> studyLogger.log(study, user, "Exported result data to file"));
     }
 
-    private void writeStudyResults(Writer writer, boolean isLastPage, List<StudyResult> resultList) throws IOException {
-        List<Long> srids = resultList.stream().map(StudyResult::getId).collect(Collectors.toList());
-        Map<Long, Integer> componentResultCounts = studyResultDao.countComponentResultsForStudyResultIds(srids);
-        for (int i = 0; i < resultList.size(); i++) {
-            StudyResult result = resultList.get(i);
-            Integer componentResultCount = componentResultCounts.get(result.getId());
-            JsonNode resultNode = jsonUtils.studyResultAsJsonNode(result, componentResultCount);
-            writer.write(resultNode.toString());
-            boolean isLastResult = (i + 1) >= resultList.size();
-            if (!isLastPage || !isLastResult) {
-                writer.write(",\n");
-            }
-        }
-    }
-
-    private void writeComponentResult(Writer writer, boolean isLastPage, List<ComponentResult> resultList)
-            throws IOException {
-        for (int j = 0; j < resultList.size(); j++) {
-            ComponentResult result = resultList.get(j);
-            JsonNode resultNode = jsonUtils.componentResultAsJsonNode(result);
-            writer.write(resultNode.toString());
-            boolean isLastResult = (j + 1) >= resultList.size();
-            if (!isLastPage || !isLastResult) {
-                writer.write(",\n");
-            }
-        }
-    }
-
     private void writeComponentResultData(Writer writer, ComponentResult componentResult) throws IOException {
         String resultData = componentResultDao.getData(componentResult.getId());
         if (resultData == null) return;
@@ -407,7 +167,7 @@ public class ResultStreamer {
                 .keepAlive(Duration.ofSeconds(30), () -> ByteString.fromString(" "))
                 .mapMaterializedValue(outputStream -> CompletableFuture.runAsync(() -> {
                     try (ZipOutputStream zipOut = new ZipOutputStream(outputStream, UTF_8)) {
-                        jpaApi.withTransaction(entityManager -> {
+                        readReplicas.withTransaction(entityManager -> {
                             Errors.rethrow().run(() -> writeResults(componentResultIds, signedinUser, zipOut, resultsType, wrapObject));
                         });
                         zipOut.flush();
@@ -518,7 +278,7 @@ public class ResultStreamer {
         ArrayNode componentResultArrayNode = Json.mapper().createArrayNode();
         for (Long componentResultId : componentResultList) {
             // We have to do it one by one to save memory in case of large result data
-            jpaApi.withTransaction(entityManager -> {
+            readReplicas.withTransaction(entityManager -> {
                 switch (resultsType) {
                     case METADATA_ONLY: {
                         ComponentResult componentResult = componentResultDao.findById(componentResultId);
@@ -0,0 +1,329 @@
+package services.gui;
+
+import auth.gui.AuthService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
+import daos.common.ComponentResultDao;
+import daos.common.ResultFilter;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import exceptions.gui.BadRequestException;
+import general.common.ReadReplicas;
+import general.common.ResultSearchIndex;
+import models.common.ComponentResult;
+import models.common.ComponentResult.ComponentState;
+import models.common.Study;
+import models.common.StudyResult;
+import models.common.StudyResult.StudyState;
+import play.libs.Json;
+import utils.common.JsonUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Serves the result tables of the GUI (study, batch, group, worker and component results) page by page. Pagination,
+ * sorting and filtering happen in the database (see ResultFilter), so only one table page is sent to the browser.
+ * <p>
+ * Each page also contains the filter it was made with. The browser sends this filter back (instead of the result IDs)
+ * if a bulk action (export or removal) covers all matching results.
+ * <p>
+ * A filter's data query (a full-text search in the result data) is resolved with the ResultSearchIndex into the IDs of
+ * the matching results. It's only available if jatos.resultSearch.enabled is true.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class ResultTableService {
+
+    /**
+     * Max number of results in one table page
+     */
+    static final int MAX_PAGE_LENGTH = 2500;
+
+    /**
+     * Max number of search hits a data query is resolved into. A data query with more hits is rejected: the results
+     * of a truncated resolution would be incomplete without notice.
+     */
+    static final int MAX_DATA_QUERY_HITS = 10000;
+
+    private final AuthService authService;
+    private final StudyDao studyDao;
+    private final StudyResultDao studyResultDao;
+    private final ComponentResultDao componentResultDao;
+    private final JsonUtils jsonUtils;
+    private final ReadReplicas readReplicas;
+    private final ResultSearchIndex resultSearchIndex;
+
+    @Inject
+    ResultTableService(AuthService authService, StudyDao studyDao, StudyResultDao studyResultDao,
+            ComponentResultDao componentResultDao, JsonUtils jsonUtils, ReadReplicas readReplicas,
+            ResultSearchIndex resultSearchIndex) {
+        this.authService = authService;
+        this.studyDao = studyDao;
+        this.studyResultDao = studyResultDao;
+        this.componentResultDao = componentResultDao;
+        this.jsonUtils = jsonUtils;
+        this.readReplicas = readReplicas;
+        this.resultSearchIndex = resultSearchIndex;
+    }
+
+    /**
+     * Creates a filter for StudyResults from a table request's query parameters. The scope has to be set by the caller.
+     */
+    public ResultFilter studyResultFilter(Map<String, String[]> queryString) throws BadRequestException {
+        return parse(firstValues(queryString), false, false);
+    }
+
+    /**
+     * Creates a filter for ComponentResults from a table request's query parameters. The scope has to be set by the
+     * caller.
+     */
+    public ResultFilter componentResultFilter(Map<String, String[]> queryString) throws BadRequestException {
+        return parse(firstValues(queryString), false, true);
+    }
+
+    /**
+     * Creates a filter for StudyResults from the filter JSON of a bulk action (like it is sent with every table page).
+     * Here the scope is part of the filter.
+     */
+    public ResultFilter studyResultFilter(JsonNode json) throws BadRequestException {
+        return parse(fields(json), true, false);
+    }
+
+    /**
+     * Creates a filter for ComponentResults from the filter JSON of a bulk action (like it is sent with every table
+     * page). Here the scope is part of the filter.
+     */
+    public ResultFilter componentResultFilter(JsonNode json) throws BadRequestException {
+        return parse(fields(json), true, true);
+    }
+
+    private ResultFilter parse(Map<String, String> params, boolean withScope, boolean componentResults)
+            throws BadRequestException {
+        ResultFilter filter = new ResultFilter();
+        try {
+            if (withScope) {
+                filter.setStudyId(getLong(params, "studyId"));
+                filter.setBatchId(getLong(params, "batchId"));
+                filter.setGroupId(getLong(params, "groupId"));
+                filter.setWorkerId(getLong(params, "workerId"));
+                filter.setComponentId(getLong(params, "componentId"));
+                if (!filter.hasScope()) {
+                    throw new BadRequestException("Filter needs a study, batch, group, worker or component");
+                }
+                // A worker's results are restricted to the studies of the signed-in user
+                if (filter.getWorkerId() != null) filter.setUsername(authService.getSignedinUser().getUsername());
+                filter.setExcludedWorkerType(
+                        WorkerService.validateAndExtractWorkerType(getString(params, "excludedWorkerType")));
+            }
+            filter.setWorkerType(WorkerService.validateAndExtractWorkerType(getString(params, "workerType")));
+            String states = getString(params, "state");
+            if (states != null) {
+                for (String state : states.split(",")) {
+                    if (componentResults) {
+                        filter.getComponentStates().add(ComponentState.valueOf(state.trim()));
+                    } else {
+                        filter.getStudyStates().add(StudyState.valueOf(state.trim()));
+                    }
+                }
+            }
+            Long startedFrom = getLong(params, "startedFrom");
+            if (startedFrom != null) filter.setStartedFrom(new Timestamp(startedFrom));
+            Long startedBefore = getLong(params, "startedBefore");
+            if (startedBefore != null) filter.setStartedBefore(new Timestamp(startedBefore));
+            filter.setUrlQuery(getString(params, "urlQuery"));
+            filter.setSearch(getString(params, "search"));
+            filter.setDataQuery(getString(params, "dataQuery"));
+            String orderBy = getString(params, "orderBy");
+            if (orderBy != null) {
+                filter.setSortColumn(Arrays.stream(ResultFilter.SortColumn.values())
+                        .filter(c -> c.name().equals(orderBy))
+                        .findFirst().orElse(ResultFilter.SortColumn.id));
+            }
+            filter.setAscending("asc".equals(getString(params, "orderDir")));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Malformed filter: " + e.getMessage());
+        }
+        // With the scope known the data query can be resolved right away
+        if (withScope) resolveDataQuery(filter, componentResults);
+        return filter;
+    }
+
+    /**
+     * Resolves the filter's data query (if it has one) into the IDs of the matching results with the full-text search
+     * index. Only the studies of the filter's scope are searched or, if the scope has no study, all studies of the
+     * signed-in user.
+     */
+    private void resolveDataQuery(ResultFilter filter, boolean componentResults) throws BadRequestException {
+        if (filter.getDataQuery() == null || filter.getDataQueryMatches() != null) return;
+        if (!resultSearchIndex.isEnabled()) throw new BadRequestException("Search in result data is not enabled");
+
+        Collection<Long> studyIds = filter.getStudyId() != null
+                ? List.of(filter.getStudyId())
+                : readReplicas.withTransaction((EntityManager em) -> studyDao
+                        .findAllByUser(authService.getSignedinUser()).stream()
+                        .map(Study::getId)
+                        .collect(Collectors.toList()));
+        List<ResultSearchIndex.Hit> hits;
+        try {
+            hits = resultSearchIndex.search(filter.getDataQuery(), studyIds, MAX_DATA_QUERY_HITS + 1);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Malformed data query: " + e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (hits.size() > MAX_DATA_QUERY_HITS) {
+            throw new BadRequestException("Data query matches more than " + MAX_DATA_QUERY_HITS
+                    + " results - please narrow it down");
+        }
+        filter.setDataQueryMatches(hits.stream()
+                .map(hit -> componentResults ? hit.componentResultId : hit.studyResultId)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Returns one table page of StudyResults as JSON in the format of DataTables' server-side processing
+     *
+     * @param filter      Filter including the scope of the table
+     * @param queryString The table request's query parameters with the page (draw, start, length)
+     */
+    public JsonNode studyResultsPage(ResultFilter filter, Map<String, String[]> queryString)
+            throws BadRequestException {
+        Map<String, String> params = firstValues(queryString);
+        int draw = getInt(params, "draw", 0);
+        int start = Math.max(getInt(params, "start", 0), 0);
+        int length = getLength(params);
+        resolveDataQuery(filter, false);
+        return readReplicas.withTransaction(entityManager -> {
+            int total = studyResultDao.countByFilter(filter.scopeOnly());
+            int filtered = filter.hasCriteria() ? studyResultDao.countByFilter(filter) : total;
+            ArrayNode data = Json.mapper().createArrayNode();
+            for (StudyResult result : studyResultDao.findByFilter(filter, start, length)) {
+                data.add(jsonUtils.studyResultAsJsonNode(result, result.getComponentResultCount()));
+            }
+            return page(draw, total, filtered, data, filter);
+        });
+    }
+
+    /**
+     * Returns one table page of ComponentResults as JSON in the format of DataTables' server-side processing
+     *
+     * @param filter      Filter including the scope of the table
+     * @param queryString The table request's query parameters with the page (draw, start, length)
+     */
+    public JsonNode componentResultsPage(ResultFilter filter, Map<String, String[]> queryString)
+            throws BadRequestException {
+        Map<String, String> params = firstValues(queryString);
+        int draw = getInt(params, "draw", 0);
+        int start = Math.max(getInt(params, "start", 0), 0);
+        int length = getLength(params);
+        resolveDataQuery(filter, true);
+        return readReplicas.withTransaction(entityManager -> {
+            int total = componentResultDao.countByFilter(filter.scopeOnly());
+            int filtered = filter.hasCriteria() ? componentResultDao.countByFilter(filter) : total;
+            ArrayNode data = Json.mapper().createArrayNode();
+            for (ComponentResult result : componentResultDao.findByFilter(filter, start, length)) {
+                data.add(jsonUtils.componentResultAsJsonNode(result));
+            }
+            return page(draw, total, filtered, data, filter);
+        });
+    }
+
+    /**
+     * Returns the ComponentResults of one StudyResult as JSON (the detail rows of a StudyResult in the result tables)
+     */
+    public JsonNode componentResultsOfStudyResult(Long studyResultId) {
+        return readReplicas.withTransaction(entityManager -> {
+            return jsonUtils.getComponentResultsByStudyResult(studyResultDao.findById(studyResultId));
+        });
+    }
+
+    private ObjectNode page(int draw, int total, int filtered, ArrayNode data, ResultFilter filter) {
+        ObjectNode page = Json.mapper().createObjectNode();
+        page.put("draw", draw);
+        page.put("recordsTotal", total);
+        page.put("recordsFiltered", filtered);
+        page.set("data", data);
+        page.set("filter", filterAsJson(filter));
+        return page;
+    }
+
+    /**
+     * Turns the filter into JSON the same way it is parsed (without the sorting and the username)
+     */
+    static ObjectNode filterAsJson(ResultFilter filter) {
+        ObjectNode node = Json.mapper().createObjectNode();
+        if (filter.getStudyId() != null) node.put("studyId", filter.getStudyId());
+        if (filter.getBatchId() != null) node.put("batchId", filter.getBatchId());
+        if (filter.getGroupId() != null) node.put("groupId", filter.getGroupId());
+        if (filter.getWorkerId() != null) node.put("workerId", filter.getWorkerId());
+        if (filter.getComponentId() != null) node.put("componentId", filter.getComponentId());
+        if (filter.getWorkerType() != null) node.put("workerType", filter.getWorkerType());
+        if (filter.getExcludedWorkerType() != null) node.put("excludedWorkerType", filter.getExcludedWorkerType());
+        if (!filter.getStudyStates().isEmpty()) {
+            node.put("state", filter.getStudyStates().stream().map(Enum::name).collect(Collectors.joining(",")));
+        } else if (!filter.getComponentStates().isEmpty()) {
+            node.put("state", filter.getComponentStates().stream().map(Enum::name).collect(Collectors.joining(",")));
+        }
+        if (filter.getStartedFrom() != null) node.put("startedFrom", filter.getStartedFrom().getTime());
+        if (filter.getStartedBefore() != null) node.put("startedBefore", filter.getStartedBefore().getTime());
+        if (filter.getUrlQuery() != null) node.put("urlQuery", filter.getUrlQuery());
+        if (filter.getSearch() != null) node.put("search", filter.getSearch());
+        if (filter.getDataQuery() != null) node.put("dataQuery", filter.getDataQuery());
+        return node;
+    }
+
+    private static int getLength(Map<String, String> params) throws BadRequestException {
+        int length = getInt(params, "length", 10);
+        // DataTables uses -1 for 'all'
+        return length < 1 || length > MAX_PAGE_LENGTH ? MAX_PAGE_LENGTH : length;
+    }
+
+    private static Map<String, String> firstValues(Map<String, String[]> queryString) {
+        Map<String, String> params = new HashMap<>();
+        if (queryString == null) return params;
+        queryString.forEach((key, values) -> {
+            if (values != null && values.length > 0) params.put(key, values[0]);
+        });
+        return params;
+    }
+
+    private static Map<String, String> fields(JsonNode json) throws BadRequestException {
+        if (json == null || !json.isObject()) throw new BadRequestException("Malformed filter");
+        Map<String, String> params = new HashMap<>();
+        json.fields().forEachRemaining(e -> {
+            if (!e.getValue().isNull()) params.put(e.getKey(), e.getValue().asText());
+        });
+        return params;
+    }
+
+    private static String getString(Map<String, String> params, String key) {
+        String value = params.get(key);
+        return Strings.isNullOrEmpty(value) ? null : value.trim();
+    }
+
+    private static Long getLong(Map<String, String> params, String key) throws BadRequestException {
+        String value = getString(params, key);
+        if (value == null) return null;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Malformed " + key);
+        }
+    }
+
+    private static int getInt(Map<String, String> params, String key, int defaultValue) throws BadRequestException {
+        Long value = getLong(params, key);
+        return value != null ? value.intValue() : defaultValue;
+    }
+
+}
@@ -59,6 +59,7 @@ public class StudyLinkService {
     private List<String> createAndPersistStudyLinks(String comment, int amount, Batch batch, String workerType)
             throws BadRequestException {
         List<String> studyCodeList = new ArrayList<>();
+        List<Long> workerIdList = new ArrayList<>();
         while (amount > 0) {
             Worker worker;
             switch (workerType) {
@@ -72,8 +73,9 @@ public class StudyLinkService {
                     throw new BadRequestException("Unknown worker type");
             }
             workerService.validateWorker(worker);
+            // Workers get their ID already with persist (PooledIdGenerator) and their INSERTs are batched
             workerDao.create(worker);
-            batchDao.addWorkerToBatch(batch.getId(), worker.getId());
+            workerIdList.add(worker.getId());
 
             StudyLink studyLink = new StudyLink(batch, worker);
             studyLinkDao.create(studyLink);
@@ -81,6 +83,7 @@ public class StudyLinkService {
 
             amount--;
         }
+        batchDao.addWorkersToBatch(batch.getId(), workerIdList);
         return studyCodeList;
     }
 
@@ -81,6 +81,10 @@ public class StudyService {
         clone.setGroupStudy(study.isGroupStudy());
         clone.setLinearStudy(study.isLinearStudy());
         clone.setAllowPreview(study.isAllowPreview());
+        clone.setMaxConcurrentStarts(study.getMaxConcurrentStarts());
+        clone.setOpenAiCache(study.isOpenAiCache());
+        clone.setGroupSessionPatchWindow(study.getGroupSessionPatchWindow());
+        clone.setResultRetentionDays(study.getResultRetentionDays());
 
         // Clone each component
         for (Component component : study.getComponentList()) {
@@ -274,6 +278,10 @@ public class StudyService {
         study.setStudyInput(updatedStudy.getStudyInput());
         study.setLinearStudy(updatedStudy.isLinearStudy());
         study.setAllowPreview(updatedStudy.isAllowPreview());
+        study.setMaxConcurrentStarts(updatedStudy.getMaxConcurrentStarts());
+        study.setOpenAiCache(updatedStudy.isOpenAiCache());
+        study.setGroupSessionPatchWindow(updatedStudy.getGroupSessionPatchWindow());
+        study.setResultRetentionDays(updatedStudy.getResultRetentionDays());
         study.setGroupStudy(updatedStudy.isGroupStudy());
     }
 
@@ -322,6 +330,10 @@ public class StudyService {
         study.setGroupStudy(studyProperties.isGroupStudy());
         study.setLinearStudy(studyProperties.isLinearStudy());
         study.setAllowPreview(studyProperties.isAllowPreview());
+        study.setMaxConcurrentStarts(studyProperties.getMaxConcurrentStarts());
+        study.setOpenAiCache(studyProperties.isOpenAiCache());
+        study.setGroupSessionPatchWindow(studyProperties.getGroupSessionPatchWindow());
+        study.setResultRetentionDays(studyProperties.getResultRetentionDays());
     }
 
     /**
@@ -347,6 +359,10 @@ public class StudyService {
         studyProperties.setGroupStudy(study.isGroupStudy());
         studyProperties.setLinearStudy(study.isLinearStudy());
         studyProperties.setAllowPreview(study.isAllowPreview());
+        studyProperties.setMaxConcurrentStarts(study.getMaxConcurrentStarts());
+        studyProperties.setOpenAiCache(study.isOpenAiCache());
+        studyProperties.setGroupSessionPatchWindow(study.getGroupSessionPatchWindow());
+        studyProperties.setResultRetentionDays(study.getResultRetentionDays());
         studyProperties.setDirName(study.getDirName());
         studyProperties.setComments(study.getComments());
         studyProperties.setEndRedirectUrl(study.getEndRedirectUrl());
@@ -0,0 +1,177 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.StudyStatisticsDao;
+import general.common.Common;
+import general.common.IoExecutionContext;
+import models.common.Study;
+import models.common.StudyResultStatus;
+import models.common.StudyStatistics;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Gathers the study statistics (StudyStatistics) that are too expensive to get on every load of the administration:
+ * the size and number of files of the study assets folder, the size of the uploaded result files (both walk the
+ * filesystem) and the last start (the latest start date of the study's results). All studies are refreshed in the
+ * background once per jatos.studyAdmin.statisticsRefreshInterval. A single study can be refreshed on demand. The
+ * refresh runs on the IoExecutionContext and walks the filesystem outside of a transaction: a short transaction reads
+ * what has to be walked and another one stores the statistics.
+ * <p>
+ * Changes of the study assets that go through JATOS (upload, deletion, import and clone) are applied right away.
+ * Changes outside of JATOS (e.g. directly in the filesystem) are picked up by the periodic refresh.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyStatisticsService {
+
+    private static final Logger.ALogger LOGGER = Logger.of(StudyStatisticsService.class);
+
+    private final ActorSystem actorSystem;
+    private final ApplicationLifecycle lifecycle;
+    private final JPAApi jpa;
+    private final IoExecutionContext ioExecutionContext;
+    private final StudyDao studyDao;
+    private final StudyResultDao studyResultDao;
+    private final StudyStatisticsDao studyStatisticsDao;
+    private final IOUtils ioUtils;
+
+    @Inject
+    StudyStatisticsService(ActorSystem actorSystem, ApplicationLifecycle lifecycle, JPAApi jpa,
+            IoExecutionContext ioExecutionContext, StudyDao studyDao, StudyResultDao studyResultDao,
+            StudyStatisticsDao studyStatisticsDao, IOUtils ioUtils) {
+        this.actorSystem = actorSystem;
+        this.lifecycle = lifecycle;
+        this.jpa = jpa;
+        this.ioExecutionContext = ioExecutionContext;
+        this.studyDao = studyDao;
+        this.studyResultDao = studyResultDao;
+        this.studyStatisticsDao = studyStatisticsDao;
+        this.ioUtils = ioUtils;
+    }
+
+    /**
+     * Starts the periodic refresh. Called once during application start.
+     */
+    public void start() {
+        Duration interval = Common.getStudyStatisticsRefreshInterval();
+        if (interval.isZero()) return;
+
+        Cancellable refresher = actorSystem.scheduler().schedule(Duration.ofSeconds(30), interval,
+                this::refreshAll, ioExecutionContext);
+        lifecycle.addStopHook(() -> {
+            refresher.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    synchronized void refreshAll() {
+        List<Long> studyIds;
+        try {
+            studyIds = jpa.withTransaction((EntityManager em) -> studyDao.findAll().stream()
+                    .map(Study::getId)
+                    .collect(Collectors.toList()));
+        } catch (Exception e) {
+            LOGGER.error(".refreshAll: couldn't get the studies", e);
+            return;
+        }
+        for (Long studyId : studyIds) {
+            try {
+                refresh(studyId);
+            } catch (Exception e) {
+                LOGGER.error(".refreshAll: couldn't refresh the statistics of study " + studyId, e);
+            }
+        }
+    }
+
+    /**
+     * Refreshes the statistics of the given study in the background. The returned stage completes after they are
+     * stored.
+     */
+    public CompletionStage<Void> refreshAsync(Long studyId) {
+        return CompletableFuture.runAsync(() -> refresh(studyId), ioExecutionContext);
+    }
+
+    /**
+     * Gathers the statistics of the given study and stores them. Must not run within a transaction since it walks the
+     * filesystem in between its own two short transactions.
+     */
+    void refresh(Long studyId) {
+        StudySnapshot snapshot = jpa.withTransaction((EntityManager em) -> {
+            Study study = studyDao.findById(studyId);
+            if (study == null) return null;
+            Timestamp lastStarted = studyResultDao.findLastStarted(study)
+                    .map(StudyResultStatus::getStartDate).orElse(null);
+            return new StudySnapshot(study.getDirName(), studyResultDao.findIdsByStudyId(studyId), lastStarted);
+        });
+        if (snapshot == null) return;
+
+        IOUtils.DirUsage studyAssets = ioUtils.getStudyAssetsDirUsage(snapshot.dirName);
+        long resultFileSize = snapshot.studyResultIds.stream().mapToLong(ioUtils::getResultUploadDirSize).sum();
+
+        jpa.withTransaction((EntityManager em) -> studyStatisticsDao.update(studyId, studyAssets.getSize(),
+                studyAssets.getFileCount(), resultFileSize, snapshot.lastStarted));
+    }
+
+    /**
+     * Walks the study assets folder of the given study and stores its size and number of files, e.g. after the
+     * assets were replaced by an import. Has to run within a transaction.
+     */
+    public void refreshStudyAssets(Study study) {
+        IOUtils.DirUsage studyAssets = ioUtils.getStudyAssetsDirUsage(study.getDirName());
+        studyStatisticsDao.updateStudyAssets(study.getId(), studyAssets.getSize(), studyAssets.getFileCount());
+    }
+
+    /**
+     * A single file in the study assets folder changed (e.g. uploaded or deleted). Adds the changes of the size and
+     * number of files to the study's statistics without walking the folder. Has to run within a transaction.
+     */
+    public void studyAssetsChanged(Study study, long sizeDelta, long fileCountDelta) {
+        studyStatisticsDao.addStudyAssets(study.getId(), sizeDelta, fileCountDelta);
+    }
+
+    /**
+     * Takes over the study assets statistics of the original study for its clone (that got a copy of the assets).
+     * Has to run within a transaction.
+     */
+    public void studyAssetsCloned(Study study, Study clone) {
+        StudyStatistics statistics = studyStatisticsDao.findByStudyId(study.getId());
+        if (statistics == null) return;
+        studyStatisticsDao.updateStudyAssets(clone.getId(), statistics.getStudyAssetsSize(),
+                statistics.getStudyAssetsFileCount());
+    }
+
+    /**
+     * What the refresh reads from the database before it walks the filesystem
+     */
+    private static class StudySnapshot {
+
+        private final String dirName;
+        private final List<Long> studyResultIds;
+        private final Timestamp lastStarted;
+
+        StudySnapshot(String dirName, List<Long> studyResultIds, Timestamp lastStarted) {
+            this.dirName = dirName;
+            this.studyResultIds = studyResultIds;
+            this.lastStarted = lastStarted;
+        }
+
+    }
+
+}
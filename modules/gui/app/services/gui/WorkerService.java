@@ -1,6 +1,6 @@
 package services.gui;
 
-import daos.common.StudyResultDao;
+import daos.common.ResultCounterDao;
 import exceptions.gui.BadRequestException;
 import models.common.Batch;
 import models.common.workers.*;
@@ -22,11 +22,11 @@ import java.util.function.Consumer;
 @Singleton
 public class WorkerService {
 
-    private final StudyResultDao studyResultDao;
+    private final ResultCounterDao resultCounterDao;
 
     @Inject
-    WorkerService(StudyResultDao studyResultDao) {
-        this.studyResultDao = studyResultDao;
+    WorkerService(ResultCounterDao resultCounterDao) {
+        this.resultCounterDao = resultCounterDao;
     }
 
     public void validateWorker(Worker worker) throws BadRequestException {
@@ -43,7 +43,7 @@ public class WorkerService {
     public Map<String, Integer> retrieveStudyResultCountsPerWorker(Batch batch) {
         Map<String, Integer> resultsPerWorker = new HashMap<>();
         Consumer<String> putCountToMap = (String workerType) -> resultsPerWorker
-                .put(workerType, studyResultDao.countByBatchAndWorkerType(batch, workerType));
+                .put(workerType, resultCounterDao.countByBatchAndWorkerType(batch, workerType));
         putCountToMap.accept(JatosWorker.WORKER_TYPE);
         putCountToMap.accept(PersonalSingleWorker.WORKER_TYPE);
         putCountToMap.accept(PersonalMultipleWorker.WORKER_TYPE);
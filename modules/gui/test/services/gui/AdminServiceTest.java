@@ -2,14 +2,19 @@ package services.gui;
 
 import auth.gui.AuthService;
 import com.fasterxml.jackson.databind.JsonNode;
-import daos.common.ComponentResultDao;
+import daos.common.ResultCounterDao;
 import daos.common.StudyDao;
 import daos.common.StudyResultDao;
+import daos.common.StudyStatisticsDao;
 import daos.common.UserDao;
 import daos.common.worker.WorkerDao;
 import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import general.common.EntityCache;
+import general.common.ReadReplicas;
 import models.common.Study;
 import models.common.StudyResultStatus;
+import models.common.StudyStatistics;
 import models.common.User;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -17,16 +22,21 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
+import play.db.jpa.JPAApi;
 import utils.common.IOUtils;
 
+import javax.persistence.EntityManager;
 import java.nio.file.Path;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 /**
@@ -56,9 +66,13 @@ public class AdminServiceTest {
     private StudyDao studyDao;
     private WorkerDao workerDao;
     private StudyResultDao studyResultDao;
-    private ComponentResultDao componentResultDao;
+    private ResultCounterDao resultCounterDao;
+    private StudyStatisticsDao studyStatisticsDao;
     private AuthService authService;
     private IOUtils ioUtils;
+    private DatabaseExecutionContext dbExecutionContext;
+    private EntityCache entityCache;
+    private ReadReplicas readReplicas;
 
     private AdminService adminService;
 
@@ -70,10 +84,16 @@ public class AdminServiceTest {
         studyDao = Mockito.mock(StudyDao.class);
         workerDao = Mockito.mock(WorkerDao.class);
         studyResultDao = Mockito.mock(StudyResultDao.class);
-        componentResultDao = Mockito.mock(ComponentResultDao.class);
+        resultCounterDao = Mockito.mock(ResultCounterDao.class);
+        studyStatisticsDao = Mockito.mock(StudyStatisticsDao.class);
         authService = Mockito.mock(AuthService.class);
         ioUtils = Mockito.mock(IOUtils.class);
-        adminService = new AdminService(userDao, studyDao, workerDao, studyResultDao, componentResultDao, authService, ioUtils);
+        dbExecutionContext = Mockito.mock(DatabaseExecutionContext.class);
+        entityCache = Mockito.mock(EntityCache.class);
+        readReplicas = mockReadReplicas();
+        adminService = new AdminService(Mockito.mock(JPAApi.class), userDao, studyDao, workerDao, studyResultDao,
+                resultCounterDao, studyStatisticsDao, Mockito.mock(StudyStatisticsService.class), authService, ioUtils,
+                dbExecutionContext, entityCache, readReplicas);
 
         study = new Study();
         study.setId(1L);
@@ -88,17 +108,32 @@ public class AdminServiceTest {
         study.addUser(member);
     }
 
+    /**
+     * ReadReplicas mock that just runs the transaction blocks
+     */
+    @SuppressWarnings("unchecked")
+    private static ReadReplicas mockReadReplicas() {
+        ReadReplicas readReplicas = Mockito.mock(ReadReplicas.class);
+        when(readReplicas.withTransaction(any(Function.class))).thenAnswer(
+                invocation -> ((Function<EntityManager, ?>) invocation.getArgument(0)).apply(null));
+        doAnswer(invocation -> {
+            ((Consumer<EntityManager>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(readReplicas).withTransaction(any(Consumer.class));
+        return readReplicas;
+    }
+
     @Test
     public void getStudiesData_allFlagsTrue_andLastStartedPresent() {
         // Given
-        when(studyResultDao.countByStudy(study)).thenReturn(4);
-        when(ioUtils.getStudyAssetsDirSize("dir-1")).thenReturn(2_000L); // 2.0 kB
-        when(componentResultDao.sizeByStudy(study)).thenReturn(10_000L); // 10.0 kB total
-        when(studyResultDao.findIdsByStudyId(1L)).thenReturn(Arrays.asList(11L, 12L, 13L, 14L));
-        when(ioUtils.getResultUploadDirSize(anyLong())).thenReturn(3_000L); // each 3.0 kB => total 12.0 kB
-        StudyResultStatus srs = new StudyResultStatus();
-        srs.setStartDate(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
-        when(studyResultDao.findLastStarted(study)).thenReturn(Optional.of(srs));
+        when(resultCounterDao.countByStudies()).thenReturn(Map.of(1L, 4));
+        when(resultCounterDao.dataSizeByStudies()).thenReturn(Map.of(1L, 10_000L)); // 10.0 kB total
+        StudyStatistics statistics = new StudyStatistics(1L);
+        statistics.setStudyAssetsSize(2_000L); // 2.0 kB
+        statistics.setResultFileSize(12_000L); // 4 results with 3.0 kB each
+        statistics.setLastStarted(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+        statistics.setRefreshed(Timestamp.from(Instant.parse("2020-01-03T00:00:00Z")));
+        when(studyStatisticsDao.findAll()).thenReturn(Collections.singletonList(statistics));
 
         // When
         List<Map<String, Object>> studiesData = adminService.getStudiesData(Collections.singletonList(study), true, true, true);
@@ -127,6 +162,8 @@ public class AdminServiceTest {
         assertThat(String.valueOf(rfiles.get("humanReadable"))).isEqualTo("12.0 kB (3.0 kB)");
         // lastStarted
         assertThat(studyInfo.get("lastStarted")).isEqualTo(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+        assertThat(studyInfo.get("statisticsRefreshed"))
+                .isEqualTo(Timestamp.from(Instant.parse("2020-01-03T00:00:00Z")));
         // members
         @SuppressWarnings("unchecked") List<Map<String, Object>> members = (List<Map<String, Object>>) studyInfo.get("members");
         assertThat(members).hasSize(1);
@@ -137,8 +174,8 @@ public class AdminServiceTest {
 
     @Test
     public void getStudiesData_flagsFalse_putsDisabledStrings() {
-        when(studyResultDao.countByStudy(study)).thenReturn(0);
-        when(studyResultDao.findLastStarted(study)).thenReturn(Optional.empty());
+        // No statistics and no result counters yet
+        when(studyStatisticsDao.findAll()).thenReturn(Collections.emptyList());
 
         List<Map<String, Object>> studiesData = adminService.getStudiesData(Collections.singletonList(study), false, false, false);
 
@@ -156,6 +193,26 @@ public class AdminServiceTest {
         assertThat(studyInfo.get("lastStarted")).isNull();
     }
 
+    @Test
+    public void getStudiesData_neverRefreshed_putsUnknownSizes() {
+        // E.g. right after the update: the statistics were created without gathering the sizes on the disk
+        StudyStatistics statistics = new StudyStatistics(1L);
+        statistics.setLastStarted(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+        when(studyStatisticsDao.findAll()).thenReturn(Collections.singletonList(statistics));
+
+        List<Map<String, Object>> studiesData = adminService.getStudiesData(Collections.singletonList(study), true, true, true);
+
+        Map<String, Object> studyInfo = studiesData.get(0);
+        @SuppressWarnings("unchecked") Map<String, Object> studyAssetsSize = (Map<String, Object>) studyInfo.get("studyAssetsSize");
+        assertThat(studyAssetsSize.get("humanReadable")).isEqualTo("unknown");
+        @SuppressWarnings("unchecked") Map<String, Object> resultFileSize = (Map<String, Object>) studyInfo.get("resultFileSize");
+        assertThat(resultFileSize.get("humanReadable")).isEqualTo("unknown");
+        // The result data size comes from the result counters and is always known
+        @SuppressWarnings("unchecked") Map<String, Object> resultDataSize = (Map<String, Object>) studyInfo.get("resultDataSize");
+        assertThat(resultDataSize.get("humanReadable")).isEqualTo("0 B (0 B)");
+        assertThat(studyInfo.get("lastStarted")).isEqualTo(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+    }
+
     @Test
     public void getLatestUsers_filtersAndFormats() {
         // Signed-in user
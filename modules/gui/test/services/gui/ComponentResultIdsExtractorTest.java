@@ -27,7 +27,8 @@ public class ComponentResultIdsExtractorTest {
     public void extract_fromNullOrEmptyMap_returnsEmpty() throws Exception {
         ComponentResultDao crDao = Mockito.mock(ComponentResultDao.class);
         StudyResultDao srDao = Mockito.mock(StudyResultDao.class);
-        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao);
+        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao,
+                Mockito.mock(ResultTableService.class));
 
         assertThat(extractor.extract((Map<String, String[]>) null)).isEmpty();
         assertThat(extractor.extract(Collections.emptyMap())).isEmpty();
@@ -37,7 +38,8 @@ public class ComponentResultIdsExtractorTest {
     public void extract_fromMap_combinesDedupsAndSorts() throws Exception {
         ComponentResultDao crDao = Mockito.mock(ComponentResultDao.class);
         StudyResultDao srDao = Mockito.mock(StudyResultDao.class);
-        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao);
+        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao,
+                Mockito.mock(ResultTableService.class));
 
         // Stubs for DAOs
         when(crDao.findIdsByStudyIds(Arrays.asList(10L, 20L)))
@@ -76,7 +78,8 @@ public class ComponentResultIdsExtractorTest {
     public void extract_fromJson_unknownField_throwsBadRequest() throws Exception {
         ComponentResultDao crDao = Mockito.mock(ComponentResultDao.class);
         StudyResultDao srDao = Mockito.mock(StudyResultDao.class);
-        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao);
+        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao,
+                Mockito.mock(ResultTableService.class));
 
         ObjectNode node = mapper.createObjectNode();
         node.put("foo", 1);
@@ -88,7 +91,8 @@ public class ComponentResultIdsExtractorTest {
     public void extract_fromJson_validFields_combinesDedupsAndSorts() throws Exception {
         ComponentResultDao crDao = Mockito.mock(ComponentResultDao.class);
         StudyResultDao srDao = Mockito.mock(StudyResultDao.class);
-        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao);
+        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao,
+                Mockito.mock(ResultTableService.class));
 
         // JSON with various field types. Note: avoid componentUuids due to unrelated code path.
         String jsonStr = "{" +
@@ -136,7 +140,8 @@ public class ComponentResultIdsExtractorTest {
     public void extract_fromJson_nullOrNullNode_returnsEmpty() throws Exception {
         ComponentResultDao crDao = Mockito.mock(ComponentResultDao.class);
         StudyResultDao srDao = Mockito.mock(StudyResultDao.class);
-        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao);
+        ComponentResultIdsExtractor extractor = new ComponentResultIdsExtractor(crDao, srDao,
+                Mockito.mock(ResultTableService.class));
 
         assertThat(extractor.extract((JsonNode) null)).isEmpty();
         assertThat(extractor.extract(mapper.nullNode())).isEmpty();
@@ -92,7 +92,8 @@ public class ImportExportServiceTest {
         studyDeserializer = mock(StudyDeserializer.class);
 
         importExportService = new ImportExportService(authorizationService, studyService, batchService, componentService,
-                jsonUtils, ioUtils, studyDao, componentDao, studyDeserializer);
+                jsonUtils, ioUtils, studyDao, componentDao, studyDeserializer,
+                mock(StudyStatisticsService.class));
 
         user = new User();
         user.setUsername("tester");
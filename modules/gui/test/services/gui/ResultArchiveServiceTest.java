@@ -0,0 +1,148 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import daos.common.ResultArchiveDao;
+import daos.common.ResultArchiveDao.ArchivedComponentResult;
+import daos.common.ResultCounterDao;
+import general.common.Common;
+import general.common.IoExecutionContext;
+import general.common.ResultSearchIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResultArchiveService's archive files
+ */
+@SuppressWarnings("unchecked")
+public class ResultArchiveServiceTest {
+
+    private MockedStatic<Common> commonStatic;
+    private Path tmpDir;
+    private ResultArchiveDao resultArchiveDao;
+    private ResultCounterDao resultCounterDao;
+    private IOUtils ioUtils;
+    private ResultSearchIndex resultSearchIndex;
+    private ResultArchiveService resultArchiveService;
+
+    @Before
+    public void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("resultArchiveTest");
+        Files.createDirectories(tmpDir.resolve("archive"));
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getResultArchivePath).thenReturn(tmpDir.resolve("archive").toString());
+        commonStatic.when(Common::getResultUploadsPath).thenReturn(tmpDir.resolve("uploads").toString());
+
+        // Runs the transactions' blocks right away
+        JPAApi jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Function.class))).thenAnswer(
+                invocation -> ((Function<EntityManager, Object>) invocation.getArgument(0)).apply(null));
+
+        resultArchiveDao = mock(ResultArchiveDao.class);
+        resultCounterDao = mock(ResultCounterDao.class);
+        ioUtils = mock(IOUtils.class);
+        resultSearchIndex = mock(ResultSearchIndex.class);
+        resultArchiveService = new ResultArchiveService(mock(ActorSystem.class), mock(ApplicationLifecycle.class), jpa,
+                mock(IoExecutionContext.class), resultArchiveDao, resultCounterDao, ioUtils, resultSearchIndex);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        commonStatic.close();
+        IOUtils.deleteRecursivelyIfExists(tmpDir);
+    }
+
+    private ArchivedComponentResult componentResult() {
+        ArchivedComponentResult cr = new ArchivedComponentResult();
+        cr.id = 7L;
+        cr.componentId = 3L;
+        cr.order = 0;
+        cr.componentState = 4;
+        cr.startDate = new Timestamp(1600000000000L);
+        cr.data = "{\"answer\": \"ä\"}";
+        cr.dataShort = "{\"answer\": \"ä\"}";
+        cr.dataSize = 17L;
+        return cr;
+    }
+
+    private long filesInArchiveDir() throws IOException {
+        try (Stream<Path> files = Files.list(tmpDir.resolve("archive"))) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void archiveAndRestore() throws Exception {
+        Path uploadFile = IOUtils.getResultUploadsDir(1L, 7L).resolve("image.png");
+        Files.createDirectories(uploadFile.getParent());
+        Files.write(uploadFile, new byte[]{1, 2, 3});
+        when(resultArchiveDao.markArchived(1L)).thenReturn(true);
+        when(resultArchiveDao.findComponentResults(1L)).thenReturn(Collections.singletonList(componentResult()));
+
+        assertThat(resultArchiveService.archive(1L)).isTrue();
+
+        assertThat(Files.exists(IOUtils.getResultArchiveFile(1L))).isTrue();
+        assertThat(filesInArchiveDir()).isEqualTo(1L);
+        // The ComponentResults are read before the StudyResult's row gets locked
+        InOrder inOrder = inOrder(resultArchiveDao);
+        inOrder.verify(resultArchiveDao).findComponentResults(1L);
+        inOrder.verify(resultArchiveDao).markArchived(1L);
+        inOrder.verify(resultArchiveDao).removeComponentResults(1L);
+        verify(ioUtils).removeResultUploadsDir(1L);
+        verify(resultSearchIndex).markForRemoval(List.of(1L));
+
+        // Like the removal of the upload dir
+        IOUtils.deleteRecursivelyIfExists(IOUtils.getResultUploadsDir(1L));
+        when(resultArchiveDao.markRestored(1L)).thenReturn(true);
+
+        assertThat(resultArchiveService.restore(1L)).isTrue();
+
+        ArgumentCaptor<List<ArchivedComponentResult>> captor = ArgumentCaptor.forClass(List.class);
+        verify(resultArchiveDao).restoreComponentResults(eq(1L), captor.capture());
+        assertThat(captor.getValue()).hasSize(1);
+        ArchivedComponentResult restored = captor.getValue().get(0);
+        assertThat(restored.id).isEqualTo(7L);
+        assertThat(restored.startDate).isEqualTo(new Timestamp(1600000000000L));
+        assertThat(restored.data).isEqualTo("{\"answer\": \"ä\"}");
+        verify(resultCounterDao).refreshStudyResult(1L);
+        verify(resultSearchIndex).markForIndexing(7L);
+        assertThat(Files.readAllBytes(uploadFile)).isEqualTo(new byte[]{1, 2, 3});
+        assertThat(Files.exists(IOUtils.getResultArchiveFile(1L))).isFalse();
+    }
+
+    @Test
+    public void archiveSkipsArchivedResult() throws Exception {
+        when(resultArchiveDao.markArchived(1L)).thenReturn(false);
+
+        assertThat(resultArchiveService.archive(1L)).isFalse();
+
+        assertThat(Files.exists(IOUtils.getResultArchiveFile(1L))).isFalse();
+        // No temporary archive file is left behind
+        assertThat(filesInArchiveDir()).isEqualTo(0L);
+        verify(resultArchiveDao, never()).removeComponentResults(anyLong());
+        verify(ioUtils, never()).removeResultUploadsDir(anyLong());
+        verify(resultSearchIndex, never()).markForRemoval(anyCollection());
+    }
+
+}
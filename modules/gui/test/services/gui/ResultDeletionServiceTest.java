@@ -0,0 +1,129 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import daos.common.ResultDeletionDao;
+import daos.common.StudyDao;
+import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import general.common.ResultSearchIndex;
+import general.common.StudyLogger;
+import models.common.ResultDeletionJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResultDeletionService's processing of a job chunk by chunk
+ */
+@SuppressWarnings("unchecked")
+public class ResultDeletionServiceTest {
+
+    private MockedStatic<Common> commonStatic;
+    private ResultDeletionDao resultDeletionDao;
+    private ResultSearchIndex resultSearchIndex;
+    private ResultDeletionService resultDeletionService;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getResultDeletionChunkSize).thenReturn(2);
+
+        // Runs the transactions' blocks right away
+        JPAApi jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Function.class))).thenAnswer(
+                invocation -> ((Function<EntityManager, Object>) invocation.getArgument(0)).apply(null));
+        doAnswer(invocation -> {
+            ((Consumer<EntityManager>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(jpa).withTransaction(any(Consumer.class));
+
+        resultDeletionDao = mock(ResultDeletionDao.class);
+        resultSearchIndex = mock(ResultSearchIndex.class);
+        resultDeletionService = new ResultDeletionService(mock(ActorSystem.class), mock(ApplicationLifecycle.class),
+                jpa, mock(DatabaseExecutionContext.class), resultDeletionDao, mock(StudyDao.class), mock(AuthorizationService.class),
+                mock(StudyLogger.class), resultSearchIndex);
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    @Test
+    public void runRemovesChunkByChunk() {
+        when(resultDeletionDao.claim(eq(1L), anyString(), any(Timestamp.class))).thenReturn(true);
+        when(resultDeletionDao.renewClaim(eq(1L), anyString())).thenReturn(true);
+        List<Long> chunk1 = Arrays.asList(5L, 4L);
+        List<Long> chunk2 = Collections.singletonList(3L);
+        when(resultDeletionDao.findNextChunk(1L, 2)).thenReturn(chunk1, chunk2, Collections.emptyList());
+        when(resultDeletionDao.removeStudyResults(anyList())).thenReturn(2, 1);
+
+        resultDeletionService.run(1L);
+
+        verify(resultDeletionDao).removeStudyResults(chunk1);
+        verify(resultDeletionDao).chunkDone(1L, chunk1);
+        verify(resultDeletionDao).removeStudyResults(chunk2);
+        verify(resultDeletionDao).chunkDone(1L, chunk2);
+        verify(resultSearchIndex).markForRemoval(chunk1);
+        verify(resultSearchIndex).markForRemoval(chunk2);
+        verify(resultDeletionDao).setState(eq(1L), anyString(), eq(ResultDeletionJob.State.DONE), isNull());
+    }
+
+    @Test
+    public void runSkipsJobOfAnotherNode() {
+        when(resultDeletionDao.claim(eq(1L), anyString(), any(Timestamp.class))).thenReturn(false);
+
+        resultDeletionService.run(1L);
+
+        verify(resultDeletionDao, never()).findNextChunk(anyLong(), anyInt());
+        verify(resultDeletionDao, never()).setState(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    public void runStopsIfClaimIsLost() {
+        when(resultDeletionDao.claim(eq(1L), anyString(), any(Timestamp.class))).thenReturn(true);
+        // Another node took the job over after the first chunk
+        when(resultDeletionDao.renewClaim(eq(1L), anyString())).thenReturn(true, false);
+        List<Long> chunk = Arrays.asList(5L, 4L);
+        when(resultDeletionDao.findNextChunk(1L, 2)).thenReturn(chunk);
+        when(resultDeletionDao.removeStudyResults(chunk)).thenReturn(2);
+
+        resultDeletionService.run(1L);
+
+        verify(resultDeletionDao, times(1)).removeStudyResults(anyList());
+        verify(resultDeletionDao, never()).setState(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    public void failedChunkStopsJob() {
+        when(resultDeletionDao.claim(eq(1L), anyString(), any(Timestamp.class))).thenReturn(true);
+        when(resultDeletionDao.renewClaim(eq(1L), anyString())).thenReturn(true);
+        List<Long> chunk = Arrays.asList(5L, 4L);
+        when(resultDeletionDao.findNextChunk(1L, 2)).thenReturn(chunk);
+        when(resultDeletionDao.removeStudyResults(chunk)).thenThrow(new RuntimeException("Lock wait timeout"));
+
+        resultDeletionService.run(1L);
+
+        // The chunk stays in the job's remaining results
+        verify(resultDeletionDao, never()).chunkDone(anyLong(), anyList());
+        verify(resultSearchIndex, never()).markForRemoval(anyCollection());
+        verify(resultDeletionDao).setState(eq(1L), anyString(), eq(ResultDeletionJob.State.FAILED),
+                eq("Lock wait timeout"));
+    }
+
+}
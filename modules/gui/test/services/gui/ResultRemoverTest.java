@@ -2,6 +2,8 @@ package services.gui;
 
 import daos.common.ComponentResultDao;
 import daos.common.GroupResultDao;
+import daos.common.ResultCounterDao;
+import daos.common.ResultDeletionDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
 import exceptions.gui.ForbiddenException;
@@ -53,6 +55,7 @@ public class ResultRemoverTest {
     private WorkerDao workerDao;
     private StudyLogger studyLogger;
     private IOUtils ioUtils;
+    private ResultDeletionDao resultDeletionDao;
 
     private ResultRemover resultRemover;
 
@@ -72,8 +75,10 @@ public class ResultRemoverTest {
         workerDao = mock(WorkerDao.class);
         studyLogger = mock(StudyLogger.class);
         ioUtils = mock(IOUtils.class);
+        resultDeletionDao = mock(ResultDeletionDao.class);
 
-        resultRemover = new ResultRemover(authorizationService, componentResultDao, studyResultDao, groupResultDao, workerDao, studyLogger, ioUtils);
+        resultRemover = new ResultRemover(authorizationService, componentResultDao, studyResultDao, groupResultDao, workerDao,
+                studyLogger, ioUtils, mock(ResultCounterDao.class), resultDeletionDao);
 
         // Minimal model graph used by several tests
         user = newUser();
@@ -231,9 +236,9 @@ public class ResultRemoverTest {
         verify(componentResultDao).remove(cr1);
         verify(componentResultDao).remove(cr2);
 
-        // uploads dir removed per study result and study result removed
-        verify(ioUtils).removeResultUploadsDir(300L);
-        verify(ioUtils).removeResultUploadsDir(301L);
+        // uploads dir queued for removal per study result and study result removed
+        verify(resultDeletionDao).queueUploadsRemoval(300L);
+        verify(resultDeletionDao).queueUploadsRemoval(301L);
         verify(studyResultDao).remove(sr1);
         verify(studyResultDao).remove(sr2);
 
@@ -285,9 +290,9 @@ public class ResultRemoverTest {
         // components removed
         verify(componentResultDao).remove(cr1);
         verify(componentResultDao).remove(cr2);
-        // uploads for sr and studyResult removed
-        verify(ioUtils).removeResultUploadsDir(700L);
-        verify(ioUtils).removeResultUploadsDir(701L);
+        // uploads for sr queued for removal and studyResult removed
+        verify(resultDeletionDao).queueUploadsRemoval(700L);
+        verify(resultDeletionDao).queueUploadsRemoval(701L);
         verify(studyResultDao).remove(sr1);
         verify(studyResultDao).remove(sr2);
         // log once
@@ -0,0 +1,187 @@
+package services.gui;
+
+import auth.gui.AuthService;
+import com.fasterxml.jackson.databind.JsonNode;
+import daos.common.ComponentResultDao;
+import daos.common.ResultFilter;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import exceptions.gui.BadRequestException;
+import general.common.ReadReplicas;
+import general.common.ResultSearchIndex;
+import models.common.ComponentResult.ComponentState;
+import models.common.StudyResult.StudyState;
+import models.common.User;
+import models.common.workers.JatosWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import play.libs.Json;
+import utils.common.JsonUtils;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResultTableService
+ */
+public class ResultTableServiceTest {
+
+    private AuthService authService;
+    private StudyResultDao studyResultDao;
+    private ResultSearchIndex resultSearchIndex;
+    private ResultTableService resultTableService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        authService = mock(AuthService.class);
+        studyResultDao = mock(StudyResultDao.class);
+        resultSearchIndex = mock(ResultSearchIndex.class);
+        // Runs the transactions' blocks right away
+        ReadReplicas readReplicas = mock(ReadReplicas.class);
+        when(readReplicas.withTransaction(any(Function.class))).thenAnswer(
+                invocation -> ((Function<EntityManager, ?>) invocation.getArgument(0)).apply(null));
+        resultTableService = new ResultTableService(authService, mock(StudyDao.class), studyResultDao,
+                mock(ComponentResultDao.class), mock(JsonUtils.class), readReplicas, resultSearchIndex);
+    }
+
+    private static Map<String, String[]> queryString(String... keysAndValues) {
+        Map<String, String[]> queryString = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            queryString.put(keysAndValues[i], new String[]{keysAndValues[i + 1]});
+        }
+        return queryString;
+    }
+
+    @Test
+    public void studyResultFilterFromQueryString() throws BadRequestException {
+        ResultFilter filter = resultTableService.studyResultFilter(queryString(
+                "state", "FINISHED,FAIL", "workerType", "PersonalSingle", "startedFrom", "1600000000000",
+                "search", " abc ", "orderBy", "lastSeenDate", "orderDir", "asc", "studyId", "7"));
+
+        assertThat(filter.getStudyStates()).containsOnly(StudyState.FINISHED, StudyState.FAIL);
+        assertThat(filter.getWorkerType()).isEqualTo("PersonalSingle");
+        assertThat(filter.getStartedFrom()).isEqualTo(new Timestamp(1600000000000L));
+        assertThat(filter.getSearch()).isEqualTo("abc");
+        assertThat(filter.getSortColumn()).isEqualTo(ResultFilter.SortColumn.lastSeenDate);
+        assertThat(filter.isAscending()).isTrue();
+        // The scope isn't taken from the query string
+        assertThat(filter.getStudyId()).isNull();
+        assertThat(filter.hasCriteria()).isTrue();
+    }
+
+    @Test
+    public void componentResultFilterUnknownOrderByFallsBackToId() throws BadRequestException {
+        ResultFilter filter = resultTableService.componentResultFilter(queryString(
+                "state", "DATA_RETRIEVED", "orderBy", "bogus"));
+
+        assertThat(filter.getComponentStates()).containsOnly(ComponentState.DATA_RETRIEVED);
+        assertThat(filter.getSortColumn()).isEqualTo(ResultFilter.SortColumn.id);
+        assertThat(filter.isAscending()).isFalse();
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void studyResultFilterWithUnknownState() throws BadRequestException {
+        resultTableService.studyResultFilter(queryString("state", "BOGUS"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void studyResultFilterJsonWithoutScope() throws BadRequestException {
+        resultTableService.studyResultFilter(Json.parse("{\"state\": \"FINISHED\"}"));
+    }
+
+    @Test
+    public void filterAsJsonRoundTrip() throws BadRequestException {
+        User user = new User("member", "Member Name", "member@example.org");
+        when(authService.getSignedinUser()).thenReturn(user);
+        ResultFilter filter = resultTableService.studyResultFilter(queryString(
+                "state", "DATA_RETRIEVED", "startedBefore", "1600000000000", "urlQuery", "foo=bar"));
+        filter.setWorkerId(3L);
+        filter.setExcludedWorkerType(JatosWorker.WORKER_TYPE);
+
+        JsonNode json = ResultTableService.filterAsJson(filter);
+        ResultFilter parsed = resultTableService.studyResultFilter(json);
+
+        assertThat(parsed.getWorkerId()).isEqualTo(3L);
+        assertThat(parsed.getExcludedWorkerType()).isEqualTo(JatosWorker.WORKER_TYPE);
+        assertThat(parsed.getStudyStates()).containsOnly(StudyState.DATA_RETRIEVED);
+        assertThat(parsed.getStartedBefore()).isEqualTo(new Timestamp(1600000000000L));
+        assertThat(parsed.getUrlQuery()).isEqualTo("foo=bar");
+        // A worker's results are restricted to the signed-in user's studies
+        assertThat(parsed.getUsername()).isEqualTo("member");
+    }
+
+    @Test
+    public void studyResultsPage() throws BadRequestException {
+        when(studyResultDao.countByFilter(any())).thenReturn(40, 12);
+        when(studyResultDao.findByFilter(any(), anyInt(), anyInt())).thenReturn(Collections.emptyList());
+        ResultFilter filter = resultTableService.studyResultFilter(queryString("search", "abc"));
+        filter.setStudyId(7L);
+
+        JsonNode page = resultTableService.studyResultsPage(filter, queryString(
+                "draw", "3", "start", "20", "length", "-1"));
+
+        assertThat(page.get("draw").asInt()).isEqualTo(3);
+        assertThat(page.get("recordsTotal").asInt()).isEqualTo(40);
+        assertThat(page.get("recordsFiltered").asInt()).isEqualTo(12);
+        assertThat(page.get("filter").get("studyId").asLong()).isEqualTo(7L);
+        assertThat(page.get("filter").get("search").asText()).isEqualTo("abc");
+        // The total is counted without the search
+        ArgumentCaptor<ResultFilter> captor = ArgumentCaptor.forClass(ResultFilter.class);
+        verify(studyResultDao, times(2)).countByFilter(captor.capture());
+        assertThat(captor.getAllValues().get(0).getSearch()).isNull();
+        // 'All' is limited to the max page length
+        verify(studyResultDao).findByFilter(filter, 20, ResultTableService.MAX_PAGE_LENGTH);
+    }
+
+    @Test
+    public void dataQueryIsResolvedIntoMatchingResults() throws BadRequestException, IOException {
+        when(resultSearchIndex.isEnabled()).thenReturn(true);
+        when(resultSearchIndex.search(eq("reaction*"), eq(List.of(7L)), anyInt())).thenReturn(List.of(
+                new ResultSearchIndex.Hit(101L, 11L, 7L, 3L, 1.5f),
+                new ResultSearchIndex.Hit(102L, 11L, 7L, 4L, 1.2f),
+                new ResultSearchIndex.Hit(105L, 12L, 7L, 3L, 0.8f)));
+
+        ResultFilter studyResultFilter = resultTableService.studyResultFilter(
+                Json.parse("{\"studyId\": 7, \"dataQuery\": \"reaction*\"}"));
+        ResultFilter componentResultFilter = resultTableService.componentResultFilter(
+                Json.parse("{\"studyId\": 7, \"dataQuery\": \"reaction*\"}"));
+
+        assertThat(studyResultFilter.hasCriteria()).isTrue();
+        assertThat(studyResultFilter.getDataQueryMatches()).containsOnly(11L, 12L);
+        assertThat(componentResultFilter.getDataQueryMatches()).containsOnly(101L, 102L, 105L);
+        assertThat(ResultTableService.filterAsJson(studyResultFilter).get("dataQuery").asText())
+                .isEqualTo("reaction*");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void dataQueryWithTooManyHits() throws BadRequestException, IOException {
+        when(resultSearchIndex.isEnabled()).thenReturn(true);
+        List<ResultSearchIndex.Hit> hits = LongStream.rangeClosed(1, ResultTableService.MAX_DATA_QUERY_HITS + 1)
+                .mapToObj(id -> new ResultSearchIndex.Hit(id, id, 7L, 3L, 1.0f))
+                .collect(Collectors.toList());
+        when(resultSearchIndex.search(eq("reaction"), eq(List.of(7L)), anyInt())).thenReturn(hits);
+
+        resultTableService.studyResultFilter(Json.parse("{\"studyId\": 7, \"dataQuery\": \"reaction\"}"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void dataQueryWithDisabledResultSearch() throws BadRequestException {
+        when(resultSearchIndex.isEnabled()).thenReturn(false);
+        resultTableService.studyResultFilter(Json.parse("{\"studyId\": 7, \"dataQuery\": \"reaction\"}"));
+    }
+
+}
@@ -17,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -82,7 +83,7 @@ public class StudyLinkServiceTest {
         assertEquals("Hello World", created.getComment());
 
         verify(studyLinkDao, times(2)).create(any(StudyLink.class));
-        verify(batchDao, times(2)).addWorkerToBatch(eq(batch.getId()), eq(created.getId()));
+        verify(batchDao).addWorkersToBatch(eq(batch.getId()), eq(Arrays.asList(created.getId(), created.getId())));
         verifyNoMoreInteractions(authorizationService); // no batchId -> no checker call
     }
 
@@ -0,0 +1,139 @@
+package services.gui;
+
+import akka.actor.ActorSystem;
+import daos.common.StudyDao;
+import daos.common.StudyResultDao;
+import daos.common.StudyStatisticsDao;
+import general.common.IoExecutionContext;
+import models.common.Study;
+import models.common.StudyResultStatus;
+import models.common.StudyStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import utils.common.IOUtils;
+
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for StudyStatisticsService.
+ */
+@SuppressWarnings("unchecked")
+public class StudyStatisticsServiceTest {
+
+    private StudyDao studyDao;
+    private StudyResultDao studyResultDao;
+    private StudyStatisticsDao studyStatisticsDao;
+    private IOUtils ioUtils;
+    private StudyStatisticsService studyStatisticsService;
+
+    private Study study;
+    private boolean inTransaction;
+
+    @Before
+    public void setup() {
+        studyDao = mock(StudyDao.class);
+        studyResultDao = mock(StudyResultDao.class);
+        studyStatisticsDao = mock(StudyStatisticsDao.class);
+        ioUtils = mock(IOUtils.class);
+        studyStatisticsService = new StudyStatisticsService(mock(ActorSystem.class), mock(ApplicationLifecycle.class),
+                mockJpa(), mock(IoExecutionContext.class), studyDao, studyResultDao, studyStatisticsDao, ioUtils);
+
+        study = new Study();
+        study.setId(1L);
+        study.setDirName("dir-1");
+        when(studyDao.findById(1L)).thenReturn(study);
+    }
+
+    /**
+     * Runs the transactions right away and remembers whether one is open
+     */
+    private JPAApi mockJpa() {
+        JPAApi jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Function.class))).thenAnswer(invocation -> {
+            inTransaction = true;
+            try {
+                return ((Function<EntityManager, ?>) invocation.getArgument(0)).apply(null);
+            } finally {
+                inTransaction = false;
+            }
+        });
+        doAnswer(invocation -> {
+            inTransaction = true;
+            try {
+                ((Consumer<EntityManager>) invocation.getArgument(0)).accept(null);
+            } finally {
+                inTransaction = false;
+            }
+            return null;
+        }).when(jpa).withTransaction(any(Consumer.class));
+        return jpa;
+    }
+
+    @Test
+    public void refresh_storesSizesAndLastStarted() {
+        when(ioUtils.getStudyAssetsDirUsage("dir-1")).thenAnswer(invocation -> {
+            // The filesystem is walked outside of a transaction
+            assertThat(inTransaction).isFalse();
+            return new IOUtils.DirUsage(2_000L, 7L);
+        });
+        when(studyResultDao.findIdsByStudyId(1L)).thenReturn(Arrays.asList(11L, 12L, 13L, 14L));
+        when(ioUtils.getResultUploadDirSize(anyLong())).thenReturn(3_000L);
+        StudyResultStatus srs = new StudyResultStatus();
+        srs.setStartDate(Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+        when(studyResultDao.findLastStarted(study)).thenReturn(Optional.of(srs));
+
+        studyStatisticsService.refresh(1L);
+
+        verify(studyStatisticsDao).update(1L, 2_000L, 7L, 12_000L,
+                Timestamp.from(Instant.parse("2020-01-02T03:04:05Z")));
+    }
+
+    @Test
+    public void refresh_neverStarted() {
+        when(ioUtils.getStudyAssetsDirUsage("dir-1")).thenReturn(new IOUtils.DirUsage(0L, 0L));
+        when(studyResultDao.findLastStarted(study)).thenReturn(Optional.empty());
+
+        studyStatisticsService.refresh(1L);
+
+        verify(studyStatisticsDao).update(1L, 0L, 0L, 0L, null);
+    }
+
+    @Test
+    public void refresh_removedStudy() {
+        when(studyDao.findById(1L)).thenReturn(null);
+
+        studyStatisticsService.refresh(1L);
+
+        verify(ioUtils, never()).getStudyAssetsDirUsage(anyString());
+        verifyNoInteractions(studyStatisticsDao);
+    }
+
+    @Test
+    public void studyAssetsCloned_takesOverStatistics() {
+        StudyStatistics statistics = new StudyStatistics(1L);
+        statistics.setStudyAssetsSize(2_000L);
+        statistics.setStudyAssetsFileCount(7L);
+        when(studyStatisticsDao.findByStudyId(1L)).thenReturn(statistics);
+        Study clone = new Study();
+        clone.setId(2L);
+
+        studyStatisticsService.studyAssetsCloned(study, clone);
+
+        verify(studyStatisticsDao).updateStudyAssets(2L, 2_000L, 7L);
+    }
+
+}
@@ -1,6 +1,6 @@
 package services.gui;
 
-import daos.common.StudyResultDao;
+import daos.common.ResultCounterDao;
 import exceptions.gui.BadRequestException;
 import models.common.Batch;
 import models.common.workers.*;
@@ -21,13 +21,13 @@ import static org.mockito.Mockito.*;
  */
 public class WorkerServiceTest {
 
-    private StudyResultDao studyResultDao;
+    private ResultCounterDao resultCounterDao;
     private WorkerService workerService;
 
     @Before
     public void setUp() {
-        studyResultDao = mock(StudyResultDao.class);
-        workerService = new WorkerService(studyResultDao);
+        resultCounterDao = mock(ResultCounterDao.class);
+        workerService = new WorkerService(resultCounterDao);
     }
 
     @Test
@@ -71,14 +71,14 @@ public class WorkerServiceTest {
 
         // stubbing
         for (Map.Entry<String, Integer> e : expected.entrySet()) {
-            when(studyResultDao.countByBatchAndWorkerType(batch, e.getKey())).thenReturn(e.getValue());
+            when(resultCounterDao.countByBatchAndWorkerType(batch, e.getKey())).thenReturn(e.getValue());
         }
 
         Map<String, Integer> result = workerService.retrieveStudyResultCountsPerWorker(batch);
 
         assertThat(result).isEqualTo(expected);
         for (String workerType : expected.keySet()) {
-            verify(studyResultDao).countByBatchAndWorkerType(batch, workerType);
+            verify(resultCounterDao).countByBatchAndWorkerType(batch, workerType);
         }
     }
 
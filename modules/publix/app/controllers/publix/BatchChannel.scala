@@ -6,6 +6,7 @@ import akka.stream.scaladsl.Flow
 import akka.util.Timeout
 import batch.{BatchChannelActor, BatchDispatcherRegistry}
 import exceptions.publix.PublixException
+import general.common.DatabaseExecutionContext
 import models.common.StudyResult
 import models.common.workers._
 import play.api.Logger
@@ -62,7 +63,10 @@ abstract class BatchChannel[A <: Worker](components: ControllerComponents,
 
     // Get the BatchDispatcher that will handle this batch.
     val batchDispatcher = batchDispatcherRegistry.getOrRegister(batch.getId)
-    ActorFlow.actorRef { out => Props(new BatchChannelActor(out, studyResult.getId, batchDispatcher)) }
+    // A reconnecting client sends the batch session version it already has
+    val knownVersion = request.getQueryString("version").flatMap(_.toLongOption)
+    ActorFlow.actorRef { out => Props(new BatchChannelActor(out, studyResult.getId, batchDispatcher, knownVersion))
+      .withDispatcher(DatabaseExecutionContext.DISPATCHER_NAME) }
   }
 
   /**
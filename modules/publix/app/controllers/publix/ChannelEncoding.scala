@@ -0,0 +1,140 @@
+package controllers.publix
+
+import akka.stream.scaladsl.Flow
+import akka.util.ByteString
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+import play.api.http.websocket._
+import play.api.libs.json.{JsValue, Json}
+import play.api.libs.streams.AkkaStreams
+import play.api.mvc.RequestHeader
+import play.api.mvc.WebSocket.MessageFlowTransformer
+
+import java.io.ByteArrayOutputStream
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.zip.{Deflater, Inflater}
+import scala.util.control.NonFatal
+
+/**
+ * Encodings of the messages that are sent in the batch and group channels (WebSockets). jatos.js chooses the encoding
+ * with the query parameter 'encoding' when it opens a channel:
+ *
+ * - json (default): JSON in text frames
+ * - deflate: JSON in text frames, but messages bigger than DeflateThreshold are compressed with deflate (zlib format)
+ * and sent in binary frames. The messages that carry member lists and the session data are the big ones.
+ * - cbor: CBOR (RFC 8949) in binary frames
+ *
+ * The client can always send JSON in text frames. Binary frames from the client are decoded with the channel's
+ * encoding.
+ *
+ * The WebSocket per-message compression (permessage-deflate) can't be negotiated with Play's server backends, that's why
+ * the compression is done here.
+ *
+ * @author Kristian Lange
+ */
+object ChannelEncoding {
+
+  object Encoding extends Enumeration {
+    type Encoding = Value
+    val Json: Value = Value("json")
+    val Deflate: Value = Value("deflate")
+    val Cbor: Value = Value("cbor")
+  }
+
+  import Encoding.Encoding
+
+  /**
+   * With the deflate encoding, JSON messages with fewer bytes are sent uncompressed as text
+   */
+  val DeflateThreshold = 1024
+
+  /**
+   * Max size of a decompressed message from a client
+   */
+  val MaxInflatedSize: Int = 16 * 1024 * 1024
+
+  private val jsonMapper = new ObjectMapper()
+
+  private val cborMapper = new ObjectMapper(new CBORFactory())
+
+  /**
+   * Unknown encodings fall back to JSON
+   */
+  def fromName(name: String): Encoding = Encoding.values.find(_.toString == name).getOrElse(Encoding.Json)
+
+  def fromRequest(request: RequestHeader): Encoding = fromName(request.getQueryString("encoding").getOrElse(""))
+
+  /**
+   * Turns the WebSocket's messages into JsValues and back with the given encoding
+   */
+  def transformer(encoding: Encoding): MessageFlowTransformer[JsValue, JsValue] =
+    new MessageFlowTransformer[JsValue, JsValue] {
+      override def transform(flow: Flow[JsValue, JsValue, _]): Flow[Message, Message, _] = {
+        AkkaStreams.bypassWith[Message, JsValue, Message](Flow[Message].collect {
+          case TextMessage(text) => closeOnException(Json.parse(text))
+          case BinaryMessage(data) => closeOnException(decode(data.toArray, encoding))
+        })(flow.map(encode(_, encoding)))
+      }
+    }
+
+  def encode(json: JsValue, encoding: Encoding): Message = encoding match {
+    case Encoding.Cbor =>
+      BinaryMessage(ByteString(toCbor(json)))
+    case Encoding.Deflate =>
+      val bytes = Json.toBytes(json)
+      if (bytes.length < DeflateThreshold) TextMessage(new String(bytes, UTF_8))
+      else BinaryMessage(ByteString(deflate(bytes)))
+    case _ =>
+      TextMessage(Json.stringify(json))
+  }
+
+  def decode(bytes: Array[Byte], encoding: Encoding): JsValue = encoding match {
+    case Encoding.Cbor => fromCbor(bytes)
+    case Encoding.Deflate => Json.parse(inflate(bytes))
+    case _ => Json.parse(bytes)
+  }
+
+  def toCbor(json: JsValue): Array[Byte] = cborMapper.writeValueAsBytes(jsonMapper.readTree(Json.toBytes(json)))
+
+  def fromCbor(bytes: Array[Byte]): JsValue = Json.parse(jsonMapper.writeValueAsBytes(cborMapper.readTree(bytes)))
+
+  def deflate(bytes: Array[Byte]): Array[Byte] = {
+    val deflater = new Deflater()
+    try {
+      deflater.setInput(bytes)
+      deflater.finish()
+      val out = new ByteArrayOutputStream(bytes.length / 4 + 64)
+      val buffer = new Array[Byte](8192)
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer))
+      }
+      out.toByteArray
+    } finally deflater.end()
+  }
+
+  def inflate(bytes: Array[Byte]): Array[Byte] = {
+    val inflater = new Inflater()
+    try {
+      inflater.setInput(bytes)
+      val out = new ByteArrayOutputStream(bytes.length * 4)
+      val buffer = new Array[Byte](8192)
+      while (!inflater.finished()) {
+        val count = inflater.inflate(buffer)
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Incomplete deflate data")
+        }
+        out.write(buffer, 0, count)
+        if (out.size() > MaxInflatedSize) throw new IllegalArgumentException("Inflated message too big")
+      }
+      out.toByteArray
+    } finally inflater.end()
+  }
+
+  private def closeOnException[T](block: => T): Either[T, Message] = {
+    try Left(block)
+    catch {
+      case NonFatal(_) => Right(CloseMessage(Some(CloseCodes.Unacceptable), "Unable to parse message"))
+    }
+  }
+
+}
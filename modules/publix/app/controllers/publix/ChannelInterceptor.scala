@@ -3,6 +3,7 @@ package controllers.publix
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging
 import daos.common.StudyResultDao
 import exceptions.publix.{BadRequestPublixException, ForbiddenPublixException, NotFoundPublixException, PublixException}
+import general.common.DatabaseExecutionContext
 import models.common.workers._
 import play.api.Logger
 import play.api.libs.json.JsValue
@@ -11,9 +12,10 @@ import play.core.j.JavaHelpers
 import play.db.jpa.JPAApi
 import utils.common.Helpers
 
+import java.util.concurrent.RejectedExecutionException
 import javax.inject.{Inject, Singleton}
 import scala.compat.java8.FunctionConverters.asJavaSupplier
-import scala.concurrent.Future
+import scala.concurrent.{ExecutionContext, Future}
 
 /**
   * This class intercepts a request before it gets to the BatchChannel or GroupChannel. It has
@@ -25,6 +27,7 @@ import scala.concurrent.Future
 @PublixAccessLogging
 class ChannelInterceptor @Inject()(components: ControllerComponents,
                                    jpa: JPAApi,
+                                   dbExecutionContext: DatabaseExecutionContext,
                                    studyResultDao: StudyResultDao,
                                    jatosBatchChannel: JatosBatchChannel,
                                    personalSingleBatchChannel: PersonalSingleBatchChannel,
@@ -50,12 +53,12 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * model and the batch channels will be handled by a BatchDispatcher which uses Akka.
     *
     * @param studyResultUuid Study reslt's UUID
-    * @return WebSocket that transports JSON strings.
+    * @return WebSocket that transports JSON strings (or CBOR or deflated JSON - see ChannelEncoding)
     */
-  def openBatch(studyResultUuid: String): WebSocket =
+  def openBatch(studyResultUuid: String): WebSocket = withEncoding { implicit transformer =>
     WebSocket.acceptOrResult[JsValue, JsValue] { implicit request =>
 
-      Future.successful({
+      Future({
         // Set Http.Context used in Play with Java. Needed by IdCookieService
         play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
 
@@ -89,8 +92,9 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
           }
         }
         ))
-      })
+      })(dbExecutionContext).recover(rejected)(ExecutionContext.parasitic)
     }
+  }
 
   /**
     * HTTP type: WebSocket
@@ -101,12 +105,12 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     * uses Akka.
     *
     * @param studyResultUuid Study reslt's UUID
-    * @return WebSocket that transfers JSON
+    * @return WebSocket that transfers JSON (or CBOR or deflated JSON - see ChannelEncoding)
     */
-  def joinGroup(studyResultUuid: String): WebSocket =
+  def joinGroup(studyResultUuid: String): WebSocket = withEncoding { implicit transformer =>
     WebSocket.acceptOrResult[JsValue, JsValue] { implicit request =>
 
-      Future.successful({
+      Future({
         // Set Http.Context used in Play with Java. Needed by IdCookieService
         play.mvc.Http.Context.current.set(play.core.j.JavaHelpers.createJavaContext(request, JavaHelpers.createContextComponents()))
 
@@ -151,8 +155,9 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
             logger.error(".join: Exception during opening of group channel", e)
             Left(Results.InternalServerError)
         }
-      })
+      })(dbExecutionContext).recover(rejected)(ExecutionContext.parasitic)
     }
+  }
 
   /**
     * HTTP type: Ajax GET request
@@ -238,6 +243,24 @@ class ChannelInterceptor @Inject()(components: ControllerComponents,
     }))
   }
 
+  /**
+    * The client chooses the encoding of the channel's messages with the query parameter 'encoding'
+    * (see ChannelEncoding)
+    */
+  private def withEncoding(webSocket: WebSocket.MessageFlowTransformer[JsValue, JsValue] => WebSocket): WebSocket =
+    WebSocket(request => webSocket(ChannelEncoding.transformer(ChannelEncoding.fromRequest(request)))(request))
+
+  /**
+    * Opening a channel needs the database. If the database execution context is saturated the
+    * WebSocket is refused with 503 Service Unavailable and a Retry-After header.
+    */
+  private val rejected: PartialFunction[Throwable, Either[Result, Nothing]] = {
+    case e: RejectedExecutionException =>
+      logger.warn(s".open: ${e.getMessage}")
+      Left(Results.ServiceUnavailable.withHeaders(
+        RETRY_AFTER -> DatabaseExecutionContext.RETRY_AFTER_SECONDS.toString))
+  }
+
   @throws[ForbiddenPublixException]
   @throws[BadRequestPublixException]
   private def fetchStudyResult(uuid: String) = {
@@ -4,7 +4,8 @@ import akka.actor.{ActorSystem, Props}
 import akka.stream.Materializer
 import akka.stream.scaladsl.Flow
 import exceptions.publix.{ForbiddenPublixException, PublixException}
-import group.{GroupAdministration, GroupChannelActor, GroupDispatcherRegistry}
+import general.common.{Common, DatabaseExecutionContext}
+import group.{GroupAdministration, GroupChannelActor, GroupDispatcherRegistry, GroupMemberIdleTimers}
 import models.common.workers._
 import models.common.{GroupResult, StudyResult}
 import play.api.Logger
@@ -41,6 +42,9 @@ abstract class GroupChannel[A <: Worker](components: ControllerComponents,
   @Inject
   var groupAdministration: GroupAdministration = _
 
+  @Inject
+  var groupMemberIdleTimers: GroupMemberIdleTimers = _
+
   /**
    * Joins a group but doesn't open the group channel. In case of an error/ problem, a PublixException is thrown.
    * Synchronized to prevent race conditions with group members joining, leaving, reassigning.
@@ -75,7 +79,7 @@ abstract class GroupChannel[A <: Worker](components: ControllerComponents,
    * case of an error/ problem, a PublixException is thrown.
    */
   @throws(classOf[PublixException])
-  def open(studyResult: StudyResult): Flow[Any, Nothing, _] = {
+  def open(studyResult: StudyResult)(implicit request: RequestHeader): Flow[Any, Nothing, _] = {
     logger.info(s".open: studyResultId ${studyResult.getId}")
     val groupResult: GroupResult = studyResult.getActiveGroupResult
 
@@ -84,7 +88,14 @@ abstract class GroupChannel[A <: Worker](components: ControllerComponents,
 
     // Get the GroupDispatcher that will handle this GroupResult.
     val groupDispatcher = groupDispatcherRegistry.getOrRegister(groupResult.getId)
-    ActorFlow.actorRef { out => Props(new GroupChannelActor(out, studyResult.getId, groupDispatcher)) }
+    groupDispatcher.setSessionPatchWindow(Option(studyResult.getStudy.getGroupSessionPatchWindow)
+      .map(_.longValue).getOrElse(Common.getGroupSessionPatchWindow.toMillis))
+    // A reconnecting client sends the group session version it already has - only valid if it's still the same group
+    val knownVersion = request.getQueryString("version").flatMap(_.toLongOption)
+      .filter(_ => request.getQueryString("groupResultId").contains(groupResult.getId.toString))
+    ActorFlow.actorRef { out => Props(new GroupChannelActor(out, studyResult.getId, groupDispatcher, groupMemberIdleTimers,
+      knownVersion))
+      .withDispatcher(DatabaseExecutionContext.DISPATCHER_NAME) }
   }
 
   /**
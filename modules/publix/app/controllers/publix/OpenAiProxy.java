@@ -2,60 +2,79 @@ package controllers.publix;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging;
-import daos.common.StudyResultDao;
 import general.common.ApiEnvelope;
 import general.common.Common;
-import play.db.jpa.Transactional;
+import play.http.HttpEntity;
 import play.libs.ws.WSClient;
 import play.libs.ws.WSRequest;
+import play.libs.ws.WSResponse;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
+import services.publix.OpenAiResponseCache;
+import services.publix.OpenAiResponseCache.CachedResponse;
+import services.publix.OpenAiUsage;
 
 import javax.inject.Inject;
 import java.time.Duration;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 import static general.common.ApiEnvelope.ErrorCode.OPENAI_ERROR;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
-@SuppressWarnings("deprecation")
+/**
+ * Proxy for the OpenAI API. The response is streamed through as it comes in (e.g. server-sent events of streamed chat
+ * completions) with back-pressure to the upstream connection. Whether a study run is allowed to make a call is
+ * decided in memory by {@link OpenAiUsage}. Studies can turn on caching of deterministic requests in their properties,
+ * then the response is read fully and served from {@link OpenAiResponseCache}.
+ */
 @PublixAccessLogging
 public class OpenAiProxy extends Controller {
 
     private final WSClient ws;
-    private final StudyResultDao studyResultDao;
+    private final OpenAiUsage openAiUsage;
+    private final OpenAiResponseCache openAiResponseCache;
 
     @Inject
-    public OpenAiProxy(WSClient ws, StudyResultDao studyResultDao) {
+    public OpenAiProxy(WSClient ws, OpenAiUsage openAiUsage, OpenAiResponseCache openAiResponseCache) {
         this.ws = ws;
-        this.studyResultDao = studyResultDao;
+        this.openAiUsage = openAiUsage;
+        this.openAiResponseCache = openAiResponseCache;
     }
 
-    @Transactional
     public CompletionStage<Result> proxy(Http.Request request, String path, String studyResultUuid) {
         if (!Common.isOpenAiAllowed()) {
             return completedFuture(
                     forbidden(ApiEnvelope.wrap("OpenAI API is not allowed", OPENAI_ERROR).asJsonNode()
             ));
         }
-        if (!studyResultDao.isStudyRunning(studyResultUuid)) {
-            return completedFuture(
-                    forbidden(ApiEnvelope.wrap("Study not running", OPENAI_ERROR).asJsonNode()
-            ));
-        }
-        if (Common.getOpenAiCallLimit() >= 0 && !studyResultDao.checkAndIncrementOpenAiApiCount(studyResultUuid, Common.getOpenAiCallLimit())) {
-            return completedFuture(
-                    tooManyRequests(ApiEnvelope.wrap("OpenAI API call limit reached", OPENAI_ERROR).asJsonNode()
-            ));
-        }
+        return openAiUsage.acquire(studyResultUuid).thenCompose(decision -> {
+            switch (decision) {
+                case NOT_RUNNING:
+                    return completedFuture(
+                            forbidden(ApiEnvelope.wrap("Study not running", OPENAI_ERROR).asJsonNode()));
+                case CALL_LIMIT_REACHED:
+                    return completedFuture(
+                            tooManyRequests(ApiEnvelope.wrap("OpenAI API call limit reached", OPENAI_ERROR).asJsonNode()));
+                case RATE_LIMITED:
+                    return completedFuture(
+                            tooManyRequests(ApiEnvelope.wrap("OpenAI API rate limit reached", OPENAI_ERROR).asJsonNode())
+                                    .withHeader(RETRY_AFTER, String.valueOf(retryAfterSeconds())));
+                default:
+                    return forward(request, path, studyResultUuid);
+            }
+        });
+    }
 
+    private CompletionStage<Result> forward(Http.Request request, String path, String studyResultUuid) {
         // Ensure we have a path without leading /
         String formattedPath = path.startsWith("/") ? path.substring(1) : path;
 
-        WSRequest wsRequest = ws.url("https://api.openai.com" + Common.getOpenAiUrlBasePath() + formattedPath)
+        WSRequest wsRequest = ws.url(Common.getOpenAiUrl() + Common.getOpenAiUrlBasePath() + formattedPath)
                 .addHeader("Authorization", "Bearer " + Common.getOpenAiApiKey())
-                .setRequestTimeout(Duration.ofSeconds(Common.getOpenAiTimeout()));
+                .setRequestTimeout(Duration.ofSeconds(Common.getOpenAiTimeout()))
+                .setMethod(request.method());
 
         // Pass through Content-Type if present, default to JSON
         String contentType = request.contentType().orElse("application/json");
@@ -67,11 +86,36 @@ public class OpenAiProxy extends Controller {
             wsRequest.setBody(body);
         }
 
-        return wsRequest.execute(request.method())
-                // Return OpenAI's response as binary data
-                .thenApply(r -> status(r.getStatus(), r.asByteArray()).as(r.getContentType()))
-                .exceptionally(e ->
-                        internalServerError(ApiEnvelope.wrap("Proxy error: " + e.getMessage(), OPENAI_ERROR).asJsonNode()
-                ));
+        // Cacheable requests (study opted in, deterministic request) are read fully and might be served from the cache
+        Optional<String> cacheKey = openAiUsage.getStudyIdIfCached(studyResultUuid)
+                .flatMap(studyId -> OpenAiResponseCache.cacheKey(studyId, formattedPath, body));
+        CompletionStage<Result> result = cacheKey.isPresent()
+                ? openAiResponseCache.get(cacheKey.get(), () -> wsRequest.execute().thenApply(r ->
+                        new CachedResponse(r.getStatus(), r.getContentType(), r.asByteArray())))
+                        .thenApply(OpenAiProxy::cachedResult)
+                // Stream OpenAI's response through instead of buffering it
+                : wsRequest.stream().thenApply(this::streamedResult);
+        return result.exceptionally(e ->
+                internalServerError(ApiEnvelope.wrap("Proxy error: " + e.getMessage(), OPENAI_ERROR).asJsonNode()));
     }
+
+    private static Result cachedResult(CachedResponse response) {
+        Result result = status(response.getStatus(), response.getBody());
+        return response.getContentType() != null ? result.as(response.getContentType()) : result;
+    }
+
+    private Result streamedResult(WSResponse response) {
+        Optional<Long> contentLength = response.getSingleHeader(CONTENT_LENGTH).map(Long::valueOf);
+        Optional<String> contentType = Optional.ofNullable(response.getContentType());
+        Result result = status(response.getStatus())
+                .sendEntity(new HttpEntity.Streamed(response.getBodyAsSource(), contentLength, contentType));
+        // Tell proxies in between (e.g. Nginx) not to buffer server-sent events
+        return response.getSingleHeader(CACHE_CONTROL).map(v -> result.withHeader(CACHE_CONTROL, v)).orElse(result)
+                .withHeader("X-Accel-Buffering", "no");
+    }
+
+    private static long retryAfterSeconds() {
+        return (long) Math.ceil(60.0 / Math.max(1, Common.getOpenAiRateLimitPerMinute()));
+    }
+
 }
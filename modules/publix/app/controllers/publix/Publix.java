@@ -6,6 +6,7 @@ import exceptions.publix.ForbiddenNonLinearFlowException;
 import exceptions.publix.ForbiddenReloadException;
 import exceptions.publix.PublixException;
 import general.common.Common;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -60,12 +61,14 @@ public abstract class Publix extends Controller implements IPublix {
     protected final StudyResultDao studyResultDao;
     protected final StudyLogger studyLogger;
     protected final IOUtils ioUtils;
+    protected final ResultSearchIndex resultSearchIndex;
 
     public Publix(JPAApi jpa, PublixUtils publixUtils,
             StudyAuthorisation studyAuthorisation, GroupAdministration groupAdministration,
             IdCookieService idCookieService, PublixErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            ResultSearchIndex resultSearchIndex) {
         this.jpa = jpa;
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
@@ -78,6 +81,7 @@ public abstract class Publix extends Controller implements IPublix {
         this.studyResultDao = studyResultDao;
         this.studyLogger = studyLogger;
         this.ioUtils = ioUtils;
+        this.resultSearchIndex = resultSearchIndex;
     }
 
     @Override
@@ -177,6 +181,8 @@ public abstract class Publix extends Controller implements IPublix {
         } else {
             componentResultDao.replaceData(componentResult.get().getId(), postedResultData);
         }
+        // Indexed later in the background - never here in the participant's request
+        resultSearchIndex.markForIndexing(componentResult.get().getId());
 
         studyResultDao.updateLastSeenDateIfOlderThan(studyResult.getId(), Common.getLastSeenDateUpdateThreshold());
 
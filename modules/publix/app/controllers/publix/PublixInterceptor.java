@@ -10,6 +10,7 @@ import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.NotFoundPublixException;
 import exceptions.publix.PublixException;
+import general.common.Common;
 import models.common.Component;
 import models.common.Study;
 import models.common.StudyLink;
@@ -18,10 +19,12 @@ import models.common.workers.*;
 import play.Application;
 import play.Logger;
 import play.db.jpa.Transactional;
+import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 import services.publix.PublixHelpers;
+import services.publix.StudyAdmission;
 import utils.common.Helpers;
 
 import javax.inject.Inject;
@@ -52,14 +55,16 @@ public class PublixInterceptor extends Controller {
     private final StudyResultDao studyResultDao;
     private final ComponentDao componentDao;
     private final Provider<Application> application;
+    private final StudyAdmission studyAdmission;
 
     @Inject
     public PublixInterceptor(StudyLinkDao studyLinkDao, StudyResultDao studyResultDao, ComponentDao componentDao,
-            Provider<Application> application) {
+            Provider<Application> application, StudyAdmission studyAdmission) {
         this.studyLinkDao = studyLinkDao;
         this.studyResultDao = studyResultDao;
         this.componentDao = componentDao;
         this.application = application;
+        this.studyAdmission = studyAdmission;
     }
 
     /**
@@ -112,6 +117,10 @@ public class PublixInterceptor extends Controller {
         }
     }
 
+    /**
+     * Starts a study run. The number of study starts that are processed at the same time is limited (StudyAdmission).
+     * If the limit is reached the worker is shown the waiting room page instead.
+     */
     @Transactional
     public Result run(Http.Request request, String studyCode) throws PublixException {
         LOGGER.info(".run: studyCode " + studyCode);
@@ -119,6 +128,22 @@ public class PublixInterceptor extends Controller {
         if (studyLink == null) throw new BadRequestPublixException("No valid study link");
         if (!studyLink.isActive()) throw new ForbiddenPublixException("This study link is inactive");
 
+        Study study = studyLink.getBatch().getStudy();
+        StudyAdmission.Admission admission = studyAdmission.admit(
+                request.getQueryString(StudyAdmission.TICKET_PARAM), study.getId(), study.getMaxConcurrentStarts());
+        if (!admission.isAdmitted()) {
+            return ok(views.html.publix.waitingRoom.render(studyCode, admission.getTicket(),
+                    Helpers.getQueryString(request), Common.getStudyAdmissionPollInterval().toMillis()));
+        }
+
+        try {
+            return startStudy(request, studyLink);
+        } finally {
+            studyAdmission.release(study.getId());
+        }
+    }
+
+    private Result startStudy(Http.Request request, StudyLink studyLink) throws PublixException {
         switch (studyLink.getWorkerType()) {
             case JatosWorker.WORKER_TYPE:
                 return instanceOfPublix(JatosPublix.class).startStudy(request, studyLink);
@@ -139,6 +164,15 @@ public class PublixInterceptor extends Controller {
         }
     }
 
+    /**
+     * Polled by the waiting room page: returns the position in the queue and whether the worker is admitted to start
+     * the study. Needs no database access.
+     */
+    public Result admissionStatus(String ticket) {
+        StudyAdmission.Position position = studyAdmission.poll(ticket);
+        return ok(Json.newObject().put("admitted", position.admitted).put("position", position.position));
+    }
+
     @Transactional
     public Result startComponent(Http.Request request, String studyResultUuid, String componentUuid, String message)
             throws PublixException {
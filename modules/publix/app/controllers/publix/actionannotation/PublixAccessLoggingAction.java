@@ -1,8 +1,8 @@
 package controllers.publix.actionannotation;
 
 import controllers.publix.actionannotation.PublixAccessLoggingAction.PublixAccessLogging;
-import play.Logger;
-import play.Logger.ALogger;
+import exceptions.publix.PublixException;
+import general.common.AccessLogger;
 import play.mvc.Action;
 import play.mvc.Http;
 import play.mvc.Http.Request;
@@ -16,8 +16,8 @@ import java.lang.annotation.Target;
 import java.util.concurrent.CompletionStage;
 
 /**
- * Annotation definition for Play actions: logging of each action call, e.g.
- * 'publix_access - GET /publix/19/64/start'
+ * Annotation definition for Play actions: logging of action calls, e.g.
+ * 'publix_access - GET /publix/19/64/start 200 5ms'. Access logs are sampled (see {@link AccessLogger}).
  * 
  * @author Kristian Lange (2016)
  */
@@ -29,12 +29,12 @@ public class PublixAccessLoggingAction extends Action<PublixAccessLogging> {
 	public @interface PublixAccessLogging {
 	}
 
-	private final ALogger logger = Logger.of("publix_access");
+	private final AccessLogger accessLogger = new AccessLogger("publix_access",
+			e -> e instanceof PublixException ? ((PublixException) e).getHttpStatus() : null);
 
 	public CompletionStage<Result> call(Http.Context ctx) {
 		final Request request = ctx.request();
-		logger.info(request.method() + " " + request.uri());
-		return delegate.call(ctx);
+		return accessLogger.log(request, null, () -> delegate.call(ctx));
 	}
 
 }
@@ -7,6 +7,7 @@ import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.PublixException;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -57,10 +58,11 @@ public class GeneralSinglePublix extends Publix implements IPublix {
             GeneralSingleCookieService generalSingleCookieService,
             PublixErrorMessages errorMessages, StudyAssets studyAssets,
             JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            ResultSearchIndex resultSearchIndex) {
         super(jpa, publixUtils, studyAuthorisation, groupAdministration,
                 idCookieService, errorMessages, studyAssets,
-                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils, resultSearchIndex);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -9,6 +9,7 @@ import daos.common.StudyResultDao;
 import daos.common.worker.MTWorkerDao;
 import exceptions.publix.BadRequestPublixException;
 import exceptions.publix.PublixException;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -56,11 +57,12 @@ public class MTPublix extends Publix implements IPublix {
              GroupAdministration groupAdministration, IdCookieService idCookieService,
              PublixErrorMessages errorMessages, StudyAssets studyAssets,
              JsonUtils jsonUtils, ComponentResultDao componentResultDao,
-             StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger, IOUtils ioUtils) {
+             StudyResultDao studyResultDao, MTWorkerDao mtWorkerDao, StudyLogger studyLogger, IOUtils ioUtils,
+             ResultSearchIndex resultSearchIndex) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupAdministration, idCookieService,
                 errorMessages, studyAssets, jsonUtils, componentResultDao,
-                studyResultDao, studyLogger, ioUtils);
+                studyResultDao, studyLogger, ioUtils, resultSearchIndex);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
@@ -6,6 +6,7 @@ import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.PublixException;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -51,10 +52,11 @@ public class PersonalMultiplePublix extends Publix implements IPublix {
             PublixErrorMessages errorMessages,
             StudyAssets studyAssets, JsonUtils jsonUtils,
             ComponentResultDao componentResultDao,
-            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils) {
+            StudyResultDao studyResultDao, StudyLogger studyLogger, IOUtils ioUtils,
+            ResultSearchIndex resultSearchIndex) {
         super(jpa, publixUtils, studyAuthorisation,
                 groupAdministration, idCookieService, errorMessages, studyAssets,
-                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils, resultSearchIndex);
         this.publixUtils = publixUtils;
         this.studyAuthorisation = studyAuthorisation;
         this.resultCreator = resultCreator;
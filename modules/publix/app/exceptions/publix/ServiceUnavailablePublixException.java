@@ -0,0 +1,16 @@
+package exceptions.publix;
+
+import play.mvc.Http;
+
+/**
+ * It causes the request to return with an HTTP status 503 (Service Unavailable).
+ *
+ * @author Kristian Lange
+ */
+public class ServiceUnavailablePublixException extends PublixException {
+
+	public ServiceUnavailablePublixException(String message) {
+		super(message, Http.Status.SERVICE_UNAVAILABLE);
+	}
+
+}
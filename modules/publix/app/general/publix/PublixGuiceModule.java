@@ -1,10 +1,14 @@
 package general.publix;
 
 import batch.BatchDispatcher;
+import cluster.ClusterBackplane;
+import cluster.ClusterBackplaneProvider;
 import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
 import group.GroupDispatcher;
 
+import javax.inject.Singleton;
+
 /**
  * Configuration of Guice dependency injection for Publix module
  * 
@@ -22,6 +26,7 @@ public class PublixGuiceModule extends AbstractModule {
                 .implement(GroupDispatcher.class, GroupDispatcher.class)
                 .build(GroupDispatcher.Factory.class)
         );
+        bind(ClusterBackplane.class).toProvider(ClusterBackplaneProvider.class).in(Singleton.class);
 	}
 
 }
@@ -2,20 +2,26 @@ package services.publix
 
 import akka.actor.ActorSystem
 import daos.common.StudyResultDao
-import general.common.{Common, StudyLogger}
-import group.{GroupAdministration, GroupDispatcherRegistry}
+import general.common.{Common, DatabaseExecutionContext, StudyLogger}
+import group.{GroupAdministration, GroupDispatcherRegistry, GroupMemberIdleTimers}
+import models.common.StudyResult
 import play.api.Logger
 import play.api.inject.ApplicationLifecycle
 import play.db.jpa.JPAApi
 
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{RejectedExecutionException, TimeUnit}
 import javax.inject.{Inject, Singleton}
 import scala.compat.java8.FunctionConverters.asJavaSupplier
 import scala.concurrent.duration.Duration
 import scala.concurrent.{ExecutionContextExecutor, Future}
 
 /**
- * This class runs a scheduler that regularly checks for group members that are inactive
+ * This class removes inactive (idle) members from their groups. Every active group member without an open group channel
+ * has an idle timer (GroupMemberIdleTimers). If the timer runs out, the member is checked and removed if it's still
+ * idle. There is no periodic scan of all study results.
+ *
+ * Timers don't survive a restart: at start timers are started for all active group members. In a multi-node JATOS
+ * members join on other nodes too, so this is repeated in the cleaning interval.
  *
  * @author Kristian Lange
  */
@@ -24,46 +30,101 @@ class GroupCleaner @Inject()(actorSystem: ActorSystem,
                              lifecycle: ApplicationLifecycle,
                              groupAdministration: GroupAdministration,
                              groupDispatcherRegistry: GroupDispatcherRegistry,
+                             idleTimers: GroupMemberIdleTimers,
                              studyResultDao: StudyResultDao,
                              publixUtils: PublixUtils,
                              studyLogger: StudyLogger,
-                             jpa: JPAApi) {
+                             jpa: JPAApi,
+                             dbExecutionContext: DatabaseExecutionContext) {
 
   private val logger: Logger = Logger(this.getClass)
 
+  /**
+   * How long to wait until a check that was rejected by the saturated database execution context is tried again
+   */
+  private val RetryDelay = Duration(10, TimeUnit.SECONDS)
+
+  private implicit val executor: ExecutionContextExecutor = actorSystem.dispatcher
+
   def start(): Unit = {
     if (!Common.isGroupsCleaningAllowed) return
 
     logger.info("Starting group cleaning")
-    val task: Runnable = () => jpa.withTransaction(asJavaSupplier(() => findAndRemoveInactiveGroupMembers()))
-
-    implicit val executor: ExecutionContextExecutor = actorSystem.dispatcher
-    val scheduler = actorSystem.scheduler.schedule(
-      initialDelay = Duration(0, TimeUnit.SECONDS),
-      interval = Duration(Common.getGroupsCleaningInterval, TimeUnit.SECONDS),
-      runnable = task)
-
-    // Stop the scheduler when the application shuts down.
-    lifecycle.addStopHook(() => Future {
-      scheduler.cancel()
-    })
+    idleTimers.start(Duration(Common.getGroupsCleaningMemberIdleAfter, TimeUnit.SECONDS), checkIdleMember)
+
+    if (Common.isMultiNode) {
+      val scheduler = actorSystem.scheduler.schedule(
+        initialDelay = Duration(0, TimeUnit.SECONDS),
+        interval = Duration(Common.getGroupsCleaningInterval, TimeUnit.SECONDS),
+        runnable = () => scheduleActiveGroupMembers())
+
+      // Stop the scheduler when the application shuts down.
+      lifecycle.addStopHook(() => Future {
+        scheduler.cancel()
+      })
+    } else {
+      scheduleActiveGroupMembers()
+    }
+  }
+
+  /**
+   * Starts the idle timers of all active group members that have neither a timer nor a group channel. Needs the
+   * database and therefore runs on the database execution context. If it's saturated it's tried again later.
+   */
+  private def scheduleActiveGroupMembers(): Unit = {
+    try {
+      dbExecutionContext.execute(() => jpa.withTransaction(asJavaSupplier(() => {
+        studyResultDao.findAllActiveGroupMembers().forEach(studyResult => {
+          val studyResultId: Long = studyResult.getId
+          if (!idleTimers.isScheduled(studyResultId) && !groupDispatcherRegistry.hasChannel(studyResultId)) {
+            idleTimers.schedule(studyResultId, lastSeen(studyResult))
+          }
+        })
+      })))
+    } catch {
+      case e: RejectedExecutionException =>
+        logger.warn(s"Postpone starting the idle timers of the group members: ${e.getMessage}")
+        if (!Common.isMultiNode) actorSystem.scheduler.scheduleOnce(RetryDelay)(scheduleActiveGroupMembers())
+    }
   }
 
   /**
-   * Finds all group members that are idle AND have no group channel and removes them from the group. Additionally, the
-   * study result gets finished with a state FAIL.
+   * Called when the idle timer of a group member ran out
    */
-  private def findAndRemoveInactiveGroupMembers(): Unit = {
-    studyResultDao.findIdleGroupMembers(Common.getGroupsCleaningMemberIdleAfter).forEach(studyResult => {
-      if (!groupDispatcherRegistry.hasChannel(studyResult.getId)) {
-        val groupResult = studyResult.getActiveGroupResult
-        logger.info(s"Force inactive group member with study result ID ${studyResult.getId} to leave its group ${groupResult.getId}.")
-        groupAdministration.leave(studyResult)
-
-        publixUtils.finishStudyResult(false, "Inactive group member was forced to leave its group.", studyResult)
-        studyLogger.log(studyResult.getStudy, "Finished study run", studyResult.getWorker)
-      }
-    })
+  private def checkIdleMember(studyResultId: Long): Unit = {
+    try {
+      dbExecutionContext.execute(() => jpa.withTransaction(asJavaSupplier(() => removeIfIdle(studyResultId))))
+    } catch {
+      case e: RejectedExecutionException =>
+        logger.warn(s"Postpone idle check of group member with study result ID $studyResultId: ${e.getMessage}")
+        actorSystem.scheduler.scheduleOnce(RetryDelay)(checkIdleMember(studyResultId))
+    }
   }
 
+  /**
+   * Removes the group member if it is idle AND has no group channel. Additionally, the study result gets finished with a
+   * state FAIL. If the member was seen in the meantime its timer is restarted.
+   */
+  private def removeIfIdle(studyResultId: Long): Unit = {
+    val studyResult = studyResultDao.findById(studyResultId)
+    // Left the group in the meantime or has a group channel (then the timer is restarted when the channel closes)
+    if (studyResult == null || studyResult.getActiveGroupResult == null
+      || groupDispatcherRegistry.hasChannel(studyResultId)) return
+
+    val idleAfter = Common.getGroupsCleaningMemberIdleAfter * 1000L
+    if (lastSeen(studyResult) + idleAfter > System.currentTimeMillis()) {
+      idleTimers.schedule(studyResultId, lastSeen(studyResult))
+    } else {
+      val groupResult = studyResult.getActiveGroupResult
+      logger.info(s"Force inactive group member with study result ID ${studyResult.getId} to leave its group ${groupResult.getId}.")
+      groupAdministration.leave(studyResult)
+
+      publixUtils.finishStudyResult(false, "Inactive group member was forced to leave its group.", studyResult)
+      studyLogger.log(studyResult.getStudy, "Finished study run", studyResult.getWorker)
+    }
+  }
+
+  private def lastSeen(studyResult: StudyResult): Long =
+    Option(studyResult.getLastSeenDate).map(_.getTime).getOrElse(System.currentTimeMillis())
+
 }
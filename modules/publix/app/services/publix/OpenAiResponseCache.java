@@ -0,0 +1,166 @@
+package services.publix;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import general.common.Common;
+import play.libs.Json;
+
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caches responses of the OpenAI API for studies that have it turned on in their properties (opt-in). Studies with
+ * many participants often send the same deterministic prompt over and over again, and each time we wait for OpenAI and
+ * pay for it.
+ * <p>
+ * The cache key is the study ID, the API path and the request body in a canonical form (object keys sorted, no
+ * whitespace), so that requests that differ only in the order of their JSON fields are the same. Only deterministic
+ * requests are cached: the body has to be a JSON object with temperature 0 and without streaming. Only successful
+ * responses are cached.
+ * <p>
+ * Concurrent identical requests are coalesced: only the first goes upstream and the others wait for its response.
+ * <p>
+ * Entries expire after jatos.openai.cache.ttl, and the cache is bounded by the size of all responses together
+ * (jatos.openai.cache.maxSize). Responses larger than jatos.openai.cache.maxEntrySize aren't cached.
+ * <p>
+ * The cache doesn't decide whether a study run is allowed to call the OpenAI API - that's done by {@link OpenAiUsage}
+ * before, so cache hits count like any other call.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class OpenAiResponseCache {
+
+    /**
+     * A response of the OpenAI API fully read into memory
+     */
+    public static class CachedResponse {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        public CachedResponse(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        boolean isCacheable() {
+            return status >= 200 && status < 300 && body.length <= Common.getOpenAiCacheMaxEntrySize();
+        }
+    }
+
+    private final Cache<String, CachedResponse> cache;
+
+    /**
+     * Requests that are on their way to OpenAI right now, mapped by their cache key
+     */
+    private final Map<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public OpenAiResponseCache() {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(Common.getOpenAiCacheTtl().toMillis(), TimeUnit.MILLISECONDS)
+                .maximumWeight(Common.getOpenAiCacheMaxSize())
+                .weigher((String key, CachedResponse response) -> key.length() + response.body.length)
+                .build();
+    }
+
+    /**
+     * Returns the cache key for the given request - or an empty Optional if the request isn't cacheable (no JSON
+     * object body, temperature not 0, or streamed).
+     */
+    public static Optional<String> cacheKey(long studyId, String path, JsonNode body) {
+        if (body == null || !body.isObject()) return Optional.empty();
+        JsonNode temperature = body.get("temperature");
+        if (temperature == null || !temperature.isNumber() || temperature.asDouble() != 0) return Optional.empty();
+        if (body.path("stream").asBoolean(false)) return Optional.empty();
+
+        String canonical = Json.stringify(canonicalize(body));
+        return Optional.of(studyId + ":" + path + ":" + sha256(canonical));
+    }
+
+    /**
+     * Returns the response for the given key, either from the cache, from an identical request that is already in
+     * flight, or by calling the given loader (which is supposed to call OpenAI and read the whole response).
+     */
+    public CompletionStage<CachedResponse> get(String key, Supplier<CompletionStage<CachedResponse>> loader) {
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<CachedResponse> promise = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            loader.get().whenComplete((response, e) -> {
+                // Put it into the cache before it's removed from in-flight, so there's no gap for a second call
+                if (e == null && response.isCacheable()) cache.put(key, response);
+                inFlight.remove(key, promise);
+                if (e != null) promise.completeExceptionally(e);
+                else promise.complete(response);
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Returns a copy of the given JSON with all object keys sorted (recursively)
+     */
+    static JsonNode canonicalize(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode sorted = Json.newObject();
+            List<String> fieldNames = new ArrayList<>();
+            node.fieldNames().forEachRemaining(fieldNames::add);
+            Collections.sort(fieldNames);
+            fieldNames.forEach(name -> sorted.set(name, canonicalize(node.get(name))));
+            return sorted;
+        } else if (node.isArray()) {
+            ArrayNode array = Json.newArray();
+            node.forEach(element -> array.add(canonicalize(element)));
+            return array;
+        }
+        return node;
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
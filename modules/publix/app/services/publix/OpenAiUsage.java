@@ -0,0 +1,188 @@
+package services.publix;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import daos.common.StudyResultDao;
+import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.Tuple;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the OpenAI API calls of study runs in memory. Each call used to cost two database round-trips (is the
+ * study running, and check-and-increment of the call count). Now the state of a study run is loaded once (and
+ * refreshed every {@link #REFRESH_AFTER}), the call count is checked and incremented in memory, and the increments are
+ * written to the database every jatos.openai.syncInterval.
+ * <p>
+ * Additionally, the rate of the calls per study run can be limited with a token bucket (jatos.openai.rateLimit).
+ * <p>
+ * In a multi-node setup each node counts on its own and adds its increments to the database. Since the count is
+ * refreshed from the database regularly, the call limit can be overshot only by a few calls.
+ *
+ * @author Kristian Lange
+ */
+@SuppressWarnings("deprecation")
+@Singleton
+public class OpenAiUsage {
+
+    private static final Logger.ALogger LOGGER = Logger.of(OpenAiUsage.class);
+
+    /**
+     * After this time the state of a study run is loaded again from the database
+     */
+    static final Duration REFRESH_AFTER = Duration.ofSeconds(10);
+
+    /**
+     * Usage of study runs that weren't used for this time is removed from memory
+     */
+    static final Duration EVICT_AFTER = Duration.ofMinutes(10);
+
+    public enum Decision {
+        ALLOWED, NOT_RUNNING, CALL_LIMIT_REACHED, RATE_LIMITED
+    }
+
+    /**
+     * OpenAI usage of a single study run
+     */
+    static class Usage {
+        boolean running;
+        Long studyId;
+        boolean openAiCache;
+        int count;
+        int unsynced;
+        long loadedAt;
+        long lastUsed;
+        double tokens = Common.getOpenAiRateLimitBurst();
+        long lastRefill = System.currentTimeMillis();
+    }
+
+    private final JPAApi jpa;
+    private final StudyResultDao studyResultDao;
+    private final DatabaseExecutionContext dbExecutionContext;
+
+    /**
+     * Maps study result UUIDs to their OpenAI usage
+     */
+    private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+
+    @Inject
+    OpenAiUsage(JPAApi jpa, StudyResultDao studyResultDao, DatabaseExecutionContext dbExecutionContext,
+            ActorSystem actorSystem, ApplicationLifecycle lifecycle) {
+        this.jpa = jpa;
+        this.studyResultDao = studyResultDao;
+        this.dbExecutionContext = dbExecutionContext;
+
+        Duration interval = Common.getOpenAiSyncInterval();
+        Cancellable scheduler = actorSystem.scheduler().schedule(interval, interval, this::sync, dbExecutionContext);
+        lifecycle.addStopHook(() -> {
+            scheduler.cancel();
+            return CompletableFuture.runAsync(this::sync, dbExecutionContext);
+        });
+    }
+
+    /**
+     * Decides whether the study run (given by its study result UUID) is allowed to call the OpenAI API. If it is, the
+     * call is counted. Only needs the database if the study run's state isn't in memory or is outdated.
+     */
+    public CompletionStage<Decision> acquire(String studyResultUuid) {
+        Usage usage = usages.get(studyResultUuid);
+        long now = System.currentTimeMillis();
+        if (usage != null && now - usage.loadedAt < REFRESH_AFTER.toMillis()) {
+            return CompletableFuture.completedFuture(decide(usage, now));
+        }
+        return CompletableFuture
+                .supplyAsync(() -> jpa.withTransaction(() ->
+                        studyResultDao.findOpenAiUsageIfRunning(studyResultUuid)), dbExecutionContext)
+                .thenApply(dbUsage -> decide(refresh(studyResultUuid, dbUsage), System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns the study ID of the study run (given by its study result UUID) if its study has the OpenAI response
+     * cache turned on - or an empty Optional otherwise. Only meaningful after {@link #acquire} allowed the call.
+     */
+    public Optional<Long> getStudyIdIfCached(String studyResultUuid) {
+        Usage usage = usages.get(studyResultUuid);
+        if (usage == null) return Optional.empty();
+        synchronized (usage) {
+            return usage.openAiCache ? Optional.ofNullable(usage.studyId) : Optional.empty();
+        }
+    }
+
+    private Usage refresh(String studyResultUuid, Optional<Tuple> dbUsage) {
+        Usage usage = usages.computeIfAbsent(studyResultUuid, k -> new Usage());
+        synchronized (usage) {
+            usage.running = dbUsage.isPresent();
+            dbUsage.ifPresent(t -> {
+                // Calls that weren't written to the database yet have to be added
+                usage.count = Math.max(usage.count, t.get("apiCount", Integer.class) + usage.unsynced);
+                usage.studyId = t.get("studyId", Long.class);
+                usage.openAiCache = t.get("openAiCache", Boolean.class);
+            });
+            usage.loadedAt = System.currentTimeMillis();
+        }
+        return usage;
+    }
+
+    private Decision decide(Usage usage, long now) {
+        synchronized (usage) {
+            usage.lastUsed = now;
+            if (!usage.running) return Decision.NOT_RUNNING;
+
+            int callLimit = Common.getOpenAiCallLimit();
+            if (callLimit >= 0 && usage.count >= callLimit) return Decision.CALL_LIMIT_REACHED;
+
+            int perMinute = Common.getOpenAiRateLimitPerMinute();
+            if (perMinute > 0) {
+                double refill = (now - usage.lastRefill) * perMinute / 60_000.0;
+                usage.tokens = Math.min(Common.getOpenAiRateLimitBurst(), usage.tokens + refill);
+                usage.lastRefill = now;
+                if (usage.tokens < 1) return Decision.RATE_LIMITED;
+                usage.tokens--;
+            }
+
+            usage.count++;
+            usage.unsynced++;
+            return Decision.ALLOWED;
+        }
+    }
+
+    /**
+     * Writes the counted calls to the database and removes study runs from memory that weren't used for a while
+     */
+    void sync() {
+        long now = System.currentTimeMillis();
+        usages.forEach((uuid, usage) -> {
+            int delta;
+            synchronized (usage) {
+                delta = usage.unsynced;
+                usage.unsynced = 0;
+            }
+            if (delta > 0) {
+                try {
+                    jpa.withTransaction(() -> studyResultDao.addToOpenAiApiCount(uuid, delta));
+                } catch (Exception e) {
+                    LOGGER.error(".sync: couldn't write OpenAI API count of study result " + uuid, e);
+                    synchronized (usage) {
+                        usage.unsynced += delta;
+                    }
+                    return;
+                }
+            }
+            synchronized (usage) {
+                if (usage.unsynced == 0 && now - usage.lastUsed > EVICT_AFTER.toMillis()) usages.remove(uuid);
+            }
+        });
+    }
+
+}
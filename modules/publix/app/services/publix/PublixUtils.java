@@ -364,6 +364,7 @@ public class PublixUtils {
     public void setUrlQueryParameter(Http.Request request, StudyResult studyResult) {
         Map<String, String> queryMap = new HashMap<>();
         request.queryString().forEach((k, v) -> queryMap.put(k, v[0]));
+        queryMap.remove(StudyAdmission.TICKET_PARAM);
         String parameter = JsonUtils.asJson(queryMap);
         studyResult.setUrlQueryParameters(parameter);
     }
@@ -1,6 +1,7 @@
 package services.publix;
 
 import daos.common.ComponentResultDao;
+import daos.common.ResultCounterDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
 import models.common.Component;
@@ -23,12 +24,15 @@ public class ResultCreator {
     private final ComponentResultDao componentResultDao;
     private final StudyResultDao studyResultDao;
     private final WorkerDao workerDao;
+    private final ResultCounterDao resultCounterDao;
 
     @Inject
-    ResultCreator(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, WorkerDao workerDao) {
+    ResultCreator(ComponentResultDao componentResultDao, StudyResultDao studyResultDao, WorkerDao workerDao,
+            ResultCounterDao resultCounterDao) {
         this.componentResultDao = componentResultDao;
         this.studyResultDao = studyResultDao;
         this.workerDao = workerDao;
+        this.resultCounterDao = resultCounterDao;
     }
 
     /**
@@ -43,6 +47,7 @@ public class ResultCreator {
         }
         worker.addStudyResult(studyResult);
         studyResultDao.create(studyResult);
+        resultCounterDao.addStudyResult(studyResult);
         workerDao.update(worker);
         return studyResult;
     }
@@ -52,6 +57,7 @@ public class ResultCreator {
         componentResult.setStudyResult(studyResult);
         studyResult.addComponentResult(componentResult);
         componentResultDao.create(componentResult);
+        resultCounterDao.addComponentResult(studyResult.getId());
         studyResultDao.update(studyResult);
         return componentResult;
     }
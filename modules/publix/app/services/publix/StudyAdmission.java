@@ -0,0 +1,254 @@
+package services.publix;
+
+import exceptions.publix.ServiceUnavailablePublixException;
+import general.common.Common;
+import play.Logger;
+
+import javax.inject.Singleton;
+import java.util.*;
+
+/**
+ * Admission control for study starts. Starting a study is expensive (authorisation, creation of worker and results)
+ * and if many participants start at the same time (e.g. a recruitment platform releases a study to thousands of
+ * participants) the database gets saturated and everyone runs into timeouts. Therefore the number of study starts that
+ * are processed at the same time is limited globally (jatos.studyAdmission.maxConcurrentStarts) and per study
+ * (Study's maxConcurrentStarts or jatos.studyAdmission.maxConcurrentStartsPerStudy).
+ * <p>
+ * Participants above the limits get a ticket and wait in a waiting room. The waiting room page polls its position
+ * (see {@link #poll}) which works entirely in memory - no database access while waiting. Tickets are admitted in the
+ * order they were issued whenever a start finishes. An admitted ticket reserves a place for
+ * jatos.studyAdmission.admittedTimeout, and the participant uses it by starting the study with the ticket. Tickets
+ * of participants that closed the waiting room (stopped polling) are dropped.
+ * <p>
+ * The admission control is per JATOS node.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+public class StudyAdmission {
+
+    private static final Logger.ALogger LOGGER = Logger.of(StudyAdmission.class);
+
+    /**
+     * Name of the URL query parameter that carries the ticket when an admitted participant starts the study
+     */
+    public static final String TICKET_PARAM = "admissionTicket";
+
+    /**
+     * Clean-up of expired tickets happens at most once in this interval
+     */
+    private static final long CLEAN_UP_INTERVAL_MS = 1000;
+
+    private enum State {WAITING, ADMITTED}
+
+    private static class Ticket {
+        final String id = UUID.randomUUID().toString();
+        final long studyId;
+        final int studyLimit;
+        State state = State.WAITING;
+        long lastSeen = System.currentTimeMillis();
+        long admittedAt;
+
+        Ticket(long studyId, int studyLimit) {
+            this.studyId = studyId;
+            this.studyLimit = studyLimit;
+        }
+    }
+
+    /**
+     * Result of an admission request: either the participant is admitted or it has to wait with the given ticket
+     */
+    public static class Admission {
+        private final boolean admitted;
+        private final String ticket;
+
+        private Admission(boolean admitted, String ticket) {
+            this.admitted = admitted;
+            this.ticket = ticket;
+        }
+
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        public String getTicket() {
+            return ticket;
+        }
+    }
+
+    /**
+     * Answer to a poll of the waiting room. Position is the number of participants that wait in front of this one
+     * plus one. Unknown tickets (e.g. expired) are answered with position -1.
+     */
+    public static class Position {
+        public final boolean admitted;
+        public final int position;
+
+        private Position(boolean admitted, int position) {
+            this.admitted = admitted;
+            this.position = position;
+        }
+    }
+
+    /**
+     * All tickets (waiting and admitted) in the order they were issued
+     */
+    private final LinkedHashMap<String, Ticket> tickets = new LinkedHashMap<>();
+
+    /**
+     * Number of waiting tickets per study ID
+     */
+    private final Map<Long, Integer> waitingPerStudy = new HashMap<>();
+
+    /**
+     * Places in use (running starts and admitted tickets) per study ID
+     */
+    private final Map<Long, Integer> inUsePerStudy = new HashMap<>();
+
+    private int waiting = 0;
+    private int inUse = 0;
+    private long lastCleanUp = 0;
+
+    /**
+     * Tries to admit a study start. If the given ticket was admitted, its reserved place is used. If there is no
+     * ticket and there is a free place (and nobody waits for this study), the place is taken right away. Otherwise the
+     * participant has to wait with a (new or the already existing) ticket. An admitted start has to be released with
+     * {@link #release} after it's done.
+     *
+     * @param ticketId   ticket from the waiting room - can be null
+     * @param studyId    ID of the study to be started
+     * @param studyLimit study specific limit of concurrent starts (null means the default is used)
+     * @throws ServiceUnavailablePublixException if the waiting room is full
+     */
+    public synchronized Admission admit(String ticketId, long studyId, Integer studyLimit)
+            throws ServiceUnavailablePublixException {
+        cleanUp();
+        int limit = studyLimit != null ? studyLimit : Common.getStudyAdmissionMaxConcurrentStartsPerStudy();
+
+        Ticket ticket = ticketId != null ? tickets.get(ticketId) : null;
+        if (ticket != null && ticket.studyId == studyId) {
+            if (ticket.state == State.ADMITTED) {
+                // The place is already reserved for this ticket
+                tickets.remove(ticket.id);
+                return new Admission(true, null);
+            }
+            ticket.lastSeen = System.currentTimeMillis();
+            return new Admission(false, ticket.id);
+        }
+
+        if (waitingPerStudy.getOrDefault(studyId, 0) == 0 && hasFreePlace(studyId, limit)) {
+            take(studyId);
+            return new Admission(true, null);
+        }
+
+        if (waiting >= Common.getStudyAdmissionMaxWaiting()) {
+            LOGGER.warn(".admit: waiting room is full");
+            throw new ServiceUnavailablePublixException("Too many participants at the moment. Please try again later.");
+        }
+        ticket = new Ticket(studyId, limit);
+        tickets.put(ticket.id, ticket);
+        waitingPerStudy.merge(studyId, 1, Integer::sum);
+        waiting++;
+        LOGGER.debug(".admit: study " + studyId + " - participant has to wait (" + waiting + " waiting)");
+        return new Admission(false, ticket.id);
+    }
+
+    /**
+     * Releases the place of an admitted study start and admits the next waiting participants
+     */
+    public synchronized void release(long studyId) {
+        free(studyId);
+        admitWaiting();
+    }
+
+    /**
+     * Called by the waiting room page to get its current position. Keeps the ticket alive.
+     */
+    public synchronized Position poll(String ticketId) {
+        cleanUp();
+        admitWaiting();
+        Ticket ticket = tickets.get(ticketId);
+        if (ticket == null) return new Position(false, -1);
+
+        ticket.lastSeen = System.currentTimeMillis();
+        if (ticket.state == State.ADMITTED) return new Position(true, 0);
+
+        int position = 1;
+        for (Ticket other : tickets.values()) {
+            if (other == ticket) break;
+            if (other.state == State.WAITING) position++;
+        }
+        return new Position(false, position);
+    }
+
+    /**
+     * Number of participants currently in the waiting room
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    private boolean hasFreePlace(long studyId, int studyLimit) {
+        int globalLimit = Common.getStudyAdmissionMaxConcurrentStarts();
+        if (globalLimit > 0 && inUse >= globalLimit) return false;
+        return studyLimit <= 0 || inUsePerStudy.getOrDefault(studyId, 0) < studyLimit;
+    }
+
+    private void take(long studyId) {
+        inUse++;
+        inUsePerStudy.merge(studyId, 1, Integer::sum);
+    }
+
+    private void free(long studyId) {
+        inUse = Math.max(0, inUse - 1);
+        inUsePerStudy.computeIfPresent(studyId, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    /**
+     * Admits waiting tickets in the order they were issued as long as there are free places. A ticket whose study is
+     * at its limit doesn't block tickets of other studies.
+     */
+    private void admitWaiting() {
+        int globalLimit = Common.getStudyAdmissionMaxConcurrentStarts();
+        if (waiting == 0 || (globalLimit > 0 && inUse >= globalLimit)) return;
+        long now = System.currentTimeMillis();
+        for (Ticket ticket : tickets.values()) {
+            if (globalLimit > 0 && inUse >= globalLimit) break;
+            if (ticket.state != State.WAITING || !hasFreePlace(ticket.studyId, ticket.studyLimit)) continue;
+            ticket.state = State.ADMITTED;
+            ticket.admittedAt = now;
+            waitingPerStudy.computeIfPresent(ticket.studyId, (k, v) -> v > 1 ? v - 1 : null);
+            waiting--;
+            take(ticket.studyId);
+        }
+    }
+
+    /**
+     * Drops waiting tickets that aren't polled anymore and admitted tickets that weren't used in time (their places
+     * are freed).
+     */
+    private void cleanUp() {
+        long now = System.currentTimeMillis();
+        if (now - lastCleanUp < CLEAN_UP_INTERVAL_MS) return;
+        lastCleanUp = now;
+
+        long waitingTimeout = Math.max(3 * Common.getStudyAdmissionPollInterval().toMillis(), 10_000);
+        long admittedTimeout = Common.getStudyAdmissionAdmittedTimeout().toMillis();
+        boolean freed = false;
+        Iterator<Ticket> iterator = tickets.values().iterator();
+        while (iterator.hasNext()) {
+            Ticket ticket = iterator.next();
+            if (ticket.state == State.WAITING && now - ticket.lastSeen > waitingTimeout) {
+                iterator.remove();
+                waitingPerStudy.computeIfPresent(ticket.studyId, (k, v) -> v > 1 ? v - 1 : null);
+                waiting--;
+            } else if (ticket.state == State.ADMITTED && now - ticket.admittedAt > admittedTimeout) {
+                iterator.remove();
+                free(ticket.studyId);
+                freed = true;
+            }
+        }
+        if (freed) admitWaiting();
+    }
+
+}
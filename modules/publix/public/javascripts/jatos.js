@@ -119,6 +119,12 @@ window.jatos = jatos; // Make jatos available in the window object for backward
      * Batch session data: shared in between study runs of the same batch
      */
     let batchSessionData = {};
+    /**
+     * Session data and version kept from the last batch/group channel. A
+     * reopened channel gets only the session patches that were missed.
+     */
+    let batchSessionResync = null;
+    let groupSessionResync = null;
     /**
      * How long in ms should jatos.js wait for an answer after message was sent via
      * a group or batch channel.
@@ -141,6 +147,14 @@ window.jatos = jatos; // Make jatos available in the window object for backward
      */
     jatos.channelOpeningBackoffTimeMin = 1000;
     jatos.channelOpeningBackoffTimeMax = 120000; // 2 min
+    /**
+     * Encoding of the messages JATOS sends in the batch and group channel:
+     * "json" (JSON text), "deflate" (bigger messages are compressed) or
+     * "cbor" (binary CBOR). Has to be set before the channel is opened. Falls
+     * back to "json" if the browser can't decompress. Messages sent by
+     * jatos.js are always JSON text.
+     */
+    jatos.channelEncoding = "json";
     /**
      * Config of the overlay that is shown when the component ended but
      * the httpLoop still has requests to send. See function jatos.showOverlay
@@ -596,18 +610,14 @@ window.jatos = jatos; // Make jatos available in the window object for backward
         }
         openingBatchChannelDeferred = jatos.jQuery.Deferred();
 
-        batchChannel = new WebSocket(
-            ((window.location.protocol === "https:") ? "wss://" : "ws://") +
-            window.location.host + jatos.urlBasePath + "publix/" + jatos.studyResultUuid + "/batch/open");
+        const batchParams = batchSessionResync ? { version: batchSessionResync.version } : {};
+        batchChannel = openChannelWebSocket("/batch/open", handleBatchMsg, batchParams);
         batchChannel.onopen = function () {
             batchChannelHeartbeat();
             batchChannelClosedCheck();
             // The actual batch channel opening is done when we have the
             // current version of the batch session
         };
-        batchChannel.onmessage = function (event) {
-            handleBatchMsg(event.data);
-        };
         batchChannel.onerror = function () {
             console.error("Batch channel error");
             openingBatchChannelDeferred.reject();
@@ -623,6 +633,171 @@ window.jatos = jatos; // Make jatos available in the window object for backward
         return openingBatchChannelDeferred.promise();
     }
 
+    /**
+     * Opens a batch or group channel's WebSocket with the encoding set in
+     * jatos.channelEncoding and the given query parameters. The messages are
+     * passed on to handleMsg.
+     */
+    function openChannelWebSocket(path, handleMsg, params) {
+        const url = ((window.location.protocol === "https:") ? "wss://" : "ws://") +
+            window.location.host + jatos.urlBasePath + "publix/" + jatos.studyResultUuid + path;
+        const query = new URLSearchParams(params);
+        const encoding = channelEncoding();
+        if (encoding !== "json") query.set("encoding", encoding);
+        const webSocket = new WebSocket(query.toString() ? url + "?" + query.toString() : url);
+        webSocket.binaryType = "arraybuffer";
+        webSocket.onmessage = channelMsgDecoder(encoding, handleMsg);
+        return webSocket;
+    }
+
+    function channelEncoding() {
+        if (jatos.channelEncoding === "cbor") return "cbor";
+        if (jatos.channelEncoding === "deflate" && 'DecompressionStream' in window) return "deflate";
+        return "json";
+    }
+
+    /**
+     * Returns an onmessage function for a channel's WebSocket. Text messages
+     * are passed on as they are, binary messages are decompressed (deflate)
+     * or decoded (CBOR) first. Decompressing is asynchronous, so all messages
+     * go through a promise chain to keep their order.
+     */
+    function channelMsgDecoder(encoding, handleMsg) {
+        let msgQueue = Promise.resolve();
+        return function (event) {
+            const data = event.data;
+            msgQueue = msgQueue.then(function () {
+                if (typeof data === "string") return data;
+                if (encoding === "cbor") return decodeCbor(data);
+                return inflate(data);
+            }).then(handleMsg).catch(function (error) {
+                console.error(error);
+            });
+        };
+    }
+
+    /**
+     * Decompresses deflate (zlib format) data and returns a promise of the text
+     */
+    function inflate(arrayBuffer) {
+        const stream = new Blob([arrayBuffer]).stream().pipeThrough(new DecompressionStream("deflate"));
+        return new Response(stream).text();
+    }
+
+    /**
+     * Decodes CBOR (RFC 8949) data that was encoded from JSON: no byte
+     * strings, tags are ignored, and integers bigger than 2^53 lose precision.
+     */
+    function decodeCbor(arrayBuffer) {
+        const view = new DataView(arrayBuffer);
+        const utf8Decoder = new TextDecoder();
+        let offset = 0;
+
+        function readUint(info) {
+            let value;
+            switch (info) {
+                case 24:
+                    value = view.getUint8(offset);
+                    offset += 1;
+                    return value;
+                case 25:
+                    value = view.getUint16(offset);
+                    offset += 2;
+                    return value;
+                case 26:
+                    value = view.getUint32(offset);
+                    offset += 4;
+                    return value;
+                case 27:
+                    value = view.getUint32(offset) * 4294967296 + view.getUint32(offset + 4);
+                    offset += 8;
+                    return value;
+                case 31:
+                    return -1; // Indefinite length
+                default:
+                    return info;
+            }
+        }
+
+        function readFloat16() {
+            const half = view.getUint16(offset);
+            offset += 2;
+            const sign = (half & 0x8000) ? -1 : 1;
+            const exponent = (half >> 10) & 0x1f;
+            const fraction = half & 0x3ff;
+            if (exponent === 0) return sign * Math.pow(2, -14) * (fraction / 1024);
+            if (exponent === 31) return fraction ? NaN : sign * Infinity;
+            return sign * Math.pow(2, exponent - 15) * (1 + fraction / 1024);
+        }
+
+        function isBreak() {
+            if (view.getUint8(offset) !== 0xff) return false;
+            offset++;
+            return true;
+        }
+
+        function readItem() {
+            const initialByte = view.getUint8(offset++);
+            const majorType = initialByte >> 5;
+            const info = initialByte & 0x1f;
+            if (majorType === 7) {
+                switch (info) {
+                    case 20:
+                        return false;
+                    case 21:
+                        return true;
+                    case 22:
+                    case 23:
+                        return null;
+                    case 25:
+                        return readFloat16();
+                    case 26:
+                        offset += 4;
+                        return view.getFloat32(offset - 4);
+                    case 27:
+                        offset += 8;
+                        return view.getFloat64(offset - 8);
+                    default:
+                        throw new Error("Unsupported CBOR simple value " + info);
+                }
+            }
+            const length = readUint(info);
+            switch (majorType) {
+                case 0:
+                    return length;
+                case 1:
+                    return -1 - length;
+                case 3:
+                    if (length < 0) {
+                        const chunks = [];
+                        while (!isBreak()) chunks.push(readItem());
+                        return chunks.join("");
+                    }
+                    offset += length;
+                    return utf8Decoder.decode(new Uint8Array(arrayBuffer, offset - length, length));
+                case 4: {
+                    const array = [];
+                    while (length < 0 ? !isBreak() : array.length < length) array.push(readItem());
+                    return array;
+                }
+                case 5: {
+                    const object = {};
+                    for (let i = 0; length < 0 ? !isBreak() : i < length; i++) {
+                        const key = readItem();
+                        object[key] = readItem();
+                    }
+                    return object;
+                }
+                case 6:
+                    return readItem();
+                default:
+                    throw new Error("Unsupported CBOR major type " + majorType);
+            }
+        }
+
+        return readItem();
+    }
+
     /**
      * Closes the batch channel, cleans channel objects and timers and reopens
      * the channel.
@@ -685,6 +860,9 @@ window.jatos = jatos; // Make jatos available in the window object for backward
     }
 
     function clearBatchChannel() {
+        if (batchSessionVersion !== null && typeof batchSessionVersion !== 'undefined') {
+            batchSessionResync = { data: batchSessionData, version: batchSessionVersion };
+        }
         batchSessionData = {};
         batchSessionVersion = null;
         clearBatchChannelHeartbeatTimeoutTimers();
@@ -705,7 +883,7 @@ window.jatos = jatos; // Make jatos available in the window object for backward
     function handleBatchMsg(msg) {
         let batchMsg;
         try {
-            batchMsg = JSON.parse(msg);
+            batchMsg = (typeof msg === "string") ? JSON.parse(msg) : msg;
         } catch (error) {
             console.error(error);
             return;
@@ -720,6 +898,14 @@ window.jatos = jatos; // Make jatos available in the window object for backward
             }
             return;
         }
+        if (batchMsg.action === "OPENED") {
+            // Without data the server confirmed the version we had before,
+            // and the missed patches follow
+            if (typeof batchMsg.data == 'undefined' && batchSessionResync) {
+                batchSessionData = batchSessionResync.data;
+            }
+            batchSessionResync = null;
+        }
         if (typeof batchMsg.patches != 'undefined') {
             // Add to JSON-Patch for "remove" and "/" - clear all session data
             // Assumes the 'remove' operation is in the first JSON patch
@@ -1593,18 +1779,17 @@ window.jatos = jatos; // Make jatos available in the window object for backward
         }
 
         openingGroupChannelDeferred = jatos.jQuery.Deferred();
-        groupChannel = new WebSocket(
-            ((window.location.protocol === "https:") ? "wss://" : "ws://") +
-            window.location.host + jatos.urlBasePath + "publix/" + jatos.studyResultUuid + "/group/join");
+        const groupParams = groupSessionResync ? {
+            groupResultId: groupSessionResync.groupResultId,
+            version: groupSessionResync.version
+        } : {};
+        groupChannel = openChannelWebSocket("/group/join", handleGroupMsg, groupParams);
         groupChannel.onopen = function () {
             groupChannelHeartbeat();
             groupChannelClosedCheck();
             // The actual group channel opening is done when we have the current
             // version of the group session
         };
-        groupChannel.onmessage = function (event) {
-            handleGroupMsg(event.data);
-        };
         groupChannel.onerror = function () {
             callMany("Group channel error", console.error, groupChannelCallbacks.onError);
             openingGroupChannelDeferred.reject();
@@ -1695,6 +1880,13 @@ window.jatos = jatos; // Make jatos available in the window object for backward
     }
 
     function clearGroupChannel() {
+        if (jatos.groupResultId && groupSessionVersion !== null && typeof groupSessionVersion !== 'undefined') {
+            groupSessionResync = {
+                groupResultId: jatos.groupResultId,
+                data: groupSessionData,
+                version: groupSessionVersion
+            };
+        }
         jatos.groupMemberId = null;
         jatos.groupResultId = null;
         jatos.groupMembers = [];
@@ -1715,7 +1907,7 @@ window.jatos = jatos; // Make jatos available in the window object for backward
     function handleGroupMsg(msg) {
         let groupMsg;
         try {
-            groupMsg = JSON.parse(msg);
+            groupMsg = (typeof msg === "string") ? JSON.parse(msg) : msg;
         } catch (error) {
             callMany(error, groupChannelCallbacks.onError, console.error);
             return;
@@ -1739,6 +1931,14 @@ window.jatos = jatos; // Make jatos available in the window object for backward
      * Update the group variables that usually come with an group action
      */
     function updateGroupVars(groupMsg) {
+        if (groupMsg.action === "OPENED" && groupMsg.memberId === jatos.studyResultId) {
+            // Without session data the server confirmed the version we had
+            // before, and the missed patches follow
+            if (typeof groupMsg.sessionData == 'undefined' && groupSessionResync) {
+                groupSessionData = groupSessionResync.data;
+            }
+            groupSessionResync = null;
+        }
         if (typeof groupMsg.groupResultId != 'undefined') {
             jatos.groupResultId = groupMsg.groupResultId.toString();
             showIdOverlay();
@@ -0,0 +1,94 @@
+package controllers.publix
+
+import controllers.publix.ChannelEncoding.Encoding
+import org.junit.Assert._
+import org.junit._
+import play.api.http.websocket.{BinaryMessage, TextMessage}
+import play.api.libs.json.{JsNull, JsObject, Json}
+
+/**
+ * Test vectors for the channel encodings. The big message is like a group channel's OPENED message of a group with 30
+ * members and about 200KB of group session data.
+ */
+class ChannelEncodingTestScala {
+
+  private def bigGroupMsg(): JsObject = {
+    val members = (1 to 30).map(id => (10000 + id).toString)
+    val trials = (1 to 2000).map(trial => Json.obj(
+      "trial" -> trial,
+      "member" -> members(trial % members.size),
+      "stimulus" -> s"stimuli/face_${trial % 120}.png",
+      "response" -> (if (trial % 3 == 0) "left" else "right"),
+      "rt" -> (250 + (trial * 37) % 900) / 1.7,
+      "correct" -> (trial % 4 != 0)))
+    Json.obj(
+      "action" -> "OPENED",
+      "memberId" -> members.head,
+      "groupResultId" -> "4711",
+      "groupState" -> "STARTED",
+      "members" -> members,
+      "channels" -> members,
+      "sessionVersion" -> 123,
+      "sessionData" -> Json.obj("trials" -> trials))
+  }
+
+  private val smallMsg = Json.obj("heartbeat" -> "pong")
+
+  @Test
+  def json_isText(): Unit = {
+    val msg = bigGroupMsg()
+    val encoded = ChannelEncoding.encode(msg, Encoding.Json)
+    assertEquals(Json.stringify(msg), encoded.asInstanceOf[TextMessage].data)
+  }
+
+  @Test
+  def deflate_compressesBigMessages(): Unit = {
+    val msg = bigGroupMsg()
+    val jsonSize = Json.toBytes(msg).length
+    assertTrue(s"test message has $jsonSize bytes", jsonSize > 200 * 1024)
+
+    val deflated = ChannelEncoding.encode(msg, Encoding.Deflate).asInstanceOf[BinaryMessage].data
+    assertTrue(s"deflate: $jsonSize -> ${deflated.size} bytes", deflated.size * 5 < jsonSize)
+    assertEquals(msg, ChannelEncoding.decode(deflated.toArray, Encoding.Deflate))
+  }
+
+  @Test
+  def deflate_smallMessagesStayText(): Unit = {
+    val encoded = ChannelEncoding.encode(smallMsg, Encoding.Deflate)
+    assertEquals(Json.stringify(smallMsg), encoded.asInstanceOf[TextMessage].data)
+  }
+
+  @Test
+  def cbor_isSmallerThanJson(): Unit = {
+    val msg = bigGroupMsg()
+    val jsonSize = Json.toBytes(msg).length
+    val cbor = ChannelEncoding.encode(msg, Encoding.Cbor).asInstanceOf[BinaryMessage].data
+    assertTrue(s"cbor: $jsonSize -> ${cbor.size} bytes", cbor.size < jsonSize * 0.9)
+    assertEquals(msg, ChannelEncoding.decode(cbor.toArray, Encoding.Cbor))
+  }
+
+  @Test
+  def cbor_vectors(): Unit = {
+    val expected = Json.obj("a" -> 1, "b" -> Json.arr(true, JsNull))
+    // Map with definite and with indefinite length
+    assertEquals(expected, ChannelEncoding.fromCbor(bytes(0xa2, 0x61, 0x61, 0x01, 0x61, 0x62, 0x82, 0xf5, 0xf6)))
+    assertEquals(expected, ChannelEncoding.fromCbor(bytes(0xbf, 0x61, 0x61, 0x01, 0x61, 0x62, 0x82, 0xf5, 0xf6, 0xff)))
+  }
+
+  private def bytes(values: Int*): Array[Byte] = values.map(_.toByte).toArray
+
+  @Test(expected = classOf[IllegalArgumentException])
+  def inflate_rejectsTruncatedData(): Unit = {
+    val deflated = ChannelEncoding.deflate(Json.toBytes(bigGroupMsg()))
+    ChannelEncoding.inflate(deflated.take(deflated.length / 2))
+  }
+
+  @Test
+  def fromName_unknownFallsBackToJson(): Unit = {
+    assertEquals(Encoding.Cbor, ChannelEncoding.fromName("cbor"))
+    assertEquals(Encoding.Deflate, ChannelEncoding.fromName("deflate"))
+    assertEquals(Encoding.Json, ChannelEncoding.fromName("msgpack"))
+    assertEquals(Encoding.Json, ChannelEncoding.fromName(""))
+  }
+
+}
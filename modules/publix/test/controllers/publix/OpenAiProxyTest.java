@@ -0,0 +1,153 @@
+package controllers.publix;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import general.common.Common;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.http.HttpEntity;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.routing.RoutingDsl;
+import play.server.Server;
+import play.test.WSTestClient;
+import services.publix.OpenAiResponseCache;
+import services.publix.OpenAiUsage;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static play.mvc.Results.ok;
+import static play.test.Helpers.contentAsString;
+
+/**
+ * Tests OpenAiProxy against a local stub server that streams server-sent events like the OpenAI API
+ */
+public class OpenAiProxyTest {
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private Server stubServer;
+    private WSClient ws;
+    private ActorSystem actorSystem;
+    private Materializer materializer;
+    private MockedStatic<Common> commonStatic;
+    private OpenAiUsage openAiUsage;
+    private OpenAiProxy openAiProxy;
+
+    @Before
+    public void setup() {
+        stubServer = Server.forRouter(components -> RoutingDsl.fromComponents(components)
+                .POST("/v1/chat/completions").routingTo(request -> ok().chunked(Source.from(Arrays.asList(
+                        ByteString.fromString("data: {\"delta\":\"Hello\"}\n\n"),
+                        ByteString.fromString("data: {\"delta\":\" World\"}\n\n"),
+                        ByteString.fromString("data: [DONE]\n\n"))))
+                        .as("text/event-stream"))
+                .POST("/v1/embeddings").routingTo(request -> {
+                    upstreamCalls.incrementAndGet();
+                    return ok(Json.parse("{\"data\":[0.1,0.2]}"));
+                })
+                .build());
+        ws = WSTestClient.newClient(stubServer.httpPort());
+        actorSystem = ActorSystem.create();
+        materializer = ActorMaterializer.create(actorSystem);
+
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::isOpenAiAllowed).thenReturn(true);
+        commonStatic.when(Common::getOpenAiUrl).thenReturn("http://localhost:" + stubServer.httpPort());
+        commonStatic.when(Common::getOpenAiUrlBasePath).thenReturn("/v1/");
+        commonStatic.when(Common::getOpenAiApiKey).thenReturn("test-key");
+        commonStatic.when(Common::getOpenAiTimeout).thenReturn(10);
+        commonStatic.when(Common::getOpenAiRateLimitPerMinute).thenReturn(6);
+        commonStatic.when(Common::getOpenAiCacheTtl).thenReturn(Duration.ofHours(1));
+        commonStatic.when(Common::getOpenAiCacheMaxSize).thenReturn(1024L * 1024);
+        commonStatic.when(Common::getOpenAiCacheMaxEntrySize).thenReturn(1024L);
+
+        openAiUsage = mock(OpenAiUsage.class);
+        openAiProxy = new OpenAiProxy(ws, openAiUsage, new OpenAiResponseCache());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        commonStatic.close();
+        ws.close();
+        stubServer.stop();
+        actorSystem.terminate();
+    }
+
+    private Http.Request chatRequest() {
+        return new Http.RequestBuilder()
+                .method("POST")
+                .bodyJson(Json.parse("{\"model\":\"gpt-4o\",\"stream\":true}"))
+                .build();
+    }
+
+    @Test
+    public void streamsResponseThrough() throws Exception {
+        when(openAiUsage.acquire("sr-uuid")).thenReturn(completedFuture(OpenAiUsage.Decision.ALLOWED));
+
+        Result result = openAiProxy.proxy(chatRequest(), "chat/completions", "sr-uuid")
+                .toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, result.status());
+        assertTrue(result.body() instanceof HttpEntity.Streamed);
+        assertTrue(result.contentType().orElse("").startsWith("text/event-stream"));
+        String content = contentAsString(result, materializer);
+        assertTrue(content.contains("Hello"));
+        assertTrue(content.endsWith("data: [DONE]\n\n"));
+    }
+
+    @Test
+    public void rateLimited() throws Exception {
+        when(openAiUsage.acquire("sr-uuid")).thenReturn(completedFuture(OpenAiUsage.Decision.RATE_LIMITED));
+
+        Result result = openAiProxy.proxy(chatRequest(), "chat/completions", "sr-uuid")
+                .toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        assertEquals(429, result.status());
+        assertEquals("10", result.header("Retry-After").orElse(null));
+    }
+
+    @Test
+    public void callLimitReached() throws Exception {
+        when(openAiUsage.acquire("sr-uuid")).thenReturn(completedFuture(OpenAiUsage.Decision.CALL_LIMIT_REACHED));
+
+        Result result = openAiProxy.proxy(chatRequest(), "chat/completions", "sr-uuid")
+                .toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        assertEquals(429, result.status());
+    }
+
+    @Test
+    public void servesDeterministicRequestFromCache() throws Exception {
+        when(openAiUsage.acquire("sr-uuid")).thenReturn(completedFuture(OpenAiUsage.Decision.ALLOWED));
+        when(openAiUsage.getStudyIdIfCached("sr-uuid")).thenReturn(Optional.of(1L));
+
+        for (String body : Arrays.asList("{\"model\":\"m\",\"input\":\"hi\",\"temperature\":0}",
+                "{\"temperature\":0,\"input\":\"hi\",\"model\":\"m\"}")) {
+            Http.Request request = new Http.RequestBuilder().method("POST").bodyJson(Json.parse(body)).build();
+            Result result = openAiProxy.proxy(request, "embeddings", "sr-uuid")
+                    .toCompletableFuture().get(10, TimeUnit.SECONDS);
+            assertEquals(200, result.status());
+            assertTrue(contentAsString(result, materializer).contains("0.1"));
+        }
+
+        // Second request differs only in the order of its fields - it came from the cache
+        assertEquals(1, upstreamCalls.get());
+    }
+
+}
@@ -5,6 +5,7 @@ import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenReloadException;
 import exceptions.publix.PublixException;
 import general.common.Common;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -49,9 +50,10 @@ public class PublixTest {
                           GroupAdministration groupAdministration, IdCookieService idCookieService,
                           PublixErrorMessages errorMessages, StudyAssets studyAssets, JsonUtils jsonUtils,
                           ComponentResultDao componentResultDao, StudyResultDao studyResultDao,
-                          StudyLogger studyLogger, IOUtils ioUtils) {
+                          StudyLogger studyLogger, IOUtils ioUtils, ResultSearchIndex resultSearchIndex) {
             super(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService, errorMessages,
-                    studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                    studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                    resultSearchIndex);
         }
 
         @Override
@@ -106,7 +108,8 @@ public class PublixTest {
         studyLogger = mock(StudyLogger.class);
 
         publix = new TestPublix(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, null);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, null,
+                mock(ResultSearchIndex.class));
     }
 
     private static StudyResult newStudyResult(Study study, Batch batch, Worker worker) {
@@ -316,7 +319,8 @@ public class PublixTest {
         // Mock ioUtils and re-create publix with it
         ioUtils = mock(IOUtils.class);
         publix = new TestPublix(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                mock(ResultSearchIndex.class));
 
         Study study = new Study();
         Component component = newComponent(31L);
@@ -347,7 +351,8 @@ public class PublixTest {
 
         ioUtils = mock(IOUtils.class);
         publix = new TestPublix(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                mock(ResultSearchIndex.class));
 
         Study study = new Study();
         Component component = newComponent(32L);
@@ -375,7 +380,8 @@ public class PublixTest {
 
         ioUtils = mock(IOUtils.class);
         publix = new TestPublix(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                mock(ResultSearchIndex.class));
 
         Study study = new Study();
         Component component = newComponent(33L);
@@ -403,7 +409,8 @@ public class PublixTest {
 
         ioUtils = mock(IOUtils.class);
         publix = new TestPublix(jpa, publixUtils, studyAuthorisation, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                mock(ResultSearchIndex.class));
 
         Study study = new Study();
         Component component = newComponent(34L);
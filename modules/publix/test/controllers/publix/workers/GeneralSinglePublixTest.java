@@ -5,6 +5,7 @@ import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -70,7 +71,7 @@ public class GeneralSinglePublixTest {
 
         publix = new GeneralSinglePublix(jpa, publixUtils, studyAuthorisation, resultCreator, workerCreator,
                 groupAdministration, idCookieService, generalSingleCookieService, errorMessages, studyAssets, jsonUtils,
-                componentResultDao, studyResultDao, studyLogger, ioUtils);
+                componentResultDao, studyResultDao, studyLogger, ioUtils, mock(ResultSearchIndex.class));
     }
 
     private static Study newStudy(long id) {
@@ -6,6 +6,7 @@ import daos.common.StudyResultDao;
 import exceptions.publix.ForbiddenPublixException;
 import exceptions.publix.ForbiddenReloadException;
 import general.common.Common;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -91,7 +92,8 @@ public class JatosPublixTest {
         IOUtils ioUtils = null; // not needed here
 
         publix = new JatosPublix(jpa, publixUtils, studyAuthorisation, resultCreator, groupAdministration, idCookieService,
-                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils);
+                errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao, studyLogger, ioUtils,
+                mock(ResultSearchIndex.class));
     }
 
     private static Study newStudy(long id, String dirName) {
@@ -4,6 +4,7 @@ import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
 import exceptions.publix.PublixException;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -60,7 +61,7 @@ public class PersonalMultiplePublixTest {
 
         publix = new PersonalMultiplePublix(jpa, publixUtils, studyAuthorisation, resultCreator,
                 groupAdministration, idCookieService, errorMessages, studyAssets, jsonUtils,
-                componentResultDao, studyResultDao, studyLogger, ioUtils);
+                componentResultDao, studyResultDao, studyLogger, ioUtils, mock(ResultSearchIndex.class));
     }
 
     private static Study newStudy(long id) {
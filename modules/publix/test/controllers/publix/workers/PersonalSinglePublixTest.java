@@ -3,6 +3,7 @@ package controllers.publix.workers;
 import controllers.publix.StudyAssets;
 import daos.common.ComponentResultDao;
 import daos.common.StudyResultDao;
+import general.common.ResultSearchIndex;
 import general.common.StudyLogger;
 import group.GroupAdministration;
 import models.common.*;
@@ -61,7 +62,7 @@ public class PersonalSinglePublixTest {
 
         publix = new PersonalSinglePublix(jpa, publixUtils, studyAuthorisation, resultCreator, groupAdministration,
                 idCookieService, errorMessages, studyAssets, jsonUtils, componentResultDao, studyResultDao,
-                studyLogger, ioUtils);
+                studyLogger, ioUtils, mock(ResultSearchIndex.class));
     }
 
     private static Study newStudy(long id) {
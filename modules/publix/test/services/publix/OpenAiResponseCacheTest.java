@@ -0,0 +1,112 @@
+package services.publix;
+
+import general.common.Common;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.libs.Json;
+import services.publix.OpenAiResponseCache.CachedResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for OpenAiResponseCache
+ */
+public class OpenAiResponseCacheTest {
+
+    private MockedStatic<Common> commonStatic;
+    private OpenAiResponseCache cache;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getOpenAiCacheTtl).thenReturn(Duration.ofHours(1));
+        commonStatic.when(Common::getOpenAiCacheMaxSize).thenReturn(1024L * 1024);
+        commonStatic.when(Common::getOpenAiCacheMaxEntrySize).thenReturn(100L);
+        cache = new OpenAiResponseCache();
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    private static CachedResponse response(int status, String body) {
+        return new CachedResponse(status, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void keyIgnoresFieldOrder() {
+        String key1 = OpenAiResponseCache.cacheKey(1L, "chat/completions",
+                Json.parse("{\"model\":\"m\",\"temperature\":0,\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}"))
+                .orElse(null);
+        String key2 = OpenAiResponseCache.cacheKey(1L, "chat/completions",
+                Json.parse("{\"messages\":[{\"content\":\"hi\",\"role\":\"user\"}],\"temperature\":0,\"model\":\"m\"}"))
+                .orElse(null);
+        assertNotNull(key1);
+        assertEquals(key1, key2);
+
+        // Different study - different key
+        assertNotEquals(key1, OpenAiResponseCache.cacheKey(2L, "chat/completions",
+                Json.parse("{\"model\":\"m\",\"temperature\":0,\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}"))
+                .orElse(null));
+    }
+
+    @Test
+    public void onlyDeterministicRequestsAreCacheable() {
+        assertFalse(OpenAiResponseCache.cacheKey(1L, "p", Json.parse("{\"model\":\"m\"}")).isPresent());
+        assertFalse(OpenAiResponseCache.cacheKey(1L, "p", Json.parse("{\"temperature\":0.7}")).isPresent());
+        assertFalse(OpenAiResponseCache.cacheKey(1L, "p",
+                Json.parse("{\"temperature\":0,\"stream\":true}")).isPresent());
+        assertFalse(OpenAiResponseCache.cacheKey(1L, "p", null).isPresent());
+    }
+
+    @Test
+    public void coalescesConcurrentRequestsAndCaches() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<CachedResponse> upstream = new CompletableFuture<>();
+
+        CompletionStage<CachedResponse> first = cache.get("k", () -> {
+            loads.incrementAndGet();
+            return upstream;
+        });
+        CompletionStage<CachedResponse> second = cache.get("k", () -> {
+            loads.incrementAndGet();
+            return upstream;
+        });
+        upstream.complete(response(200, "{}"));
+
+        assertEquals(200, first.toCompletableFuture().get().getStatus());
+        assertEquals(200, second.toCompletableFuture().get().getStatus());
+        cache.get("k", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(response(200, "{}"));
+        }).toCompletableFuture().get();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void doesNotCacheErrorsOrLargeResponses() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            cache.get("error", () -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture(response(500, "{}"));
+            }).toCompletableFuture().get();
+            cache.get("large", () -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture(response(200, new String(new char[101])));
+            }).toCompletableFuture().get();
+        }
+        assertEquals(4, loads.get());
+    }
+
+}
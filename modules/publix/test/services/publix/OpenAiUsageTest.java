@@ -0,0 +1,137 @@
+package services.publix;
+
+import akka.actor.ActorSystem;
+import akka.actor.Scheduler;
+import daos.common.StudyResultDao;
+import general.common.Common;
+import general.common.DatabaseExecutionContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import services.publix.OpenAiUsage.Decision;
+
+import javax.persistence.Tuple;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for OpenAiUsage
+ */
+@SuppressWarnings({"deprecation", "unchecked"})
+public class OpenAiUsageTest {
+
+    private static final String UUID = "sr-uuid";
+
+    private MockedStatic<Common> commonStatic;
+    private StudyResultDao studyResultDao;
+    private OpenAiUsage openAiUsage;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getOpenAiCallLimit).thenReturn(3);
+        commonStatic.when(Common::getOpenAiRateLimitPerMinute).thenReturn(0);
+        commonStatic.when(Common::getOpenAiRateLimitBurst).thenReturn(2);
+        commonStatic.when(Common::getOpenAiSyncInterval).thenReturn(Duration.ofSeconds(5));
+
+        JPAApi jpa = mock(JPAApi.class);
+        when(jpa.withTransaction(any(Supplier.class))).thenAnswer(inv -> ((Supplier<?>) inv.getArgument(0)).get());
+        doAnswer(inv -> {
+            ((Runnable) inv.getArgument(0)).run();
+            return null;
+        }).when(jpa).withTransaction(any(Runnable.class));
+
+        DatabaseExecutionContext dbExecutionContext = mock(DatabaseExecutionContext.class);
+        doAnswer(inv -> {
+            ((Runnable) inv.getArgument(0)).run();
+            return null;
+        }).when(dbExecutionContext).execute(any(Runnable.class));
+
+        ActorSystem actorSystem = mock(ActorSystem.class);
+        when(actorSystem.scheduler()).thenReturn(mock(Scheduler.class));
+
+        studyResultDao = mock(StudyResultDao.class);
+        openAiUsage = new OpenAiUsage(jpa, studyResultDao, dbExecutionContext, actorSystem,
+                mock(ApplicationLifecycle.class));
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    private static Tuple dbUsage(int count, boolean openAiCache) {
+        Tuple tuple = mock(Tuple.class);
+        when(tuple.get("apiCount", Integer.class)).thenReturn(count);
+        when(tuple.get("studyId", Long.class)).thenReturn(7L);
+        when(tuple.get("openAiCache", Boolean.class)).thenReturn(openAiCache);
+        return tuple;
+    }
+
+    private Decision acquire() throws Exception {
+        return openAiUsage.acquire(UUID).toCompletableFuture().get();
+    }
+
+    @Test
+    public void countsInMemoryUpToCallLimit() throws Exception {
+        when(studyResultDao.findOpenAiUsageIfRunning(UUID)).thenReturn(Optional.of(dbUsage(1, false)));
+
+        assertEquals(Decision.ALLOWED, acquire());
+        assertEquals(Decision.ALLOWED, acquire());
+        assertEquals(Decision.CALL_LIMIT_REACHED, acquire());
+
+        // Loaded only once and nothing written yet
+        verify(studyResultDao, times(1)).findOpenAiUsageIfRunning(UUID);
+        verify(studyResultDao, never()).addToOpenAiApiCount(anyString(), anyInt());
+    }
+
+    @Test
+    public void syncWritesIncrements() throws Exception {
+        when(studyResultDao.findOpenAiUsageIfRunning(UUID)).thenReturn(Optional.of(dbUsage(0, false)));
+        acquire();
+        acquire();
+
+        openAiUsage.sync();
+        verify(studyResultDao).addToOpenAiApiCount(UUID, 2);
+
+        // Nothing new to write
+        openAiUsage.sync();
+        verify(studyResultDao, times(1)).addToOpenAiApiCount(anyString(), anyInt());
+    }
+
+    @Test
+    public void studyNotRunning() throws Exception {
+        when(studyResultDao.findOpenAiUsageIfRunning(UUID)).thenReturn(Optional.empty());
+        assertEquals(Decision.NOT_RUNNING, acquire());
+    }
+
+    @Test
+    public void rateLimit() throws Exception {
+        commonStatic.when(Common::getOpenAiCallLimit).thenReturn(-1);
+        commonStatic.when(Common::getOpenAiRateLimitPerMinute).thenReturn(1);
+        when(studyResultDao.findOpenAiUsageIfRunning(UUID)).thenReturn(Optional.of(dbUsage(0, false)));
+
+        // Burst of 2, then the bucket is empty
+        assertEquals(Decision.ALLOWED, acquire());
+        assertEquals(Decision.ALLOWED, acquire());
+        assertEquals(Decision.RATE_LIMITED, acquire());
+    }
+
+    @Test
+    public void studyIdIfCached() throws Exception {
+        when(studyResultDao.findOpenAiUsageIfRunning(UUID)).thenReturn(Optional.of(dbUsage(0, true)));
+        assertEquals(Optional.empty(), openAiUsage.getStudyIdIfCached(UUID));
+        acquire();
+        assertEquals(Optional.of(7L), openAiUsage.getStudyIdIfCached(UUID));
+    }
+
+}
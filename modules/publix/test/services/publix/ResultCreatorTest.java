@@ -1,6 +1,7 @@
 package services.publix;
 
 import daos.common.ComponentResultDao;
+import daos.common.ResultCounterDao;
 import daos.common.StudyResultDao;
 import daos.common.worker.WorkerDao;
 import models.common.*;
@@ -22,6 +23,7 @@ public class ResultCreatorTest {
     private ComponentResultDao componentResultDao;
     private StudyResultDao studyResultDao;
     private WorkerDao workerDao;
+    private ResultCounterDao resultCounterDao;
 
     private ResultCreator resultCreator;
 
@@ -30,7 +32,8 @@ public class ResultCreatorTest {
         componentResultDao = mock(ComponentResultDao.class);
         studyResultDao = mock(StudyResultDao.class);
         workerDao = mock(WorkerDao.class);
-        resultCreator = new ResultCreator(componentResultDao, studyResultDao, workerDao);
+        resultCounterDao = mock(ResultCounterDao.class);
+        resultCreator = new ResultCreator(componentResultDao, studyResultDao, workerDao, resultCounterDao);
     }
 
     @Test
@@ -52,6 +55,7 @@ public class ResultCreatorTest {
         assertEquals(StudyState.PRE, sr.getStudyState());
         assertTrue(worker.getStudyResultList().contains(sr));
         verify(studyResultDao).create(sr);
+        verify(resultCounterDao).addStudyResult(sr);
         verify(workerDao).update(worker);
         verifyNoMoreInteractions(studyResultDao, workerDao, componentResultDao);
     }
@@ -111,6 +115,8 @@ public class ResultCreatorTest {
         assertTrue(studyResult.getComponentResultList().contains(componentResult));
 
         verify(componentResultDao).create(componentResult);
+        verify(resultCounterDao).addStudyResult(studyResult);
+        verify(resultCounterDao).addComponentResult(studyResult.getId());
         verify(studyResultDao, atLeastOnce()).create(any(StudyResult.class));
         verify(studyResultDao).update(studyResult);
         verify(workerDao).update(worker);
@@ -0,0 +1,108 @@
+package services.publix;
+
+import exceptions.publix.ServiceUnavailablePublixException;
+import general.common.Common;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StudyAdmission
+ */
+public class StudyAdmissionTest {
+
+    private MockedStatic<Common> commonStatic;
+
+    private StudyAdmission studyAdmission;
+
+    @Before
+    public void setup() {
+        commonStatic = Mockito.mockStatic(Common.class);
+        commonStatic.when(Common::getStudyAdmissionMaxConcurrentStarts).thenReturn(2);
+        commonStatic.when(Common::getStudyAdmissionMaxConcurrentStartsPerStudy).thenReturn(0);
+        commonStatic.when(Common::getStudyAdmissionMaxWaiting).thenReturn(2);
+        commonStatic.when(Common::getStudyAdmissionPollInterval).thenReturn(Duration.ofSeconds(2));
+        commonStatic.when(Common::getStudyAdmissionAdmittedTimeout).thenReturn(Duration.ofSeconds(30));
+        studyAdmission = new StudyAdmission();
+    }
+
+    @After
+    public void tearDown() {
+        commonStatic.close();
+    }
+
+    @Test
+    public void admitsUpToGlobalLimit() throws ServiceUnavailablePublixException {
+        assertTrue(studyAdmission.admit(null, 1L, null).isAdmitted());
+        assertTrue(studyAdmission.admit(null, 2L, null).isAdmitted());
+
+        StudyAdmission.Admission third = studyAdmission.admit(null, 1L, null);
+        assertFalse(third.isAdmitted());
+        assertNotNull(third.getTicket());
+        assertEquals(1, studyAdmission.poll(third.getTicket()).position);
+        assertEquals(1, studyAdmission.getWaitingCount());
+    }
+
+    @Test
+    public void releaseAdmitsWaitingInOrder() throws ServiceUnavailablePublixException {
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+        String first = studyAdmission.admit(null, 1L, null).getTicket();
+        String second = studyAdmission.admit(null, 1L, null).getTicket();
+        assertEquals(2, studyAdmission.poll(second).position);
+
+        studyAdmission.release(1L);
+
+        assertTrue(studyAdmission.poll(first).admitted);
+        assertFalse(studyAdmission.poll(second).admitted);
+        assertEquals(1, studyAdmission.poll(second).position);
+
+        // The admitted ticket uses its reserved place
+        assertTrue(studyAdmission.admit(first, 1L, null).isAdmitted());
+        // A newcomer can't overtake the waiting one
+        assertFalse(studyAdmission.admit(null, 1L, null).isAdmitted());
+    }
+
+    @Test
+    public void waitingTicketStaysTheSame() throws ServiceUnavailablePublixException {
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+        String ticket = studyAdmission.admit(null, 1L, null).getTicket();
+
+        StudyAdmission.Admission again = studyAdmission.admit(ticket, 1L, null);
+        assertFalse(again.isAdmitted());
+        assertEquals(ticket, again.getTicket());
+        assertEquals(1, studyAdmission.getWaitingCount());
+    }
+
+    @Test
+    public void studyLimit() throws ServiceUnavailablePublixException {
+        assertTrue(studyAdmission.admit(null, 1L, 1).isAdmitted());
+        assertFalse(studyAdmission.admit(null, 1L, 1).isAdmitted());
+        // Another study still has a free place
+        assertTrue(studyAdmission.admit(null, 2L, 1).isAdmitted());
+    }
+
+    @Test
+    public void unknownTicket() {
+        StudyAdmission.Position position = studyAdmission.poll("unknown");
+        assertFalse(position.admitted);
+        assertEquals(-1, position.position);
+    }
+
+    @Test(expected = ServiceUnavailablePublixException.class)
+    public void waitingRoomFull() throws ServiceUnavailablePublixException {
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+        studyAdmission.admit(null, 1L, null);
+    }
+
+}
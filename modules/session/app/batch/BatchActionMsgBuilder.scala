@@ -3,16 +3,10 @@ package batch
 import batch.BatchDispatcher.BatchAction.BatchAction
 import batch.BatchDispatcher.TellWhom.TellWhom
 import batch.BatchDispatcher.{BatchAction, BatchActionJsonKey, BatchMsg, TellWhom}
-import com.google.common.base.Strings
-import daos.common.BatchDao
-import models.common.Batch
 import play.api.Logger
 import play.api.libs.json.{JsNumber, JsValue, Json}
-import play.db.jpa.JPAApi
 
-import java.io.IOException
 import javax.inject.{Inject, Singleton}
-import scala.compat.java8.FunctionConverters.asJavaSupplier
 
 /**
  * Utility class that builds BatchMsgs. So it mostly handles the JSON creation.
@@ -20,7 +14,7 @@ import scala.compat.java8.FunctionConverters.asJavaSupplier
  * @author Kristian Lange
  */
 @Singleton
-class BatchActionMsgBuilder @Inject()(jpa: JPAApi, batchDao: BatchDao) {
+class BatchActionMsgBuilder @Inject()(sessionStore: BatchSessionStore) {
 
   private val logger: Logger = Logger(this.getClass)
 
@@ -37,61 +31,67 @@ class BatchActionMsgBuilder @Inject()(jpa: JPAApi, batchDao: BatchDao) {
   /**
    * Builds a simple BatchMsg with the action and the session version
    */
-  def buildSimple(batch: Batch, action: BatchAction, sessionActionId: Long, tellWhom: TellWhom): BatchMsg = {
-    logger.debug(s".buildSimple: batchId ${batch.getId}")
+  def buildSimple(batchId: Long, sessionVersion: Long, action: BatchAction, sessionActionId: Long,
+                  tellWhom: TellWhom): BatchMsg = {
+    logger.debug(s".buildSimple: batchId $batchId")
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> action.toString,
       BatchActionJsonKey.SessionActionId.toString -> JsNumber(BigDecimal(sessionActionId)),
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch.getBatchSessionVersion)))
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
+    BatchMsg(json, tellWhom)
+  }
+
+  /**
+   * Builds a BatchMsg with the action and only the given session version (e.g. for a client that already has the batch
+   * session data of this version)
+   */
+  def buildSessionVersion(batchId: Long, sessionVersion: Long, action: BatchAction, tellWhom: TellWhom): BatchMsg = {
+    logger.debug(s".buildSessionVersion: batchId $batchId, sessionVersion $sessionVersion")
+    val json = Json.obj(
+      BatchActionJsonKey.Action.toString -> action.toString,
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
   /**
    * Builds a BatchActionMessage with the batch session patch and version
    */
-  def buildSessionPatch(batch: Batch, patches: JsValue, tellWhom: TellWhom): BatchMsg = {
-    logger.debug(s".buildSessionPatch: batchId ${batch.getId}")
+  def buildSessionPatch(batchId: Long, sessionVersion: Long, patches: JsValue, tellWhom: TellWhom): BatchMsg = {
+    logger.debug(s".buildSessionPatch: batchId $batchId")
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> BatchAction.Session.toString,
       BatchActionJsonKey.SessionPatches.toString -> patches,
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch.getBatchSessionVersion)))
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
   /**
-   * Builds a BatchMsg with the current batch session data and version
+   * Builds a BatchMsg with the current batch session data and version (from the in-memory batch session)
    */
   def buildSessionData(batchId: Long, action: BatchAction, tellWhom: TellWhom): BatchMsg = {
-    jpa.withTransaction(asJavaSupplier(() => {
-      logger.debug(s".buildSessionData: batchId $batchId, action $action, tellWhom ${
-        tellWhom
-          .toString
-      }")
-      val batch = batchDao.findById(batchId)
-      if (batch != null) buildSessionAction(batch, action, tellWhom)
-      else buildError(s"Couldn't find batch with ID $batchId in database.", TellWhom.SenderOnly)
-    }))
+    logger.debug(s".buildSessionData: batchId $batchId, action $action, tellWhom ${tellWhom.toString}")
+    sessionStore.withSession(batchId)(session => BatchActionMsgBuilder.buildSessionData(session.getData,
+      session.getVersion, action, tellWhom))
+      .getOrElse(buildError(s"Couldn't find batch with ID $batchId in database.", TellWhom.SenderOnly))
   }
 
-  private def buildSessionAction(batch: Batch, action: BatchAction, tellWhom: TellWhom) = {
-    val sessionData =
-      try
-        if (Strings.isNullOrEmpty(batch.getBatchSessionData)) Json.obj()
-        else Json.parse(batch.getBatchSessionData)
-      catch {
-        case e: IOException =>
-          logger.error(s".buildSessionActionMsg: invalid session data in DB - batchId " +
-            s"${batch.getId}, batchSessionVersion ${batch.getBatchSessionVersion}, " +
-            s"batchSessionData ${batch.getBatchSessionData}, error: ${e.getMessage}")
-          Json.obj()
-      }
+  /**
+   * Current version of the in-memory batch session
+   */
+  def sessionVersion(batchId: Long): Option[Long] = sessionStore.withSession(batchId)(_.getVersion)
+
+}
+
+object BatchActionMsgBuilder {
 
+  /**
+   * Builds a BatchMsg with the given batch session data and version
+   */
+  def buildSessionData(sessionData: JsValue, sessionVersion: Long, action: BatchAction, tellWhom: TellWhom): BatchMsg = {
     val json = Json.obj(
       BatchActionJsonKey.Action.toString -> action.toString,
       BatchActionJsonKey.SessionData.toString -> sessionData,
-      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(batch
-        .getBatchSessionVersion)))
-
+      BatchActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     BatchMsg(json, tellWhom)
   }
 
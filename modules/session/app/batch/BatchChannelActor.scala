@@ -15,15 +15,17 @@ import javax.inject.Inject
  *
  * A BatchChannelActor belongs to a BatchDispatcher. A BatchChannelActor is created by the BatchChannel service and
  * registers itself to its BatchDispatcher. It closes if the WebSocket is closed or externally, by the BatchDispatcher.
- * While closing down, it unregisters from the BatchDispatcher.
+ * While closing down, it unregisters from the BatchDispatcher. If the client reconnects with the batch session version it
+ * already has (knownVersion), the BatchDispatcher might send only the patches it missed.
  *
  * @author Kristian Lange
  */
 class BatchChannelActor @Inject()(out: ActorRef,
                                   studyResultId: Long,
-                                  batchDispatcher: BatchDispatcher) extends Actor {
+                                  batchDispatcher: BatchDispatcher,
+                                  knownVersion: Option[Long] = None) extends Actor {
 
-  override def preStart(): Unit = batchDispatcher.registerChannel(studyResultId, self)
+  override def preStart(): Unit = batchDispatcher.registerChannel(studyResultId, self, knownVersion)
 
   override def postStop(): Unit = batchDispatcher.unregisterChannel(studyResultId)
 
@@ -13,6 +13,9 @@ import scala.jdk.CollectionConverters._
   *
   * A Registry does not define who is a member - it just stores the open channels.
   *
+  * It's thread-safe: channels are registered and unregistered by the channels' actors while the BatchDispatcher sends
+  * messages to them. The getAll methods return copies, so they can be iterated while channels change.
+  *
   * @author Kristian Lange
   */
 class BatchChannelRegistry {
@@ -24,18 +27,20 @@ class BatchChannelRegistry {
     */
   private val channelMap = new DualHashBidiMap[Long, ActorRef]
 
-  def register(studyResultId: Long, channel: ActorRef): ActorRef = channelMap.put(studyResultId, channel)
+  def register(studyResultId: Long, channel: ActorRef): ActorRef = synchronized {
+    channelMap.put(studyResultId, channel)
+  }
 
-  def unregister(studyResultId: Long): Option[ActorRef] = Option(channelMap.remove(studyResultId))
+  def unregister(studyResultId: Long): Option[ActorRef] = synchronized(Option(channelMap.remove(studyResultId)))
 
-  def getChannel(studyResultId: Long): Option[ActorRef] = Option(channelMap.get(studyResultId))
+  def getChannel(studyResultId: Long): Option[ActorRef] = synchronized(Option(channelMap.get(studyResultId)))
 
-  def isEmpty: Boolean = channelMap.isEmpty
+  def isEmpty: Boolean = synchronized(channelMap.isEmpty)
 
-  def containsChannel(studyResultId: Long): Boolean = channelMap.containsKey(studyResultId)
+  def containsChannel(studyResultId: Long): Boolean = synchronized(channelMap.containsKey(studyResultId))
 
-  def getAllStudyResultIds: mutable.Set[Long] = channelMap.keySet.asScala
+  def getAllStudyResultIds: mutable.Set[Long] = synchronized(mutable.Set.from(channelMap.keySet.asScala))
 
-  def getAllChannels: mutable.Set[ActorRef] = channelMap.values.asScala
+  def getAllChannels: mutable.Set[ActorRef] = synchronized(mutable.Set.from(channelMap.values.asScala))
 
-}
\ No newline at end of file
+}
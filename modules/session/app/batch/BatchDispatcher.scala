@@ -3,7 +3,10 @@ package batch
 import akka.actor.{ActorRef, ActorSystem}
 import batch.BatchDispatcher.TellWhom.TellWhom
 import batch.BatchDispatcher._
+import cluster.ClusterBackplane
 import com.google.inject.assistedinject.Assisted
+import general.common.Common
+import general.session.SessionPatchLog
 import play.api.Logger
 import play.api.libs.json.{JsObject, Json}
 
@@ -14,13 +17,21 @@ import javax.inject.Inject
  *
  * A BatchDispatcher handles and distributes messages between currently active members of a batch. These messages are
  * essentially JSON Patches after RFC 6902 and used to describe changes in the batch session data. The session data are
- * stored and persisted with the Batch.
+ * held in memory by the BatchSessionStore and persisted with the Batch in regular snapshots.
  *
  * A BatchChannelActor is always opened during initialization of jatos.js (where a GroupChannelActor is opened only
  * after the group was joined). A BatchChannelActor registers and unregisters itself in a BatchDispatcher.
  *
  * A new BatchDispatcher is created by the BatchDispatcherRegistry. If a BatchDispatcher has no more members, it closes
- * itself.
+ * itself. A closed BatchDispatcher doesn't accept new channels: a channel that got it from the registry just before it
+ * closed is stopped and the client reconnects (and gets a new BatchDispatcher).
+ *
+ * In a multi-node JATOS the members of a batch can be connected to different nodes, each with its own BatchDispatcher.
+ * Messages to all members are therefore published via the ClusterBackplane too, and the messages published by the other
+ * nodes' BatchDispatchers are sent to this BatchDispatcher's channels.
+ *
+ * The last batch session patch messages are kept in a SessionPatchLog. A client that reconnects with the session version
+ * it already has gets only the patches it missed (if they are still in the log) instead of the whole session data.
  *
  * @author Kristian Lange
  */
@@ -77,12 +88,18 @@ object BatchDispatcher {
    */
   case class BatchMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
 
+  /**
+   * Key of the BatchMsg's JSON in a message published via the ClusterBackplane
+   */
+  private[batch] val RemoteMsgKey = "msg"
+
 }
 
 class BatchDispatcher @Inject()(actorSystem: ActorSystem,
                                 dispatcherRegistry: BatchDispatcherRegistry,
                                 actionHandler: BatchActionHandler,
                                 actionMsgBuilder: BatchActionMsgBuilder,
+                                backplane: ClusterBackplane,
                                 @Assisted batchId: Long) {
 
   private val logger: Logger = Logger(this.getClass)
@@ -90,9 +107,26 @@ class BatchDispatcher @Inject()(actorSystem: ActorSystem,
   private val channelRegistry = new BatchChannelRegistry
 
   /**
-   * Handles batch actions originating from a client
+   * Last batch session patch messages that went out to all members. Only used while holding this dispatcher's lock.
    */
-  def handleActionMsg(actionMsg: BatchMsg, studyResultId: Long, sender: ActorRef): Unit = {
+  private val patchLog = new SessionPatchLog(Common.getSessionPatchLogSize)
+
+  private val subscription = backplane.subscribe(ClusterBackplane.batchTopic(batchId))(handleRemoteMsg)
+
+  /**
+   * Guards the registering of channels and the closing of this dispatcher
+   */
+  private val lifecycleLock = new Object
+
+  private var closed = false
+
+  def hasChannel(studyResultId: Long): Boolean = channelRegistry.containsChannel(studyResultId)
+
+  /**
+   * Handles batch actions originating from a client. Synchronized, so the batch session patches are sent out to the
+   * members in the same order as they were applied.
+   */
+  def handleActionMsg(actionMsg: BatchMsg, studyResultId: Long, sender: ActorRef): Unit = synchronized {
     logger.debug(s".handleActionMsg: batchId $batchId, " +
       s"studyResultId $studyResultId, " +
       s"actionMsg ${Json.stringify(actionMsg.json)}")
@@ -101,12 +135,54 @@ class BatchDispatcher @Inject()(actorSystem: ActorSystem,
   }
 
   /**
-   * Registers the given channel in the channelRegistry and sends an 'Opened' msg back to the channel
+   * The whole batch session was replaced outside of this dispatcher (via JATOS' API or rebased on the database's
+   * state): sends the current batch session data to all members, also the ones on other nodes. Synchronized like
+   * handleActionMsg, so no patch that was applied after the replacement goes out before it.
+   */
+  def sessionReplaced(): Unit = synchronized {
+    logger.debug(s".sessionReplaced: batchId $batchId")
+    tellAll(actionMsgBuilder.buildSessionData(batchId, BatchAction.Session, TellWhom.All))
+  }
+
+  def registerChannel(studyResultId: Long, channel: ActorRef): Unit = registerChannel(studyResultId, channel, None)
+
+  /**
+   * Registers the given channel in the channelRegistry and sends an 'Opened' msg back to the channel. If the client
+   * already has the batch session data of a version (knownVersion, e.g. after a reconnect) it might only get the
+   * patches it missed.
    */
-  def registerChannel(studyResultId: Long, channel: ActorRef): Unit = {
-    logger.debug(s".registerChannel: batchId $batchId, studyResultId $studyResultId")
-    channelRegistry.register(studyResultId, channel)
-    tellActionMsg(List(actionMsgBuilder.buildSessionData(batchId, BatchAction.Opened, TellWhom.SenderOnly)), channel)
+  def registerChannel(studyResultId: Long, channel: ActorRef, knownVersion: Option[Long]): Unit = {
+    logger.debug(s".registerChannel: batchId $batchId, studyResultId $studyResultId, knownVersion $knownVersion")
+    val registered = lifecycleLock.synchronized {
+      if (!closed) channelRegistry.register(studyResultId, channel)
+      !closed
+    }
+    if (registered) synchronized {
+      // No batch session patch is sent out in the meantime
+      tellActionMsg(openedMsgs(knownVersion), channel)
+    } else {
+      logger.debug(s".registerChannel: BatchDispatcher $batchId is already closed - stop channel of study result " +
+        s"$studyResultId")
+      channel ! BatchMsg(Json.obj(BatchActionJsonKey.Action.toString -> BatchAction.Closed))
+      actorSystem.stop(channel)
+    }
+  }
+
+  /**
+   * The 'Opened' msg with the current batch session data - or, if the client knows a version from which on the patches
+   * are in the patch log, the 'Opened' msg with the client's version followed by the patch msgs it missed
+   */
+  private def openedMsgs(knownVersion: Option[Long]): List[BatchMsg] = {
+    val resync = for {
+      version <- knownVersion
+      currentVersion <- actionMsgBuilder.sessionVersion(batchId)
+      missed <- patchLog.since(version, currentVersion)
+    } yield {
+      logger.debug(s".openedMsgs: batchId $batchId, resync from version $version with ${missed.size} patch msgs")
+      actionMsgBuilder.buildSessionVersion(batchId, version, BatchAction.Opened, TellWhom.SenderOnly) ::
+        missed.map(BatchMsg(_, TellWhom.SenderOnly))
+    }
+    resync.getOrElse(List(actionMsgBuilder.buildSessionData(batchId, BatchAction.Opened, TellWhom.SenderOnly)))
   }
 
   /**
@@ -121,7 +197,31 @@ class BatchDispatcher @Inject()(actorSystem: ActorSystem,
       logger.debug(s".unregisterChannel: study result $studyResultId is not handled by the BatchDispatcher $batchId.")
     }
 
-    if (channelRegistry.isEmpty) dispatcherRegistry.unregister(batchId)
+    // A closed dispatcher is already unregistered
+    if (channelRegistry.isEmpty && !lifecycleLock.synchronized(closed)) dispatcherRegistry.unregister(batchId)
+  }
+
+  /**
+   * Called by the BatchDispatcherRegistry before it removes this dispatcher. Returns true if there are channels
+   * (e.g. one registered just now). Otherwise, it closes this dispatcher and returns false.
+   */
+  private[batch] def stillInUse(): Boolean = lifecycleLock.synchronized {
+    if (channelRegistry.isEmpty) {
+      closed = true
+      subscription.cancel()
+      false
+    } else true
+  }
+
+  /**
+   * Handles a message published by a BatchDispatcher of the same batch on another node: sends it to the channels of
+   * this node. Synchronized like handleActionMsg, so local and remote session patches reach the channels in order.
+   */
+  private def handleRemoteMsg(remoteMsg: JsObject): Unit = synchronized {
+    val msg = BatchMsg((remoteMsg \ RemoteMsgKey).as[JsObject], TellWhom.All)
+    logger.debug(s".handleRemoteMsg: batchId $batchId, msg ${Json.stringify(msg.json)}")
+    logSessionPatch(msg)
+    tellAllLocal(msg)
   }
 
   /**
@@ -151,10 +251,28 @@ class BatchDispatcher @Inject()(actorSystem: ActorSystem,
   }
 
   /**
-   * Sends the message to everyone in batch channelRegistry.
+   * Sends the message to everyone in batch channelRegistry and to the members on the other nodes.
    */
   private def tellAll(msg: BatchMsg): Unit = {
     logger.debug(s".tellAll: batchId $batchId, msg ${Json.stringify(msg.json)}")
+    logSessionPatch(msg)
+    tellAllLocal(msg)
+    if (backplane.hasPeers) backplane.publish(ClusterBackplane.batchTopic(batchId), Json.obj(RemoteMsgKey -> msg.json))
+  }
+
+  /**
+   * Adds a batch session patch msg to the patch log. Each patch msg increases the batch session version by 1. A msg
+   * with the whole session data (the session was replaced) clears the log.
+   */
+  private def logSessionPatch(msg: BatchMsg): Unit = {
+    if ((msg.json \ BatchActionJsonKey.Action.toString).asOpt[String].contains(BatchAction.Session.toString)) {
+      if ((msg.json \ BatchActionJsonKey.SessionData.toString).isDefined) patchLog.clear()
+      else (msg.json \ BatchActionJsonKey.SessionVersion.toString).asOpt[Long]
+        .foreach(version => patchLog.append(version - 1, version, msg.json))
+    }
+  }
+
+  private def tellAllLocal(msg: BatchMsg): Unit = {
     for (recipient <- channelRegistry.getAllChannels) {
       recipient ! msg
     }
@@ -2,12 +2,16 @@ package batch
 
 import play.api.Logger
 
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.{Inject, Singleton}
-import scala.collection.mutable
 
 /**
  * The BatchDispatcherRegistry keeps track of all BatchDispatchers.
  *
+ * It's lock-free for lookups. Registering and removing a BatchDispatcher are atomic per batch ID: there is never more
+ * than one BatchDispatcher per batch, and a BatchDispatcher is only removed if it has no channels. A removed
+ * BatchDispatcher is closed and doesn't accept new channels anymore (see BatchDispatcher.registerChannel).
+ *
  * @author Kristian Lange
  */
 @Singleton
@@ -18,35 +22,44 @@ class BatchDispatcherRegistry @Inject()(batchDispatcherFactory: BatchDispatcher.
   /**
    * Contains the dispatchers that are currently registered. Maps a batch ID to the BatchDispatcher.
    */
-  private val dispatcherMap = mutable.HashMap[Long, BatchDispatcher]()
+  private val dispatcherMap = new ConcurrentHashMap[Long, BatchDispatcher]()
 
   /*
    * Get a BatchDispatcher for a particular batch ID. Returns None if no BatchDispatcher is registered.
    */
-  def get(batchid: Long): Option[BatchDispatcher] = dispatcherMap.get(batchid)
+  def get(batchid: Long): Option[BatchDispatcher] = Option(dispatcherMap.get(batchid))
 
   /*
    * Get or register a BatchDispatcher for a particular batch ID.
    */
-  def getOrRegister(batchId: Long): BatchDispatcher = synchronized {
-    if (!dispatcherMap.contains(batchId)) {
-      val dispatcher = batchDispatcherFactory.create(batchId)
-      dispatcherMap += (batchId -> dispatcher)
+  def getOrRegister(batchId: Long): BatchDispatcher = {
+    val existing = dispatcherMap.get(batchId)
+    if (existing != null) return existing
+
+    // Created outside of computeIfAbsent: creating a dispatcher can be slow and must not block the map
+    val created = batchDispatcherFactory.create(batchId)
+    val registered = dispatcherMap.putIfAbsent(batchId, created)
+    if (registered == null) {
       logger.debug(s".getOrRegister: registered dispatcher for batch ID $batchId")
+      created
+    } else {
+      // Another thread was faster: close the surplus dispatcher (it has no channels)
+      created.stillInUse()
+      registered
     }
-    dispatcherMap(batchId)
   }
 
   /*
-   * Unregister a BatchDispatcher for a particular batch ID.
+   * Unregister a BatchDispatcher for a particular batch ID - unless a channel registered in the meantime.
    */
-  def unregister(batchId: Long): Unit = synchronized {
-    if (dispatcherMap.contains(batchId)) {
-      dispatcherMap -= batchId
-      logger.debug(s".unregister: unregistered dispatcher for batch ID $batchId")
-    } else {
-      logger.debug(s".unregister: dispatcher for batch ID $batchId not found")
-    }
+  def unregister(batchId: Long): Unit = {
+    var removed = false
+    dispatcherMap.computeIfPresent(batchId, (_: Long, dispatcher: BatchDispatcher) => {
+      removed = !dispatcher.stillInUse()
+      if (removed) null else dispatcher
+    })
+    if (removed) logger.debug(s".unregister: unregistered dispatcher for batch ID $batchId")
+    else logger.debug(s".unregister: dispatcher for batch ID $batchId not found or still in use")
   }
 
 }
@@ -0,0 +1,145 @@
+package batch
+
+import cats.implicits._
+import diffson.jsonpatch._
+import diffson.playJson.DiffsonProtocol._
+import play.api.libs.json.{JsValue, Json}
+
+import scala.collection.mutable
+import scala.util.Try
+
+/**
+ * The authoritative batch session of one batch, held in memory. Patches are applied in place and journaled in the
+ * BatchSessionJournal. The BatchSessionStore writes snapshots to the database regularly (write-behind).
+ *
+ * All methods have to be called while holding this object's lock (BatchSessionStore.withSession does this).
+ *
+ * @author Kristian Lange
+ */
+class BatchSession(val batchId: Long, initialData: JsValue, initialVersion: Long, journal: BatchSessionJournal) {
+
+  private var data: JsValue = initialData
+  private var version: Long = initialVersion
+
+  /**
+   * Version that is stored in the database
+   */
+  private var persistedVersion: Long = initialVersion
+
+  /**
+   * Patches that aren't in the database yet: version after the patch and the patch itself
+   */
+  private val unpersisted = mutable.Queue[(Long, JsValue)]()
+
+  private var lastChanged: Long = System.currentTimeMillis()
+
+  /**
+   * Set when this session was removed from the store. A closed session must not be used anymore.
+   */
+  private[batch] var closed = false
+
+  def getData: JsValue = data
+
+  def getVersion: Long = version
+
+  def isDirty: Boolean = version != persistedVersion
+
+  def isIdle(now: Long, idleTimeout: Long): Boolean = now - lastChanged > idleTimeout
+
+  /**
+   * Applies the patches, but only if the client's version is the current one or versioning is turned off. Returns the
+   * new version or None if the versions didn't match. Throws an exception if the patches are invalid.
+   */
+  def patch(patches: JsValue, clientsVersion: Long, versioning: Boolean): Option[Long] = {
+    if (versioning && clientsVersion != version) return None
+    val patchedData = BatchSession.applyPatches(data, patches)
+    // Journal first: if this fails the patch isn't applied
+    journal.append(batchId, version + 1, patches)
+    data = patchedData
+    version += 1
+    unpersisted.enqueue(version -> patches)
+    lastChanged = System.currentTimeMillis()
+    Some(version)
+  }
+
+  /**
+   * Replaces the whole session data (e.g. via JATOS' API), but only if the given version is the current one or no
+   * version is given. It's journaled like a patch. Returns the new version or None if the versions didn't match.
+   */
+  def replace(newData: JsValue, expectedVersion: Option[Long]): Option[Long] =
+    patch(BatchSession.replacePatch(newData), expectedVersion.getOrElse(version), expectedVersion.isDefined)
+
+  /**
+   * Applies the journaled patches that are newer than the current version (e.g. after a restart)
+   */
+  def replay(entries: List[(Long, JsValue)]): Unit = {
+    entries.filter(_._1 > version).foreach { case (entryVersion, patches) =>
+      Try(BatchSession.applyPatches(data, patches)).foreach { patchedData =>
+        data = patchedData
+        version = entryVersion
+        unpersisted.enqueue(entryVersion -> patches)
+      }
+    }
+  }
+
+  /**
+   * Returns the data (as string), the version to write and the version that is expected in the database
+   */
+  def snapshot: (String, Long, Long) = (Json.stringify(data), version, persistedVersion)
+
+  /**
+   * Marks everything up to the given version as written to the database and shortens the journal
+   */
+  def persisted(snapshotVersion: Long): Unit = {
+    persistedVersion = snapshotVersion
+    unpersisted.dequeueWhile(_._1 <= snapshotVersion)
+    journal.rewrite(batchId, unpersisted)
+  }
+
+  /**
+   * The batch session in the database was changed by someone else (e.g. via JATOS' API): applies the patches that
+   * aren't in the database yet on top of the database's state. Patches that can't be applied anymore are dropped.
+   */
+  def rebase(dbData: JsValue, dbVersion: Long): Unit = {
+    val pending = unpersisted.toList
+    unpersisted.clear()
+    data = dbData
+    version = dbVersion
+    persistedVersion = dbVersion
+    pending.foreach { case (_, patches) =>
+      Try(BatchSession.applyPatches(data, patches)).foreach { patchedData =>
+        data = patchedData
+        version += 1
+        unpersisted.enqueue(version -> patches)
+      }
+    }
+    journal.rewrite(batchId, unpersisted)
+  }
+
+}
+
+object BatchSession {
+
+  /**
+   * JSON Patch that replaces the whole session data
+   */
+  def replacePatch(newData: JsValue): JsValue = Json.arr(Json.obj("op" -> "replace", "path" -> "", "value" -> newData))
+
+  /**
+   * Applies JSON Patches (RFC 6902) to the session data
+   */
+  def applyPatches(sessionData: JsValue, patches: JsValue): JsValue = {
+    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear all session data
+    // Assumes the 'remove' operation is in the first JSON patch
+    if ((patches \ 0 \ "op").asOpt[String].contains("remove") && (patches \ 0 \ "path").asOpt[String].contains("/")) {
+      return Json.obj()
+    }
+    // Replacement of the whole session data (see replacePatch)
+    if ((patches \ 0 \ "op").asOpt[String].contains("replace") && (patches \ 0 \ "path").asOpt[String].contains("")
+      && (patches \ 1).isEmpty) {
+      return (patches \ 0 \ "value").get
+    }
+    patches.as[JsonPatch[JsValue]].apply[Try](sessionData).get
+  }
+
+}
@@ -0,0 +1,108 @@
+package batch
+
+import play.api.Logger
+import play.api.libs.json.{JsValue, Json}
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption, StandardOpenOption}
+import scala.jdk.CollectionConverters._
+import scala.util.Try
+
+/**
+ * Journal of the batch session patches that are applied in memory but aren't written to the database yet. There is one
+ * file per batch (named by the batch ID) with one line per patch: the batch session version after the patch and the
+ * patch itself. After a snapshot was written to the database the journal is rewritten with only the remaining patches.
+ * After a restart the last snapshot in the database plus the journal give the last batch session state.
+ *
+ * It's not thread-safe: the caller has to hold the lock of the batch's BatchSession.
+ *
+ * @author Kristian Lange
+ */
+class BatchSessionJournal(dir: Path) {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  private val Suffix = ".journal"
+
+  /**
+   * Appends a patch to the batch's journal
+   */
+  def append(batchId: Long, version: Long, patches: JsValue): Unit = {
+    Files.createDirectories(dir)
+    Files.write(file(batchId), line(version, patches), StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+  }
+
+  /**
+   * Replaces the batch's journal with the given patches. If there are none, the journal file is deleted.
+   */
+  def rewrite(batchId: Long, entries: Iterable[(Long, JsValue)]): Unit = {
+    if (entries.isEmpty) {
+      delete(batchId)
+    } else {
+      val tmp = dir.resolve(s"$batchId$Suffix.tmp")
+      Files.write(tmp, entries.flatMap { case (version, patches) => line(version, patches) }.toArray)
+      Files.move(tmp, file(batchId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+  }
+
+  /**
+   * Reads the batch's journal. A broken line (e.g. the last one if JATOS was killed while writing) ends the journal.
+   */
+  def read(batchId: Long): List[(Long, JsValue)] = {
+    val f = file(batchId)
+    if (!Files.exists(f)) return Nil
+    Files.readAllLines(f, StandardCharsets.UTF_8).asScala.iterator
+      .map(l => Try(Json.parse(l)).toOption.flatMap(json => for {
+        version <- (json \ "version").asOpt[Long]
+        patches <- (json \ "patches").toOption
+      } yield (version, patches)))
+      .takeWhile(_.isDefined)
+      .flatten
+      .toList
+  }
+
+  def delete(batchId: Long): Unit = Files.deleteIfExists(file(batchId))
+
+  /**
+   * IDs of all batches that have a journal
+   */
+  def batchIds(): List[Long] = {
+    if (!Files.isDirectory(dir)) return Nil
+    val stream = Files.list(dir)
+    try stream.iterator.asScala
+      .map(_.getFileName.toString)
+      .filter(_.endsWith(Suffix))
+      .flatMap(name => name.stripSuffix(Suffix).toLongOption)
+      .toList
+    catch {
+      case e: Exception =>
+        logger.error(s".batchIds: couldn't list batch session journals in $dir", e)
+        Nil
+    } finally stream.close()
+  }
+
+  private def file(batchId: Long): Path = dir.resolve(s"$batchId$Suffix")
+
+  private def line(version: Long, patches: JsValue): Array[Byte] =
+    (Json.stringify(Json.obj("version" -> version, "patches" -> patches)) + "\n").getBytes(StandardCharsets.UTF_8)
+
+}
+
+object BatchSessionJournal {
+
+  /**
+   * Journal that doesn't write anything, for batch sessions that are written to the database right away
+   */
+  val Disabled: BatchSessionJournal = new BatchSessionJournal(null) {
+    override def append(batchId: Long, version: Long, patches: JsValue): Unit = {}
+
+    override def rewrite(batchId: Long, entries: Iterable[(Long, JsValue)]): Unit = {}
+
+    override def read(batchId: Long): List[(Long, JsValue)] = Nil
+
+    override def delete(batchId: Long): Unit = {}
+
+    override def batchIds(): List[Long] = Nil
+  }
+
+}
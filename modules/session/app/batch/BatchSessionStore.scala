@@ -0,0 +1,280 @@
+package batch
+
+import akka.actor.ActorSystem
+import batch.BatchDispatcher.{BatchAction, RemoteMsgKey, TellWhom}
+import batch.BatchSessionStore.Snapshot
+import cluster.ClusterBackplane
+import com.google.common.base.Strings
+import daos.common.BatchDao
+import models.common.Batch
+import general.common.{Common, DatabaseExecutionContext}
+import play.api.Logger
+import play.api.inject.ApplicationLifecycle
+import play.api.libs.json.{JsValue, Json}
+import play.db.jpa.JPAApi
+
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+import javax.inject.{Inject, Provider, Singleton}
+import scala.annotation.tailrec
+import scala.collection.concurrent.TrieMap
+import scala.compat.java8.FunctionConverters.asJavaSupplier
+import scala.concurrent.duration.Duration
+import scala.concurrent.{ExecutionContextExecutor, Future}
+import scala.util.Try
+
+/**
+ * Holds the batch sessions of all batches that currently have a BatchDispatcher (or had one a short while ago) in
+ * memory. Before, every batch session patch loaded the Batch from the database, applied the patch and wrote the whole
+ * session data back with a version check - with many participants in a batch this made the Batch a hot row with
+ * constant version conflicts. Now the patches are applied to the in-memory BatchSession and snapshots are written to
+ * the database every jatos.batchSession.snapshotInterval (write-behind). Patches that aren't in the database yet are
+ * kept in a BatchSessionJournal, so after a restart the session is the last snapshot plus the journal.
+ *
+ * JATOS' API reads and replaces the batch session through this store too. If the batch session in the database was
+ * changed by someone else in the meantime anyway, the snapshot isn't written and the in-memory session is rebased on
+ * the database's state instead. Whenever the whole session is replaced, the members of the batch get the new session
+ * data.
+ *
+ * In a multi-node JATOS the members of a batch can be connected to different nodes that all change the batch session.
+ * Then the batch session isn't held in memory but loaded from the database (with a row lock) for each access and
+ * written back right away (write-through).
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+class BatchSessionStore @Inject()(actorSystem: ActorSystem,
+                                  lifecycle: ApplicationLifecycle,
+                                  jpa: JPAApi,
+                                  batchDao: BatchDao,
+                                  backplane: ClusterBackplane,
+                                  // Provider: the dispatchers need this store themselves
+                                  dispatcherRegistry: Provider[BatchDispatcherRegistry]) {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  private val journal = new BatchSessionJournal(Paths.get(Common.getBatchSessionJournalPath))
+
+  /**
+   * Maps a batch ID to its in-memory batch session
+   */
+  private val sessions = TrieMap[Long, BatchSession]()
+
+  private val persistLock = new Object
+
+  // Writing the snapshots needs the database and therefore runs on the database dispatcher (but without the admission
+  // control of the DatabaseExecutionContext - snapshots must not be skipped)
+  private implicit val executor: ExecutionContextExecutor =
+    actorSystem.dispatchers.lookup(DatabaseExecutionContext.DISPATCHER_NAME)
+
+  /**
+   * Loads the batch sessions that have a journal left from before the last shutdown (so they get written to the
+   * database) and starts the scheduler that writes the snapshots
+   */
+  def start(): Unit = {
+    executor.execute(() => journal.batchIds().foreach(getOrLoad))
+
+    val interval = Common.getBatchSessionSnapshotInterval.toMillis
+    val scheduler = actorSystem.scheduler.schedule(
+      initialDelay = Duration(interval, TimeUnit.MILLISECONDS),
+      interval = Duration(interval, TimeUnit.MILLISECONDS),
+      runnable = () => persistAll())
+
+    // Stop the scheduler and write the last snapshots when the application shuts down
+    lifecycle.addStopHook(() => Future {
+      scheduler.cancel()
+      persistAll()
+    })
+  }
+
+  /**
+   * Runs the given function with the batch session of the given batch while holding its lock. Loads the batch session
+   * from the database if it isn't in memory. Returns None if the batch doesn't exist.
+   */
+  def withSession[T](batchId: Long)(f: BatchSession => T): Option[T] =
+    if (Common.isMultiNode) withSessionWriteThrough(batchId)(f) else withSessionInMemory(batchId)(f)
+
+  /**
+   * Returns the current batch session data (as JSON string) and version of the given batch, or null if the batch
+   * doesn't exist. E.g. for JATOS' API.
+   */
+  def get(batchId: Long): Snapshot =
+    withSession(batchId)(session => Snapshot(Json.stringify(session.getData), session.getVersion)).orNull
+
+  /**
+   * Replaces the whole batch session data of the given batch, e.g. via JATOS' API. If an expected version is given
+   * (not null), the session is only replaced if it still has this version. The members of the batch get the new session
+   * data.
+   *
+   * @return the new version, or null if the versions didn't match or the batch doesn't exist
+   */
+  def replace(batchId: Long, sessionData: String, expectedVersion: java.lang.Long): java.lang.Long = {
+    val data = Json.parse(sessionData)
+    val replaced = withSession(batchId)(_.replace(data, Option(expectedVersion).map(_.longValue))).flatten
+    replaced.foreach(version => tellSessionReplaced(batchId, data, version))
+    replaced.map(java.lang.Long.valueOf).orNull
+  }
+
+  /**
+   * Sends the replaced session data to the members of the batch: via this node's BatchDispatcher of the batch or, if
+   * there is none, directly to the other nodes
+   */
+  private def tellSessionReplaced(batchId: Long, data: JsValue, version: Long): Unit = {
+    dispatcherRegistry.get().get(batchId) match {
+      case Some(dispatcher) => dispatcher.sessionReplaced()
+      case None if backplane.hasPeers =>
+        val msg = BatchActionMsgBuilder.buildSessionData(data, version, BatchAction.Session, TellWhom.All)
+        backplane.publish(ClusterBackplane.batchTopic(batchId), Json.obj(RemoteMsgKey -> msg.json))
+      case None =>
+    }
+  }
+
+  @tailrec
+  private def withSessionInMemory[T](batchId: Long)(f: BatchSession => T): Option[T] = {
+    getOrLoad(batchId) match {
+      case None => None
+      case Some(session) =>
+        val result = session.synchronized {
+          if (session.closed) None else Some(f(session))
+        }
+        // If the session was evicted in the meantime, try again with a freshly loaded one
+        if (result.isDefined) result else withSessionInMemory(batchId)(f)
+    }
+  }
+
+  /**
+   * Loads the batch session from the database and locks the batch's row (other nodes wait), runs the given function
+   * and writes the batch session back if it was changed
+   */
+  private def withSessionWriteThrough[T](batchId: Long)(f: BatchSession => T): Option[T] = {
+    jpa.withTransaction(asJavaSupplier(() => Option(batchDao.findByIdForUpdate(batchId)).map { batch =>
+      val session = new BatchSession(batchId, parseSessionData(batch), batch.getBatchSessionVersion.longValue,
+        BatchSessionJournal.Disabled)
+      session.synchronized {
+        val result = f(session)
+        if (session.isDirty) {
+          val (data, version, expectedVersion) = session.snapshot
+          batchDao.updateBatchSessionSnapshot(batchId, expectedVersion, version, data)
+          session.persisted(version)
+        }
+        result
+      }
+    }))
+  }
+
+  private def getOrLoad(batchId: Long): Option[BatchSession] = {
+    sessions.get(batchId).orElse(synchronized {
+      sessions.get(batchId).orElse {
+        val loaded = load(batchId)
+        loaded.foreach(sessions.put(batchId, _))
+        loaded
+      }
+    })
+  }
+
+  /**
+   * Loads the batch session from the database and applies the patches from the journal
+   */
+  private def load(batchId: Long): Option[BatchSession] = {
+    val dbSession = loadFromDb(batchId)
+    if (dbSession.isEmpty) {
+      journal.delete(batchId)
+      return None
+    }
+
+    val (data, version) = dbSession.get
+    val session = new BatchSession(batchId, data, version, journal)
+    session.synchronized {
+      session.replay(journal.read(batchId))
+      if (session.isDirty) logger.info(s".load: batch $batchId - recovered batch session version " +
+        s"${session.getVersion} from journal")
+    }
+    logger.debug(s".load: loaded batch session of batch $batchId")
+    Some(session)
+  }
+
+  private def loadFromDb(batchId: Long): Option[(JsValue, Long)] = {
+    jpa.withTransaction(asJavaSupplier(() => Option(batchDao.findById(batchId, true)).map { batch =>
+      (parseSessionData(batch), batch.getBatchSessionVersion.longValue)
+    }))
+  }
+
+  private def parseSessionData(batch: Batch): JsValue = {
+    Try {
+      if (Strings.isNullOrEmpty(batch.getBatchSessionData)) Json.obj()
+      else Json.parse(batch.getBatchSessionData)
+    }.getOrElse {
+      logger.error(s".parseSessionData: invalid session data in DB - batchId ${batch.getId}, " +
+        s"batchSessionVersion ${batch.getBatchSessionVersion}, batchSessionData ${batch.getBatchSessionData}")
+      Json.obj()
+    }
+  }
+
+  /**
+   * Writes the snapshots of all changed batch sessions to the database and removes batch sessions from memory that
+   * weren't changed for a while
+   */
+  private[batch] def persistAll(): Unit = persistLock.synchronized {
+    try {
+      val snapshots = sessions.values.toList.flatMap(session => session.synchronized {
+        if (session.isDirty) Some(session -> session.snapshot) else None
+      })
+
+      if (snapshots.nonEmpty) {
+        val results = jpa.withTransaction(asJavaSupplier(() => snapshots.map {
+          case (session, (data, version, expectedVersion)) =>
+            session -> (version, batchDao.updateBatchSessionSnapshot(session.batchId, expectedVersion, version, data))
+        }))
+        results.foreach {
+          case (session, (version, true)) => session.synchronized(session.persisted(version))
+          case (session, (_, false)) => rebase(session)
+        }
+      }
+
+      evictIdle()
+    } catch {
+      case e: Exception => logger.error(".persistAll: couldn't write batch sessions", e)
+    }
+  }
+
+  private def rebase(session: BatchSession): Unit = {
+    loadFromDb(session.batchId) match {
+      case Some((data, version)) =>
+        logger.info(s".rebase: batch session of batch ${session.batchId} was changed in the database - rebase")
+        val rebased = session.synchronized {
+          session.rebase(data, version)
+          (session.getData, session.getVersion)
+        }
+        tellSessionReplaced(session.batchId, rebased._1, rebased._2)
+      case None =>
+        logger.info(s".rebase: batch ${session.batchId} doesn't exist anymore - drop its batch session")
+        session.synchronized {
+          session.closed = true
+          sessions.remove(session.batchId)
+          journal.delete(session.batchId)
+        }
+    }
+  }
+
+  private def evictIdle(): Unit = {
+    val now = System.currentTimeMillis()
+    val idleTimeout = Common.getBatchSessionIdleTimeout.toMillis
+    sessions.values.foreach(session => session.synchronized {
+      if (!session.isDirty && session.isIdle(now, idleTimeout)) {
+        session.closed = true
+        sessions.remove(session.batchId)
+        logger.debug(s".evictIdle: removed batch session of batch ${session.batchId} from memory")
+      }
+    })
+  }
+
+}
+
+object BatchSessionStore {
+
+  /**
+   * Batch session data (as JSON string) and version
+   */
+  case class Snapshot(data: String, version: Long)
+
+}
@@ -0,0 +1,95 @@
+package cluster
+
+import play.api.Logger
+import play.api.libs.json.JsObject
+
+import scala.collection.concurrent.TrieMap
+
+/**
+ * The BatchDispatchers and GroupDispatchers of a JATOS node only know the channels (WebSockets) that are open on this
+ * node. In a multi-node JATOS the members of a batch or group can be connected to different nodes. The
+ * ClusterBackplane routes the channel messages between the nodes: a dispatcher publishes the messages that go to
+ * everyone (or to a channel it doesn't have) under its topic and the dispatchers of the same batch or group on the other
+ * nodes get them and send them to their channels.
+ *
+ * A node never gets its own messages back.
+ *
+ * @author Kristian Lange
+ */
+trait ClusterBackplane {
+
+  /**
+   * Unique ID of this node
+   */
+  def nodeId: String
+
+  /**
+   * True if there are other nodes that might get the published messages
+   */
+  def hasPeers: Boolean
+
+  /**
+   * Starts the backplane (e.g. the polling of the database). Called once during application start.
+   */
+  def start(): Unit
+
+  /**
+   * Sends the message to the subscribers of the topic on all other nodes
+   */
+  def publish(topic: String, msg: JsObject): Unit
+
+  /**
+   * Subscribes to the messages published under the topic by the other nodes. The handler is called on a thread of the
+   * backplane and must not block.
+   */
+  def subscribe(topic: String)(handler: JsObject => Unit): ClusterBackplane.Subscription
+
+}
+
+object ClusterBackplane {
+
+  def batchTopic(batchId: Long): String = s"batch-$batchId"
+
+  def groupTopic(groupResultId: Long): String = s"group-$groupResultId"
+
+  class Subscription private[cluster](val topic: String,
+                                      private[cluster] val handler: JsObject => Unit,
+                                      subscriptions: Subscriptions) {
+    def cancel(): Unit = subscriptions.remove(this)
+  }
+
+  /**
+   * Keeps the subscriptions of one node and delivers the messages from the other nodes to them
+   */
+  private[cluster] class Subscriptions {
+
+    private val logger: Logger = Logger(this.getClass)
+
+    private val byTopic = TrieMap[String, List[Subscription]]()
+
+    def add(topic: String, handler: JsObject => Unit): Subscription = synchronized {
+      val subscription = new Subscription(topic, handler, this)
+      byTopic.put(topic, subscription :: byTopic.getOrElse(topic, Nil))
+      subscription
+    }
+
+    def remove(subscription: Subscription): Unit = synchronized {
+      byTopic.getOrElse(subscription.topic, Nil).filterNot(_ eq subscription) match {
+        case Nil => byTopic.remove(subscription.topic)
+        case remaining => byTopic.put(subscription.topic, remaining)
+      }
+    }
+
+    def topics: Iterable[String] = byTopic.keys
+
+    def deliver(topic: String, msg: JsObject): Unit = {
+      byTopic.getOrElse(topic, Nil).foreach { subscription =>
+        try subscription.handler(msg)
+        catch {
+          case e: Exception => logger.error(s".deliver: couldn't handle message for topic $topic", e)
+        }
+      }
+    }
+  }
+
+}
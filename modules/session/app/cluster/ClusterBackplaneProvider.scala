@@ -0,0 +1,20 @@
+package cluster
+
+import general.common.Common
+import play.api.inject.Injector
+
+import javax.inject.{Inject, Provider}
+
+/**
+ * Provides the ClusterBackplane: in multi-node mode the nodes exchange the channel messages via the database, otherwise
+ * there are no other nodes and an InMemoryBackplane with a hub of its own is used.
+ *
+ * @author Kristian Lange
+ */
+class ClusterBackplaneProvider @Inject()(injector: Injector) extends Provider[ClusterBackplane] {
+
+  override def get(): ClusterBackplane =
+    if (Common.isMultiNode) injector.instanceOf[DatabaseBackplane]
+    else new InMemoryBackplane()
+
+}
@@ -0,0 +1,285 @@
+package cluster
+
+import akka.actor.ActorSystem
+import general.common.{Common, DatabaseExecutionContext}
+import play.api.Logger
+import play.api.db.Database
+import play.api.inject.ApplicationLifecycle
+import play.api.libs.json.{JsObject, Json}
+
+import java.sql.Timestamp
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit}
+import javax.inject.{Inject, Singleton}
+import scala.collection.mutable
+import scala.concurrent.duration.Duration
+import scala.concurrent.{ExecutionContextExecutor, Future}
+import scala.util.Try
+
+/**
+ * ClusterBackplane of a multi-node JATOS that uses the shared database as transport: published messages are inserted
+ * into the ClusterMessage table and every node polls this table for new messages in the poll interval
+ * (jatos.multiNodeBackplane.pollInterval). Old messages are deleted after the retention time.
+ *
+ * Publishing doesn't block the caller (e.g. a dispatcher holding its lock): the messages are queued and inserted in
+ * order by a single writer on the database dispatcher.
+ *
+ * Every node publishes a heartbeat message regularly. A node has peers only if another node's heartbeat was seen
+ * recently - so e.g. a direct message to a group member that is on no node gets an error instead of being published
+ * to nobody.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+class DatabaseBackplane @Inject()(actorSystem: ActorSystem,
+                                  lifecycle: ApplicationLifecycle,
+                                  db: Database) extends ClusterBackplane {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  /**
+   * How long the poller waits for a missing message ID before it skips it
+   */
+  private val GapTimeout = 10000L
+
+  private val MaxMessagesPerPoll = 1000
+
+  private val MaxMessagesPerInsert = 100
+
+  /**
+   * Topic of the heartbeat messages of the nodes
+   */
+  private[cluster] val HeartbeatTopic = "node-heartbeat"
+
+  private val HeartbeatInterval = 5000L
+
+  /**
+   * A node without a heartbeat for this long isn't a peer anymore
+   */
+  private val PeerTimeout = 3 * HeartbeatInterval
+
+  val nodeId: String = UUID.randomUUID().toString
+
+  private val subscriptions = new ClusterBackplane.Subscriptions
+
+  /**
+   * All messages up to this ID are handled
+   */
+  private var watermark: Long = 0
+
+  /**
+   * IDs above the watermark that are already handled. The auto-increment ID is assigned before the insert is committed,
+   * so a message with a lower ID can show up after one with a higher ID.
+   */
+  private val handledAboveWatermark = mutable.SortedSet[Long]()
+
+  private var gapSince: Option[Long] = None
+
+  /**
+   * Maps the IDs of the other nodes to the time their last heartbeat was seen
+   */
+  private val peersLastSeen = new ConcurrentHashMap[String, java.lang.Long]()
+
+  /**
+   * Messages waiting to be inserted: topic, payload and creation date
+   */
+  private val outbox = new ConcurrentLinkedQueue[(String, String, Timestamp)]()
+
+  private val writing = new AtomicBoolean(false)
+
+  private implicit val executor: ExecutionContextExecutor =
+    actorSystem.dispatchers.lookup(DatabaseExecutionContext.DISPATCHER_NAME)
+
+  override def hasPeers: Boolean = {
+    val now = System.currentTimeMillis()
+    peersLastSeen.values.stream.anyMatch(lastSeen => now - lastSeen < PeerTimeout)
+  }
+
+  override def start(): Unit = {
+    watermark = db.withConnection { connection =>
+      val statement = connection.createStatement()
+      try {
+        val resultSet = statement.executeQuery("SELECT COALESCE(MAX(`id`), 0) FROM `ClusterMessage`")
+        if (resultSet.next()) resultSet.getLong(1) else 0L
+      } finally statement.close()
+    }
+    loadPeers()
+    heartbeat()
+
+    val pollInterval = Common.getMultiNodeBackplanePollInterval.toMillis
+    val poller = actorSystem.scheduler.schedule(
+      initialDelay = Duration(pollInterval, TimeUnit.MILLISECONDS),
+      interval = Duration(pollInterval, TimeUnit.MILLISECONDS),
+      runnable = () => poll())
+    val heartbeater = actorSystem.scheduler.schedule(
+      initialDelay = Duration(HeartbeatInterval, TimeUnit.MILLISECONDS),
+      interval = Duration(HeartbeatInterval, TimeUnit.MILLISECONDS),
+      runnable = () => heartbeat())
+    val retention = Common.getMultiNodeBackplaneRetention.toMillis
+    val cleaner = actorSystem.scheduler.schedule(
+      initialDelay = Duration(retention, TimeUnit.MILLISECONDS),
+      interval = Duration(retention, TimeUnit.MILLISECONDS),
+      runnable = () => deleteOld(retention))
+
+    lifecycle.addStopHook(() => Future {
+      poller.cancel()
+      heartbeater.cancel()
+      cleaner.cancel()
+    })
+    logger.info(s".start: node $nodeId polls for channel messages every ${pollInterval}ms")
+  }
+
+  /**
+   * Queues the message for insertion. The messages of this node keep their order.
+   */
+  override def publish(topic: String, msg: JsObject): Unit = {
+    outbox.add((topic, Json.stringify(msg), new Timestamp(System.currentTimeMillis())))
+    scheduleWrite()
+  }
+
+  /**
+   * Starts the writer on the database dispatcher unless it's running already. Only one writer runs at a time.
+   */
+  private def scheduleWrite(): Unit = {
+    if (!outbox.isEmpty && writing.compareAndSet(false, true)) executor.execute(() => write())
+  }
+
+  /**
+   * Inserts the queued messages (with auto-commit) in one batch
+   */
+  private def write(): Unit = {
+    try {
+      val messages = Iterator.continually(outbox.poll()).takeWhile(_ != null).take(MaxMessagesPerInsert).toList
+      if (messages.nonEmpty) db.withConnection { connection =>
+        val statement = connection.prepareStatement(
+          "INSERT INTO `ClusterMessage` (`topic`, `nodeId`, `payload`, `creationDate`) VALUES (?, ?, ?, ?)")
+        try {
+          messages.foreach { case (topic, payload, creationDate) =>
+            statement.setString(1, topic)
+            statement.setString(2, nodeId)
+            statement.setString(3, payload)
+            statement.setTimestamp(4, creationDate)
+            statement.addBatch()
+          }
+          statement.executeBatch()
+        } finally statement.close()
+      }
+    } catch {
+      case e: Exception => logger.error(".write: couldn't write channel messages to the database", e)
+    } finally {
+      writing.set(false)
+      scheduleWrite()
+    }
+  }
+
+  private[cluster] def heartbeat(): Unit = publish(HeartbeatTopic, Json.obj())
+
+  /**
+   * Takes the nodes that sent a heartbeat recently as peers (e.g. during start)
+   */
+  private def loadPeers(): Unit = {
+    val now = System.currentTimeMillis()
+    db.withConnection { connection =>
+      val statement = connection.prepareStatement("SELECT DISTINCT `nodeId` FROM `ClusterMessage` " +
+        "WHERE `topic` = ? AND `creationDate` > ?")
+      try {
+        statement.setString(1, HeartbeatTopic)
+        statement.setTimestamp(2, new Timestamp(now - PeerTimeout))
+        val resultSet = statement.executeQuery()
+        while (resultSet.next()) {
+          if (resultSet.getString(1) != nodeId) peersLastSeen.put(resultSet.getString(1), now)
+        }
+      } finally statement.close()
+    }
+  }
+
+  override def subscribe(topic: String)(handler: JsObject => Unit): ClusterBackplane.Subscription =
+    subscriptions.add(topic, handler)
+
+  /**
+   * Handles the new messages above the watermark. While waiting for a missing ID, the messages that are already handled
+   * are paged past, so more than MaxMessagesPerPoll handled messages after a gap don't stall the new ones.
+   */
+  private[cluster] def poll(): Unit = synchronized {
+    try {
+      val topics = subscriptions.topics.toSet
+      var afterId = watermark
+      var done = false
+      while (!done) {
+        val rows = fetchAfter(afterId)
+        val newRows = rows.filterNot { case (id, _, _, _) => handledAboveWatermark.contains(id) }
+        newRows.foreach { case (id, topic, senderNodeId, payload) =>
+          handledAboveWatermark += id
+          if (senderNodeId != nodeId && topic == HeartbeatTopic) {
+            peersLastSeen.put(senderNodeId, System.currentTimeMillis())
+          } else if (senderNodeId != nodeId && topics.contains(topic)) {
+            Try(Json.parse(payload).as[JsObject]).fold(
+              e => logger.error(s".poll: invalid channel message $id", e),
+              msg => subscriptions.deliver(topic, msg))
+          }
+        }
+        done = newRows.nonEmpty || rows.size < MaxMessagesPerPoll
+        if (!done) afterId = rows.last._1
+      }
+      advanceWatermark(System.currentTimeMillis())
+      removeGonePeers()
+    } catch {
+      case e: Exception => logger.error(".poll: couldn't get channel messages from the database", e)
+    }
+  }
+
+  /**
+   * Reads at most MaxMessagesPerPoll messages with a higher ID than the given one: ID, topic, node ID and payload
+   */
+  private def fetchAfter(afterId: Long): List[(Long, String, String, String)] = db.withConnection { connection =>
+    val statement = connection.prepareStatement("SELECT `id`, `topic`, `nodeId`, `payload` FROM " +
+      "`ClusterMessage` WHERE `id` > ? ORDER BY `id` LIMIT " + MaxMessagesPerPoll)
+    try {
+      statement.setLong(1, afterId)
+      val resultSet = statement.executeQuery()
+      val buffer = mutable.ListBuffer[(Long, String, String, String)]()
+      while (resultSet.next()) {
+        buffer += ((resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4)))
+      }
+      buffer.toList
+    } finally statement.close()
+  }
+
+  private def advanceWatermark(now: Long): Unit = {
+    while (handledAboveWatermark.headOption.contains(watermark + 1)) {
+      watermark += 1
+      handledAboveWatermark -= watermark
+    }
+    if (handledAboveWatermark.isEmpty) {
+      gapSince = None
+    } else if (gapSince.isEmpty) {
+      gapSince = Some(now)
+    } else if (now - gapSince.get > GapTimeout) {
+      // The missing ID won't show up anymore (e.g. a rolled back insert)
+      watermark = handledAboveWatermark.head - 1
+      gapSince = None
+      advanceWatermark(now)
+    }
+  }
+
+  private def removeGonePeers(): Unit = {
+    val now = System.currentTimeMillis()
+    peersLastSeen.entrySet.removeIf(entry => now - entry.getValue >= PeerTimeout)
+  }
+
+  private def deleteOld(retention: Long): Unit = {
+    try {
+      db.withConnection { connection =>
+        val statement = connection.prepareStatement("DELETE FROM `ClusterMessage` WHERE `creationDate` < ?")
+        try {
+          statement.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retention))
+          statement.executeUpdate()
+        } finally statement.close()
+      }
+    } catch {
+      case e: Exception => logger.error(".deleteOld: couldn't delete old channel messages", e)
+    }
+  }
+
+}
@@ -0,0 +1,57 @@
+package cluster
+
+import play.api.libs.json.JsObject
+
+import java.util.UUID
+import java.util.concurrent.CopyOnWriteArrayList
+import scala.jdk.CollectionConverters._
+
+/**
+ * ClusterBackplane for nodes within the same JVM: all nodes that share a Hub get each other's messages. A single-node
+ * JATOS uses it with a Hub of its own (so publishing does nothing). Several nodes inside one JVM (e.g. in tests) share
+ * one Hub.
+ *
+ * @author Kristian Lange
+ */
+class InMemoryBackplane(hub: InMemoryBackplane.Hub,
+                        val nodeId: String = UUID.randomUUID().toString) extends ClusterBackplane {
+
+  /**
+   * A node on its own
+   */
+  def this() = this(new InMemoryBackplane.Hub)
+
+  private val subscriptions = new ClusterBackplane.Subscriptions
+
+  hub.join(this)
+
+  override def hasPeers: Boolean = hub.size > 1
+
+  override def start(): Unit = {}
+
+  override def publish(topic: String, msg: JsObject): Unit = hub.publish(this, topic, msg)
+
+  override def subscribe(topic: String)(handler: JsObject => Unit): ClusterBackplane.Subscription =
+    subscriptions.add(topic, handler)
+
+  private def deliver(topic: String, msg: JsObject): Unit = subscriptions.deliver(topic, msg)
+
+}
+
+object InMemoryBackplane {
+
+  class Hub {
+
+    private val nodes = new CopyOnWriteArrayList[InMemoryBackplane]()
+
+    private[cluster] def join(node: InMemoryBackplane): Unit = nodes.add(node)
+
+    def leave(node: InMemoryBackplane): Unit = nodes.remove(node)
+
+    def size: Int = nodes.size
+
+    private[cluster] def publish(publisher: InMemoryBackplane, topic: String, msg: JsObject): Unit =
+      nodes.asScala.filterNot(_ eq publisher).foreach(_.deliver(topic, msg))
+  }
+
+}
@@ -0,0 +1,52 @@
+package general.session
+
+import play.api.libs.json.JsObject
+
+import scala.collection.mutable
+
+/**
+ * Bounded log of the last session patch messages of a batch or a group session. Each message is logged together with
+ * the session version before and after its patches. A client that reconnects its batch or group channel tells its last
+ * session version and gets only the patch messages it missed - the whole session data only if it's too far behind.
+ *
+ * The log only holds an unbroken chain of versions: a message that doesn't continue the last one (e.g. patches were
+ * applied on another node and never arrived here) clears the log. Not thread-safe: the dispatchers use it while they
+ * hold their session lock.
+ *
+ * @param maxEntries Max number of logged messages (0 means nothing is logged)
+ * @author Kristian Lange
+ */
+class SessionPatchLog(maxEntries: Int) {
+
+  private case class Entry(fromVersion: Long, toVersion: Long, msg: JsObject)
+
+  private val entries = mutable.Queue[Entry]()
+
+  def append(fromVersion: Long, toVersion: Long, msg: JsObject): Unit = {
+    if (maxEntries <= 0) return
+    if (entries.nonEmpty && entries.last.toVersion != fromVersion) entries.clear()
+    entries.enqueue(Entry(fromVersion, toVersion, msg))
+    while (entries.size > maxEntries) entries.dequeue()
+  }
+
+  /**
+   * Returns the messages a client with the given session version needs to get to the current version (empty if it's
+   * up-to-date) or None if the log doesn't reach back that far.
+   */
+  def since(version: Long, currentVersion: Long): Option[List[JsObject]] = {
+    if (version == currentVersion) Some(Nil)
+    else if (entries.isEmpty || entries.last.toVersion != currentVersion) None
+    else {
+      val missed = entries.dropWhile(_.fromVersion != version)
+      if (missed.isEmpty) None else Some(missed.map(_.msg).toList)
+    }
+  }
+
+  /**
+   * Empties the log, e.g. after the whole session data was replaced - the logged patches don't lead to it anymore
+   */
+  def clear(): Unit = entries.clear()
+
+  def size: Int = entries.size
+
+}
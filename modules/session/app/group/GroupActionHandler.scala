@@ -8,10 +8,11 @@ import group.GroupDispatcher.{GroupAction, GroupActionJsonKey, GroupMsg, TellWho
 import models.common.GroupResult
 import models.common.GroupResult.GroupState
 import play.api.Logger
-import play.api.libs.json.{JsObject, JsValue, Json}
+import play.api.libs.json.{JsArray, JsObject, JsValue, Json}
 import play.db.jpa.JPAApi
 
 import javax.inject.{Inject, Singleton}
+import scala.collection.mutable
 import scala.compat.java8.FunctionConverters.asJavaSupplier
 import scala.util.Try
 
@@ -52,71 +53,101 @@ class GroupActionHandler @Inject()(jpa: JPAApi,
    * Applies the patch to the group session
    */
   private def handlePatch(json: JsObject, groupResultId: Long, studyResultId: Long): List[GroupMsg] = {
+    val (broadcasts, replies) = handlePatches(List(json -> studyResultId), groupResultId)
+    broadcasts ++ replies
+  }
+
+  /**
+   * Applies the given session patches (e.g. all patches that arrived within the study's group session patch window)
+   * to the group session in the order they came in and persists the group session once. Each patch is checked against
+   * the session version like it would be on its own, and each successful patch increases the version by 1.
+   *
+   * Returns 1) the combined session patch messages that go to all group members (usually one - only a patch that
+   * clears the whole session starts a new one) and 2) for each given patch in the same order the reply (ACK or FAIL)
+   * for its sender. The replies have to be sent after the combined messages.
+   */
+  def handlePatches(patchMsgs: List[(JsObject, Long)], groupResultId: Long): (List[GroupMsg], List[GroupMsg]) = {
     jpa.withTransaction(asJavaSupplier(() => {
       val groupResult = groupResultDao.findById(groupResultId)
-      if (groupResult == null) {
+      if (groupResult != null) {
+        applyPatches(groupResult, patchMsgs)
+      } else {
         val errorMsg = s"Couldn't find group result with ID $groupResultId in database."
-        return List(msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly))
+        (Nil, patchMsgs.map(_ => msgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly)))
       }
+    }))
+  }
 
+  private def applyPatches(groupResult: GroupResult,
+                           patchMsgs: List[(JsObject, Long)]): (List[GroupMsg], List[GroupMsg]) = {
+    val groupResultId = groupResult.getId
+    var sessionData = currentSessionData(groupResult)
+    var version: Long = groupResult.getGroupSessionVersion
+    val initialVersion = version
+    // Each segment is the list of applied patch operations and the session version after them
+    val segments = mutable.ListBuffer[(mutable.ListBuffer[JsValue], Long)]()
+    val outcomes = patchMsgs.map { case (json, studyResultId) =>
       val sessionActionId = (json \ GroupActionJsonKey.SessionActionId.toString).as[Long]
-      val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
-      val versioning = (json \ GroupActionJsonKey.SessionVersioning.toString).as[Boolean]
       try {
-        val patches = (json \ GroupActionJsonKey.SessionPatches.toString).get
-        val patchedSessionData = patchSessionData(patches, groupResult)
-        logger.debug(s".handlePatch: groupResultId $groupResultId, " +
-          s"clientsVersion $clientsVersion, versioning $versioning, groupSessionPatch ${Json.stringify(patches)}, " +
-          s"updatedSessionData ${Json.stringify(patchedSessionData)}")
-
-        val success = checkVersionAndPersistSessionData(patchedSessionData, groupResult, clientsVersion, versioning)
-        if (success) {
-          val msg1 = msgBuilder.buildSessionPatch(groupResult, studyResultId, patches, TellWhom.All)
-          val msg2 = msgBuilder.buildSimple(groupResult, GroupAction.SessionAck, Some(sessionActionId), TellWhom.SenderOnly)
-          List(msg1, msg2)
+        val clientsVersion = (json \ GroupActionJsonKey.SessionVersion.toString).as[Long]
+        val versioning = (json \ GroupActionJsonKey.SessionVersioning.toString).as[Boolean]
+        val patches = (json \ GroupActionJsonKey.SessionPatches.toString).as[JsArray]
+        if (versioning && clientsVersion != version) {
+          sessionActionId -> false
         } else {
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, Some(sessionActionId), TellWhom.SenderOnly))
+          sessionData = patchSessionData(patches, sessionData)
+          version += 1
+          logger.debug(s".handlePatches: groupResultId $groupResultId, studyResultId $studyResultId, " +
+            s"clientsVersion $clientsVersion, versioning $versioning, groupSessionPatch ${Json.stringify(patches)}, " +
+            s"new version $version")
+          // The clients only recognize a patch that clears the session if it's the first one in the message
+          if (segments.isEmpty || isClearSession(patches)) segments += (mutable.ListBuffer[JsValue]() -> version)
+          val (operations, _) = segments.last
+          operations ++= patches.value
+          segments(segments.length - 1) = operations -> version
+          sessionActionId -> true
         }
       } catch {
         case e: Exception =>
-          logger.debug(s".handlePatch: groupResultId $groupResultId, json ${Json.stringify(json)}," +
+          logger.debug(s".handlePatches: groupResultId $groupResultId, json ${Json.stringify(json)}," +
             s" ${e.getClass.getName}: ${e.getMessage}")
-          List(msgBuilder.buildSimple(groupResult, GroupAction.SessionFail, Some(sessionActionId), TellWhom.SenderOnly))
+          sessionActionId -> false
       }
-    }))
-  }
+    }
 
-  private def patchSessionData(patches: JsValue, groupResult: GroupResult): JsValue = {
-    val currentSessionData =
-      if (!Strings.isNullOrEmpty(groupResult.getGroupSessionData))
-        Json.parse(groupResult.getGroupSessionData)
-      else Json.obj()
+    if (segments.nonEmpty) {
+      groupResult.setGroupSessionData(sessionData.toString)
+      groupResult.setGroupSessionVersion(version)
+      groupResultDao.update(groupResult)
+    }
 
-    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear session data
-    // Assumes the 'remove' operation is in the first JSON patch
-    if ((patches \ 0 \ "op").as[String] == "remove" && (patches \ 0 \ "path").as[String] == "/") {
-      return Json.obj()
+    // A segment starts at the version the previous one ended with
+    val previousVersions = initialVersion :: segments.toList.map(_._2)
+    val broadcasts = segments.toList.zip(previousVersions).map { case ((operations, segmentVersion), previousVersion) =>
+      msgBuilder.buildSessionPatch(groupResult, previousVersion, segmentVersion, JsArray(operations.toSeq),
+        TellWhom.All)
     }
+    val replies = outcomes.map { case (sessionActionId, success) =>
+      val action = if (success) GroupAction.SessionAck else GroupAction.SessionFail
+      msgBuilder.buildSimple(groupResult, action, Some(sessionActionId), TellWhom.SenderOnly)
+    }
+    (broadcasts, replies)
+  }
 
-    val patch = Json.parse(patches.toString()).as[JsonPatch[JsValue]]
-    patch[Try](currentSessionData).get
+  private def currentSessionData(groupResult: GroupResult): JsValue = {
+    if (!Strings.isNullOrEmpty(groupResult.getGroupSessionData)) Json.parse(groupResult.getGroupSessionData)
+    else Json.obj()
   }
 
-  /**
-   * Persists the given sessionData in the GroupResult and increases the groupSessionVersion by 1 - but only if the
-   * stored version is equal to the received one or versioning is turned off. Returns true if this was successful -
-   * otherwise false.
-   */
-  private def checkVersionAndPersistSessionData(sessionData: JsValue, groupResult: GroupResult,
-                                                version: Long,
-                                                versioning: Boolean): Boolean = {
-    if (groupResult != null && sessionData != null && (!versioning || groupResult.getGroupSessionVersion == version)) {
-      groupResult.setGroupSessionData(sessionData.toString)
-      groupResult.setGroupSessionVersion(groupResult.getGroupSessionVersion + 1L)
-      groupResultDao.update(groupResult)
-      return true
-    }
-    false
+  private def isClearSession(patches: JsValue): Boolean =
+    (patches \ 0 \ "op").asOpt[String].contains("remove") && (patches \ 0 \ "path").asOpt[String].contains("/")
+
+  private def patchSessionData(patches: JsValue, sessionData: JsValue): JsValue = {
+    // Fix for gnieh.diffson JsonPatch for "remove" and "/" - clear session data
+    // Assumes the 'remove' operation is in the first JSON patch
+    if (isClearSession(patches)) return Json.obj()
+
+    patches.as[JsonPatch[JsValue]].apply[Try](sessionData).get
   }
 
   /**
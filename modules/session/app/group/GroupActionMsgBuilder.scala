@@ -70,14 +70,16 @@ class GroupActionMsgBuilder @Inject()(jpa: JPAApi, groupResultDao: GroupResultDa
   }
 
   /**
-   * Builds a GroupMsg with the group session patch and version
+   * Builds a GroupMsg with the group session patch, the version before the patch and the version after it
    */
-  def buildSessionPatch(groupResult: GroupResult, studyResultId: Long, patches: JsValue, tellWhom: TellWhom): GroupMsg = {
-    logger.debug(s".buildSessionPatch: groupResultId ${groupResult.getId}, studyResultId $studyResultId")
+  def buildSessionPatch(groupResult: GroupResult, previousSessionVersion: Long, sessionVersion: Long, patches: JsValue,
+                        tellWhom: TellWhom): GroupMsg = {
+    logger.debug(s".buildSessionPatch: groupResultId ${groupResult.getId}, sessionVersion $sessionVersion")
     val json = Json.obj(
       GroupActionJsonKey.Action.toString -> GroupAction.Session.toString,
       GroupActionJsonKey.SessionPatches.toString -> patches,
-      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(groupResult.getGroupSessionVersion)))
+      GroupActionJsonKey.SessionPreviousVersion.toString -> JsNumber(BigDecimal(previousSessionVersion)),
+      GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(sessionVersion)))
     GroupMsg(json, tellWhom)
   }
 
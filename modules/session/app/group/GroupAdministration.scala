@@ -1,6 +1,9 @@
 package group
 
+import cluster.ClusterBackplane
 import daos.common.{GroupResultDao, StudyResultDao}
+import general.common.Common
+import group.GroupDispatcher.RemoteCommand
 import models.common.GroupResult.GroupState
 import models.common.{Batch, GroupResult, StudyResult}
 import play.api.Logger
@@ -23,10 +26,18 @@ import scala.jdk.CollectionConverters._
 class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegistry,
                                     studyResultDao: StudyResultDao,
                                     groupResultDao: GroupResultDao,
-                                    jpa: JPAApi) {
+                                    jpa: JPAApi,
+                                    backplane: ClusterBackplane,
+                                    matchmaker: GroupMatchmaker,
+                                    idleTimers: GroupMemberIdleTimers) {
 
   private val logger: Logger = Logger(this.getClass)
 
+  /**
+   * How often a join tries a group from the matchmaker before it falls back to searching the database
+   */
+  private val MaxMatchmakingAttempts = 10
+
   /**
    * Checks if the given study result belongs to a group study and then leaves the group
    */
@@ -41,10 +52,55 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
   /**
    * Joins a group or creates a new group.
    *
-   * It looks in the database whether we have an incomplete GroupResult (state STARTED, maxActiveMember not reached,
-   * maxTotalMembers not reached). If there is none, create a new GroupResult.
+   * In a single-node JATOS the GroupMatchmaker picks the group and only this group's row is locked while the member is
+   * added. In a multi-node JATOS it looks in the database whether we have an incomplete GroupResult (state STARTED,
+   * maxActiveMember not reached, maxTotalMembers not reached). If there is none, create a new GroupResult.
    */
   def join(studyResult: StudyResult, batch: Batch): GroupResult = {
+    if (Common.isMultiNode) joinViaDatabase(studyResult, batch)
+    else joinViaMatchmaker(studyResult, batch, 1)
+  }
+
+  private def joinViaMatchmaker(studyResult: StudyResult, batch: Batch, attempt: Int): GroupResult = {
+    val groupResultId = matchmaker.reserveSlot(batch)
+    var joined: Option[GroupResult] = None
+    try {
+      joined = jpa.withTransaction(asJavaSupplier(() => addToGroup(studyResult, batch, groupResultId)))
+    } finally {
+      matchmaker.release(batch.getId, groupResultId, joined)
+    }
+
+    if (joined.isDefined) {
+      // Runs until the member opens its group channel
+      idleTimers.schedule(studyResult.getId)
+      sendJoinedMsg(studyResult)
+      joined.get
+    } else if (attempt < MaxMatchmakingAttempts) {
+      joinViaMatchmaker(studyResult, batch, attempt + 1)
+    } else {
+      logger.warn(s".joinViaMatchmaker: couldn't join study result ${studyResult.getId} to any group of batch " +
+        s"${batch.getId} after $attempt attempts - searching the database")
+      joinViaDatabase(studyResult, batch)
+    }
+  }
+
+  /**
+   * Locks the group result and adds the study result as active member if the group still has a free slot
+   */
+  private def addToGroup(studyResult: StudyResult, batch: Batch, groupResultId: Long): Option[GroupResult] = {
+    val groupResult = groupResultDao.findByIdForUpdate(groupResultId)
+    if (groupResult == null || !GroupMatchmaker.hasFreeSlot(groupResult, batch)) {
+      None
+    } else {
+      groupResult.addActiveMember(studyResult)
+      studyResult.setActiveGroupResult(groupResult)
+      groupResultDao.update(groupResult)
+      studyResultDao.update(studyResult)
+      Some(groupResult)
+    }
+  }
+
+  private def joinViaDatabase(studyResult: StudyResult, batch: Batch): GroupResult = {
     jpa.withTransaction(asJavaSupplier(() => {
       val allGroupMaxNotReached = groupResultDao.findAllMaxNotReached(batch)
       val groupMaxNotReached =
@@ -56,6 +112,7 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
       groupResultDao.update(groupMaxNotReached)
       studyResultDao.update(studyResult)
 
+      idleTimers.schedule(studyResult.getId)
       sendJoinedMsg(studyResult)
 
       groupMaxNotReached
@@ -73,6 +130,8 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
 
     moveActiveMemberToHistory(studyResult)
     checkAndFinishGroup(groupResult)
+    matchmaker.update(groupResult)
+    idleTimers.cancel(studyResult.getId)
 
     closeGroupChannel(studyResult.getId, groupResult.getId)
     sendLeftMsg(studyResult, groupResult)
@@ -86,6 +145,8 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
     val groupDispatcherOption = groupDispatcherRegistry.get(groupResultId)
     if (groupDispatcherOption.isDefined) {
       groupDispatcherOption.get.poisonChannel(studyResultId)
+    } else {
+      publishCommand(RemoteCommand.Poison, studyResultId, groupResultId)
     }
   }
 
@@ -100,6 +161,8 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
     val differentGroupResultOption: Option[GroupResult] = reassignGroupResult(studyResult, batch)
     if (differentGroupResultOption.isDefined && originalGroupResult != null) {
       val differentGroupResult = differentGroupResultOption.get
+      matchmaker.update(originalGroupResult)
+      matchmaker.update(differentGroupResult)
       reassignGroupChannel(studyResult, originalGroupResult, differentGroupResult)
       logger.info(s".reassign: studyResult ${studyResult.getId} reassigned from group" +
         s" ${originalGroupResult.getId} to group ${differentGroupResult.getId}")
@@ -155,6 +218,8 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
       val groupDispatcherOption = groupDispatcherRegistry.get(groupResult.getId)
       if (groupDispatcherOption.isDefined)
         groupDispatcherOption.get.joined(studyResult.getId)
+      else
+        publishCommand(RemoteCommand.Joined, studyResult.getId, groupResult.getId)
     }
   }
 
@@ -167,6 +232,18 @@ class GroupAdministration @Inject()(groupDispatcherRegistry: GroupDispatcherRegi
       val groupDispatcherOption = groupDispatcherRegistry.get(groupResult.getId)
       if (groupDispatcherOption.isDefined)
         groupDispatcherOption.get.left(studyResult.getId)
+      else
+        publishCommand(RemoteCommand.Left, studyResult.getId, groupResult.getId)
+    }
+  }
+
+  /**
+   * In a multi-node JATOS the group channel might be connected to another node: this node's GroupDispatcher does the
+   * command.
+   */
+  private def publishCommand(command: RemoteCommand.RemoteCommand, studyResultId: Long, groupResultId: Long): Unit = {
+    if (backplane.hasPeers) {
+      backplane.publish(ClusterBackplane.groupTopic(groupResultId), GroupDispatcher.remoteCommand(command, studyResultId))
     }
   }
 
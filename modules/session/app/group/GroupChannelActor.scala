@@ -15,24 +15,48 @@ import javax.inject.Inject
  * is closed after the StudyResult left the GroupResult.
  *
  * A GroupChannelActor belongs to a GroupDispatcher. A GroupChannelActor is created by the GroupChannel service. It
- * registers and unregisters itself with the GroupDispatcher.
+ * registers and unregisters itself with the GroupDispatcher. While it is open, the member's idle timer is stopped. If
+ * the client disconnects, the idle timer is started again - but not if the channel was closed by JATOS (poisoned),
+ * e.g. because the member left its group or opened a new channel. If the member reopens its channel with the group
+ * session version it already has (knownVersion), the GroupDispatcher might send only the patches it missed.
  *
  * @author Kristian Lange
  */
 class GroupChannelActor @Inject()(out: ActorRef,
                                   studyResultId: Long,
-                                  private var groupDispatcher: GroupDispatcher) extends Actor {
+                                  private var groupDispatcher: GroupDispatcher,
+                                  idleTimers: GroupMemberIdleTimers,
+                                  knownVersion: Option[Long] = None) extends Actor {
 
   val pong: JsObject = Json.obj("heartbeat" -> "pong")
 
-  override def preStart(): Unit = groupDispatcher.registerChannel(studyResultId, this)
+  /**
+   * Set if this channel is closed by JATOS and not by the client disconnecting
+   */
+  @volatile private var poisoned = false
 
-  override def postStop(): Unit = groupDispatcher.unregisterChannel(studyResultId)
+  override def preStart(): Unit = {
+    // A member with an open group channel is never idle
+    idleTimers.cancel(studyResultId)
+    groupDispatcher.registerChannel(studyResultId, this, knownVersion)
+  }
+
+  override def postStop(): Unit = {
+    groupDispatcher.unregisterChannel(studyResultId)
+    // Only a disconnected member can become idle: after a leave it isn't a member anymore, and after a reopen the new
+    // channel keeps its timer stopped
+    if (!poisoned) idleTimers.schedule(studyResultId)
+  }
 
   override def toString: String = studyResultId.toString
 
   def setGroupDispatcher(groupDispatcher: GroupDispatcher): Unit = this.groupDispatcher = groupDispatcher
 
+  /**
+   * Marks this channel as closed by JATOS. Has to be called before the actor is stopped.
+   */
+  def poison(): Unit = poisoned = true
+
   def receive: Receive = {
     case msg: JsObject if msg.keys.contains("heartbeat") =>
       // If we receive a heartbeat ping, answer directly with a pong
@@ -13,6 +13,9 @@ import scala.jdk.CollectionConverters._
  * A Registry does not define who is a member - it just stores the open channels. Therefore, it is possible that a
  * client is a member but currently doesn't have an open channel.
  *
+ * It's thread-safe: channels are registered and unregistered by the channels' actors while the GroupDispatcher sends
+ * messages to them. The getAll methods return copies, so they can be iterated while channels change.
+ *
  * @author Kristian Lange
  */
 class GroupChannelRegistry {
@@ -24,12 +27,13 @@ class GroupChannelRegistry {
    */
   private val channelMap = new DualHashBidiMap[Long, GroupChannelActor]
 
-  def register(studyResultId: Long, channel: GroupChannelActor): GroupChannelActor = channelMap.put(studyResultId,
-    channel)
+  def register(studyResultId: Long, channel: GroupChannelActor): GroupChannelActor = synchronized {
+    channelMap.put(studyResultId, channel)
+  }
 
-  def unregister(studyResultId: Long): Option[GroupChannelActor] = Option(channelMap.remove(studyResultId))
+  def unregister(studyResultId: Long): Option[GroupChannelActor] = synchronized(Option(channelMap.remove(studyResultId)))
 
-  def getChannel(studyResultId: Long): Option[GroupChannelActor] = Option(channelMap.get(studyResultId))
+  def getChannel(studyResultId: Long): Option[GroupChannelActor] = synchronized(Option(channelMap.get(studyResultId)))
 
   def getChannelActor(studyResultId: Long): Option[ActorRef] = {
     val channel = getChannel(studyResultId)
@@ -40,12 +44,12 @@ class GroupChannelRegistry {
     }
   }
 
-  def isEmpty: Boolean = channelMap.isEmpty
+  def isEmpty: Boolean = synchronized(channelMap.isEmpty)
 
-  def containsStudyResult(studyResultId: Long): Boolean = channelMap.containsKey(studyResultId)
+  def containsStudyResult(studyResultId: Long): Boolean = synchronized(channelMap.containsKey(studyResultId))
 
-  def getAllStudyResultIds: mutable.Set[Long] = channelMap.keySet.asScala
+  def getAllStudyResultIds: mutable.Set[Long] = synchronized(mutable.Set.from(channelMap.keySet.asScala))
 
-  def getAllChannels: mutable.Set[GroupChannelActor] = channelMap.values.asScala
+  def getAllChannels: mutable.Set[GroupChannelActor] = synchronized(mutable.Set.from(channelMap.values.asScala))
 
 }
\ No newline at end of file
@@ -1,14 +1,21 @@
 package group
 
 import akka.actor.{ActorRef, ActorSystem}
+import cluster.ClusterBackplane
 import com.google.inject.assistedinject.Assisted
+import general.common.{Common, DatabaseExecutionContext}
+import general.session.SessionPatchLog
 import group.GroupDispatcher.TellWhom.TellWhom
 import group.GroupDispatcher._
 import play.api.Logger
 import play.api.libs.json.Reads._
-import play.api.libs.json.{JsObject, Json}
+import play.api.libs.json.{JsNumber, JsObject, Json}
 
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
+import scala.collection.mutable
+import scala.concurrent.ExecutionContextExecutor
+import scala.concurrent.duration.FiniteDuration
 
 /**
  * A GroupDispatcher is responsible for distributing messages (GroupMsg) within a group. Thus, it is the central class
@@ -25,14 +32,23 @@ import javax.inject.Inject
  * A GroupChannelActor registers and unregisters itself in a GroupDispatcher.
  *
  * A new GroupDispatcher is created by the GroupDispatcherRegistry. If a GroupDispatcher has no more members, it closes
- * itself.
+ * itself. A closed GroupDispatcher doesn't accept new channels: a channel that got it from the registry just before it
+ * closed is stopped and the client reconnects (and gets a new GroupDispatcher).
  *
  * A GroupDispatcher handles all messages specified in the GroupDispatcherProtocol. There are fundamentally three
  * different message types: 1) group session patches, 2) broadcast messages, and 3) direct messages for a particular
  * group member.
  *
  * The group session patches are JSON Patches after RFC 6902 and used to describe changes in the group session data. The
- * session data are stored in the GroupResult.
+ * session data are stored in the GroupResult. If the study has a group session patch window, the patches that arrive
+ * within this window are applied together, persisted once and sent out to the group members in one message. The last
+ * group session patch messages are kept in a SessionPatchLog: a member that reopens its group channel with the session
+ * version it already has gets only the patches it missed (if they are still in the log) instead of the whole session.
+ *
+ * In a multi-node JATOS the members of a group can be connected to different nodes, each with its own GroupDispatcher.
+ * Messages to all members and direct messages to members that aren't connected to this node are therefore published via
+ * the ClusterBackplane. Closing a channel and the JOINED and LEFT messages are done by the node the member's channel is
+ * connected to - if it isn't this node they are published as commands.
  *
  * @author Kristian Lange
  */
@@ -84,6 +100,8 @@ object GroupDispatcher {
     val SessionData = Value("sessionData")
     // Session patches (must be accompanied with a session version)
     val SessionPatches = Value("sessionPatches")
+    // Session version before the session patches were applied
+    val SessionPreviousVersion = Value("sessionPreviousVersion")
     // Identifier of an session action (mandatory)
     val SessionActionId = Value("sessionActionId")
     // Batch session version (mandatory for session data or patches)
@@ -101,18 +119,86 @@ object GroupDispatcher {
    */
   case class GroupMsg(json: JsObject, tellWhom: TellWhom = TellWhom.Unknown)
 
+  /**
+   * Keys of the messages published via the ClusterBackplane
+   */
+  //noinspection TypeAnnotation
+  private[group] object RemoteJsonKey extends Enumeration {
+    // GroupMsg's JSON
+    val Msg = Value("msg")
+    // Study result ID of the recipient of a direct msg
+    val Recipient = Value("recipient")
+    // Command for the node that has the channel of the study result
+    val Command = Value("command")
+    val StudyResultId = Value("studyResultId")
+  }
+
+  //noinspection TypeAnnotation
+  object RemoteCommand extends Enumeration {
+    type RemoteCommand = Value
+    val Poison = Value("POISON")
+    val Joined = Value("JOINED")
+    val Left = Value("LEFT")
+  }
+
+  /**
+   * Builds a command that is published via the ClusterBackplane and done by the node that has the study result's
+   * channel
+   */
+  def remoteCommand(command: RemoteCommand.RemoteCommand, studyResultId: Long): JsObject = Json.obj(
+    RemoteJsonKey.Command.toString -> command.toString,
+    RemoteJsonKey.StudyResultId.toString -> studyResultId)
+
 }
 
 class GroupDispatcher @Inject()(actorSystem: ActorSystem,
                                 dispatcherRegistry: GroupDispatcherRegistry,
                                 actionHandler: GroupActionHandler,
                                 actionMsgBuilder: GroupActionMsgBuilder,
+                                backplane: ClusterBackplane,
                                 @Assisted groupResultId: Long) {
 
   private val logger: Logger = Logger(this.getClass)
 
   private val channelRegistry = new GroupChannelRegistry
 
+  private val topic = ClusterBackplane.groupTopic(groupResultId)
+
+  /**
+   * Guards applying group session patches and sending them out, the patch log, and the sending of the session data
+   * to a newly registered channel. This way the group members get the patches in the order they were applied.
+   */
+  private val sessionLock = new Object
+
+  /**
+   * Last group session patch messages that went out to all members. Only used while holding the sessionLock.
+   */
+  private val patchLog = new SessionPatchLog(Common.getSessionPatchLogSize)
+
+  private val subscription = backplane.subscribe(topic)(handleRemoteMsg)
+
+  /**
+   * Guards the registering of channels and the closing of this dispatcher
+   */
+  private val lifecycleLock = new Object
+
+  private var closed = false
+
+  /**
+   * Time window in ms in which group session patches are collected (0 means no collecting)
+   */
+  @volatile private var sessionPatchWindow: Long = 0
+
+  /**
+   * Group session patches waiting for the end of the current window: JSON, study result ID and sender
+   */
+  private val pendingPatches = mutable.ListBuffer[(JsObject, Long, ActorRef)]()
+
+  private lazy val dbExecutor: ExecutionContextExecutor =
+    actorSystem.dispatchers.lookup(DatabaseExecutionContext.DISPATCHER_NAME)
+
+  def setSessionPatchWindow(millis: Long): Unit = sessionPatchWindow = millis
+
   def hasChannel(studyResultId: Long): Boolean = channelRegistry.containsStudyResult(studyResultId)
 
   /**
@@ -122,10 +208,16 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
   def handleGroupMsg(msg: GroupMsg, studyResultId: Long, sender: ActorRef): Unit = {
     logger.debug(s".handleGroupMsg: groupResultId $groupResultId, groupMsg ${Json.stringify(msg.json)}")
 
-    if (msg.json.keys.contains(GroupActionJsonKey.Action.toString)) {
+    if (sessionPatchWindow > 0 && isSessionAction(msg)) {
+      // We have a group session patch that is applied together with the others from its window
+      addPendingPatch(msg.json, studyResultId, sender)
+
+    } else if (msg.json.keys.contains(GroupActionJsonKey.Action.toString)) {
       // We have a group action message
-      val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId)
-      tellActionMsg(msgList, sender)
+      sessionLock.synchronized {
+        val msgList = actionHandler.handleActionMsg(msg, groupResultId, studyResultId)
+        tellActionMsg(msgList, sender)
+      }
 
     } else if (msg.json.keys.contains(GroupActionJsonKey.Recipient.toString)) {
       // We have a message intended for only one recipient (direct msg)
@@ -139,17 +231,94 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
     }
   }
 
+  private def isSessionAction(msg: GroupMsg): Boolean =
+    (msg.json \ GroupActionJsonKey.Action.toString).asOpt[String].contains(GroupAction.Session.toString)
+
   /**
-   * Registers the given channel and sends an OPENED action group message to everyone in this group.
+   * Adds the patch to the pending ones. The first patch of a window schedules the flush at the end of the window.
    */
-  def registerChannel(studyResultId: Long, channel: GroupChannelActor): Unit = {
-    logger.debug(s".registerChannel: groupResultId $groupResultId, studyResultId $studyResultId")
-    channelRegistry.register(studyResultId, channel)
-    val msg1 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, includeSessionData = true, GroupAction.Opened, TellWhom.SenderOnly)
-    val msg2 = actionMsgBuilder.build(groupResultId, studyResultId,
-      channelRegistry, includeSessionData = false, GroupAction.Opened, TellWhom.AllButSender)
-    tellActionMsg(List(msg1, msg2), channel.self)
+  private def addPendingPatch(json: JsObject, studyResultId: Long, sender: ActorRef): Unit = synchronized {
+    pendingPatches += ((json, studyResultId, sender))
+    if (pendingPatches.size == 1) {
+      actorSystem.scheduler.scheduleOnce(FiniteDuration(sessionPatchWindow, TimeUnit.MILLISECONDS))(
+        flushPendingPatches())(dbExecutor)
+    }
+  }
+
+  /**
+   * Applies all pending patches at once and tells everyone in the group the combined patches. Afterwards each sender
+   * gets its ACK or FAIL. Flushes never overlap so the group members get the patches in the order they were applied.
+   */
+  private def flushPendingPatches(): Unit = sessionLock.synchronized {
+    val pending = synchronized {
+      val list = pendingPatches.toList
+      pendingPatches.clear()
+      list
+    }
+    if (pending.isEmpty) return
+
+    logger.debug(s".flushPendingPatches: groupResultId $groupResultId, ${pending.size} patches")
+    try {
+      val (broadcasts, replies) = actionHandler.handlePatches(pending.map(p => (p._1, p._2)), groupResultId)
+      broadcasts.foreach(tellAll)
+      replies.zip(pending).foreach { case (reply, (_, _, sender)) => tellSenderOnly(reply, sender) }
+    } catch {
+      case e: Exception =>
+        logger.error(s".flushPendingPatches: groupResultId $groupResultId - couldn't apply group session patches", e)
+        val errorMsg = actionMsgBuilder.buildError(groupResultId, "Couldn't apply group session patch",
+          TellWhom.SenderOnly)
+        pending.foreach { case (_, _, sender) => tellSenderOnly(errorMsg, sender) }
+    }
+  }
+
+  def registerChannel(studyResultId: Long, channel: GroupChannelActor): Unit =
+    registerChannel(studyResultId, channel, None)
+
+  /**
+   * Registers the given channel and sends an OPENED action group message to everyone in this group. If the member
+   * already has the group session data of a version (knownVersion, e.g. after a reconnect) it might only get the
+   * patches it missed.
+   */
+  def registerChannel(studyResultId: Long, channel: GroupChannelActor, knownVersion: Option[Long]): Unit = {
+    logger.debug(s".registerChannel: groupResultId $groupResultId, studyResultId $studyResultId, " +
+      s"knownVersion $knownVersion")
+    val registered = lifecycleLock.synchronized {
+      if (!closed) channelRegistry.register(studyResultId, channel)
+      !closed
+    }
+    if (!registered) {
+      logger.debug(s".registerChannel: GroupDispatcher $groupResultId is already closed - stop channel of study " +
+        s"result $studyResultId")
+      channel.self ! GroupMsg(Json.obj(GroupActionJsonKey.Action.toString -> GroupAction.Closed))
+      actorSystem.stop(channel.self)
+      return
+    }
+    sessionLock.synchronized {
+      val senderMsgs = knownVersion.flatMap(resyncMsgs(studyResultId, _)).getOrElse(List(
+        actionMsgBuilder.build(groupResultId, studyResultId,
+          channelRegistry, includeSessionData = true, GroupAction.Opened, TellWhom.SenderOnly)))
+      val othersMsg = actionMsgBuilder.build(groupResultId, studyResultId,
+        channelRegistry, includeSessionData = false, GroupAction.Opened, TellWhom.AllButSender)
+      tellActionMsg(senderMsgs :+ othersMsg, channel.self)
+    }
+  }
+
+  /**
+   * The OPENED message without session data but with the member's known version followed by the patch messages it
+   * missed - or None if they aren't in the patch log anymore
+   */
+  private def resyncMsgs(studyResultId: Long, knownVersion: Long): Option[List[GroupMsg]] = {
+    val opened = actionMsgBuilder.build(groupResultId, studyResultId,
+      channelRegistry, includeSessionData = false, GroupAction.Opened, TellWhom.SenderOnly)
+    for {
+      currentVersion <- (opened.json \ GroupActionJsonKey.SessionVersion.toString).asOpt[Long]
+      missed <- patchLog.since(knownVersion, currentVersion)
+    } yield {
+      logger.debug(s".resyncMsgs: groupResultId $groupResultId, studyResultId $studyResultId, resync from version " +
+        s"$knownVersion with ${missed.size} patch msgs")
+      val openedJson = opened.json + (GroupActionJsonKey.SessionVersion.toString -> JsNumber(BigDecimal(knownVersion)))
+      GroupMsg(openedJson, TellWhom.SenderOnly) :: missed.map(GroupMsg(_, TellWhom.SenderOnly))
+    }
   }
 
   /**
@@ -169,23 +338,73 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
       logger.debug(s".unregisterChannel: study result $studyResultId is not handled by the GroupDispatcher $groupResultId.")
     }
 
-    if (channelRegistry.isEmpty) dispatcherRegistry.unregister(groupResultId)
+    // A closed dispatcher is already unregistered
+    if (channelRegistry.isEmpty && !lifecycleLock.synchronized(closed)) dispatcherRegistry.unregister(groupResultId)
+  }
+
+  /**
+   * Called by the GroupDispatcherRegistry before it removes this dispatcher. Returns true if there are channels
+   * (e.g. one registered just now). Otherwise, it closes this dispatcher and returns false.
+   */
+  private[group] def stillInUse(): Boolean = lifecycleLock.synchronized {
+    if (channelRegistry.isEmpty) {
+      closed = true
+      subscription.cancel()
+      false
+    } else true
+  }
+
+  /**
+   * Handles a message published by a GroupDispatcher of the same group on another node. It's either a GroupMsg for the
+   * channels of this node (all or only the recipient) or a command for a channel of this node.
+   */
+  private def handleRemoteMsg(remoteMsg: JsObject): Unit = {
+    logger.debug(s".handleRemoteMsg: groupResultId $groupResultId, remoteMsg ${Json.stringify(remoteMsg)}")
+    (remoteMsg \ RemoteJsonKey.Command.toString).asOpt[String] match {
+      case Some(command) =>
+        val studyResultId = (remoteMsg \ RemoteJsonKey.StudyResultId.toString).as[Long]
+        if (channelRegistry.containsStudyResult(studyResultId)) RemoteCommand.withName(command) match {
+          case RemoteCommand.Poison => poisonChannel(studyResultId)
+          case RemoteCommand.Joined => joined(studyResultId)
+          case RemoteCommand.Left => left(studyResultId)
+        }
+      case None =>
+        val msg = GroupMsg((remoteMsg \ RemoteJsonKey.Msg.toString).as[JsObject])
+        (remoteMsg \ RemoteJsonKey.Recipient.toString).asOpt[Long] match {
+          case Some(recipient) => channelRegistry.getChannelActor(recipient).foreach(_ ! msg)
+          case None => sessionLock.synchronized {
+            logSessionPatch(msg)
+            channelRegistry.getAllChannels.foreach(_.self ! msg)
+          }
+        }
+    }
+  }
+
+  /**
+   * Publishes the command for the node that has the channel of the study result - if it's not this node
+   */
+  private def publishCommandIfRemote(command: RemoteCommand.RemoteCommand, studyResultId: Long): Unit = {
+    if (backplane.hasPeers && !channelRegistry.containsStudyResult(studyResultId)) {
+      backplane.publish(topic, remoteCommand(command, studyResultId))
+    }
   }
 
   /**
    * Stops and unregisters the GroupChannelActor belonging to the given study result ID. Before it sends a 'Closed'
-   * message to the GroupChannelActor.
+   * message to the GroupChannelActor. A poisoned channel doesn't start the member's idle timer.
    */
   def poisonChannel(studyResultId: Long): Unit = {
     logger.debug(s".poisonChannel: groupResultId $groupResultId, studyResultId $studyResultId")
     val channelOption = channelRegistry.getChannelActor(studyResultId)
     if (channelOption.isDefined) {
+      channelRegistry.getChannel(studyResultId).foreach(_.poison())
       channelOption.get ! GroupMsg(Json.obj(GroupActionJsonKey.Action.toString -> GroupAction.Closed))
       actorSystem.stop(channelOption.get)
       unregisterChannel(studyResultId)
       logger.debug(s".poisonChannel: groupResultId $groupResultId, studyResultId $studyResultId, " + "stopped and unregistered channel")
     } else {
       logger.debug(s".poisonChannel: study result $studyResultId is not handled by the GroupDispatcher $groupResultId.")
+      publishCommandIfRemote(RemoteCommand.Poison, studyResultId)
     }
   }
 
@@ -200,6 +419,8 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
       unregisterChannel(studyResultId)
       left(studyResultId)
       channelOption.get.setGroupDispatcher(differentDispatcher)
+      // Both groups belong to the same study
+      differentDispatcher.setSessionPatchWindow(sessionPatchWindow)
       differentDispatcher.registerChannel(studyResultId, channelOption.get)
       differentDispatcher.joined(studyResultId)
     } else {
@@ -219,6 +440,7 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
       tellAllButSender(msg, channel.get)
     } else {
       logger.debug(s".joined: study result $studyResultId is not handled by the GroupDispatcher $groupResultId.")
+      publishCommandIfRemote(RemoteCommand.Joined, studyResultId)
     }
   }
 
@@ -234,6 +456,7 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
       tellAllButSender(msg, channel.get)
     } else {
       logger.debug(s".left: study result $studyResultId is not handled by the GroupDispatcher $groupResultId.")
+      publishCommandIfRemote(RemoteCommand.Left, studyResultId)
     }
   }
 
@@ -246,7 +469,11 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
     val channel = channelRegistry.getChannelActor(recipientStudyResultId)
     if (channel.isDefined)
       channel.get ! msg
-    else {
+    else if (backplane.hasPeers) {
+      // The recipient might be connected to another node
+      backplane.publish(topic, Json.obj(RemoteJsonKey.Msg.toString -> msg.json,
+        RemoteJsonKey.Recipient.toString -> recipientStudyResultId))
+    } else {
       val errorMsg = s"Recipient $recipientStudyResultId isn't member of this group."
       logger.debug(s".tellRecipientOnly: groupResultId $groupResultId, errorMsg $errorMsg")
       val groupMsg = actionMsgBuilder.buildError(groupResultId, errorMsg, TellWhom.SenderOnly)
@@ -266,22 +493,42 @@ class GroupDispatcher @Inject()(actorSystem: ActorSystem,
   }
 
   /**
-   * Sends the message to everyone in channel registry.
+   * Sends the message to everyone in channel registry and to the members on the other nodes.
    */
   private def tellAll(msg: GroupMsg): Unit = {
     logger.debug(s".tellAll: groupResultId $groupResultId, msg ${Json.stringify(msg.json)}")
+    logSessionPatch(msg)
     for (recipient <- channelRegistry.getAllChannels)
       recipient.self ! msg
+    publishToAll(msg)
   }
 
   /**
-   * Sends the message to everyone in the group channel registry except to the sender.
+   * Sends the message to everyone in the group channel registry except to the sender and to the members on the other
+   * nodes (the sender is always connected to this node).
    */
   private def tellAllButSender(msg: GroupMsg, sender: ActorRef): Unit = {
     logger.debug(s".tellAllButSender: groupResultId $groupResultId, " +
       s"msg ${Json.stringify(msg.json)}")
     for (recipient <- channelRegistry.getAllChannels)
       if (recipient.self != sender) recipient.self ! msg
+    publishToAll(msg)
+  }
+
+  /**
+   * Adds a group session patch msg to the patch log
+   */
+  private def logSessionPatch(msg: GroupMsg): Unit = {
+    if ((msg.json \ GroupActionJsonKey.Action.toString).asOpt[String].contains(GroupAction.Session.toString)) {
+      for {
+        previousVersion <- (msg.json \ GroupActionJsonKey.SessionPreviousVersion.toString).asOpt[Long]
+        version <- (msg.json \ GroupActionJsonKey.SessionVersion.toString).asOpt[Long]
+      } patchLog.append(previousVersion, version, msg.json)
+    }
+  }
+
+  private def publishToAll(msg: GroupMsg): Unit = {
+    if (backplane.hasPeers) backplane.publish(topic, Json.obj(RemoteJsonKey.Msg.toString -> msg.json))
   }
 
   /**
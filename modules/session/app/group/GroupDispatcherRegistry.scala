@@ -2,13 +2,17 @@ package group
 
 import play.api.Logger
 
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.{Inject, Singleton}
-import scala.collection.mutable
-import scala.language.postfixOps
+import scala.jdk.CollectionConverters._
 
 /**
  * The GroupDispatcherRegistry keeps track of all GroupDispatchers.
  *
+ * It's lock-free for lookups. Registering and removing a GroupDispatcher are atomic per group result ID: there is never
+ * more than one GroupDispatcher per group, and a GroupDispatcher is only removed if it has no channels. A removed
+ * GroupDispatcher is closed and doesn't accept new channels anymore (see GroupDispatcher.registerChannel).
+ *
  * @author Kristian Lange
  */
 @Singleton
@@ -19,40 +23,49 @@ class GroupDispatcherRegistry @Inject()(groupDispatcherFactory: GroupDispatcher.
   /**
    * Contains the dispatchers that are currently registered. Maps a group result ID to the GroupDispatcher.
    */
-  private val dispatcherMap = mutable.HashMap[Long, GroupDispatcher]()
+  private val dispatcherMap = new ConcurrentHashMap[Long, GroupDispatcher]()
 
   /*
  * Get a GroupDispatcher for a particular batch ID. Returns None if no GroupDispatcher is registered.
  */
-  def get(groupResultId: Long): Option[GroupDispatcher] = dispatcherMap.get(groupResultId)
+  def get(groupResultId: Long): Option[GroupDispatcher] = Option(dispatcherMap.get(groupResultId))
 
   /**
    * Checks if one of the group dispatchers has a channel with the given study result ID.
    */
-  def hasChannel(studyResultId: Long): Boolean = dispatcherMap.values.exists(_.hasChannel(studyResultId))
+  def hasChannel(studyResultId: Long): Boolean = dispatcherMap.values.asScala.exists(_.hasChannel(studyResultId))
 
   /*
    * Get or register a GroupDispatcher for a particular group result ID.
    */
-  def getOrRegister(groupResultId: Long): GroupDispatcher = synchronized {
-    if (!dispatcherMap.contains(groupResultId)) {
-      val dispatcher = groupDispatcherFactory.create(groupResultId)
-      dispatcherMap += (groupResultId -> dispatcher)
+  def getOrRegister(groupResultId: Long): GroupDispatcher = {
+    val existing = dispatcherMap.get(groupResultId)
+    if (existing != null) return existing
+
+    // Created outside of computeIfAbsent: creating a dispatcher can be slow and must not block the map
+    val created = groupDispatcherFactory.create(groupResultId)
+    val registered = dispatcherMap.putIfAbsent(groupResultId, created)
+    if (registered == null) {
       logger.debug(s".getOrRegister: registered dispatcher for group result ID $groupResultId")
+      created
+    } else {
+      // Another thread was faster: close the surplus dispatcher (it has no channels)
+      created.stillInUse()
+      registered
     }
-    dispatcherMap(groupResultId)
   }
 
   /*
- * Unregister a GroupDispatcher for a particular group result ID.
+ * Unregister a GroupDispatcher for a particular group result ID - unless a channel registered in the meantime.
  */
-  def unregister(groupResultId: Long): Unit = synchronized {
-    if (dispatcherMap.contains(groupResultId)) {
-      dispatcherMap -= groupResultId
-      logger.debug(s".unregister: registered dispatcher for group result ID $groupResultId")
-    } else {
-      logger.debug(s".unregister: dispatcher for group result ID $groupResultId not found")
-    }
+  def unregister(groupResultId: Long): Unit = {
+    var removed = false
+    dispatcherMap.computeIfPresent(groupResultId, (_: Long, dispatcher: GroupDispatcher) => {
+      removed = !dispatcher.stillInUse()
+      if (removed) null else dispatcher
+    })
+    if (removed) logger.debug(s".unregister: unregistered dispatcher for group result ID $groupResultId")
+    else logger.debug(s".unregister: dispatcher for group result ID $groupResultId not found or still in use")
   }
 
 }
@@ -0,0 +1,276 @@
+package group
+
+import daos.common.GroupResultDao
+import general.common.Common
+import models.common.GroupResult.GroupState
+import models.common.{Batch, GroupResult}
+import play.api.Logger
+import play.db.jpa.JPAApi
+
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.{Inject, Singleton}
+import scala.annotation.tailrec
+import scala.collection.mutable
+import scala.compat.java8.FunctionConverters.asJavaSupplier
+import scala.jdk.CollectionConverters._
+
+/**
+ * Assigns joining members to the open groups of a batch in memory. For each batch it keeps the open groups (state
+ * STARTED, max active and max total members not reached) together with their member counts, so a join doesn't have to
+ * search the database for a group with a free slot. The open groups of a batch are loaded from the database with the
+ * first join.
+ *
+ * A join reserves a slot in a group (reserveSlot) and gives it back after the membership is persisted (release). Reserved
+ * slots count as taken, so concurrent joins never get more slots than a group has.
+ *
+ * Loading the open groups and creating a new group need the database. This is done without holding the lock of the
+ * batch's open groups, so releases and updates don't wait for the database. Batches without joins for a while are
+ * removed from memory.
+ *
+ * Only used in a single-node JATOS: in a multi-node JATOS other nodes change the groups too.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+class GroupMatchmaker @Inject()(jpa: JPAApi, groupResultDao: GroupResultDao) {
+
+  import GroupMatchmaker._
+
+  private val logger: Logger = Logger(this.getClass)
+
+  private val batches = new ConcurrentHashMap[Long, BatchGroups]()
+
+  private[group] var strategy: Strategy.Strategy = Strategy.fromConfig
+
+  /**
+   * Time in ms after which the open groups of a batch without joins are removed from memory
+   */
+  private[group] var idleTimeout: Long = IdleTimeout
+
+  @volatile private var lastEviction = System.currentTimeMillis()
+
+  /**
+   * Reserves a slot in one of the open groups of the batch and returns the group result ID. If there is no open group a
+   * new group result is created.
+   */
+  @tailrec
+  final def reserveSlot(batch: Batch): Long = {
+    evictIdle()
+    batches.computeIfAbsent(batch.getId, (_: Long) => new BatchGroups).reserve(batch) match {
+      case Reserved(groupResultId) => groupResultId
+      // Evicted in the meantime - try again with a new one
+      case _ => reserveSlot(batch)
+    }
+  }
+
+  /**
+   * Gives back a slot that was reserved by reserveSlot. If the member joined the group the counts are taken from the
+   * joined group result. If the join failed (e.g. the group was finished in the meantime) the group is dropped - the
+   * next reload from the database gets it back if it is still open.
+   */
+  def release(batchId: Long, groupResultId: Long, joined: Option[GroupResult]): Unit = {
+    Option(batches.get(batchId)).foreach(_.release(groupResultId, joined))
+  }
+
+  /**
+   * Takes the member counts and the state of a group result that was changed outside of a join (leave, reassign)
+   */
+  def update(groupResult: GroupResult): Unit = {
+    if (groupResult.getBatch != null) {
+      Option(batches.get(groupResult.getBatch.getId)).foreach(_.update(groupResult))
+    }
+  }
+
+  private[group] def batchCount: Int = batches.size
+
+  /**
+   * Removes the open groups of batches that had no joins within the idle timeout and have no reserved slots. Runs at
+   * most once per idle timeout.
+   */
+  private def evictIdle(): Unit = {
+    val now = System.currentTimeMillis()
+    if (now - lastEviction < idleTimeout) return
+    lastEviction = now
+    batches.forEach((batchId, _) => batches.computeIfPresent(batchId, (_: Long, groups: BatchGroups) =>
+      if (groups.evictIfIdle(now, idleTimeout)) null else groups))
+  }
+
+  /**
+   * The open groups of one batch. The in-memory state is guarded by this object's lock: assigning a slot is atomic. The
+   * database work (load and create) is guarded by the dbLock instead, so concurrent joins that find no free slot don't
+   * load or create several times.
+   */
+  private class BatchGroups {
+
+    /**
+     * Open groups by group result ID, in the order of their IDs (oldest first)
+     */
+    private val groups = mutable.LinkedHashMap[Long, OpenGroup]()
+
+    private val dbLock = new Object
+
+    private var loaded = false
+
+    private var lastUsed = System.currentTimeMillis()
+
+    /**
+     * Set when this object was removed from the batches map. An evicted BatchGroups must not be used anymore.
+     */
+    private var evicted = false
+
+    def reserve(batch: Batch): Reservation = tryReserve(batch) match {
+      case NoFreeSlot => dbLock.synchronized {
+        // Another join might have loaded or created a group in the meantime
+        tryReserve(batch) match {
+          case NoFreeSlot =>
+            val openGroupResults =
+              jpa.withTransaction(asJavaSupplier(() => groupResultDao.findAllMaxNotReached(batch)))
+            reload(batch, openGroupResults) match {
+              case NoFreeSlot =>
+                val groupResult =
+                  jpa.withTransaction(asJavaSupplier(() => groupResultDao.create(new GroupResult(batch))))
+                reserveInCreated(groupResult)
+              case reservation => reservation
+            }
+          case reservation => reservation
+        }
+      }
+      case reservation => reservation
+    }
+
+    /**
+     * Reserves a slot in one of the known open groups
+     */
+    private def tryReserve(batch: Batch): Reservation = synchronized {
+      if (evicted) Evicted
+      else if (!loaded) NoFreeSlot
+      else pick(batch).map(reserveIn).getOrElse(NoFreeSlot)
+    }
+
+    private def reserveIn(group: OpenGroup): Reservation = {
+      group.reserved += 1
+      lastUsed = System.currentTimeMillis()
+      Reserved(group.id)
+    }
+
+    def evictIfIdle(now: Long, idleTimeout: Long): Boolean = synchronized {
+      evicted = now - lastUsed >= idleTimeout && groups.values.forall(_.reserved <= 0)
+      evicted
+    }
+
+    def release(groupResultId: Long, joined: Option[GroupResult]): Unit = synchronized {
+      groups.get(groupResultId).foreach(group => group.reserved -= 1)
+      joined match {
+        case Some(groupResult) => update(groupResult)
+        case None => groups.get(groupResultId).filter(_.reserved <= 0).foreach(_ => groups.remove(groupResultId))
+      }
+    }
+
+    def update(groupResult: GroupResult): Unit = synchronized {
+      if (groupResult.getGroupState != GroupState.STARTED) {
+        groups.remove(groupResult.getId)
+      } else {
+        groups.get(groupResult.getId) match {
+          case Some(group) =>
+            group.activeMembers = groupResult.getActiveMemberCount
+            group.historyMembers = groupResult.getHistoryMemberCount
+          case None if loaded =>
+            put(groupResult)
+          case None =>
+        }
+      }
+    }
+
+    /**
+     * Replaces the open groups with the ones loaded from the database and reserves a slot in one of them. Reserved
+     * slots of groups that are still open are kept.
+     */
+    private def reload(batch: Batch, openGroupResults: java.util.List[GroupResult]): Reservation = synchronized {
+      if (evicted) Evicted
+      else {
+        val reserved = groups.values.filter(_.reserved > 0).map(group => group.id -> group.reserved).toMap
+        groups.clear()
+        openGroupResults.asScala.sortBy(_.getId.longValue).foreach(put)
+        reserved.foreach { case (id, count) => groups.get(id).foreach(_.reserved = count) }
+        loaded = true
+        logger.debug(s".reload: batch ${batch.getId} has ${groups.size} open groups")
+        pick(batch).map(reserveIn).getOrElse(NoFreeSlot)
+      }
+    }
+
+    private def reserveInCreated(groupResult: GroupResult): Reservation = synchronized {
+      if (evicted) Evicted else reserveIn(put(groupResult))
+    }
+
+    private def put(groupResult: GroupResult): OpenGroup = {
+      val group = OpenGroup(groupResult.getId, groupResult.getActiveMemberCount, groupResult.getHistoryMemberCount)
+      groups.put(group.id, group)
+      group
+    }
+
+    private def pick(batch: Batch): Option[OpenGroup] = {
+      val candidates = groups.values.filter(hasFreeSlot(_, batch))
+      if (candidates.isEmpty) None
+      else strategy match {
+        // maxBy and minBy take the first one - the oldest group - if there are several
+        case Strategy.FillFirst => Some(candidates.maxBy(group => (group.taken, group.historyMembers)))
+        case Strategy.Balance => Some(candidates.minBy(_.taken))
+        case Strategy.Fifo => candidates.headOption
+      }
+    }
+  }
+
+}
+
+object GroupMatchmaker {
+
+  /**
+   * Default time in ms after which the open groups of a batch without joins are removed from memory
+   */
+  private val IdleTimeout = 10 * 60 * 1000L
+
+  /**
+   * Result of a slot reservation in the open groups of a batch
+   */
+  private sealed trait Reservation
+
+  private case class Reserved(groupResultId: Long) extends Reservation
+
+  private case object NoFreeSlot extends Reservation
+
+  private case object Evicted extends Reservation
+
+  /**
+   * How a joining member is assigned to one of the open groups: the group with the most members (fillFirst), the one
+   * with the fewest members (balance) or the oldest group (fifo)
+   */
+  object Strategy extends Enumeration {
+    type Strategy = Value
+    val FillFirst: Value = Value("fillFirst")
+    val Balance: Value = Value("balance")
+    val Fifo: Value = Value("fifo")
+
+    def fromConfig: Strategy =
+      Option(Common.getGroupsMatchmakingStrategy).flatMap(s => values.find(_.toString == s)).getOrElse(FillFirst)
+  }
+
+  /**
+   * Member counts of an open group. Reserved are the slots of joins that are in progress.
+   */
+  private[group] case class OpenGroup(id: Long, var activeMembers: Int, var historyMembers: Int, var reserved: Int = 0) {
+    def taken: Int = activeMembers + reserved
+  }
+
+  private[group] def hasFreeSlot(group: OpenGroup, batch: Batch): Boolean = {
+    val maxActive = batch.getMaxActiveMembers
+    val maxTotal = batch.getMaxTotalMembers
+    (maxActive == null || group.taken < maxActive) && (maxTotal == null || group.taken + group.historyMembers < maxTotal)
+  }
+
+  /**
+   * Checks a locked group result before a member is added to it
+   */
+  def hasFreeSlot(groupResult: GroupResult, batch: Batch): Boolean = groupResult.getGroupState == GroupState.STARTED &&
+    hasFreeSlot(OpenGroup(groupResult.getId, groupResult.getActiveMemberCount, groupResult.getHistoryMemberCount), batch)
+
+}
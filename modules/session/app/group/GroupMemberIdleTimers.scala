@@ -0,0 +1,75 @@
+package group
+
+import akka.actor.{ActorSystem, Cancellable}
+import play.api.Logger
+
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import javax.inject.{Inject, Singleton}
+import scala.concurrent.ExecutionContextExecutor
+import scala.concurrent.duration.{Duration, FiniteDuration}
+
+/**
+ * Keeps a deadline timer for each active group member that has no open group channel. A member with an open group
+ * channel is never idle: the timer is cancelled when the channel opens and (re)started when it closes or when the member
+ * joins a group. If the timer runs out, the idle handler (set by the GroupCleaner) checks the member and removes it
+ * from its group if it's still idle.
+ *
+ * The timers run on Akka's scheduler (a hashed wheel timer). There are only timers for members of active groups.
+ *
+ * @author Kristian Lange
+ */
+@Singleton
+class GroupMemberIdleTimers @Inject()(actorSystem: ActorSystem) {
+
+  private val logger: Logger = Logger(this.getClass)
+
+  private class Deadline {
+    @volatile var cancellable: Cancellable = _
+
+    def cancel(): Unit = Option(cancellable).foreach(_.cancel())
+  }
+
+  private val deadlines = new ConcurrentHashMap[Long, Deadline]()
+
+  @volatile private var idleHandler: Option[Long => Unit] = None
+
+  @volatile private var idleAfter: Long = 0
+
+  /**
+   * Activates the timers. Before, schedule does nothing (e.g. if group cleaning isn't allowed).
+   *
+   * @param idleAfter   After this time without being seen a member without group channel is idle
+   * @param idleHandler Called with the study result ID of a member whose timer ran out
+   */
+  def start(idleAfter: FiniteDuration, idleHandler: Long => Unit): Unit = {
+    this.idleAfter = idleAfter.toMillis
+    this.idleHandler = Some(idleHandler)
+  }
+
+  /**
+   * (Re)starts the member's timer. It runs out after the idle time, counted from when the member was last seen.
+   */
+  def schedule(studyResultId: Long, lastSeen: Long = System.currentTimeMillis()): Unit = idleHandler.foreach { handler =>
+    implicit val executor: ExecutionContextExecutor = actorSystem.dispatcher
+    val delay = math.max(0, lastSeen + idleAfter - System.currentTimeMillis())
+    val deadline = new Deadline
+    Option(deadlines.put(studyResultId, deadline)).foreach(_.cancel())
+    deadline.cancellable = actorSystem.scheduler.scheduleOnce(Duration(delay, TimeUnit.MILLISECONDS)) {
+      // Only if the timer wasn't restarted or cancelled in the meantime
+      if (deadlines.remove(studyResultId, deadline)) {
+        try handler(studyResultId)
+        catch {
+          case e: Exception => logger.error(s".schedule: idle check of group member $studyResultId failed", e)
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the member's timer, e.g. because it opened a group channel or left its group
+   */
+  def cancel(studyResultId: Long): Unit = Option(deadlines.remove(studyResultId)).foreach(_.cancel())
+
+  def isScheduled(studyResultId: Long): Boolean = deadlines.containsKey(studyResultId)
+
+}
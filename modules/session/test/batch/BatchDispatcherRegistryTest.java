@@ -1,5 +1,6 @@
 package batch;
 
+import cluster.InMemoryBackplane;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -21,7 +22,7 @@ public class BatchDispatcherRegistryTest {
         final BatchDispatcherRegistry[] holder = new BatchDispatcherRegistry[1];
         BatchDispatcher.Factory registryAwareFactory = batchId -> {
             // Pass null for non-essential dependencies: tests only verify identity semantics.
-            return new BatchDispatcher(null, holder[0], null, null, batchId);
+            return new BatchDispatcher(null, holder[0], null, null, new InMemoryBackplane(), batchId);
         };
         holder[0] = new BatchDispatcherRegistry(registryAwareFactory);
         return holder[0];
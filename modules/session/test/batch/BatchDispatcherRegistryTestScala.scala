@@ -0,0 +1,80 @@
+package batch
+
+import akka.actor.{ActorSystem, Props}
+import batch.BatchDispatcherTestScala.{RecordingActor, StubBuilder, StubHandler}
+import cluster.InMemoryBackplane
+import org.junit.Assert._
+import org.junit._
+
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.{CountDownLatch, Executors, LinkedBlockingQueue, TimeUnit}
+
+/**
+ * Opens and closes thousands of channels concurrently with a BatchDispatcherRegistry and real BatchDispatchers
+ */
+class BatchDispatcherRegistryTestScala {
+
+  private var system: ActorSystem = _
+
+  @Before
+  def setup(): Unit = {
+    val cfg = com.typesafe.config.ConfigFactory.parseString("akka.loglevel=WARNING\nakka.log-dead-letters=off")
+    system = ActorSystem.create("bdr-test", cfg)
+  }
+
+  @After
+  def tearDown(): Unit = {
+    if (system != null) system.terminate()
+  }
+
+  @Test
+  def concurrentOpenAndClose_noLostDispatchers(): Unit = {
+    var registry: BatchDispatcherRegistry = null
+    registry = new BatchDispatcherRegistry(batchId =>
+      new BatchDispatcher(system, registry, new StubHandler(Nil), new StubBuilder(), new InMemoryBackplane(), batchId))
+
+    val threads = 16
+    val iterations = 500
+    val batchIds = 1L to 4L
+    val studyResultIds = new AtomicLong()
+    val opened = new AtomicInteger()
+    val lost = new AtomicInteger()
+    val pool = Executors.newFixedThreadPool(threads)
+    val done = new CountDownLatch(threads)
+
+    (1 to threads).foreach { _ =>
+      pool.execute { () =>
+        try {
+          (1 to iterations).foreach { i =>
+            val batchId = batchIds(i % batchIds.size)
+            val studyResultId = studyResultIds.incrementAndGet()
+            val channel = system.actorOf(Props.create(classOf[RecordingActor], new LinkedBlockingQueue[Any]()))
+
+            // Like a client: reconnect if the dispatcher was closed in the meantime
+            var dispatcher = registry.getOrRegister(batchId)
+            dispatcher.registerChannel(studyResultId, channel)
+            while (!dispatcher.hasChannel(studyResultId)) {
+              dispatcher = registry.getOrRegister(batchId)
+              dispatcher.registerChannel(studyResultId, channel)
+            }
+            opened.incrementAndGet()
+
+            // A dispatcher with a channel must stay in the registry
+            if (!registry.get(batchId).exists(_ eq dispatcher)) lost.incrementAndGet()
+
+            dispatcher.unregisterChannel(studyResultId)
+            system.stop(channel)
+          }
+        } finally done.countDown()
+      }
+    }
+
+    assertTrue("Threads did not finish in time", done.await(60, TimeUnit.SECONDS))
+    pool.shutdown()
+
+    assertEquals(threads * iterations, opened.get)
+    assertEquals("Dispatchers with channels were removed from the registry", 0, lost.get)
+    batchIds.foreach(batchId => assertTrue(s"Dispatcher of batch $batchId left behind", registry.get(batchId).isEmpty))
+  }
+
+}
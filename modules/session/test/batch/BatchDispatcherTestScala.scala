@@ -4,9 +4,10 @@ import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
 
 import akka.actor.{AbstractActor, ActorRef, ActorSystem, Props}
 import batch.BatchDispatcher.{BatchAction, BatchMsg, TellWhom}
+import cluster.{ClusterBackplane, InMemoryBackplane}
 import org.junit.Assert._
 import org.junit._
-import play.api.libs.json.Json
+import play.api.libs.json.{JsObject, Json}
 
 import scala.jdk.javaapi.CollectionConverters
 
@@ -30,8 +31,9 @@ class BatchDispatcherTestScala {
   private def newDispatcher(batchId: Long,
                             registry: BatchDispatcherRegistry = new SilentRegistry(BatchDispatcherTestScala.NoopFactory),
                             handler: BatchActionHandler = new StubHandler(Nil),
-                            builder: BatchActionMsgBuilder = new StubBuilder()): BatchDispatcher = {
-    new BatchDispatcher(system, registry, handler, builder, batchId)
+                            builder: BatchActionMsgBuilder = new StubBuilder(),
+                            backplane: ClusterBackplane = new InMemoryBackplane()): BatchDispatcher = {
+    new BatchDispatcher(system, registry, handler, builder, backplane, batchId)
   }
 
   @Test
@@ -54,6 +56,35 @@ class BatchDispatcherTestScala {
     }
   }
 
+  @Test
+  def registerChannel_upToDateClientGetsOnlyVersion(): Unit = {
+    val dispatcher = newDispatcher(5L, builder = new StubBuilder(currentVersion = Some(7L)))
+
+    val q = new LinkedBlockingQueue[Any]()
+    val channel = system.actorOf(Props.create(classOf[RecordingActor], q))
+    dispatcher.registerChannel(10L, channel, Some(7L))
+
+    val msg = q.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg]
+    assertEquals(BatchAction.Opened.toString, (msg.json \ "action").as[String])
+    assertEquals(7L, (msg.json \ "version").as[Long])
+    assertFalse("No session data", msg.json.keys.contains("data"))
+    assertNull(q.poll(200, TimeUnit.MILLISECONDS))
+  }
+
+  @Test
+  def registerChannel_clientBehindPatchLogGetsSessionData(): Unit = {
+    val openedMsg = BatchMsg(Json.obj("action" -> BatchAction.Opened.toString, "data" -> Json.obj(), "version" -> 7),
+      TellWhom.SenderOnly)
+    val dispatcher = newDispatcher(6L, builder = new StubBuilder(openedMsg, Some(7L)))
+
+    val q = new LinkedBlockingQueue[Any]()
+    val channel = system.actorOf(Props.create(classOf[RecordingActor], q))
+    dispatcher.registerChannel(10L, channel, Some(3L))
+
+    val msg = q.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg]
+    assertEquals(openedMsg.json, msg.json)
+  }
+
   @Test
   def handleActionMsg_All_broadcastsToAllRegistered(): Unit = {
     val mAll = BatchMsg(Json.obj("t" -> "all"), TellWhom.All)
@@ -107,6 +138,31 @@ class BatchDispatcherTestScala {
     assertNull("Non-sender should not receive a message", r2)
   }
 
+  @Test
+  def sessionReplaced_sendsSessionDataToAllMembersAndPeers(): Unit = {
+    val sessionMsg = BatchMsg(Json.obj("action" -> BatchAction.Session.toString, "data" -> Json.obj("a" -> 1),
+      "version" -> 8), TellWhom.SenderOnly)
+    val hub = new InMemoryBackplane.Hub
+    val peer = new InMemoryBackplane(hub)
+    val peerQ = new LinkedBlockingQueue[JsObject]()
+    peer.subscribe(ClusterBackplane.batchTopic(7L))(msg => peerQ.offer(msg))
+    val dispatcher = newDispatcher(7L, builder = new StubBuilder(sessionMsg), backplane = new InMemoryBackplane(hub))
+
+    val q1 = new LinkedBlockingQueue[Any]()
+    val q2 = new LinkedBlockingQueue[Any]()
+    dispatcher.registerChannel(701L, system.actorOf(Props.create(classOf[RecordingActor], q1)))
+    dispatcher.registerChannel(702L, system.actorOf(Props.create(classOf[RecordingActor], q2)))
+    // Discard the initial messages sent upon register
+    q1.poll(2, TimeUnit.SECONDS)
+    q2.poll(2, TimeUnit.SECONDS)
+
+    dispatcher.sessionReplaced()
+
+    assertEquals(sessionMsg.json, q1.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg].json)
+    assertEquals(sessionMsg.json, q2.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg].json)
+    assertEquals(sessionMsg.json, (peerQ.poll(2, TimeUnit.SECONDS) \ "msg").as[JsObject])
+  }
+
   @Test
   def unregisterChannel_whenEmpty_unregistersDispatcherInRegistry(): Unit = {
     val factory = new BatchDispatcher.Factory { override def create(batchId: Long): BatchDispatcher = null }
@@ -166,13 +222,14 @@ object BatchDispatcherTestScala {
     override def createReceive: AbstractActor.Receive = receiveBuilder().matchAny(msg => queue.offer(msg)).build()
   }
 
-  class StubHandler(resultMsgs: List[BatchMsg]) extends BatchActionHandler(null, null, null) {
+  class StubHandler(resultMsgs: List[BatchMsg]) extends BatchActionHandler(null, null) {
     override def handleActionMsg(actionMsg: BatchMsg, batchId: Long): List[BatchMsg] = resultMsgs
   }
 
-  class StubBuilder(opened: BatchMsg) extends BatchActionMsgBuilder(null, null) {
-    def this() = this(BatchMsg(Json.obj("action" -> BatchAction.Opened.toString), TellWhom.SenderOnly))
+  class StubBuilder(opened: BatchMsg = BatchMsg(Json.obj("action" -> BatchAction.Opened.toString), TellWhom.SenderOnly),
+                    currentVersion: Option[Long] = None) extends BatchActionMsgBuilder(null) {
     override def buildSessionData(batchId: Long, action: BatchAction.BatchAction, tellWhom: TellWhom.TellWhom): BatchMsg = opened
+    override def sessionVersion(batchId: Long): Option[Long] = currentVersion
   }
 
   object NoopFactory extends BatchDispatcher.Factory {
@@ -0,0 +1,119 @@
+package batch
+
+import org.junit.Assert._
+import org.junit._
+import play.api.libs.json.Json
+
+import java.nio.file.{Files, Path}
+
+class BatchSessionTestScala {
+
+  private var dir: Path = _
+  private var journal: BatchSessionJournal = _
+
+  @Before
+  def setup(): Unit = {
+    dir = Files.createTempDirectory("batch-session-journal")
+    journal = new BatchSessionJournal(dir)
+  }
+
+  @After
+  def tearDown(): Unit = {
+    Files.list(dir).forEach(f => Files.delete(f))
+    Files.delete(dir)
+  }
+
+  private def addPatch(key: String, value: Int) =
+    Json.arr(Json.obj("op" -> "add", "path" -> s"/$key", "value" -> value))
+
+  @Test
+  def patch_appliesInPlaceAndJournals(): Unit = {
+    val session = new BatchSession(1L, Json.obj(), 5L, journal)
+
+    assertEquals(Some(6L), session.patch(addPatch("a", 1), 5L, versioning = true))
+    assertEquals(Some(7L), session.patch(addPatch("b", 2), 5L, versioning = false))
+
+    assertEquals(Json.obj("a" -> 1, "b" -> 2), session.getData)
+    assertTrue(session.isDirty)
+    assertEquals(List(6L, 7L), journal.read(1L).map(_._1))
+  }
+
+  @Test
+  def patch_versionMismatch(): Unit = {
+    val session = new BatchSession(1L, Json.obj(), 5L, journal)
+
+    assertEquals(None, session.patch(addPatch("a", 1), 4L, versioning = true))
+    assertEquals(5L, session.getVersion)
+    assertFalse(session.isDirty)
+    assertTrue(journal.read(1L).isEmpty)
+  }
+
+  @Test
+  def persisted_shortensJournal(): Unit = {
+    val session = new BatchSession(1L, Json.obj(), 1L, journal)
+    session.patch(addPatch("a", 1), 1L, versioning = true)
+    val (_, snapshotVersion, expectedVersion) = session.snapshot
+    assertEquals(1L, expectedVersion)
+    session.patch(addPatch("b", 2), 2L, versioning = true)
+
+    session.persisted(snapshotVersion)
+
+    assertTrue(session.isDirty)
+    assertEquals(List(3L), journal.read(1L).map(_._1))
+
+    session.persisted(3L)
+    assertFalse(session.isDirty)
+    assertFalse(Files.exists(dir.resolve("1.journal")))
+  }
+
+  @Test
+  def replay_restoresSnapshotPlusJournal(): Unit = {
+    val before = new BatchSession(1L, Json.obj(), 1L, journal)
+    before.patch(addPatch("a", 1), 1L, versioning = true)
+    before.patch(addPatch("b", 2), 2L, versioning = true)
+
+    // E.g. after a restart: the database still has version 1
+    val after = new BatchSession(1L, Json.obj(), 1L, journal)
+    after.replay(journal.read(1L))
+
+    assertEquals(Json.obj("a" -> 1, "b" -> 2), after.getData)
+    assertEquals(3L, after.getVersion)
+    assertTrue(after.isDirty)
+  }
+
+  @Test
+  def rebase_appliesPendingPatchesOnDatabaseState(): Unit = {
+    val session = new BatchSession(1L, Json.obj(), 1L, journal)
+    session.patch(addPatch("a", 1), 1L, versioning = true)
+
+    // Someone else wrote version 2 to the database
+    session.rebase(Json.obj("x" -> 0), 2L)
+
+    assertEquals(Json.obj("x" -> 0, "a" -> 1), session.getData)
+    assertEquals(3L, session.getVersion)
+    assertEquals(List(3L), journal.read(1L).map(_._1))
+  }
+
+  @Test
+  def replace_replacesWholeSessionAndJournals(): Unit = {
+    val session = new BatchSession(1L, Json.obj("a" -> 1), 5L, journal)
+
+    assertEquals(None, session.replace(Json.obj("b" -> 2), Some(4L)))
+    assertEquals(Some(6L), session.replace(Json.obj("b" -> 2), Some(5L)))
+    assertEquals(Some(7L), session.replace(Json.obj("c" -> 3), None))
+
+    assertEquals(Json.obj("c" -> 3), session.getData)
+    // The journal can restore it
+    val after = new BatchSession(1L, Json.obj("a" -> 1), 5L, journal)
+    after.replay(journal.read(1L))
+    assertEquals(Json.obj("c" -> 3), after.getData)
+    assertEquals(7L, after.getVersion)
+  }
+
+  @Test
+  def applyPatches_removeRootClearsSession(): Unit = {
+    val patches = Json.arr(Json.obj("op" -> "remove", "path" -> "/"))
+    assertEquals(Json.obj(), BatchSession.applyPatches(Json.obj("a" -> 1), patches))
+  }
+
+}
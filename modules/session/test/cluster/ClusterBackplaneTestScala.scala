@@ -0,0 +1,162 @@
+package cluster
+
+import akka.actor.{ActorRef, ActorSystem, Props}
+import batch.BatchDispatcher.{BatchMsg, TellWhom => BatchTellWhom}
+import batch.BatchDispatcherTestScala.{RecordingActor, StubBuilder, StubHandler}
+import batch.{BatchDispatcher, BatchDispatcherRegistry}
+import group.GroupDispatcher.{GroupMsg, TellWhom => GroupTellWhom}
+import group._
+import org.junit.Assert._
+import org.junit._
+import org.mockito.ArgumentMatchers.{any, anyBoolean, anyLong}
+import org.mockito.Mockito._
+import play.api.libs.json.{JsObject, Json}
+
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+/**
+ * Tests several JATOS nodes inside one JVM that share an InMemoryBackplane.Hub
+ */
+class ClusterBackplaneTestScala {
+
+  private var system: ActorSystem = _
+  private var hub: InMemoryBackplane.Hub = _
+
+  @Before
+  def setup(): Unit = {
+    val cfg = com.typesafe.config.ConfigFactory.parseString("akka.loglevel=WARNING\nakka.log-dead-letters=off")
+    system = ActorSystem.create("cluster-test", cfg)
+    hub = new InMemoryBackplane.Hub
+  }
+
+  @After
+  def tearDown(): Unit = {
+    if (system != null) system.terminate()
+  }
+
+  private def recordingChannel(): (ActorRef, LinkedBlockingQueue[Any]) = {
+    val q = new LinkedBlockingQueue[Any]()
+    (system.actorOf(Props.create(classOf[RecordingActor], q)), q)
+  }
+
+  @Test
+  def publish_deliversToOtherNodesOnly(): Unit = {
+    val node1 = new InMemoryBackplane(hub, "node1")
+    val node2 = new InMemoryBackplane(hub, "node2")
+    val received1 = new LinkedBlockingQueue[JsObject]()
+    val received2 = new LinkedBlockingQueue[JsObject]()
+    node1.subscribe("topic")(msg => received1.offer(msg))
+    val subscription2 = node2.subscribe("topic")(msg => received2.offer(msg))
+
+    node1.publish("topic", Json.obj("a" -> 1))
+    node1.publish("otherTopic", Json.obj("a" -> 2))
+
+    assertTrue(received1.isEmpty)
+    assertEquals(Json.obj("a" -> 1), received2.poll())
+    assertTrue(received2.isEmpty)
+
+    subscription2.cancel()
+    node1.publish("topic", Json.obj("a" -> 3))
+    assertTrue(received2.isEmpty)
+  }
+
+  @Test
+  def hasPeers(): Unit = {
+    val node1 = new InMemoryBackplane(hub, "node1")
+    assertFalse(node1.hasPeers)
+    new InMemoryBackplane(hub, "node2")
+    assertTrue(node1.hasPeers)
+  }
+
+  @Test
+  def batchDispatcher_tellAllReachesMembersOnOtherNode(): Unit = {
+    val patch = BatchMsg(Json.obj("action" -> "SESSION", "version" -> 2), BatchTellWhom.All)
+    val dispatcher1 = newBatchDispatcher(new InMemoryBackplane(hub, "node1"), new StubHandler(List(patch)))
+    val dispatcher2 = newBatchDispatcher(new InMemoryBackplane(hub, "node2"), new StubHandler(Nil))
+
+    val (channel1, q1) = recordingChannel()
+    val (channel2, q2) = recordingChannel()
+    dispatcher1.registerChannel(1L, channel1)
+    dispatcher2.registerChannel(2L, channel2)
+    // Discard the OPENED messages
+    q1.poll(2, TimeUnit.SECONDS)
+    q2.poll(2, TimeUnit.SECONDS)
+
+    dispatcher1.handleActionMsg(BatchMsg(Json.obj("action" -> "SESSION")), 1L, channel1)
+
+    assertEquals(patch.json, q1.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg].json)
+    assertEquals(patch.json, q2.poll(2, TimeUnit.SECONDS).asInstanceOf[BatchMsg].json)
+  }
+
+  @Test
+  def batchDispatcher_noMessagesAfterLastChannelClosed(): Unit = {
+    val patch = BatchMsg(Json.obj("action" -> "SESSION"), BatchTellWhom.All)
+    val dispatcher1 = newBatchDispatcher(new InMemoryBackplane(hub, "node1"), new StubHandler(List(patch)))
+    val dispatcher2 = newBatchDispatcher(new InMemoryBackplane(hub, "node2"), new StubHandler(Nil))
+
+    val (channel1, _) = recordingChannel()
+    val (channel2, q2) = recordingChannel()
+    dispatcher1.registerChannel(1L, channel1)
+    dispatcher2.registerChannel(2L, channel2)
+    q2.poll(2, TimeUnit.SECONDS)
+    dispatcher2.unregisterChannel(2L)
+
+    dispatcher1.handleActionMsg(BatchMsg(Json.obj("action" -> "SESSION")), 1L, channel1)
+
+    assertNull(q2.poll(500, TimeUnit.MILLISECONDS))
+  }
+
+  /**
+   * Each node has its own registry
+   */
+  private def newBatchDispatcher(backplane: ClusterBackplane, handler: StubHandler): BatchDispatcher = {
+    var registry: BatchDispatcherRegistry = null
+    registry = new BatchDispatcherRegistry(batchId =>
+      new BatchDispatcher(system, registry, handler, new StubBuilder(), backplane, batchId))
+    registry.getOrRegister(7L)
+  }
+
+  @Test
+  def groupDispatcher_broadcastAndDirectMsgReachOtherNode(): Unit = {
+    val dispatcher1 = newGroupDispatcher(new InMemoryBackplane(hub, "node1"))
+    val dispatcher2 = newGroupDispatcher(new InMemoryBackplane(hub, "node2"))
+
+    val (out1, q1) = recordingChannel()
+    val (out2, q2) = recordingChannel()
+    val (out3, q3) = recordingChannel()
+    dispatcher1.registerChannel(1L, groupChannel(out1))
+    dispatcher2.registerChannel(2L, groupChannel(out2))
+    dispatcher2.registerChannel(3L, groupChannel(out3))
+    // Discard the two OPENED messages each channel gets from the stubbed msg builder
+    Seq(q1, q2, q3).foreach(q => (1 to 2).foreach(_ => q.poll(2, TimeUnit.SECONDS)))
+
+    // Broadcast msg from member 1 (node 1) goes to members 2 and 3 (node 2)
+    val broadcast = Json.obj("msg" -> "hello")
+    dispatcher1.handleGroupMsg(GroupMsg(broadcast), 1L, out1)
+    assertEquals(broadcast, q2.poll(2, TimeUnit.SECONDS).asInstanceOf[GroupMsg].json)
+    assertEquals(broadcast, q3.poll(2, TimeUnit.SECONDS).asInstanceOf[GroupMsg].json)
+    assertNull(q1.poll(200, TimeUnit.MILLISECONDS))
+
+    // Direct msg from member 1 (node 1) to member 3 (node 2)
+    val direct = Json.obj("recipient" -> "3", "msg" -> "only for 3")
+    dispatcher1.handleGroupMsg(GroupMsg(direct), 1L, out1)
+    assertEquals(direct, q3.poll(2, TimeUnit.SECONDS).asInstanceOf[GroupMsg].json)
+    assertNull(q2.poll(200, TimeUnit.MILLISECONDS))
+    assertNull("No error to the sender", q1.poll(200, TimeUnit.MILLISECONDS))
+  }
+
+  private def newGroupDispatcher(backplane: ClusterBackplane): GroupDispatcher = {
+    val msgBuilder = mock(classOf[GroupActionMsgBuilder])
+    when(msgBuilder.build(anyLong(), anyLong(), any(), anyBoolean(), any(), any()))
+      .thenReturn(GroupMsg(Json.obj("action" -> "OPENED"), GroupTellWhom.SenderOnly))
+    new GroupDispatcher(system, mock(classOf[GroupDispatcherRegistry]), mock(classOf[GroupActionHandler]), msgBuilder,
+      backplane, 8L)
+  }
+
+  private def groupChannel(out: ActorRef): GroupChannelActor = {
+    val channel = mock(classOf[GroupChannelActor])
+    when(channel.self).thenReturn(out)
+    channel
+  }
+
+}
@@ -0,0 +1,127 @@
+package cluster
+
+import akka.actor.ActorSystem
+import com.typesafe.config.ConfigFactory
+import org.junit.Assert._
+import org.junit._
+import org.mockito.Mockito.mock
+import play.api.inject.ApplicationLifecycle
+import play.api.libs.json.{JsObject, Json}
+import play.db.evolutions.Evolutions
+import play.db.{Database, Databases}
+
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+
+/**
+ * Tests two nodes that share a DatabaseBackplane on an in-memory H2 database
+ */
+class DatabaseBackplaneTestScala {
+
+  private var system: ActorSystem = _
+  private var database: Database = _
+
+  @Before
+  def setup(): Unit = {
+    val cfg = ConfigFactory.parseString(
+      """akka.loglevel=WARNING
+        |database.dispatcher {
+        |  executor = "thread-pool-executor"
+        |  thread-pool-executor.fixed-pool-size = 2
+        |}""".stripMargin)
+    system = ActorSystem.create("database-backplane-test", cfg)
+    database = Databases.createFrom("default", "org.h2.Driver",
+      "jdbc:h2:mem:backplane" + System.nanoTime() + ";MODE=MYSQL;DATABASE_TO_UPPER=FALSE")
+    Evolutions.applyEvolutions(database)
+  }
+
+  @After
+  def tearDown(): Unit = {
+    database.shutdown()
+    system.terminate()
+  }
+
+  private def newNode(): DatabaseBackplane =
+    new DatabaseBackplane(system, mock(classOf[ApplicationLifecycle]), database.asScala())
+
+  /**
+   * Polls the node until the condition is true (the messages are written asynchronously)
+   */
+  private def pollUntil(node: DatabaseBackplane, timeout: Long = 5000)(condition: => Boolean): Boolean = {
+    val deadline = System.currentTimeMillis() + timeout
+    while (System.currentTimeMillis() < deadline) {
+      node.poll()
+      if (condition) return true
+      Thread.sleep(20)
+    }
+    false
+  }
+
+  @Test
+  def hasPeers_onlyWithHeartbeatOfAnotherNode(): Unit = {
+    val node1 = newNode()
+    val node2 = newNode()
+
+    node1.heartbeat()
+    // A node's own heartbeat doesn't count
+    assertFalse(pollUntil(node1, 500)(node1.hasPeers))
+
+    assertTrue(pollUntil(node2)(node2.hasPeers))
+  }
+
+  @Test
+  def publish_deliversInOrderToOtherNode(): Unit = {
+    val node1 = newNode()
+    val node2 = newNode()
+    val received1 = new LinkedBlockingQueue[JsObject]()
+    val received2 = new LinkedBlockingQueue[JsObject]()
+    node1.subscribe("topic")(msg => received1.offer(msg))
+    node2.subscribe("topic")(msg => received2.offer(msg))
+
+    (1 to 250).foreach(i => node1.publish("topic", Json.obj("i" -> i)))
+
+    assertTrue(pollUntil(node2)(received2.size == 250))
+    (1 to 250).foreach(i => assertEquals(Json.obj("i" -> i), received2.poll(1, TimeUnit.SECONDS)))
+    node1.poll()
+    assertTrue(received1.isEmpty)
+  }
+
+  private def insertMessages(ids: Seq[Long]): Unit = {
+    val connection = database.getConnection()
+    try {
+      val statement = connection.prepareStatement("INSERT INTO `ClusterMessage` " +
+        "(`id`, `topic`, `nodeId`, `payload`, `creationDate`) VALUES (?, 'topic', 'other-node', ?, CURRENT_TIMESTAMP)")
+      try {
+        ids.foreach { id =>
+          statement.setLong(1, id)
+          statement.setString(2, Json.stringify(Json.obj("id" -> id)))
+          statement.addBatch()
+        }
+        statement.executeBatch()
+      } finally statement.close()
+    } finally connection.close()
+  }
+
+  @Test
+  def poll_pagesPastHandledMessagesAfterGap(): Unit = {
+    val node = newNode()
+    val received = new LinkedBlockingQueue[JsObject]()
+    node.subscribe("topic")(msg => received.offer(msg))
+
+    // ID 1 is missing (e.g. its insert isn't committed yet) and more than a poll's worth of messages follow
+    insertMessages(2L to 1201L)
+    node.poll()
+    assertEquals(1000, received.size)
+    node.poll()
+    assertEquals(1200, received.size)
+
+    // The newest messages still get through while the poller waits for the missing ID
+    insertMessages(1202L to 1210L)
+    node.poll()
+    assertEquals(1209, received.size)
+
+    insertMessages(Seq(1L))
+    node.poll()
+    assertEquals(1210, received.size)
+  }
+
+}
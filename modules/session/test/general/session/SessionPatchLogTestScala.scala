@@ -0,0 +1,71 @@
+package general.session
+
+import org.junit.Assert._
+import org.junit._
+import play.api.libs.json.{JsObject, Json}
+
+class SessionPatchLogTestScala {
+
+  private def patchMsg(version: Long): JsObject = Json.obj("action" -> "SESSION", "version" -> version)
+
+  private def logWith(maxEntries: Int, versions: (Long, Long)*): SessionPatchLog = {
+    val log = new SessionPatchLog(maxEntries)
+    versions.foreach { case (from, to) => log.append(from, to, patchMsg(to)) }
+    log
+  }
+
+  @Test
+  def since_returnsMissedMsgsInOrder(): Unit = {
+    val log = logWith(10, 4L -> 5L, 5L -> 6L, 6L -> 8L)
+    assertEquals(Some(List(patchMsg(6), patchMsg(8))), log.since(5L, 8L))
+    assertEquals(Some(List(patchMsg(8))), log.since(6L, 8L))
+  }
+
+  @Test
+  def since_upToDateClientGetsNothing(): Unit = {
+    assertEquals(Some(Nil), logWith(10, 4L -> 5L).since(5L, 5L))
+    // Even without log
+    assertEquals(Some(Nil), logWith(0).since(5L, 5L))
+  }
+
+  @Test
+  def since_versionNotInLog(): Unit = {
+    val log = logWith(10, 4L -> 5L, 5L -> 6L)
+    // Too far behind
+    assertEquals(None, log.since(2L, 6L))
+    // Within a combined patch msg
+    assertEquals(None, logWith(10, 4L -> 7L).since(5L, 7L))
+    // Ahead of the session (e.g. the session was reset)
+    assertEquals(None, log.since(9L, 6L))
+  }
+
+  @Test
+  def since_logBehindCurrentVersion(): Unit = {
+    // E.g. the patch to version 7 was applied on another node and never got here
+    assertEquals(None, logWith(10, 4L -> 5L, 5L -> 6L).since(5L, 7L))
+  }
+
+  @Test
+  def append_dropsOldestEntries(): Unit = {
+    val log = logWith(2, 4L -> 5L, 5L -> 6L, 6L -> 7L)
+    assertEquals(2, log.size)
+    assertEquals(None, log.since(4L, 7L))
+    assertEquals(Some(List(patchMsg(6), patchMsg(7))), log.since(5L, 7L))
+  }
+
+  @Test
+  def append_gapClearsLog(): Unit = {
+    val log = logWith(10, 4L -> 5L, 5L -> 6L, 8L -> 9L)
+    assertEquals(1, log.size)
+    assertEquals(None, log.since(5L, 9L))
+    assertEquals(Some(List(patchMsg(9))), log.since(8L, 9L))
+  }
+
+  @Test
+  def append_disabled(): Unit = {
+    val log = logWith(0, 4L -> 5L)
+    assertEquals(0, log.size)
+    assertEquals(None, log.since(4L, 5L))
+  }
+
+}
@@ -0,0 +1,103 @@
+package group
+
+import daos.common.GroupResultDao
+import models.common.GroupResult
+import models.common.GroupResult.GroupState
+import org.junit.Assert._
+import org.junit._
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito._
+import org.mockito.invocation.InvocationOnMock
+import play.api.libs.json.{JsArray, JsObject, Json}
+import play.db.jpa.JPAApi
+
+import java.util.function.Supplier
+
+class GroupActionHandlerTestScala {
+
+  private var groupResult: GroupResult = _
+  private var groupResultDao: GroupResultDao = _
+  private var handler: GroupActionHandler = _
+
+  @Before
+  def setup(): Unit = {
+    val jpa = mock(classOf[JPAApi])
+    // Make withTransaction execute the provided Supplier
+    when(jpa.withTransaction(any(classOf[Supplier[AnyRef]])))
+      .thenAnswer((inv: InvocationOnMock) => inv.getArgument[Supplier[AnyRef]](0).get())
+
+    groupResult = new GroupResult()
+    groupResult.setId(1L)
+    groupResult.setGroupState(GroupState.STARTED)
+    groupResult.setGroupSessionData("{}")
+    groupResult.setGroupSessionVersion(5L)
+
+    groupResultDao = mock(classOf[GroupResultDao])
+    when(groupResultDao.findById(1L)).thenReturn(groupResult)
+    handler = new GroupActionHandler(jpa, groupResultDao, new GroupActionMsgBuilder(jpa, groupResultDao))
+  }
+
+  private def patchMsg(id: Long, version: Long, patches: JsArray, versioning: Boolean = true): JsObject = Json.obj(
+    "action" -> "SESSION",
+    "sessionActionId" -> id,
+    "sessionVersion" -> version,
+    "sessionVersioning" -> versioning,
+    "sessionPatches" -> patches)
+
+  private def add(key: String, value: Int) = Json.arr(Json.obj("op" -> "add", "path" -> s"/$key", "value" -> value))
+
+  @Test
+  def handlePatches_combinesPatchesAndPersistsOnce(): Unit = {
+    val (broadcasts, replies) = handler.handlePatches(List(
+      patchMsg(1, 5, add("a", 1)) -> 11L,
+      patchMsg(2, 5, add("b", 2), versioning = false) -> 12L), 1L)
+
+    assertEquals(1, broadcasts.size)
+    assertEquals(2, (broadcasts.head.json \ "sessionPatches").as[JsArray].value.size)
+    assertEquals(7L, (broadcasts.head.json \ "sessionVersion").as[Long])
+    assertEquals(List("SESSION_ACK", "SESSION_ACK"), replies.map(r => (r.json \ "action").as[String]))
+
+    assertEquals(Json.obj("a" -> 1, "b" -> 2), Json.parse(groupResult.getGroupSessionData))
+    assertEquals(7L, groupResult.getGroupSessionVersion.longValue)
+    verify(groupResultDao, times(1)).update(groupResult)
+  }
+
+  @Test
+  def handlePatches_versionConflictWithinWindow(): Unit = {
+    // Both clients saw version 5 - only the first one wins, like without the window
+    val (broadcasts, replies) = handler.handlePatches(List(
+      patchMsg(1, 5, add("a", 1)) -> 11L,
+      patchMsg(2, 5, add("b", 2)) -> 12L), 1L)
+
+    assertEquals(1, broadcasts.size)
+    assertEquals(List("SESSION_ACK", "SESSION_FAIL"), replies.map(r => (r.json \ "action").as[String]))
+    assertEquals(Json.obj("a" -> 1), Json.parse(groupResult.getGroupSessionData))
+  }
+
+  @Test
+  def handlePatches_clearSessionStartsNewBroadcast(): Unit = {
+    val clear = Json.arr(Json.obj("op" -> "remove", "path" -> "/"))
+    val (broadcasts, _) = handler.handlePatches(List(
+      patchMsg(1, 5, add("a", 1)) -> 11L,
+      patchMsg(2, 6, clear) -> 12L,
+      patchMsg(3, 7, add("b", 2)) -> 13L), 1L)
+
+    assertEquals(2, broadcasts.size)
+    assertEquals(5L, (broadcasts.head.json \ "sessionPreviousVersion").as[Long])
+    assertEquals(6L, (broadcasts.head.json \ "sessionVersion").as[Long])
+    // The second broadcast continues where the first one ended
+    assertEquals(6L, (broadcasts(1).json \ "sessionPreviousVersion").as[Long])
+    assertEquals(8L, (broadcasts(1).json \ "sessionVersion").as[Long])
+    assertEquals(Json.obj("b" -> 2), Json.parse(groupResult.getGroupSessionData))
+  }
+
+  @Test
+  def handlePatches_allFailed_nothingPersisted(): Unit = {
+    val (broadcasts, replies) = handler.handlePatches(List(patchMsg(1, 4, add("a", 1)) -> 11L), 1L)
+
+    assertTrue(broadcasts.isEmpty)
+    assertEquals("SESSION_FAIL", (replies.head.json \ "action").as[String])
+    verify(groupResultDao, never()).update(any(classOf[GroupResult]))
+  }
+
+}
@@ -1,5 +1,7 @@
 package group;
 
+import akka.actor.ActorSystem;
+import cluster.InMemoryBackplane;
 import daos.common.GroupResultDao;
 import daos.common.StudyResultDao;
 import models.common.Batch;
@@ -48,7 +50,8 @@ public class GroupAdministrationTest {
             return supplier.get();
         });
 
-        admin = new GroupAdministration(registry, studyResultDao, groupResultDao, jpa);
+        admin = new GroupAdministration(registry, studyResultDao, groupResultDao, jpa, new InMemoryBackplane(),
+                new GroupMatchmaker(jpa, groupResultDao), new GroupMemberIdleTimers(mock(ActorSystem.class)));
     }
 
     private StudyResult newStudyResult(long id, Study study, Batch batch) {
@@ -67,6 +70,7 @@ public class GroupAdministrationTest {
 
     private Batch batch(Integer maxActive, Integer maxTotal) {
         Batch b = new Batch();
+        b.setId(1L);
         b.setMaxActiveMembers(maxActive);
         b.setMaxTotalMembers(maxTotal);
         return b;
@@ -79,8 +83,14 @@ public class GroupAdministrationTest {
         StudyResult sr = newStudyResult(1L, study, batch);
 
         when(groupResultDao.findAllMaxNotReached(batch)).thenReturn(Collections.emptyList());
-        // Return argument back for create
-        when(groupResultDao.create(any(GroupResult.class))).thenAnswer(inv -> inv.getArgument(0));
+        // Return argument back for create (with an ID like the database would) and find it again
+        GroupResult[] created = new GroupResult[1];
+        when(groupResultDao.create(any(GroupResult.class))).thenAnswer(inv -> {
+            created[0] = inv.getArgument(0);
+            created[0].setId(50L);
+            return created[0];
+        });
+        when(groupResultDao.findByIdForUpdate(50L)).thenAnswer(inv -> created[0]);
 
         // No dispatcher initially; sendJoinedMsg checks and is no-op if none
         when(registry.get(anyLong())).thenReturn(scala.Option.empty());
@@ -108,6 +118,7 @@ public class GroupAdministrationTest {
         existing.setId(99L);
 
         when(groupResultDao.findAllMaxNotReached(batch)).thenReturn(Collections.singletonList(existing));
+        when(groupResultDao.findByIdForUpdate(existing.getId())).thenReturn(existing);
         when(registry.get(existing.getId())).thenReturn(scala.Option.apply(dispatcherCurrent));
 
         GroupResult returned = admin.join(sr, batch);
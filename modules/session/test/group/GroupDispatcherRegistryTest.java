@@ -5,7 +5,14 @@ import org.junit.Test;
 import org.mockito.InOrder;
 import scala.Option;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -95,4 +102,52 @@ public class GroupDispatcherRegistryTest {
         registry.unregister(5L);
         assertTrue(registry.get(5L).isEmpty());
     }
+
+    @Test
+    public void concurrentGetOrRegister_returnsSameInstance_andClosesSurplus() throws InterruptedException {
+        List<GroupDispatcher> created = Collections.synchronizedList(new ArrayList<>());
+        when(factory.create(anyLong())).thenAnswer(invocation -> {
+            // A slow factory makes the threads race
+            Thread.sleep(20);
+            GroupDispatcher dispatcher = mock(GroupDispatcher.class);
+            created.add(dispatcher);
+            return dispatcher;
+        });
+        final long id = 777L;
+
+        int threads = 8;
+        List<GroupDispatcher> refs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                try {
+                    ready.countDown();
+                    start.await(5, TimeUnit.SECONDS);
+                    refs.add(registry.getOrRegister(id));
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue("Threads not ready in time", ready.await(5, TimeUnit.SECONDS));
+        start.countDown();
+        assertTrue("Threads did not finish in time", done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(threads, refs.size());
+        GroupDispatcher registered = registry.get(id).get();
+        for (GroupDispatcher r : refs) {
+            assertSame("All threads should see the registered dispatcher", registered, r);
+        }
+        // Every dispatcher that lost the race is closed, the registered one isn't
+        for (GroupDispatcher dispatcher : created) {
+            if (dispatcher == registered) verify(dispatcher, never()).stillInUse();
+            else verify(dispatcher).stillInUse();
+        }
+    }
 }
@@ -4,6 +4,7 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import cluster.InMemoryBackplane;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import org.junit.AfterClass;
@@ -61,7 +62,7 @@ public class GroupDispatcherTest {
         registry = mock(GroupDispatcherRegistry.class);
         actionHandler = mock(GroupActionHandler.class);
         msgBuilder = mock(GroupActionMsgBuilder.class);
-        dispatcher = new GroupDispatcher(system, registry, actionHandler, msgBuilder, groupResultId);
+        dispatcher = new GroupDispatcher(system, registry, actionHandler, msgBuilder, new InMemoryBackplane(), groupResultId);
     }
 
     private JsObject js(String s) { return (JsObject) Json$.MODULE$.parse(s); }
@@ -194,11 +195,13 @@ public class GroupDispatcherTest {
         assertNotNull("Expected one message to have been delivered to out actor", first);
         // After poison and unregister, dispatcher registry should be called as channels are empty
         verify(registry).unregister(groupResultId);
+        // Closed by JATOS - the channel must not start the member's idle timer
+        verify(ch1).poison();
     }
 
     @Test
     public void reassignChannel_movesChannelAndTriggersJoinedLeft() {
-        GroupDispatcher different = spy(new GroupDispatcher(system, registry, actionHandler, msgBuilder, groupResultId + 1));
+        GroupDispatcher different = spy(new GroupDispatcher(system, registry, actionHandler, msgBuilder, new InMemoryBackplane(), groupResultId + 1));
         GroupDispatcher spyDispatcher = spy(dispatcher);
 
         GroupChannelActor ch = mock(GroupChannelActor.class);
@@ -0,0 +1,192 @@
+package group
+
+import daos.common.GroupResultDao
+import group.GroupMatchmaker.Strategy
+import models.common.GroupResult.GroupState
+import models.common.{Batch, GroupResult}
+import org.junit.Assert._
+import org.junit._
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito._
+import org.mockito.invocation.InvocationOnMock
+import play.db.jpa.JPAApi
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch, Executors, TimeUnit}
+import java.util.function.Supplier
+import scala.jdk.CollectionConverters._
+
+class GroupMatchmakerTestScala {
+
+  private var groupResultDao: GroupResultDao = _
+  private var matchmaker: GroupMatchmaker = _
+  private var batch: Batch = _
+  private val nextId = new AtomicLong(100)
+
+  @Before
+  def setup(): Unit = {
+    val jpa = mock(classOf[JPAApi])
+    when(jpa.withTransaction(any(classOf[Supplier[AnyRef]])))
+      .thenAnswer((inv: InvocationOnMock) => inv.getArgument[Supplier[AnyRef]](0).get())
+
+    groupResultDao = mock(classOf[GroupResultDao])
+    when(groupResultDao.findAllMaxNotReached(any(classOf[Batch]))).thenReturn(new java.util.ArrayList[GroupResult]())
+    when(groupResultDao.create(any(classOf[GroupResult]))).thenAnswer((inv: InvocationOnMock) => {
+      val groupResult = inv.getArgument[GroupResult](0)
+      groupResult.setId(nextId.getAndIncrement())
+      groupResult
+    })
+    matchmaker = new GroupMatchmaker(jpa, groupResultDao)
+
+    batch = new Batch()
+    batch.setId(1L)
+    batch.setMaxActiveMembers(3)
+    batch.setMaxTotalMembers(null)
+  }
+
+  private def groupResult(id: Long, activeMembers: Int): GroupResult = {
+    val groupResult = new GroupResult(batch)
+    groupResult.setId(id)
+    groupResult.setActiveMemberCount(activeMembers)
+    groupResult
+  }
+
+  private def openGroups(groupResults: GroupResult*): Unit =
+    when(groupResultDao.findAllMaxNotReached(batch)).thenReturn(new java.util.ArrayList(groupResults.asJava))
+
+  @Test
+  def fillFirst_picksGroupWithMostMembers(): Unit = {
+    openGroups(groupResult(1L, 1), groupResult(2L, 2))
+    assertEquals(2L, matchmaker.reserveSlot(batch))
+    // Group 2 is full with the reservation
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def balance_picksGroupWithFewestMembers(): Unit = {
+    matchmaker.strategy = Strategy.Balance
+    openGroups(groupResult(1L, 2), groupResult(2L, 1))
+    assertEquals(2L, matchmaker.reserveSlot(batch))
+    // Both groups have 2 now - the older one
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def fifo_picksOldestGroup(): Unit = {
+    matchmaker.strategy = Strategy.Fifo
+    openGroups(groupResult(2L, 2), groupResult(1L, 0))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def reserveSlot_createsGroupIfNoneIsOpen(): Unit = {
+    val first = matchmaker.reserveSlot(batch)
+    assertEquals(first, matchmaker.reserveSlot(batch))
+    assertEquals(first, matchmaker.reserveSlot(batch))
+    // maxActiveMembers is 3
+    assertNotEquals(first, matchmaker.reserveSlot(batch))
+    verify(groupResultDao, times(2)).create(any(classOf[GroupResult]))
+  }
+
+  @Test
+  def release_failedJoinDropsGroup(): Unit = {
+    openGroups(groupResult(1L, 0))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+    openGroups()
+    matchmaker.release(batch.getId, 1L, None)
+    // Group 1 isn't open anymore - a new one is created
+    assertNotEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def update_finishedGroupIsDropped(): Unit = {
+    val group = groupResult(1L, 0)
+    openGroups(group)
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+    matchmaker.release(batch.getId, 1L, Some(groupResult(1L, 1)))
+
+    group.setGroupState(GroupState.FINISHED)
+    openGroups()
+    matchmaker.update(group)
+    assertNotEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def reserveSlot_concurrentJoinsNeverOverfillGroups(): Unit = {
+    val joins = 300
+    val reservations = new ConcurrentHashMap[Long, AtomicLong]()
+    val executor = Executors.newFixedThreadPool(16)
+    (1 to joins).foreach { _ =>
+      executor.submit(new Runnable {
+        override def run(): Unit = {
+          val id = matchmaker.reserveSlot(batch)
+          reservations.computeIfAbsent(id, (_: Long) => new AtomicLong()).incrementAndGet()
+        }
+      })
+    }
+    executor.shutdown()
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+
+    assertEquals(joins / 3, reservations.size)
+    reservations.values.asScala.foreach(count => assertEquals(3L, count.get))
+  }
+
+  @Test
+  def reserveSlot_evictsIdleBatches(): Unit = {
+    openGroups(groupResult(1L, 0))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+    matchmaker.release(batch.getId, 1L, Some(groupResult(1L, 1)))
+    assertEquals(1, matchmaker.batchCount)
+
+    matchmaker.idleTimeout = 0
+    val other = new Batch()
+    other.setId(2L)
+    matchmaker.reserveSlot(other)
+    // Batch 1 is gone, only batch 2 is left
+    assertEquals(1, matchmaker.batchCount)
+
+    // Batch 1 is loaded again with the next join
+    openGroups(groupResult(1L, 1))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+  }
+
+  @Test
+  def reserveSlot_doesntEvictBatchWithReservations(): Unit = {
+    openGroups(groupResult(1L, 0))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+
+    matchmaker.idleTimeout = 0
+    val other = new Batch()
+    other.setId(2L)
+    matchmaker.reserveSlot(other)
+    assertEquals(2, matchmaker.batchCount)
+  }
+
+  @Test
+  def release_doesntWaitForDatabase(): Unit = {
+    batch.setMaxActiveMembers(1)
+    openGroups(groupResult(1L, 0))
+    assertEquals(1L, matchmaker.reserveSlot(batch))
+
+    // Group 1 is full - the next join loads from the database and blocks there
+    val loading = new CountDownLatch(1)
+    val proceed = new CountDownLatch(1)
+    when(groupResultDao.findAllMaxNotReached(batch)).thenAnswer((_: InvocationOnMock) => {
+      loading.countDown()
+      proceed.await(10, TimeUnit.SECONDS)
+      new java.util.ArrayList[GroupResult]()
+    })
+    val join = new Thread(() => matchmaker.reserveSlot(batch))
+    join.start()
+    assertTrue(loading.await(10, TimeUnit.SECONDS))
+
+    val release = new Thread(() => matchmaker.release(batch.getId, 1L, Some(groupResult(1L, 1))))
+    release.start()
+    release.join(5000)
+    val releasedDuringLoad = !release.isAlive
+    proceed.countDown()
+    join.join(5000)
+    assertTrue(releasedDuringLoad)
+  }
+
+}
@@ -0,0 +1,66 @@
+package group
+
+import akka.actor.ActorSystem
+import org.junit.Assert._
+import org.junit._
+
+import java.util.concurrent.{LinkedBlockingQueue, TimeUnit}
+import scala.concurrent.duration._
+
+class GroupMemberIdleTimersTestScala {
+
+  private var system: ActorSystem = _
+  private var timers: GroupMemberIdleTimers = _
+  private val idleMembers = new LinkedBlockingQueue[Any]()
+
+  @Before
+  def setup(): Unit = {
+    system = ActorSystem.create("idle-timers-test")
+    timers = new GroupMemberIdleTimers(system)
+  }
+
+  @After
+  def tearDown(): Unit = {
+    if (system != null) system.terminate()
+  }
+
+  @Test
+  def schedule_doesNothingBeforeStart(): Unit = {
+    timers.schedule(1L, lastSeen = 0L)
+    assertFalse(timers.isScheduled(1L))
+  }
+
+  @Test
+  def schedule_firesAfterIdleTimeCountedFromLastSeen(): Unit = {
+    timers.start(500.millis, idleMembers.offer(_))
+    val start = System.currentTimeMillis()
+    timers.schedule(1L, lastSeen = start - 400)
+
+    assertEquals(1L, idleMembers.poll(2, TimeUnit.SECONDS))
+    assertTrue(System.currentTimeMillis() - start < 400)
+    assertFalse(timers.isScheduled(1L))
+  }
+
+  @Test
+  def cancel_stopsTimer(): Unit = {
+    timers.start(200.millis, idleMembers.offer(_))
+    timers.schedule(1L)
+    timers.cancel(1L)
+
+    assertNull(idleMembers.poll(500, TimeUnit.MILLISECONDS))
+  }
+
+  @Test
+  def schedule_restartReplacesTimer(): Unit = {
+    timers.start(300.millis, idleMembers.offer(_))
+    timers.schedule(1L)
+    Thread.sleep(200)
+    // E.g. the member was seen again
+    timers.schedule(1L)
+
+    assertNull("first timer doesn't fire", idleMembers.poll(200, TimeUnit.MILLISECONDS))
+    assertEquals(1L, idleMembers.poll(1, TimeUnit.SECONDS))
+    assertNull("fires only once", idleMembers.poll(500, TimeUnit.MILLISECONDS))
+  }
+
+}